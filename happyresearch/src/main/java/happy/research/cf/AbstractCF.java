@@ -37,12 +37,24 @@ public abstract class AbstractCF
 	protected static List<String>						printSettings		= new ArrayList<>();
 	protected static List<String>						methodSettings		= new ArrayList<>();
 
+	/* result lines of the running grid point and fold of a cross-validation sweep, null if no sweep is running */
+	private static List<String>							sweepOutputs		= null;
+
 	// @Train {user, {item - rating}}
 	protected static Map<String, Map<String, Rating>>	userRatingsMap;
 
 	// @Train {item, {user - rating}}
 	protected static Map<String, Map<String, Rating>>	itemRatingsMap;
 
+	// @Train interned ratings in CSR/CSC arrays, null if ratings.store=map
+	protected static RatingMatrix						ratingMatrix;
+
+	// @Train read-only view over either ratingMatrix or userRatingsMap/itemRatingsMap
+	protected static RatingStore						ratingStore;
+
+	// @Train user-user similarities with top-K neighbours, null if similarity.index=off
+	protected static SimilarityIndex					similarityIndex;
+
 	// @Test {user, {item - rating}}
 	protected static Map<String, Map<String, Rating>>	testUserRatingsMap;
 
@@ -168,22 +180,17 @@ public abstract class AbstractCF
 
 				if (params.AUTO_CV && (params.VALIDATE_METHOD == ValidateMethod.cross_validation))
 				{
-					String train = params.TRAIN_SET;
-					String test = params.TEST_SET;
-					for (int i = 1; i < 6; i++)
+					List<GridPoint> grid = new ArrayList<>();
+					grid.add(new GridPoint()
 					{
-						train = train.replaceFirst("\\d", i + "");
-						test = test.replaceFirst("\\d", i + "");
-
-						params.TRAIN_SET = train;
-						params.TEST_SET = test;
-
-						String setting = "Train.Sets = [" + train + "], Test.Sets = [" + test + "]";
-						printSettings.add(setting);
-
-						init();
-						singleExecute();
-					}
+						@Override
+						void apply(int fold)
+						{
+							printSettings.add("Train.Sets = [" + params.TRAIN_SET + "], Test.Sets = [" + params.TEST_SET
+									+ "]");
+						}
+					});
+					sweepFolds(grid);
 				} else if (params.AUTO_SIMILARITY)
 				{
 					for (int i = 0; i < 10; i++)
@@ -237,127 +244,117 @@ public abstract class AbstractCF
 			}
 		} else if (params.VALIDATE_METHOD == ValidateMethod.cross_validation)
 		{
-			String train = params.TRAIN_SET;
-			String test = params.TEST_SET;
-
 			int num = 1;
 			if (params.AUTO_SIMILARITY) num = 10;
 			else if (params.AUTO_SIGNIFICANCE) num = 21;
 			else if (params.AUTO_TOPN) num = 5;
 
-			for (int k = 0; k < num; k++)
+			if (params.AUTO_KNN || params.AUTO_CV)
 			{
-				if (num > 1)
-				{
-					if (params.AUTO_SIMILARITY)
-					{
-						params.SIMILARITY_THRESHOLD = k * 0.1;
-						printSettings.add("Similarity.threshold = " + (float) params.SIMILARITY_THRESHOLD);
-					} else if (params.AUTO_SIGNIFICANCE)
-					{
-						params.SIGNIFICANCE_THRESHOLD = k * 0.005;
-						printSettings.add("Significance.threshold = " + (float) params.SIGNIFICANCE_THRESHOLD);
-					} else if (params.AUTO_TOPN)
-					{
-						if (k == 0) params.TOP_N = 2;
-						else params.TOP_N = k * 5;
+				/* the whole grid is evaluated on a fold before moving to the next one */
+				List<GridPoint> grid = new ArrayList<>();
 
-						printSettings.add("Top.N where N = " + params.TOP_N);
-					}
+				if (params.AUTO_KNN && params.SIMILARITY_METHOD == SimMethod.BS)
+				{
+					SimUtils.alpha = params.readDouble("bs.alpha");
+					SimUtils.beta = params.readDouble("bs.beta");
 				}
 
-				if (params.AUTO_KNN)
+				boolean flag = params.readParam("bs.params.batch").equalsIgnoreCase("on") ? true : false;
+				for (int k = 0; k < num; k++)
 				{
-					if (params.SIMILARITY_METHOD == SimMethod.BS)
-					{
-						SimUtils.alpha = params.readDouble("bs.alpha");;
-						SimUtils.beta = params.readDouble("bs.beta");;
-						printSettings.add("alpha = " + SimUtils.alpha + ", beta = " + SimUtils.beta);
-					}
+					final int outer = num > 1 ? k : -1;
 
-					for (int i = 1; i < 11; i++)
+					if (params.AUTO_KNN)
 					{
-						params.kNN = i * 5;
-						Logs.debug("KNN = {}", params.kNN);
-
-						for (int j = 1; j < 6; j++)
+						for (int i = 1; i < 11; i++)
 						{
-							train = train.replaceFirst("\\d", j + "");
-							test = test.replaceFirst("\\d", j + "");
-
-							params.TRAIN_SET = train;
-							params.TEST_SET = test;
+							final int kNN = i * 5;
+							final boolean first = i == 1;
+							grid.add(new GridPoint()
+							{
+								@Override
+								void apply(int fold)
+								{
+									applyOuterSetting(outer, fold == 1 && first);
+									if (fold == 1 && first && params.SIMILARITY_METHOD == SimMethod.BS)
+										printSettings.add("alpha = " + SimUtils.alpha + ", beta = " + SimUtils.beta);
 
-							if (Debug.ON) methodSettings.add(params.readParam("itrust.probe.method"));
+									params.kNN = kNN;
+									if (fold == 1) Logs.debug("KNN = {}", params.kNN);
 
-							methodSettings.add("" + params.kNN);
+									if (Debug.ON) methodSettings.add(params.readParam("itrust.probe.method"));
 
-							init();
-							singleExecute();
+									methodSettings.add("" + params.kNN);
+								}
+							});
 						}
-					}
-				} else if (params.AUTO_CV)
-				{
-					boolean flag = params.readParam("bs.params.batch").equalsIgnoreCase("on") ? true : false;
-					double alpha = params.readDouble("bs.alpha");
-					double beta = params.readDouble("bs.beta");
-					if (flag)
+					} else if (flag)
 					{
 						int ma = params.readInt("bs.alpha.start");
 						int mb = params.readInt("bs.beta.start");
+						boolean first = true;
 						for (int m = ma; m < 11; m++)
 						{
-							SimUtils.alpha = m * 0.1;
+							final double alpha = m * 0.1;
 
 							int n = 0;
 							if (m == ma) n = mb;
 							for (; n < 11; n++)
 							{
-								SimUtils.beta = n * 0.1;
-								if (SimUtils.alpha + SimUtils.beta > 1.0) break;
+								final double beta = n * 0.1;
+								if (alpha + beta > 1.0) break;
 
-								for (int i = 1; i < 6; i++)
+								final boolean head = first;
+								grid.add(new GridPoint()
 								{
-									train = train.replaceFirst("\\d", i + "");
-									test = test.replaceFirst("\\d", i + "");
-
-									params.TRAIN_SET = train;
-									params.TEST_SET = test;
-
-									methodSettings.add("" + SimUtils.alpha);
-									methodSettings.add("" + SimUtils.beta);
-
-									init();
-									singleExecute();
-								}
+									@Override
+									void apply(int fold)
+									{
+										applyOuterSetting(outer, fold == 1 && head);
+
+										SimUtils.alpha = alpha;
+										SimUtils.beta = beta;
+
+										methodSettings.add("" + SimUtils.alpha);
+										methodSettings.add("" + SimUtils.beta);
+									}
+								});
+								first = false;
 							}
 						}
 					} else
 					{
-						SimUtils.alpha = alpha;
-						SimUtils.beta = beta;
-						for (int i = 1; i < 6; i++)
+						final double alpha = params.readDouble("bs.alpha");
+						final double beta = params.readDouble("bs.beta");
+						grid.add(new GridPoint()
 						{
-							train = train.replaceFirst("\\d", i + "");
-							test = test.replaceFirst("\\d", i + "");
-
-							params.TRAIN_SET = train;
-							params.TEST_SET = test;
-
-							if (params.SIMILARITY_METHOD == SimMethod.BS)
+							@Override
+							void apply(int fold)
 							{
-								methodSettings.add("" + SimUtils.alpha);
-								methodSettings.add("" + SimUtils.beta);
-							}
+								applyOuterSetting(outer, fold == 1);
 
-							if (params.kNN > 0) methodSettings.add("" + params.kNN);
+								SimUtils.alpha = alpha;
+								SimUtils.beta = beta;
 
-							init();
-							singleExecute();
-						}
+								if (params.SIMILARITY_METHOD == SimMethod.BS)
+								{
+									methodSettings.add("" + SimUtils.alpha);
+									methodSettings.add("" + SimUtils.beta);
+								}
+
+								if (params.kNN > 0) methodSettings.add("" + params.kNN);
+							}
+						});
 					}
-				} else
+				}
+
+				sweepFolds(grid);
+			} else
+			{
+				for (int k = 0; k < num; k++)
 				{
+					if (num > 1) applyOuterSetting(k, true);
 					singleExecute();
 				}
 			}
@@ -458,6 +455,101 @@ public abstract class AbstractCF
 
 	}
 
+	/**
+	 * A point of a parameter grid, evaluated on every fold of a cross-validation sweep.
+	 */
+	protected static abstract class GridPoint
+	{
+		/**
+		 * apply the setting of this point to params, and add its printSettings (only for the 1st fold) and
+		 * methodSettings; it is called once per fold, interleaved with the other points of the grid
+		 */
+		abstract void apply(int fold);
+	}
+
+	/**
+	 * Evaluates all the grid points on each of the 5 folds. A fold (and the structures derived from it) is loaded only
+	 * once for the whole grid rather than once per point; the results are still printed in the order of points and then
+	 * folds, i.e., the same order as running the folds for each point.
+	 */
+	@SuppressWarnings("unchecked")
+	private void sweepFolds(List<GridPoint> grid) throws Exception
+	{
+		String train = params.TRAIN_SET;
+		String test = params.TEST_SET;
+		List<String>[][] outputs = new List[grid.size()][5];
+
+		try
+		{
+			for (int j = 1; j < 6; j++)
+			{
+				train = train.replaceFirst("\\d", j + "");
+				test = test.replaceFirst("\\d", j + "");
+
+				params.TRAIN_SET = train;
+				params.TEST_SET = test;
+
+				init();
+				for (int g = 0; g < grid.size(); g++)
+				{
+					sweepOutputs = new ArrayList<>();
+					grid.get(g).apply(j);
+					singleExecute();
+
+					outputs[g][j - 1] = sweepOutputs;
+				}
+			}
+		} finally
+		{
+			sweepOutputs = null;
+		}
+
+		for (List<String>[] folds : outputs)
+		{
+			for (List<String> lines : folds)
+			{
+				for (String line : lines)
+					Logs.info(line);
+			}
+		}
+	}
+
+	/**
+	 * apply the k-th setting of the outer loop of a cross-validation batch (similarity, significance or top-n), if any
+	 */
+	private void applyOuterSetting(int k, boolean print)
+	{
+		if (k < 0) return;
+
+		String setting = null;
+		if (params.AUTO_SIMILARITY)
+		{
+			params.SIMILARITY_THRESHOLD = k * 0.1;
+			setting = "Similarity.threshold = " + (float) params.SIMILARITY_THRESHOLD;
+		} else if (params.AUTO_SIGNIFICANCE)
+		{
+			params.SIGNIFICANCE_THRESHOLD = k * 0.005;
+			setting = "Significance.threshold = " + (float) params.SIGNIFICANCE_THRESHOLD;
+		} else if (params.AUTO_TOPN)
+		{
+			if (k == 0) params.TOP_N = 2;
+			else params.TOP_N = k * 5;
+
+			setting = "Top.N where N = " + params.TOP_N;
+		}
+
+		if (print && setting != null) printSettings.add(setting);
+	}
+
+	/**
+	 * print a line of results, or keep it for later if a cross-validation sweep is running
+	 */
+	protected static void printResult(String line)
+	{
+		if (sweepOutputs != null) sweepOutputs.add(line);
+		else Logs.info(line);
+	}
+
 	@SuppressWarnings("unchecked")
 	protected void printPerformance(Performance pf)
 	{
@@ -472,8 +564,8 @@ public abstract class AbstractCF
 		if (printSettings.size() > 0)
 		{
 			for (String setting : printSettings)
-				Logs.info(setting);
-			Logs.info(null);
+				printResult(setting);
+			printResult(null);
 			printSettings.clear();
 		}
 
@@ -526,7 +618,7 @@ public abstract class AbstractCF
 						format,
 						new Object[] { cutoff, ms.getPrecision(cutoff), ms.getRecall(cutoff), ms.getF1(cutoff),
 								ms.getMAP(cutoff), ms.getMRR(cutoff), ms.getNDCG(cutoff) });
-				Logs.info(print);
+				printResult(print);
 				Logs.debug(null);
 
 				results += "\n";
@@ -554,7 +646,7 @@ public abstract class AbstractCF
 
 		if (params.VALIDATE_METHOD == ValidateMethod.cross_validation) results += "," + params.TEST_SET;
 
-		Logs.info(results);
+		printResult(results);
 	}
 
 	public static void collectResults() throws Exception
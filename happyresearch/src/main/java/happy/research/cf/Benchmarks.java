@@ -0,0 +1,753 @@
+package happy.research.cf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import happy.coding.io.Logs;
+import happy.coding.math.Sims;
+import happy.research.utils.MoleTrust;
+import happy.research.utils.MoleTrustEngine;
+import happy.research.utils.SimUtils;
+import happy.research.utils.TidalTrust;
+import happy.research.utils.TidalTrustEngine;
+import happy.research.utils.TrustGraph;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
+import java.util.concurrent.Callable;
+
+import org.junit.Test;
+
+/**
+ * Micro benchmarks of the data structures used by the CF methods, comparing with their previous counterparts.
+ *
+ * @author guoguibing
+ */
+public class Benchmarks
+{
+	private final static int	numProbes	= 100;
+
+	/**
+	 * Heap usage and neighbour-scan latency of the nested rating maps vs. the interned rating matrix.
+	 */
+	@SuppressWarnings("unchecked")
+	@Test
+	public void ratingStores() throws Exception
+	{
+		ConfigParams.defaultInstance();
+		String ratingSet = Dataset.DIRECTORY + "u1.base";
+
+		Dataset.RATING_MATRIX = false;
+		long heap = usedHeap();
+		Map<String, Map<String, Rating>> userRatingsMap = Dataset.loadTrainSet(ratingSet)[0];
+		long mapHeap = usedHeap() - heap;
+
+		Dataset.RATING_MATRIX = true;
+		Dataset.loadTrainSet(ratingSet);
+		RatingMatrix m = Dataset.ratingMatrix;
+
+		Logs.debug("Heap: maps = {} KB, matrix arrays = {} KB", mapHeap / 1024, m.memory() / 1024);
+
+		List<String> users = new ArrayList<>(userRatingsMap.keySet());
+		int probes = Math.min(numProbes, users.size());
+
+		long count = 0;
+		long start = System.nanoTime();
+		for (int p = 0; p < probes; p++)
+		{
+			Map<String, Rating> asRatings = userRatingsMap.get(users.get(p));
+			for (Map<String, Rating> bsRatings : userRatingsMap.values())
+			{
+				for (String item : asRatings.keySet())
+					if (bsRatings.containsKey(item)) count++;
+			}
+		}
+		long mapTime = System.nanoTime() - start;
+
+		int[] rowPtr = m.getRowPtr();
+		int[] colIdx = m.getColIdx();
+		long count2 = 0;
+		start = System.nanoTime();
+		for (int p = 0; p < probes; p++)
+		{
+			int a = m.userIndex(users.get(p));
+			for (int b = 0; b < m.numUsers(); b++)
+			{
+				for (int i = rowPtr[a], j = rowPtr[b]; i < rowPtr[a + 1] && j < rowPtr[b + 1];)
+				{
+					if (colIdx[i] < colIdx[j]) i++;
+					else if (colIdx[i] > colIdx[j]) j++;
+					else
+					{
+						count2++;
+						i++;
+						j++;
+					}
+				}
+			}
+		}
+		long matrixTime = System.nanoTime() - start;
+
+		Logs.debug("Neighbour scan per user: maps = {} ms, matrix = {} ms, co-ratings = {}/{}", new Object[] {
+				mapTime / 1e6 / probes, matrixTime / 1e6 / probes, count, count2 });
+		assertEquals("co-ratings", count, count2);
+
+		/* the same ratings of the probed users */
+		for (int p = 0; p < probes; p++)
+		{
+			String user = users.get(p);
+			Map<String, Rating> asRatings = userRatingsMap.get(user);
+			assertEquals("ratings of user " + user, asRatings.size(), m.numUserRatings(user));
+			for (Rating r : asRatings.values())
+			{
+				double rating = m.getRating(user, r.getItemId());
+				assertEquals("rating of " + user + " on " + r.getItemId(), r.getRating(), rating, 0);
+			}
+		}
+	}
+
+	/**
+	 * Throughput of adding predictions from many threads: the previous synchronized map vs. per-thread buffers.
+	 */
+	@Test
+	public void predictionSink() throws Exception
+	{
+		int numThreads = 32, numUsers = 2000, numItems = 100;
+
+		final List<Prediction> preds = new ArrayList<>();
+		for (int u = 0; u < numUsers; u++)
+		{
+			for (int i = 0; i < numItems; i++)
+				preds.add(new Prediction(new Rating(u + "", i + "", 1 + (u + i) % 5), 1 + (u * i) % 5, false));
+		}
+
+		final Map<String, Map<String, Prediction>> userPreds = new HashMap<>();
+		long lockTime = addInParallel(preds, numThreads, new PredictionSink() {
+
+			@Override
+			public void add(Prediction pred)
+			{
+				synchronized (userPreds)
+				{
+					Map<String, Prediction> rs = userPreds.get(pred.getUserId());
+					if (rs == null)
+					{
+						rs = new HashMap<>();
+						userPreds.put(pred.getUserId(), rs);
+					}
+					rs.put(pred.getItemId(), pred);
+				}
+			}
+		});
+
+		final Performance pf = new Performance("benchmark");
+		long bufferTime = addInParallel(preds, numThreads, new PredictionSink() {
+
+			@Override
+			public void add(Prediction pred)
+			{
+				pf.addPredicts(pred);
+			}
+		});
+
+		Map<String, Map<String, Rating>> test = new HashMap<>();
+		for (Prediction pred : preds)
+		{
+			Map<String, Rating> rs = test.get(pred.getUserId());
+			if (rs == null)
+			{
+				rs = new HashMap<>();
+				test.put(pred.getUserId(), rs);
+			}
+			rs.put(pred.getItemId(), new Rating(pred.getUserId(), pred.getItemId(), pred.getTruth()));
+		}
+		Measures ms = pf.prediction(test);
+
+		Logs.debug("Adding {} predictions by {} threads: synchronized map = {} ms, thread buffers = {} ms, MAE = {}",
+				new Object[] { preds.size(), numThreads, lockTime / 1e6, bufferTime / 1e6, ms.getMAE() });
+
+		/* the same measures as evaluated per prediction from the synchronized map */
+		Evaluator eval = new Evaluator(Performance.cutoffs);
+		for (Entry<String, Map<String, Rating>> en : test.entrySet())
+		{
+			Map<String, Prediction> rs = userPreds.get(en.getKey());
+			eval.addUserPredictions(en.getValue().size(), rs == null ? null : rs.values());
+		}
+		Measures expected = new Measures();
+		eval.prediction(expected);
+
+		assertEquals("covered ratings", expected.getCoveredRatings(), ms.getCoveredRatings());
+		assertEquals("total ratings", expected.getTotalRatings(), ms.getTotalRatings());
+		assertEquals("MAE", expected.getMAE(), ms.getMAE(), 1e-12);
+		assertEquals("RMSE", expected.getRMSE(), ms.getRMSE(), 1e-12);
+	}
+
+	private interface PredictionSink
+	{
+		void add(Prediction pred);
+	}
+
+	private long addInParallel(final List<Prediction> preds, final int numThreads, final PredictionSink sink)
+			throws Exception
+	{
+		Thread[] threads = new Thread[numThreads];
+		for (int t = 0; t < numThreads; t++)
+		{
+			final int first = t;
+			threads[t] = new Thread(new Runnable() {
+
+				@Override
+				public void run()
+				{
+					for (int k = first; k < preds.size(); k += numThreads)
+						sink.add(preds.get(k));
+				}
+			});
+		}
+
+		long start = System.nanoTime();
+		for (Thread tr : threads)
+			tr.start();
+		for (Thread tr : threads)
+			tr.join();
+
+		return System.nanoTime() - start;
+	}
+
+	/**
+	 * Top-20 recommendation lists of many users over thousands of candidates: full sort vs. bounded-heap selection.
+	 */
+	@Test
+	public void topN() throws Exception
+	{
+		int numUsers = 500, numItems = 2000, k = Performance.cutoffs[Performance.cutoffs.length - 1];
+		Random rd = new Random(1);
+
+		double[][] scores = new double[numUsers][numItems];
+		for (int u = 0; u < numUsers; u++)
+			for (int i = 0; i < numItems; i++)
+				scores[u][i] = 1 + rd.nextInt(9) * 0.5;
+
+		List<List<Integer>> sorted = new ArrayList<>(numUsers);
+		long start = System.nanoTime();
+		for (int u = 0; u < numUsers; u++)
+		{
+			final double[] ss = scores[u];
+			List<Integer> ids = new ArrayList<>(numItems);
+			for (int i = 0; i < numItems; i++)
+				ids.add(i);
+
+			Collections.sort(ids, new Comparator<Integer>() {
+
+				@Override
+				public int compare(Integer i1, Integer i2)
+				{
+					return Double.compare(ss[i1], ss[i2]);
+				}
+			});
+			Collections.reverse(ids);
+			sorted.add(ids.subList(0, k));
+		}
+		long sortTime = System.nanoTime() - start;
+
+		int[][] selected = new int[numUsers][];
+		start = System.nanoTime();
+		for (int u = 0; u < numUsers; u++)
+			selected[u] = TopN.select(scores[u], k);
+		long selectTime = System.nanoTime() - start;
+
+		int mismatches = 0;
+		for (int u = 0; u < numUsers; u++)
+		{
+			for (int n = 0; n < k; n++)
+				if (sorted.get(u).get(n) != selected[u][n]) mismatches++;
+		}
+
+		Logs.debug("Top-{} of {} candidates for {} users: full sort = {} ms, heap selection = {} ms, mismatches = {}",
+				new Object[] { k, numItems, numUsers, sortTime / 1e6, selectTime / 1e6, mismatches });
+		assertEquals("top-" + k + " mismatches", 0, mismatches);
+	}
+
+	/**
+	 * NaN scores are selected after all the others, by descending index as equal scores.
+	 */
+	@Test
+	public void topNNaN() throws Exception
+	{
+		double[] scores = { Double.NaN, 2, Double.NaN, 5, 2, Double.NaN, 1 };
+
+		int[] expected = { 3, 4, 1, 6, 5, 2, 0 };
+		for (int k = 0; k <= scores.length; k++)
+		{
+			int[] top = TopN.select(scores, k);
+			assertEquals("size of top-" + k, k, top.length);
+			for (int n = 0; n < k; n++)
+				assertEquals("position " + n + " of top-" + k, expected[n], top[n]);
+		}
+	}
+
+	/**
+	 * MoleTrust per source user on an Epinions-scale random graph (40,163 users, ~12 trustees each): the map-based
+	 * implementation vs. the engine over the compact graph, for horizons 1 to 4.
+	 */
+	@Test
+	public void moleTrust() throws Exception
+	{
+		int numUsers = 40163, avgDegree = 12, numSources = 3;
+		Random rd = new Random(1);
+
+		Map<Integer, Map<Integer, Double>> trustData = new HashMap<>();
+		for (int u = 0; u < numUsers; u++)
+		{
+			// exponentially distributed out-degrees
+			int degree = (int) Math.min(numUsers - 1, avgDegree * -Math.log(1 - rd.nextDouble()));
+			Map<Integer, Double> tns = new HashMap<>();
+			for (int k = 0; k < degree; k++)
+				tns.put(rd.nextInt(numUsers), 1.0);
+			if (tns.size() > 0) trustData.put(u, tns);
+		}
+
+		MoleTrustEngine<Integer> engine = new MoleTrustEngine<>(TrustGraph.of(trustData));
+		for (int horizon = 1; horizon <= 4; horizon++)
+		{
+			int mismatches = 0;
+			long mapTime = 0, engineTime = 0;
+			for (int s = 0; s < numSources; s++)
+			{
+				Integer source = rd.nextInt(numUsers);
+
+				long start = System.nanoTime();
+				Map<Integer, Double> expected = MoleTrust.runAlgorithm(trustData, source, horizon);
+				mapTime += System.nanoTime() - start;
+
+				start = System.nanoTime();
+				Map<Integer, Double> actual = engine.runAlgorithm(source, horizon, MoleTrustEngine.EPINIONS_THRESHOLD);
+				engineTime += System.nanoTime() - start;
+
+				if (!expected.equals(actual)) mismatches++;
+			}
+
+			Logs.debug("MoleTrust horizon {} per source: maps = {} ms, engine = {} ms, mismatches = {}", new Object[] {
+					horizon, mapTime / 1e6 / numSources, engineTime / 1e6 / numSources, mismatches });
+			assertEquals("MoleTrust mismatches at horizon " + horizon, 0, mismatches);
+		}
+	}
+
+	/**
+	 * Regression of TidalTrust on the trust set of the configured dataset (FilmTrust): the map-based implementation vs.
+	 * the engine over the compact graph for every trustor and horizons 1 to 4, then all the sources in parallel.
+	 */
+	@SuppressWarnings("unchecked")
+	@Test
+	public void tidalTrust() throws Exception
+	{
+		ConfigParams.defaultInstance();
+		Map<?, ?>[] data = DatasetUtils.loadTrustSet2(Dataset.DIRECTORY + Dataset.TRUST_SET);
+		final Map<String, Map<String, Double>> trustees = (Map<String, Map<String, Double>>) data[0];
+		Map<String, Map<String, Double>> trustors = (Map<String, Map<String, Double>>) data[1];
+		Map<String, List<TrustRating>> ratings = (Map<String, List<TrustRating>>) data[2];
+
+		final TidalTrustEngine engine = new TidalTrustEngine(trustees, trustors, ratings);
+		TidalTrustEngine bfs = engine.copy();
+		bfs.setBreadthFirst(true);
+		for (int horizon = 1; horizon <= 4; horizon++)
+		{
+			int mismatches = 0, bfsMismatches = 0;
+			long mapTime = 0, engineTime = 0;
+			for (String source : trustees.keySet())
+			{
+				long start = System.nanoTime();
+				Map<String, Double> expected = TidalTrust.runAlgorithm(trustees, trustors, ratings, source, horizon);
+				mapTime += System.nanoTime() - start;
+
+				start = System.nanoTime();
+				Map<String, Double> actual = engine.runAlgorithm(source, horizon);
+				engineTime += System.nanoTime() - start;
+
+				if (expected == null ? actual != null : !expected.equals(actual)) mismatches++;
+
+				expected = TidalTrust.runBreadthFirst(trustees, trustors, ratings, source, horizon);
+				actual = bfs.runAlgorithm(source, horizon);
+				if (expected == null ? actual != null : !expected.equals(actual)) bfsMismatches++;
+			}
+
+			Logs.debug("TidalTrust horizon {} over {} sources: maps = {} ms, engine = {} ms, mismatches = {}",
+					new Object[] { horizon, trustees.size(), mapTime / 1e6, engineTime / 1e6, mismatches });
+			assertEquals("TidalTrust mismatches at horizon " + horizon, 0, mismatches);
+			assertEquals("breadth-first TidalTrust mismatches at horizon " + horizon, 0, bfsMismatches);
+		}
+
+		final int horizon = 4;
+		List<Callable<Integer>> tasks = new ArrayList<>();
+		for (final List<String> batch : DatasetUtils.splitCollection(new ArrayList<>(trustees.keySet()),
+				TaskPool.parallelism() * 16))
+		{
+			tasks.add(new Callable<Integer>() {
+
+				@Override
+				public Integer call() throws Exception
+				{
+					TidalTrustEngine tt = engine.copy();
+					int count = 0;
+					for (String source : batch)
+						count += tt.run(tt.getGraph().node(source), horizon);
+					return count;
+				}
+			});
+		}
+
+		long start = System.nanoTime();
+		long count = 0;
+		for (int c : TaskPool.invokeAll(tasks))
+			count += c;
+		Logs.debug("TidalTrust horizon {}, all sources in parallel: {} ms, {} trusted neighbours", new Object[] {
+				horizon, (System.nanoTime() - start) / 1e6, count });
+	}
+
+	/**
+	 * Depths of the breadth-first TidalTrust search on a small graph, for both implementations: a node is at the depth of its
+	 * shortest path from the source (whatever the order of the edges), is trusted only within the horizon, and its path
+	 * flow and trust are only derived from its trustors at the previous depth; the edges within a level (b to a) and
+	 * back to an earlier level (d to a) are not used.
+	 */
+	@Test
+	public void tidalTrustDepths() throws Exception
+	{
+		String[] edges = { "s a 2", "s b 4", "s e 6", "b a 9", "a c 8", "b c 3", "a g 3", "b g 4", "b h 4", "e h 2",
+				"e f 5", "c d 7", "f d 2", "d a 1" };
+
+		Map<String, Map<String, Double>> trustees = new HashMap<>();
+		Map<String, Map<String, Double>> trustors = new HashMap<>();
+		Map<String, List<TrustRating>> ratings = new HashMap<>();
+		for (String edge : edges)
+		{
+			String[] data = edge.split(" ");
+			TrustRating tr = new TrustRating();
+			tr.setTrustor(data[0]);
+			tr.setTrustee(data[1]);
+			tr.setRating(Double.parseDouble(data[2]));
+
+			if (!trustees.containsKey(data[0])) trustees.put(data[0], new HashMap<String, Double>());
+			trustees.get(data[0]).put(data[1], 1.0);
+			if (!trustors.containsKey(data[1])) trustors.put(data[1], new HashMap<String, Double>());
+			trustors.get(data[1]).put(data[0], 1.0);
+			if (!ratings.containsKey(data[1])) ratings.put(data[1], new ArrayList<TrustRating>());
+			ratings.get(data[1]).add(tr);
+		}
+
+		/* depth 1: the source's ratings; 2 and 3: from the trustors with path flows at least the sink's one */
+		Map<String, Double> depth1 = new HashMap<>();
+		depth1.put("a", 2.0);
+		depth1.put("b", 4.0);
+		depth1.put("e", 6.0);
+		Map<String, Double> depth2 = new HashMap<>(depth1);
+		depth2.put("c", 3.0); // b only: flow(a) = 2 < min(4, 3)
+		depth2.put("g", 4.0); // b only: flow(a) = 2 < min(4, 4)
+		depth2.put("h", (4 * 4.0 + 6 * 2.0) / (4 + 6)); // b and e: flows 4, 6 >= min(4, 4)
+		depth2.put("f", 5.0);
+		Map<String, Double> depth3 = new HashMap<>(depth2);
+		depth3.put("d", (3 * 7.0 + 5 * 2.0) / (3 + 5)); // c and f: flows 3, 5 >= min(3, 7)
+
+		List<Map<String, Double>> expected = new ArrayList<>();
+		expected.add(depth1);
+		expected.add(depth2);
+		expected.add(depth3);
+		expected.add(depth3);
+
+		TidalTrustEngine engine = new TidalTrustEngine(trustees, trustors, ratings);
+		engine.setBreadthFirst(true);
+		for (int horizon = 1; horizon <= expected.size(); horizon++)
+		{
+			Map<String, Double> scores = expected.get(horizon - 1);
+			Map<String, Double> mapScores = TidalTrust.runBreadthFirst(trustees, trustors, ratings, "s", horizon);
+			Map<String, Double> engineScores = engine.runAlgorithm("s", horizon);
+
+			assertEquals("maps at horizon " + horizon, scores.keySet(), mapScores.keySet());
+			assertEquals("engine at horizon " + horizon, scores.keySet(), engineScores.keySet());
+			for (String user : scores.keySet())
+			{
+				assertEquals(scores.get(user), mapScores.get(user), 1e-12);
+				assertEquals(scores.get(user), engineScores.get(user), 1e-12);
+			}
+		}
+
+		// no trustees
+		assertNull(TidalTrust.runBreadthFirst(trustees, trustors, ratings, "h", 2));
+		assertNull(engine.runAlgorithm("h", 2));
+	}
+
+	/**
+	 * Heap and training time of Slope One on the training set of the configured dataset (e.g., ML-1M or Epinions):
+	 * the nested deviation/frequency maps vs. the compact model, and the number of predictions that differ.
+	 */
+	@SuppressWarnings("unchecked")
+	@Test
+	public void slopeOne() throws Exception
+	{
+		ConfigParams.defaultInstance();
+		Dataset.RATING_MATRIX = false;
+		Map<String, Map<String, Rating>> userRatingsMap = Dataset.loadTrainSet(Dataset.DIRECTORY
+				+ AbstractCF.params.TRAIN_SET)[0];
+
+		long heap = usedHeap();
+		long start = System.nanoTime();
+		Map<String, Map<String, Double>> devMatrix = new HashMap<>();
+		Map<String, Map<String, Integer>> freqMatrix = new HashMap<>();
+		for (Map<String, Rating> itemRatings : userRatingsMap.values())
+		{
+			for (Rating r1 : itemRatings.values())
+			{
+				String i1 = r1.getItemId();
+				if (!devMatrix.containsKey(i1))
+				{
+					devMatrix.put(i1, new HashMap<String, Double>());
+					freqMatrix.put(i1, new HashMap<String, Integer>());
+				}
+				for (Rating r2 : itemRatings.values())
+				{
+					String i2 = r2.getItemId();
+					Integer cnt = freqMatrix.get(i1).get(i2);
+					Double diff = devMatrix.get(i1).get(i2);
+					freqMatrix.get(i1).put(i2, cnt == null ? 1 : cnt + 1);
+					devMatrix.get(i1).put(i2, (diff == null ? 0 : diff) + r1.getRating() - r2.getRating());
+				}
+			}
+		}
+		for (String i : devMatrix.keySet())
+			for (Entry<String, Double> en : devMatrix.get(i).entrySet())
+				en.setValue(en.getValue() / freqMatrix.get(i).get(en.getKey()));
+		long mapTime = System.nanoTime() - start;
+		long mapHeap = usedHeap() - heap;
+
+		heap = usedHeap();
+		start = System.nanoTime();
+		SlopeOneModel model = SlopeOneModel.train(userRatingsMap);
+		long modelTime = System.nanoTime() - start;
+		long modelHeap = usedHeap() - heap;
+
+		Logs.debug("Slope One training: maps = {} ms, {} MB; model = {} ms, {} MB ({} pairs, {} threads)",
+				new Object[] { mapTime / 1e6, mapHeap >> 20, modelTime / 1e6, modelHeap >> 20, model.numPairs(),
+						TaskPool.parallelism() });
+
+		/* predictions of every user's first rated item from the rest of the ratings */
+		for (Entry<String, Map<String, Rating>> en : userRatingsMap.entrySet())
+		{
+			Map<String, Rating> itemRatings = en.getValue();
+			String testItem = itemRatings.keySet().iterator().next();
+
+			double sum = 0;
+			int cnt = 0;
+			for (Rating r : itemRatings.values())
+			{
+				Double dev = devMatrix.get(testItem).get(r.getItemId());
+				if (dev == null) continue;
+
+				int freq = freqMatrix.get(testItem).get(r.getItemId());
+				sum += freq * (dev + r.getRating());
+				cnt += freq;
+			}
+
+			double expected = sum / cnt, actual = model.predict(itemRatings, testItem, true);
+			assertEquals("prediction of user " + en.getKey(), expected, actual, 1e-9);
+		}
+	}
+
+	/**
+	 * Co-rated pcc of a user with all the others: map look-ups into boxed lists vs. the {@code CoRatings} kernel, which
+	 * runs its merge, galloping and bitset intersections over the light and heavy users of the training set.
+	 */
+	@Test
+	public void coRatings() throws Exception
+	{
+		ConfigParams.defaultInstance();
+		Dataset.RATING_MATRIX = false;
+		Map<String, Map<String, Rating>> userRatingsMap = Dataset.loadTrainSet(Dataset.DIRECTORY
+				+ AbstractCF.params.TRAIN_SET)[0];
+		RatingMatrix m = RatingMatrix.of(userRatingsMap);
+
+		List<String> users = new ArrayList<>(userRatingsMap.keySet());
+		int probes = Math.min(numProbes, users.size());
+		double[] expected = new double[probes * users.size()];
+
+		long start = System.nanoTime();
+		for (int p = 0; p < probes; p++)
+		{
+			Map<String, Rating> asRatings = userRatingsMap.get(users.get(p));
+			for (int q = 0; q < users.size(); q++)
+			{
+				Map<String, Rating> bsRatings = userRatingsMap.get(users.get(q));
+				List<Double> as = new ArrayList<>();
+				List<Double> bs = new ArrayList<>();
+				for (Entry<String, Rating> en : asRatings.entrySet())
+				{
+					if (bsRatings.containsKey(en.getKey()))
+					{
+						as.add(en.getValue().getRating());
+						bs.add(bsRatings.get(en.getKey()).getRating());
+					}
+				}
+				expected[p * users.size() + q] = as.size() < 2 ? Double.NaN : Sims.pcc(as, bs);
+			}
+		}
+		long mapTime = System.nanoTime() - start;
+
+		CoRatings co = CoRatings.local();
+		double[] actual = new double[expected.length];
+		start = System.nanoTime();
+		for (int p = 0; p < probes; p++)
+		{
+			int a = m.userIndex(users.get(p));
+			for (int q = 0; q < users.size(); q++)
+			{
+				co.rows(m, a, m.userIndex(users.get(q)), -1);
+				actual[p * users.size() + q] = co.pcc();
+			}
+		}
+		long kernelTime = System.nanoTime() - start;
+
+		Logs.debug("Co-rated pcc per user: maps = {} ms, kernel = {} ms, {} pairs", new Object[] {
+				mapTime / 1e6 / probes, kernelTime / 1e6 / probes, expected.length });
+
+		// NaN (fewer than 2 co-ratings) only matches NaN
+		for (int k = 0; k < expected.length; k++)
+			assertEquals("pcc of pair " + k, expected[k], actual[k], 1e-9);
+	}
+
+	/**
+	 * The array forms of the {@code SimUtils} similarities vs. their list forms: equivalence (up to rounding) and
+	 * time, including boxing the co-ratings into lists.
+	 */
+	@Test
+	public void similarities() throws Exception
+	{
+		ConfigParams.defaultInstance();
+		Dataset.minScale = 1;
+		Dataset.maxScale = 5;
+		Dataset.scaleSize = 5;
+		Dataset.median = 3;
+
+		int runs = 100000, capacity = 64;
+		double[] a = new double[capacity], b = new double[capacity], c = new double[capacity];
+		double[] d = new double[capacity], e = new double[capacity];
+		Random rd = new Random(1);
+
+		long listTime = 0, arrayTime = 0;
+		for (int r = 0; r < runs; r++)
+		{
+			int n = 1 + rd.nextInt(capacity);
+			for (int i = 0; i < n; i++)
+			{
+				a[i] = 1 + rd.nextInt(5);
+				b[i] = 1 + rd.nextInt(5);
+				c[i] = rd.nextDouble();
+				d[i] = rd.nextDouble();
+				e[i] = 1 + 4 * rd.nextDouble();
+			}
+
+			long start = System.nanoTime();
+			List<Double> as = new ArrayList<>(), bs = new ArrayList<>(), cs = new ArrayList<>();
+			List<Double> ds = new ArrayList<>(), es = new ArrayList<>();
+			for (int i = 0; i < n; i++)
+			{
+				as.add(a[i]);
+				bs.add(b[i]);
+				cs.add(c[i]);
+				ds.add(d[i]);
+				es.add(e[i]);
+			}
+			double[] expected = { SimUtils.pearsonSim(as, bs, cs), SimUtils.PIPSim(as, bs, es),
+					SimUtils.SRCSim(cs, ds), SimUtils.distanceSim(as, bs), SimUtils.distanceSim(as, bs, cs, ds),
+					SimUtils.SMSim(as, bs, cs, ds), SimUtils.kappaSim(as, bs) };
+			listTime += System.nanoTime() - start;
+
+			start = System.nanoTime();
+			double[] actual = { SimUtils.pearsonSim(a, b, c, n), SimUtils.PIPSim(a, b, n, e), SimUtils.SRCSim(c, d, n),
+					SimUtils.distanceSim(a, b, n), SimUtils.distanceSim(a, b, n, c, d), SimUtils.SMSim(a, b, n, c, d),
+					SimUtils.kappaSim(a, b, n) };
+			arrayTime += System.nanoTime() - start;
+
+			for (int k = 0; k < expected.length; k++)
+				assertEquals("similarity " + k + " of run " + r, expected[k], actual[k], 1e-12);
+		}
+
+		Logs.debug("Similarities of {} co-rating vectors: lists = {} ms, arrays = {} ms", new Object[] { runs,
+				listTime / 1e6, arrayTime / 1e6 });
+	}
+
+	/**
+	 * Bayesian similarity of random co-rating vectors: the map of the distance levels (list form) vs. the array
+	 * indexed by the rounded distance levels, on whole-star and half-star rating scales.
+	 */
+	@Test
+	public void bsSim() throws Exception
+	{
+		ConfigParams.defaultInstance();
+
+		// {minimum, maximum} of the rating scales
+		double[][] scales = { { 1, 5 }, { 0.5, 4 }, { 0.5, 5 } };
+		int runs = 20000, capacity = 64;
+		Random rd = new Random(1);
+
+		for (double[] scale : scales)
+		{
+			Dataset.minScale = scale[0];
+			Dataset.maxScale = scale[1];
+			Dataset.scaleSize = (int) Math.round(scale[1] / scale[0]);
+			Dataset.range = scale[1] - scale[0];
+			Dataset.median = (scale[0] + scale[1]) / 2;
+
+			int R = Dataset.scaleSize;
+			double[] priors = new double[R];
+			double sum = 0;
+			for (int i = 0; i < R; i++)
+				sum += priors[i] = rd.nextDouble();
+			List<Double> ps = new ArrayList<>();
+			for (int i = 0; i < R; i++)
+				ps.add(priors[i] /= sum);
+
+			double[] a = new double[capacity], b = new double[capacity];
+			double[] sd = new double[capacity], mu = new double[capacity], cf = new double[capacity];
+			Map<Integer, Map<Double, Double>> histos = new HashMap<>();
+			for (int r = 0; r < runs; r++)
+			{
+				int n = 1 + rd.nextInt(capacity);
+				List<Double> as = new ArrayList<>(), bs = new ArrayList<>(), sds = new ArrayList<>();
+				List<Double> mus = new ArrayList<>(), cfs = new ArrayList<>();
+				for (int i = 0; i < n; i++)
+				{
+					a[i] = Dataset.minScale * (1 + rd.nextInt(R));
+					b[i] = Dataset.minScale * (1 + rd.nextInt(R));
+					sd[i] = rd.nextInt(10) == 0 ? 0 : rd.nextDouble() * Dataset.range / 2;
+					mu[i] = Dataset.minScale + rd.nextDouble() * Dataset.range;
+					cf[i] = rd.nextDouble();
+
+					as.add(a[i]);
+					bs.add(b[i]);
+					sds.add(sd[i]);
+					mus.add(mu[i]);
+					cfs.add(cf[i]);
+				}
+
+				double expected = SimUtils.bsSim(as, bs, ps, sds, mus, histos, cfs);
+				double actual = SimUtils.bsSim(a, b, n, priors, sd, mu, histos, cf);
+				assertEquals("Bayesian similarity on scale " + scale[0] + "-" + scale[1] + " of run " + r, expected,
+						actual, 1e-12);
+			}
+		}
+	}
+
+	private long usedHeap()
+	{
+		Runtime rt = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++)
+			System.gc();
+
+		return rt.totalMemory() - rt.freeMemory();
+	}
+
+}
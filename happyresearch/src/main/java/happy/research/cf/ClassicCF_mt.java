@@ -66,14 +66,10 @@ public class ClassicCF_mt extends DefaultCF_mt
 	{
 		if (params.SIMILARITY_METHOD == SimMethod.BS) distanceNum = probeDistanceNums();
 
+		List<Runnable> tasks = new ArrayList<>();
 		for (int i = 0; i < ratingArrays.length; i++)
-		{
-			threads[i] = new Thread(new ClassicCF_t(i));
-			threads[i].start();
-		}
-
-		for (Thread tr : threads)
-			tr.join();
+			tasks.add(new ClassicCF_t(i));
+		runTasks(tasks);
 
 		return pf;
 	}
@@ -0,0 +1,275 @@
+package happy.research.cf;
+
+import happy.research.utils.SimUtils;
+
+import java.util.Arrays;
+
+/**
+ * Co-ratings of two sorted rating rows (e.g., the rows of two users in a {@code RatingMatrix}, or the columns of two
+ * items), written into reusable buffers: {@code as()[k]} and {@code bs()[k]} are the two ratings on key
+ * {@code keys()[k]}, k < {@code size()}, in ascending order of the keys.
+ *
+ * <p>
+ * Rows are intersected by merging, or by galloping over the longer row if one is much longer than the other. A heavy
+ * row (with at least {@code HEAVY} ratings) is pinned into a bitset with its ratings scattered over the keys, so that
+ * the rows intersected with it are only scanned; the pinned row is kept until another heavy row is intersected, which
+ * suits the callers comparing one user to all the others.
+ * </p>
+ *
+ * <p>
+ * The buffers are reused by every intersection: use one instance per thread, see {@code local()}.
+ * </p>
+ *
+ * @author guoguibing
+ */
+public class CoRatings
+{
+	/* galloping is used if one row is this many times longer than the other */
+	private final static int					GALLOP_RATIO	= 16;
+	/* rows with at least this many ratings are pinned */
+	public final static int						HEAVY			= 256;
+
+	private final static ThreadLocal<CoRatings>	local			= new ThreadLocal<CoRatings>() {
+
+																	@Override
+																	protected CoRatings initialValue()
+																	{
+																		return new CoRatings();
+																	}
+																};
+
+	private double[]							as				= new double[64];
+	private double[]							bs				= new double[64];
+	private int[]								keys			= new int[64];
+	private int									size			= 0;
+
+	/* the pinned row {pinIdx[pinFrom], ..., pinIdx[pinTo - 1]}: bits of its keys and its ratings by key */
+	private int[]								pinIdx;
+	private int									pinFrom, pinTo;
+	private long[]								bits			= new long[0];
+	private double[]							dense			= new double[0];
+
+	/**
+	 * @return the instance of the current thread
+	 */
+	public static CoRatings local()
+	{
+		return local.get();
+	}
+
+	/**
+	 * Intersect the ratings of users a and b, leaving out the item excluded (e.g., the test item).
+	 *
+	 * @param excluded
+	 *            item index, -1 if none
+	 * @return number of the co-rated items
+	 */
+	public int rows(RatingMatrix m, int a, int b, int excluded)
+	{
+		int[] ptr = m.getRowPtr();
+		return intersect(m.getColIdx(), m.getRowVals(), ptr[a], ptr[a + 1], m.getColIdx(), m.getRowVals(), ptr[b],
+				ptr[b + 1], excluded, m.numItems());
+	}
+
+	/**
+	 * Intersect the ratings on items i and j, leaving out the user excluded.
+	 *
+	 * @param excluded
+	 *            user index, -1 if none
+	 * @return number of the common raters
+	 */
+	public int columns(RatingMatrix m, int i, int j, int excluded)
+	{
+		int[] ptr = m.getColPtr();
+		return intersect(m.getRowIdx(), m.getColVals(), ptr[i], ptr[i + 1], m.getRowIdx(), m.getColVals(), ptr[j],
+				ptr[j + 1], excluded, m.numUsers());
+	}
+
+	/**
+	 * Intersect rows a = {aIdx[aFrom], ..., aIdx[aTo - 1]} and b = {bIdx[bFrom], ..., bIdx[bTo - 1]}, both sorted in
+	 * ascending order of keys less than numKeys.
+	 *
+	 * @return number of the common keys
+	 */
+	public int intersect(int[] aIdx, double[] aVals, int aFrom, int aTo, int[] bIdx, double[] bVals, int bFrom,
+			int bTo, int excluded, int numKeys)
+	{
+		size = 0;
+		int na = aTo - aFrom, nb = bTo - bFrom;
+		if (na == 0 || nb == 0) return 0;
+
+		ensure(Math.min(na, nb));
+
+		if (na >= HEAVY && !isPinned(aIdx, aFrom, aTo)) pin(aIdx, aVals, aFrom, aTo, numKeys);
+
+		if (isPinned(aIdx, aFrom, aTo)) scan(bIdx, bVals, bFrom, bTo, excluded);
+		else if (na >= GALLOP_RATIO * nb) gallop(bIdx, bVals, bFrom, bTo, aIdx, aVals, aFrom, aTo, excluded, false);
+		else if (nb >= GALLOP_RATIO * na) gallop(aIdx, aVals, aFrom, aTo, bIdx, bVals, bFrom, bTo, excluded, true);
+		else merge(aIdx, aVals, aFrom, aTo, bIdx, bVals, bFrom, bTo, excluded);
+
+		return size;
+	}
+
+	private void merge(int[] aIdx, double[] aVals, int i, int ie, int[] bIdx, double[] bVals, int j, int je,
+			int excluded)
+	{
+		while (i < ie && j < je)
+		{
+			int ki = aIdx[i], kj = bIdx[j];
+			if (ki < kj) i++;
+			else if (ki > kj) j++;
+			else
+			{
+				if (ki != excluded) add(ki, aVals[i], bVals[j]);
+				i++;
+				j++;
+			}
+		}
+	}
+
+	/**
+	 * Look up the keys of the short row in the long row by exponential and then binary search, from the position of
+	 * the previous match on.
+	 *
+	 * @param shortFirst
+	 *            true if the short row is row a
+	 */
+	private void gallop(int[] sIdx, double[] sVals, int sFrom, int sTo, int[] lIdx, double[] lVals, int lFrom, int lTo,
+			int excluded, boolean shortFirst)
+	{
+		int lo = lFrom;
+		for (int s = sFrom; s < sTo && lo < lTo; s++)
+		{
+			int key = sIdx[s];
+
+			int step = 1, hi = lo;
+			while (hi < lTo && lIdx[hi] < key)
+			{
+				lo = hi + 1;
+				hi += step;
+				step <<= 1;
+			}
+
+			int pos = Arrays.binarySearch(lIdx, lo, Math.min(hi + 1, lTo), key);
+			if (pos >= 0)
+			{
+				if (key != excluded)
+				{
+					if (shortFirst) add(key, sVals[s], lVals[pos]);
+					else add(key, lVals[pos], sVals[s]);
+				}
+				lo = pos + 1;
+			} else
+				lo = -pos - 1;
+		}
+	}
+
+	/**
+	 * Intersect row b with the pinned row by testing the bits of its keys.
+	 */
+	private void scan(int[] bIdx, double[] bVals, int j, int je, int excluded)
+	{
+		for (; j < je; j++)
+		{
+			int key = bIdx[j];
+			if ((bits[key >>> 6] & (1L << key)) != 0 && key != excluded) add(key, dense[key], bVals[j]);
+		}
+	}
+
+	private boolean isPinned(int[] idx, int from, int to)
+	{
+		return pinIdx == idx && pinFrom == from && pinTo == to;
+	}
+
+	private void pin(int[] idx, double[] vals, int from, int to, int numKeys)
+	{
+		/* clear the previous pinned row */
+		if (pinIdx != null)
+		{
+			for (int k = pinFrom; k < pinTo; k++)
+				bits[pinIdx[k] >>> 6] = 0;
+		}
+
+		if (dense.length < numKeys)
+		{
+			bits = new long[(numKeys + 63) >>> 6];
+			dense = new double[numKeys];
+		}
+
+		for (int k = from; k < to; k++)
+		{
+			int key = idx[k];
+			bits[key >>> 6] |= 1L << key;
+			dense[key] = vals[k];
+		}
+
+		pinIdx = idx;
+		pinFrom = from;
+		pinTo = to;
+	}
+
+	private void ensure(int capacity)
+	{
+		if (as.length < capacity)
+		{
+			int n = Math.max(capacity, as.length * 2);
+			as = new double[n];
+			bs = new double[n];
+			keys = new int[n];
+		}
+	}
+
+	private void add(int key, double a, double b)
+	{
+		keys[size] = key;
+		as[size] = a;
+		bs[size] = b;
+		size++;
+	}
+
+	/**
+	 * @return Pearson correlation of the co-ratings, NaN if less than 2 of them
+	 */
+	public double pcc()
+	{
+		return SimUtils.pearsonSim(as, bs, size);
+	}
+
+	/**
+	 * @return cosine similarity of the co-ratings, NaN if none
+	 */
+	public double cos()
+	{
+		return SimUtils.cosineSim(as, bs, size);
+	}
+
+	/**
+	 * @return ratings of row a on the common keys, in the first {@code size()} positions
+	 */
+	public double[] as()
+	{
+		return as;
+	}
+
+	/**
+	 * @return ratings of row b on the common keys, in the first {@code size()} positions
+	 */
+	public double[] bs()
+	{
+		return bs;
+	}
+
+	/**
+	 * @return the common keys in ascending order, in the first {@code size()} positions
+	 */
+	public int[] keys()
+	{
+		return keys;
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+}
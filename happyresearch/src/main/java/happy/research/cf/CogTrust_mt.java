@@ -1,15 +1,7 @@
 package happy.research.cf;
 
-import happy.coding.io.Logs;
-import happy.coding.math.Sims;
-
-import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Set;
 
 /**
  * Cognitive Trust Model for Recommender Systems Usage: only run under cross validation method
@@ -23,117 +15,116 @@ public class CogTrust_mt extends DefaultTrust_mt
 		methodId = "CogTrust";
 	}
 
-	protected Map<String, Map<String, Double>> train()
+	protected Map<String, Map<String, Double>> train() throws Exception
 	{
-		Map<String, Map<String, Double>> userTrustMap = new HashMap<>();
-		Map<String, Double> userIntentions = calcUserIntentions();
+		final RatingMatrix m = ratingRows();
+		final double[] intentions = calcUserIntentions(m);
 
-		double bias = params.COGTRUST_BIAS;
-		double alpha = params.COGTRUST_ALPHA;
-		int count = 0;
-		for (String trustor : testUserRatingsMap.keySet())
-		{
-			count++;
-			if (count % 100 == 0) Logs.debug("Training progresss: {}/{}", count, testUserRatingsMap.size());
-			Map<String, Rating> asRatings = userRatingsMap.get(trustor);
-			if (asRatings == null) continue;
-			for (String trustee : userRatingsMap.keySet())
+		final double bias = params.COGTRUST_BIAS;
+		final double alpha = params.COGTRUST_ALPHA;
+		final double threshold = params.TRUST_THRESHOLD;
+
+		PairTrustEngine.Kernel kernel = new PairTrustEngine.Kernel() {
+
+			@Override
+			public double trust(int a, int b, CoRatings co)
 			{
-				if (trustee.equals(trustor)) continue;
-				double trust = bias;
-				Map<String, Rating> bsRatings = userRatingsMap.get(trustee);
-				if (asRatings == null || asRatings.size() < 1 || bsRatings == null || bsRatings.size() < 1) trust += 0;
-				else
-				{
-					List<Double> as = new ArrayList<>();
-					List<Double> bs = new ArrayList<>();
-					for (Entry<String, Rating> en : asRatings.entrySet())
-					{
-						String item = en.getKey();
-						if (bsRatings.containsKey(item))
-						{
-							as.add(en.getValue().getRating());
-							bs.add(bsRatings.get(item).getRating());
-						}
-					}
-					int size = as.size();
-					if (size < 1) trust += 0.0;
-					else
-					{
-						double similarity = Sims.pcc(as, bs);
-						if (Double.isNaN(similarity)) similarity = 0.0;
+				double similarity = co.pcc();
+				if (Double.isNaN(similarity)) similarity = 0.0;
 
-						double significance = 1.0;
-						// double significance = 1 - 1.0 / size;
-						double capability = similarity * significance;
+				double significance = 1.0;
+				// double significance = 1 - 1.0 / size;
+				double capability = similarity * significance;
 
-						double intention = 0.0;
-						if (userIntentions.containsKey(trustee)) intention = userIntentions.get(trustee);
+				double intention = intentions[b];
 
-						/**
-						 * Three methods can be used to predict trust value: (1) trust = capability * intention + bias ;
-						 * (2) trust = alpha * capability + (1-alpha) * intention + bias; (3) trust =
-						 * hamonicMean(capability, intention) + bias.
-						 */
-						trust = alpha * capability + (1 - alpha) * intention + bias;
+				/**
+				 * Three methods can be used to predict trust value: (1) trust = capability * intention + bias ; (2)
+				 * trust = alpha * capability + (1-alpha) * intention + bias; (3) trust = hamonicMean(capability,
+				 * intention) + bias.
+				 */
+				double trust = alpha * capability + (1 - alpha) * intention + bias;
 
-						if (trust > 1) trust = 1.0;
-						if (trust < -1) trust = -1.0;
-					}
-				}
+				if (trust > 1) trust = 1.0;
+				if (trust < -1) trust = -1.0;
+
+				return trust > threshold ? trust : Double.NaN;
+			}
+		};
+		Map<String, Map<String, Double>> userTrustMap = train(testUserRatingsMap.keySet(), kernel);
+
+		/*
+		 * users without co-ratings are trusted by the bias alone, i.e., all of them if it passes the threshold; their
+		 * candidates are found over all the items, so that the pairs left out by trust.max.item.raters (which do have
+		 * co-ratings) are not given the bias either
+		 */
+		if (bias > threshold)
+		{
+			PairTrustEngine engine = new PairTrustEngine(m);
+			for (String trustor : testUserRatingsMap.keySet())
+			{
+				int a = m.userIndex(trustor);
+				if (a < 0) continue;
 
-				if (trust > params.TRUST_THRESHOLD)
+				engine.candidates(a);
+				Map<String, Double> trusteeMap = userTrustMap.get(trustor);
+				if (trusteeMap == null) trusteeMap = new HashMap<>();
+				for (int b = 0; b < m.numUsers(); b++)
 				{
-					Map<String, Double> trusteeMap = null;
-					if (userTrustMap.containsKey(trustor)) trusteeMap = userTrustMap.get(trustor);
-					else trusteeMap = new HashMap<>();
-					trusteeMap.put(trustee, trust);
-					userTrustMap.put(trustor, trusteeMap);
+					if (!engine.isCandidate(b)) trusteeMap.put(m.getUsers().key(b), bias);
 				}
+				if (trusteeMap.size() > 0) userTrustMap.put(trustor, trusteeMap);
 			}
 		}
 
 		return userTrustMap;
 	}
 
-	private Map<String, Double> calcUserIntentions()
+	/**
+	 * The intention of user a is the share of its items rated by another user within epsilon of a's rating, counting
+	 * as well the items found correct for the users before a (the set of correct items is never cleared).
+	 * 
+	 * @return intentions indexed by the rows of the matrix, 0 for the users without ratings
+	 */
+	private double[] calcUserIntentions(RatingMatrix m)
 	{
-		Map<String, Double> userIntensMap = new HashMap<>();
-		Set<String> as = userRatingsMap.keySet();
-		Set<String> bs = new HashSet<>(as);
-		Set<String> correctItems = new HashSet<>();
+		double[] intentions = new double[m.numUsers()];
+		boolean[] correctItems = new boolean[m.numItems()];
+		int numCorrect = 0;
+
+		int[] rowPtr = m.getRowPtr(), colIdx = m.getColIdx();
+		double[] rowVals = m.getRowVals();
+		int[] colPtr = m.getColPtr(), rowIdx = m.getRowIdx();
+		double[] colVals = m.getColVals();
 
 		double epsilon = params.COGTRUST_EPSILON;
-		for (String a : as)
+		for (String user : userRatingsMap.keySet())
 		{
-			Map<String, Rating> asRatings = userRatingsMap.get(a);
-			if (asRatings == null) continue;
+			int a = m.userIndex(user);
+			int size = a < 0 ? 0 : m.numRatings(a);
+			if (size < 1) continue;
 
-			int size = asRatings.size();
-			for (String b : bs)
+			for (int k = rowPtr[a]; k < rowPtr[a + 1]; k++)
 			{
-				if (a.equals(b)) continue;
-				Map<String, Rating> bsRatings = userRatingsMap.get(b);
-				if (bsRatings == null) continue;
-				for (Rating br : bsRatings.values())
-				{
-					String item = br.getItemId();
-					double rating = br.getRating();
+				int item = colIdx[k];
+				if (correctItems[item]) continue;
 
-					if (correctItems.contains(item)) continue;
-					if (asRatings.containsKey(item))
+				double rating = rowVals[k];
+				for (int p = colPtr[item]; p < colPtr[item + 1]; p++)
+				{
+					if (rowIdx[p] != a && Math.abs(colVals[p] - rating) < epsilon)
 					{
-						double diff = Math.abs(rating - asRatings.get(item).getRating());
-						if (diff < epsilon) correctItems.add(item);
+						correctItems[item] = true;
+						numCorrect++;
+						break;
 					}
 				}
 			}
 
-			double intention = correctItems.size() / (size + 0.0);
-			userIntensMap.put(a, intention);
+			intentions[a] = numCorrect / (size + 0.0);
 		}
 
-		return userIntensMap;
+		return intentions;
 	}
 
 }
@@ -26,13 +26,27 @@ public class ConfigParams {
 	public int numRunMethod = 0;
 
 	public int RUNTIME_THREADS = 1;
+	public int RUNTIME_TASKS_PER_THREAD = 8;
 	public int TCF_ITERATION = 1;
 	public int RUNTIME_PROGRESS_STEP = 100;
 	public int TRUST_PROPERGATION_LENGTH = 1;
+	public int TRUST_CACHE_SIZE = 10000;
+	public int TRUSTWALKER_BATCH_SIZE = 100;
+	public long TRUSTWALKER_SEED = 1;
+	public int ITEM_SIMS_CACHE_SIZE = 1 << 20;
+	public boolean ITEM_SIMS_PERSIST;
+	public boolean SLOPEONE_PERSIST;
+	public String SLOPEONE_DELTA = null;
+	public boolean MATRUST_PERSIST;
+	public String MATRUST_SOLVER = "L2R_LR";
+	public double MATRUST_C = 1.0;
+	public double MATRUST_EPS = 0.001;
 	public String RESULTS_DIRECTORY = null;
 
 	public boolean CLASSIC_CF, HYBRID_CT, TCF, VR_CF, MultAspect, auto_trust_sets;
 	public boolean MOLETRUST, TIDALTRUST, kNRTrust, COGTRUST;
+	public boolean TRUST_ALL_SOURCES;
+	public boolean TIDALTRUST_BREADTH_FIRST;
 	public boolean TRUST_ALL, TRUST_ALL_PLUS, GLOBAL_AVERAGE, TRUST_WALKER;
 
 	public boolean MERGE_TCF, MERGE_TCF2, MERGE_DTN, TCF_MERGE, TCF2_MERGE, DT_IMPUTE;
@@ -41,6 +55,9 @@ public class ConfigParams {
 	public boolean MF_CV;
 
 	public double SIMILARITY_THRESHOLD = 0.0;
+	public boolean SIMILARITY_INDEX = false;
+	public int SIMILARITY_INDEX_SIZE = 0;
+	public double SIMILARITY_INDEX_THRESHOLD = -1.0;
 	public double SIGNIFICANCE_THRESHOLD = 0.0;
 	public boolean AUTO_SIMILARITY = false;
 	public boolean AUTO_CONFIDENCE = false;
@@ -57,6 +74,8 @@ public class ConfigParams {
 	public double COGTRUST_ALPHA = 0.0;
 	public double COGTRUST_BIAS = 0.0;
 	public double COGTRUST_EPSILON = 0.0;
+	public int TRUST_MAX_ITEM_RATERS = 0;
+	public int MERGE_CACHE_SIZE = 1 << 22;
 
 	public double X_SIGMA = 0;
 
@@ -140,8 +159,21 @@ public class ConfigParams {
 
 		RUNTIME_THREADS = readInt("runtime.threads");
 		RUNTIME_PROGRESS_STEP = readInt("runtime.progress.step");
+		RUNTIME_TASKS_PER_THREAD = Integer.parseInt(readParam("runtime.tasks.per.thread", "8").trim());
 		RESULTS_DIRECTORY = FileIO.makeDirPath(readParam("results.directory"));
 		TRUST_PROPERGATION_LENGTH = readInt("trust.propagation.length");
+		TRUST_CACHE_SIZE = Integer.parseInt(readParam("trust.cache.size", "10000").trim());
+		MERGE_CACHE_SIZE = Integer.parseInt(readParam("merge.cache.size", "4194304").trim());
+		TRUSTWALKER_BATCH_SIZE = Integer.parseInt(readParam("trust.walker.batch.size", "100").trim());
+		TRUSTWALKER_SEED = Long.parseLong(readParam("trust.walker.seed", "1").trim());
+		ITEM_SIMS_CACHE_SIZE = Integer.parseInt(readParam("item.sims.cache.size", "1048576").trim());
+		ITEM_SIMS_PERSIST = setFlag(p, "item.sims.persist");
+		SLOPEONE_PERSIST = setFlag(p, "slopeone.persist");
+		SLOPEONE_DELTA = readParam("slopeone.delta", "").trim();
+		MATRUST_PERSIST = setFlag(p, "MultAspect.features.persist");
+		MATRUST_SOLVER = readParam("MultAspect.solver", "L2R_LR").trim();
+		MATRUST_C = Double.parseDouble(readParam("MultAspect.C", "1.0").trim());
+		MATRUST_EPS = Double.parseDouble(readParam("MultAspect.eps", "0.001").trim());
 
 		SIMILARITY_METHOD = simMethod(p, "similarity.method");
 		String similarity = readParam("similarity.threshold");
@@ -151,6 +183,10 @@ public class ConfigParams {
 		} else
 			SIMILARITY_THRESHOLD = Double.parseDouble(similarity);
 
+		SIMILARITY_INDEX = setFlag(p, "similarity.index");
+		SIMILARITY_INDEX_SIZE = Integer.parseInt(readParam("similarity.index.size", "0").trim());
+		SIMILARITY_INDEX_THRESHOLD = Double.parseDouble(readParam("similarity.index.threshold", "-1").trim());
+
 		String confidence = readParam("confidence.threshold");
 		if (confidence != null && "batch".equalsIgnoreCase(confidence)) {
 			AUTO_CONFIDENCE = true;
@@ -182,6 +218,7 @@ public class ConfigParams {
 		COGTRUST_ALPHA = Double.parseDouble(readParam("CogTrust.alpha"));
 		COGTRUST_BIAS = Double.parseDouble(readParam("CogTrust.bias"));
 		COGTRUST_EPSILON = Double.parseDouble(readParam("CogTrust.epsilon"));
+		TRUST_MAX_ITEM_RATERS = Integer.parseInt(readParam("trust.max.item.raters", "0").trim());
 
 		// training and test sets
 		TRAIN_SET = readParam("train.sets", null);
@@ -220,6 +257,8 @@ public class ConfigParams {
 		Dataset.init(readParam("run.dataset").trim());
 		Dataset.DIRECTORY = readParam("dataset.directory");
 		Dataset.DIRECTORY = Dataset.DIRECTORY.replaceAll("[$]run.dataset[$]", Dataset.LABEL);
+		Dataset.RATING_MATRIX = "matrix".equalsIgnoreCase(readParam("ratings.store", "map").trim());
+		Dataset.LOADER_THREADS = Integer.parseInt(readParam("dataset.loader.threads", "1").trim());
 
 		String dir = Dataset.DIRECTORY;
 		String subLabel = dir.substring(dir.indexOf(Dataset.LABEL) + Dataset.LABEL.length() + 1);
@@ -238,6 +277,7 @@ public class ConfigParams {
 			Dataset.TEMP_DIRECTORY = FileIO.makeDirPath(Dataset.TEMP_DIRECTORY);
 			break;
 		}
+		Dataset.SNAPSHOT = setFlag(p, "dataset.snapshot");
 
 		/*
 		 * --------------------------- Run Methods
@@ -257,7 +297,9 @@ public class ConfigParams {
 		GLOBAL_AVERAGE = setFlag(p, "Global.average.run");
 
 		MOLETRUST = setFlag(p, "MoleTrust.run");
+		TRUST_ALL_SOURCES = setFlag(p, "trust.all.sources");
 		TIDALTRUST = setFlag(p, "TidalTrust.run");
+		TIDALTRUST_BREADTH_FIRST = setFlag(p, "TidalTrust.breadth.first");
 		kNRTrust = setFlag(p, "kNRTrust.run");
 
 		MERGE_TCF = setFlag(p, "Merge.TCF.run");
@@ -1,6 +1,7 @@
 package happy.research.cf;
 
 import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Note: Using distrust information to impute the missing values of the trusted neighbours, in the user-item matrix, and
@@ -23,22 +24,16 @@ public class DT_Impute_mt extends DefaultCF_mt
 	@Override
 	protected Performance runMultiThreads() throws Exception
 	{
-		users = DatasetUtils.splitCollection(new ArrayList<>(testUserRatingsMap.keySet()), params.RUNTIME_THREADS);
+		users = DatasetUtils.splitCollection(new ArrayList<>(testUserRatingsMap.keySet()), ratingArrays.length);
+		List<Runnable> tasks = new ArrayList<>();
 		for (int i = 0; i < users.length; i++)
-		{
-			threads[i] = new Thread(new DT_Impute_t1(users[i], i + 1));
-			threads[i].start();
-		}
-		for (Thread tr : threads)
-			tr.join();
+			tasks.add(new DT_Impute_t1(users[i], i + 1));
+		runTasks(tasks);
 
+		tasks = new ArrayList<>();
 		for (int i = 0; i < ratingArrays.length; i++)
-		{
-			threads[i] = new Thread(new DT_Impute_t(i));
-			threads[i].start();
-		}
-		for (Thread tr : threads)
-			tr.join();
+			tasks.add(new DT_Impute_t(i));
+		runTasks(tasks);
 
 		return pf;
 	}
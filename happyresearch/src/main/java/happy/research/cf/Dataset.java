@@ -3,8 +3,6 @@ package happy.research.cf;
 import happy.coding.math.Stats;
 import happy.coding.system.Debug;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -57,6 +55,9 @@ public class Dataset
 	public static Map<Double, Integer>	scaleNum			= null;
 	public static Map<Double, Double>	scaleRatio			= null;
 
+	/* interned rating store of the last loaded training set, built only if RATING_MATRIX is on */
+	public static RatingMatrix			ratingMatrix		= null;
+
 	public static DATASET				dataset				= null;
 	public static String				DIRECTORY			= null;
 	public static String				TEMP_DIRECTORY		= null;
@@ -64,6 +65,9 @@ public class Dataset
 	public static String				TRUST_SET			= "trust.txt";
 	public static String				DISTRUST_SET		= "distrust.txt";
 	public static String				REGMX				= " ";
+	public static boolean				RATING_MATRIX		= false;
+	public static int					LOADER_THREADS		= 1;
+	public static boolean				SNAPSHOT			= false;
 
 	public static void printSpecs()
 	{
@@ -163,7 +167,6 @@ public class Dataset
 		HashMap<String, Map<String, Rating>> userRatingsMap = new HashMap<>();
 		HashMap<String, Map<String, Rating>> itemRatingsMap = new HashMap<>();
 
-		List<Double> ratings = new ArrayList<>();
 		scaleNum = new HashMap<>();
 		scaleRatio = new HashMap<>();
 		for (Double scale : scales)
@@ -177,17 +180,19 @@ public class Dataset
 		maxItemRating = 0;
 		minItemRating = 0;
 
-		BufferedReader fr = new BufferedReader(new FileReader(ratingSet));
-		String line = null;
-		while ((line = fr.readLine()) != null)
+		RatingTable table = loadTable(ratingSet);
+		RatingMatrix.Builder builder = RATING_MATRIX ? new RatingMatrix.Builder(table.getUsers(), table.getItems())
+				: null;
+		ratingMatrix = null;
+
+		// the statistics of the loaded table are valid unless some ratings are filtered out
+		RatingStats stats = VirRatingsCF.auto ? new RatingStats() : table.getStats();
+
+		for (int k = 0; k < table.size(); k++)
 		{
-			if (line.trim().isEmpty()) continue;
-			String[] data = line.split(Dataset.REGMX);
-			String userId = data[0];
-			String itemId = data[1];
-			double rating = Double.parseDouble(data[2]);
-			Long timestamp = 0l;
-			if (data.length > 3) timestamp = Long.parseLong(data[3]);
+			String userId = table.user(k);
+			String itemId = table.item(k);
+			double rating = table.rating(k);
 
 			if (VirRatingsCF.auto)
 			{
@@ -195,41 +200,45 @@ public class Dataset
 						|| (VirRatingsCF.userIds == null);
 
 				if (Integer.parseInt(userId) > VirRatingsCF.PhyRatingUpbound && flag) continue;
+
+				stats.add(rating);
 			}
 
 			Rating r = new Rating();
 			r.setUserId(userId);
 			r.setItemId(itemId);
 			r.setRating(rating);
-			r.setTimestamp(timestamp);
+			r.setTimestamp(table.timestamp(k));
 
-			ratings.add(rating);
+			if (builder != null) builder.add(table.getUserIdx()[k], table.getItemIdx()[k], rating);
 
-			Map<String, Rating> itemRatings = null;
-			if (userRatingsMap.containsKey(userId)) itemRatings = userRatingsMap.get(userId);
-			else itemRatings = new HashMap<>();
+			Map<String, Rating> itemRatings = userRatingsMap.get(userId);
+			if (itemRatings == null)
+			{
+				itemRatings = new HashMap<>();
+				userRatingsMap.put(userId, itemRatings);
+			}
 			itemRatings.put(itemId, r);
-			userRatingsMap.put(userId, itemRatings);
 
-			Map<String, Rating> userRatings = null;
-			if (itemRatingsMap.containsKey(itemId)) userRatings = itemRatingsMap.get(itemId);
-			else userRatings = new HashMap<>();
+			Map<String, Rating> userRatings = itemRatingsMap.get(itemId);
+			if (userRatings == null)
+			{
+				userRatings = new HashMap<>();
+				itemRatingsMap.put(itemId, userRatings);
+			}
 			userRatings.put(userId, r);
-			itemRatingsMap.put(itemId, userRatings);
-
-			int num = 0;
-			if (scaleNum.containsKey(rating)) num = scaleNum.get(rating);
-			scaleNum.put(rating, num + 1);
 		}
-		fr.close();
+
+		if (builder != null) ratingMatrix = builder.build();
 
 		/* Retrieve the statistics of the data set */
 		users = userRatingsMap.size();
 		items = itemRatingsMap.size();
-		size = ratings.size();
+		size = stats.size();
 		sparsity = 1 - (size + 0.0) / (users * items);
-		mean = Stats.mean(ratings);
-		sd = Stats.sd(ratings, mean);
+		mean = stats.mean();
+		sd = stats.sd();
+		scaleNum.putAll(stats.scaleNum());
 
 		//logger.debug("Rating median = {}", Stats.median(ratings));
 
@@ -275,32 +284,26 @@ public class Dataset
 	{
 		HashMap<String, Map<String, Rating>> userRatingsMap = new HashMap<>();
 
-		BufferedReader fr = new BufferedReader(new FileReader(ratingSet));
-		String line = null;
-		while ((line = fr.readLine()) != null)
+		RatingTable table = loadTable(ratingSet);
+		for (int k = 0; k < table.size(); k++)
 		{
-			if (line.trim().isEmpty()) continue;
-			String[] data = line.split(Dataset.REGMX);
-			String userId = data[0];
-			String itemId = data[1];
-			double rating = Double.parseDouble(data[2]);
-			Long timestamp = 0l;
-			if (data.length > 3) timestamp = Long.parseLong(data[3]);
+			String userId = table.user(k);
+			String itemId = table.item(k);
 
 			Rating r = new Rating();
 			r.setUserId(userId);
 			r.setItemId(itemId);
-			r.setRating(rating);
-			r.setTimestamp(timestamp);
+			r.setRating(table.rating(k));
+			r.setTimestamp(table.timestamp(k));
 
-			Map<String, Rating> itemRatings = null;
-			if (userRatingsMap.containsKey(userId)) itemRatings = userRatingsMap.get(userId);
-			else itemRatings = new HashMap<>();
+			Map<String, Rating> itemRatings = userRatingsMap.get(userId);
+			if (itemRatings == null)
+			{
+				itemRatings = new HashMap<>();
+				userRatingsMap.put(userId, itemRatings);
+			}
 			itemRatings.put(itemId, r);
-
-			userRatingsMap.put(userId, itemRatings);
 		}
-		fr.close();
 
 		return userRatingsMap;
 	}
@@ -323,43 +326,50 @@ public class Dataset
 		HashMap<String, Map<String, Rating>> userRatingsMap = new HashMap<>();
 		HashMap<String, Map<String, Rating>> itemRatingsMap = new HashMap<>();
 
-		BufferedReader fr = new BufferedReader(new FileReader(ratingSet));
-		String line = null;
-		while ((line = fr.readLine()) != null)
+		RatingTable table = loadTable(ratingSet);
+		for (int k = 0; k < table.size(); k++)
 		{
-			if (line.trim().isEmpty()) continue;
-			String[] data = line.split(Dataset.REGMX);
-			String userId = data[0];
-			String itemId = data[1];
-			double rating = Double.parseDouble(data[2]);
-			Long timestamp = 0l;
-			if (data.length > 3) timestamp = Long.parseLong(data[3]);
+			String userId = table.user(k);
+			String itemId = table.item(k);
 
 			// if (userId > VirRatingsCF.PhyRatingUpbound + num) continue;
 
 			Rating r = new Rating();
 			r.setUserId(userId);
 			r.setItemId(itemId);
-			r.setRating(rating);
-			r.setTimestamp(timestamp);
+			r.setRating(table.rating(k));
+			r.setTimestamp(table.timestamp(k));
 
-			Map<String, Rating> itemRatings = null;
-			if (userRatingsMap.containsKey(userId)) itemRatings = userRatingsMap.get(userId);
-			else itemRatings = new HashMap<>();
+			Map<String, Rating> itemRatings = userRatingsMap.get(userId);
+			if (itemRatings == null)
+			{
+				itemRatings = new HashMap<>();
+				userRatingsMap.put(userId, itemRatings);
+			}
 			itemRatings.put(itemId, r);
-			userRatingsMap.put(userId, itemRatings);
 
-			Map<String, Rating> userRatings = null;
-			if (itemRatingsMap.containsKey(itemId)) userRatings = itemRatingsMap.get(itemId);
-			else userRatings = new HashMap<>();
+			Map<String, Rating> userRatings = itemRatingsMap.get(itemId);
+			if (userRatings == null)
+			{
+				userRatings = new HashMap<>();
+				itemRatingsMap.put(itemId, userRatings);
+			}
 			userRatings.put(userId, r);
-			itemRatingsMap.put(itemId, userRatings);
 		}
-		fr.close();
 
 		return new Map[] { userRatingsMap, itemRatingsMap };
 	}
 
+	/**
+	 * @return parsed rating file, reused from its binary snapshot if SNAPSHOT is on and the file is not changed
+	 */
+	private static RatingTable loadTable(String ratingSet) throws Exception
+	{
+		if (SNAPSHOT) return RatingSnapshot.load(ratingSet, LOADER_THREADS);
+
+		return new RatingLoader(ratingSet, LOADER_THREADS).load();
+	}
+
 	public static void main(String[] args) throws Exception
 	{
 		ConfigParams.defaultInstance();
@@ -17,6 +17,7 @@ import java.io.FileWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -53,6 +54,42 @@ public class DatasetUtils
 		return test;
 	}
 
+	/**
+	 * Split ratings into at most num batches of similar numbers of ratings, keeping all the ratings of a user in the
+	 * same batch and the users in the order of their first ratings.
+	 */
+	@SuppressWarnings("unchecked")
+	public static List<Rating>[] splitByUsers(List<Rating> ratings, int num)
+	{
+		Map<String, List<Rating>> userRatings = new LinkedHashMap<>();
+		for (Rating r : ratings)
+		{
+			List<Rating> list = userRatings.get(r.getUserId());
+			if (list == null)
+			{
+				list = new ArrayList<>();
+				userRatings.put(r.getUserId(), list);
+			}
+			list.add(r);
+		}
+
+		int size = Math.max(1, (int) Math.ceil(ratings.size() / (Math.max(1, num) + 0.0)));
+		List<List<Rating>> batches = new ArrayList<>();
+		List<Rating> batch = new ArrayList<>();
+		for (List<Rating> list : userRatings.values())
+		{
+			batch.addAll(list);
+			if (batch.size() >= size)
+			{
+				batches.add(batch);
+				batch = new ArrayList<>();
+			}
+		}
+		if (batch.size() > 0 || batches.isEmpty()) batches.add(batch);
+
+		return batches.toArray(new List[batches.size()]);
+	}
+
 	/**
 	 * @param trust_data_set
 	 * @return Map[]{userTrusteesMap, userTrustorsMap, userTrustRatingsMap}
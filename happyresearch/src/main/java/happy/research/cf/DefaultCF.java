@@ -1,10 +1,9 @@
 package happy.research.cf;
 
 import happy.coding.io.FileIO;
+import happy.coding.io.Lists;
 import happy.coding.io.Logs;
-import happy.coding.math.Randoms;
 import happy.coding.math.Sims;
-import happy.coding.math.Stats;
 import happy.coding.system.Debug;
 import happy.research.cf.ConfigParams.DatasetMode;
 import happy.research.utils.SimUtils;
@@ -21,13 +20,9 @@ public abstract class DefaultCF extends AbstractCF {
 	//protected static Map<Double, Integer> scaleNum;
 	protected static Map<Double, Integer> distanceNum;
 
-	private Map<Rating, Map<String, Double>> ratingItemSd = null;
-	private Map<Rating, Map<String, Double>> ratingItemMu = null;
-	private Map<Rating, Map<String, Double>> ratingItemConf = null;
-	private Map<Rating, Map<String, Map<Double, Double>>> ratingItemHist = null;
-
-	private Map<Rating, Map<String, Integer>> ratingItemPos = null;
-	private Map<Rating, Map<String, Integer>> ratingItemNeg = null;
+	/* sufficient statistics of the training ratings, from which leave-one-out statistics are derived */
+	protected static RatingSummary userSummary;
+	protected static RatingSummary itemSummary;
 
 	/*
 	 * trustDirPath: path of the generated trust directory similarityDirPath:
@@ -35,6 +30,18 @@ public abstract class DefaultCF extends AbstractCF {
 	 * the predicted missing ratings of the trusted neighbours' directory
 	 */
 	protected static String trustDirPath = null;
+	protected static TrustCache trustCache = null;
+	protected static TrustWalker trustWalker = null;
+	protected static ItemSimilarityCache itemSims = null;
+	protected static RatingMatrix ratingRows = null;
+
+	/**
+	 * @return unmodifiable trust scores {trusted neighbour - score} of a user in the trust directory, empty if there
+	 *         are none
+	 */
+	protected static Map<String, Double> readTrustScores(String user) throws Exception {
+		return trustCache.get(user);
+	}
 
 	/**
 	 * To initialize some variables if data sets need to be reloaded again.
@@ -44,15 +51,24 @@ public abstract class DefaultCF extends AbstractCF {
 		numRunMethod++;
 		userRatingsMap = null;
 		itemRatingsMap = null;
+		ratingMatrix = null;
+		ratingRows = null;
+		ratingStore = null;
+		similarityIndex = null;
+		itemSims = null;
 		userTNsMap = null;
 		userDNsMap = null;
 		userTrustorsMap = null;
 
 		testRatings = null;
 		itemMeanMap = null;
+		userSummary = null;
+		itemSummary = null;
 
 		testUserRatingsMap = null;
 		testItemRatingsMap = null;
+
+		MergeProfiles.clear();
 	}
 
 	@Override
@@ -134,6 +150,48 @@ public abstract class DefaultCF extends AbstractCF {
 		// used for any needed pre-processing before generating testing ratings
 	}
 
+	/**
+	 * @return mean of the user's training ratings without the test rating, as RatingUtils.mean(asRatings, testRating)
+	 */
+	protected static double userMean(String user, Rating testRating) {
+		if (userSummary != null)
+			return userSummary.mean(user, testRating);
+
+		return RatingUtils.mean(userRatingsMap.get(user), testRating);
+	}
+
+	/**
+	 * @return mean of the item's training ratings without the test rating, as RatingUtils.mean(itemRatings, testRating)
+	 */
+	protected static double itemMean(String item, Rating testRating) {
+		if (itemSummary != null)
+			return itemSummary.mean(item, testRating);
+
+		return RatingUtils.mean(itemRatingsMap.get(item), testRating);
+	}
+
+	/**
+	 * build the similarity index of the training ratings, in parallel over users
+	 */
+	protected void load_similarities() throws Exception {
+		RatingMatrix m = ratingMatrix;
+		if (m == null) {
+			RatingMatrix.Builder builder = new RatingMatrix.Builder();
+			for (Map<String, Rating> ratings : userRatingsMap.values())
+				for (Rating r : ratings.values())
+					builder.add(r.getUserId(), r.getItemId(), r.getRating());
+			m = builder.build();
+		}
+
+		long start = System.currentTimeMillis();
+		similarityIndex = SimilarityIndex.build(m, params.SIMILARITY_METHOD, params.SIMILARITY_INDEX_SIZE,
+				params.SIMILARITY_INDEX_THRESHOLD, params.RUNTIME_THREADS);
+
+		Logs.debug("Similarity index: method = {}, pairs = {}, arrays = {} KB, time = {} ms", new Object[] {
+				params.SIMILARITY_METHOD, similarityIndex.size(), similarityIndex.memory() / 1024,
+				System.currentTimeMillis() - start });
+	}
+
 	@SuppressWarnings({ "unchecked", "rawtypes" })
 	protected void load_ratings() throws Exception {
 		if (userRatingsMap == null) {
@@ -153,6 +211,21 @@ public abstract class DefaultCF extends AbstractCF {
 			itemRatingsMap = data[1];
 			//scaleNum = data[2];
 
+			ratingMatrix = Dataset.ratingMatrix;
+			if (ratingMatrix != null) {
+				ratingStore = ratingMatrix;
+				Logs.debug("Rating matrix: users = {}, items = {}, ratings = {}, arrays = {} KB", new Object[] {
+						ratingMatrix.numUsers(), ratingMatrix.numItems(), ratingMatrix.size(),
+						ratingMatrix.memory() / 1024 });
+			} else
+				ratingStore = new MapRatingStore(userRatingsMap, itemRatingsMap);
+
+			userSummary = RatingSummary.ofUsers(userRatingsMap);
+			itemSummary = RatingSummary.ofItems(itemRatingsMap);
+
+			if (params.SIMILARITY_INDEX && SimilarityIndex.supports(params.SIMILARITY_METHOD))
+				load_similarities();
+
 			switch (params.DATASET_MODE) {
 			case all:
 			case blackSheep:
@@ -188,6 +261,14 @@ public abstract class DefaultCF extends AbstractCF {
 			case EPINIONS:
 			case FILMTRUST:
 			case FLIXSTER:
+				if (params.auto_trust_sets && !FileIO.exist(trustSet) && TrustStore.exists(current_trust_dir)) {
+					// trust generated into a trust store, e.g., by MATrust
+					Logs.debug("Loading trust store {}", current_trust_dir);
+					TrustStore store = TrustStore.open(current_trust_dir);
+					userTNsMap = store.loadTrustSet();
+					userTrustorsMap = store.loadTrusteeSet();
+					break;
+				}
 				Logs.debug("Loading trust data {}", trustSet);
 				userTNsMap = DatasetUtils.loadTrustSet(trustSet);
 				userTrustorsMap = DatasetUtils.loadTrusteeSet(trustSet);
@@ -199,135 +280,100 @@ public abstract class DefaultCF extends AbstractCF {
 		}
 	}
 
-	protected void randomTrustWalk(Rating testRating, Map<String, Double> weights, Map<String, Rating> ratings) {
-		String user = testRating.getUserId();
-
-		double epsilon = 0.0001;
-		int epochs = 10000;
-		int maxLength = 6;
-		String itemId = testRating.getItemId();
-		boolean fix_phi = true;
-		double fix_value = 0.0;
-
-		Map<String, Rating> testRatings = itemRatingsMap.get(itemId);
-		if (testRating == null || testRatings.size() < 2)
-			return;
-
-		double previousVariance = 0.0;
-		double currentVariance = 0.0;
-		for (int epoch = 0; epoch < epochs; epoch++) {
-			String currentUser = user;
-			double probability = 1.0;
+	/**
+	 * @return the training ratings as sorted rows for {@code CoRatings}: the rating matrix if loaded, or else built
+	 *         from the rating maps once
+	 */
+	protected static synchronized RatingMatrix ratingRows() {
+		if (ratingRows == null)
+			ratingRows = ratingMatrix != null ? ratingMatrix : RatingMatrix.of(userRatingsMap);
 
-			/* one random walk */
-			for (int currentLength = 1; currentLength <= maxLength; currentLength++) {
-				Map<String, Double> tns = userTNsMap.get(currentUser);
-				if (tns == null || tns.size() < 1)
-					break;
+		return ratingRows;
+	}
 
-				/* choose next user */
-				int size = tns.size();
-				double step = 1.0 / size;
-				int tnIndex = Randoms.uniform(size);
+	/**
+	 * @return the item similarity cache of the training ratings, shared by all the threads; pre-warmed from the item
+	 *         similarity file of the training set if it exists
+	 */
+	protected static synchronized ItemSimilarityCache itemSims() throws Exception {
+		if (itemSims == null) {
+			IdDictionary items = new IdDictionary(itemRatingsMap.size());
+			for (String item : itemRatingsMap.keySet())
+				items.intern(item);
+
+			itemSims = new ItemSimilarityCache(items, params.ITEM_SIMS_CACHE_SIZE);
+			if (params.ITEM_SIMS_PERSIST && FileIO.exist(itemSimsPath()))
+				itemSims.load(itemSimsPath());
+		}
 
-				int j = 0;
-				for (String i : tns.keySet()) {
-					if (j == tnIndex) {
-						currentUser = i;
-						break;
-					}
-					j++;
-				}
+		return itemSims;
+	}
 
-				if (currentUser.equals(user))
-					break;
-				probability *= step;
+	/**
+	 * Save the item similarity cache, if it is persisted and not saved before.
+	 */
+	protected static void saveItemSims() throws Exception {
+		if (itemSims == null || !params.ITEM_SIMS_PERSIST || FileIO.exist(itemSimsPath()))
+			return;
 
-				/* if the current user rated the item */
-				Map<String, Rating> rs = userRatingsMap.get(currentUser);
-				if (rs == null || rs.size() < 1)
-					break;
-				if (rs.containsKey(itemId)) {
-					weights.put(currentUser, probability);
-					ratings.put(currentUser, rs.get(itemId));
-					break;
-				}
+		int count = itemSims.save(itemSimsPath());
+		Logs.debug("Saved {} item similarities to {}", count, itemSimsPath());
+	}
 
-				/* compute phi */
-				List<Double> sims = new ArrayList<>();
-				List<Rating> rats = new ArrayList<>();
-				double phi = 0.0;
-				double sum = 0.0;
-
-				if (!fix_phi) {
-					phi = fix_value;
-				} else {
-					for (Rating r : rs.values()) {
-						String itemJ = r.getItemId();
-						Map<String, Rating> jsRS = itemRatingsMap.get(itemJ);
-
-						List<Double> is = new ArrayList<>();
-						List<Double> js = new ArrayList<>();
-
-						for (String userI : testRatings.keySet()) {
-							if (jsRS.containsKey(userI)) {
-								is.add(testRatings.get(userI).getRating());
-								js.add(jsRS.get(userI).getRating());
-							}
-						}
-						if (is.size() < 2)
-							continue;
-
-						double similarity = Sims.pcc(is, js);
-						if (Double.isNaN(similarity))
-							continue;
-						if (similarity > 0) {
-							sims.add(similarity);
-							rats.add(r);
-							sum += similarity;
-							if (phi < similarity)
-								phi = similarity;
-						}
-					}
-					/* if no similar items => phi=0 => random>phi => go on */
-					phi *= 1.0 / (1 + Math.exp(-currentLength));
-				}
+	private static String itemSimsPath() {
+		String train = params.TRAIN_SET;
+		if (train.lastIndexOf('.') > 0)
+			train = train.substring(0, train.lastIndexOf('.'));
 
-				/* stay or go on */
-				double random = Randoms.uniform();
-				if (random < phi) {
-					probability *= phi;
-					int index = Randoms.uniform(0, sims.size());
-
-					double prob = sims.get(index) / sum;
-					probability *= prob;
-					weights.put(currentUser, probability);
-					ratings.put(currentUser, rats.get(index));
-				} else {
-					probability *= (1 - phi);
-				}
+		return Dataset.TEMP_DIRECTORY + "item-sims-" + train + ".txt";
+	}
 
-			}
+	/**
+	 * TrustWalker's random walks from the user of a test rating, see {@code TrustWalker}.
+	 */
+	protected void randomTrustWalk(Rating testRating, Map<String, Double> weights, Map<String, Rating> ratings) {
+		trustWalker.walk(testRating, weights, ratings);
+	}
 
-			/* test if converged */
-			double[] data = new double[ratings.size()];
-			for (int m = 0; m < data.length; m++)
-				data[m] = ratings.get(m).getRating();
-			currentVariance = Stats.var(data);
-			if (Math.abs(currentVariance - previousVariance) < epsilon)
-				break;
-			else
-				previousVariance = currentVariance;
+	/**
+	 * Similarity of the co-ratings in the buffers of {@code co}, intersected over the rows of {@code ratingRows()}.
+	 */
+	protected double similarity(CoRatings co, Rating testRating) {
+		int n = co.size();
+		String[] items = null;
+		switch (params.SIMILARITY_METHOD) {
+		case iufCOS:
+		case BS:
+		case PIP:
+		case SM:
+			// only these methods need the items
+			items = new String[n];
+			IdDictionary dict = ratingRows().getItems();
+			for (int k = 0; k < n; k++)
+				items[k] = dict.key(co.keys()[k]);
+			break;
+		default:
+			break;
 		}
 
+		return similarity(co.as(), co.bs(), n, items, testRating);
 	}
 
 	protected double similarity(List<Double> as, List<Double> bs, List<String> items, Rating testRating) {
+		return similarity(Lists.toArray(as), Lists.toArray(bs), as.size(), items.toArray(new String[items.size()]),
+				testRating);
+	}
+
+	/**
+	 * Similarity of the first n co-ratings of as and bs on the items by the configured method, computed by the array
+	 * forms of {@code SimUtils}.
+	 */
+	protected double similarity(double[] as, double[] bs, int n, String[] items, Rating testRating) {
 		double similarity = 0;
 
 		switch (params.SIMILARITY_METHOD) {
 		case COS:
-			similarity = Sims.cos(as, bs);
+			similarity = SimUtils.cosineSim(as, bs, n);
 			break;
 		case iufCOS:
 			/*
@@ -339,10 +385,10 @@ public abstract class DefaultCF extends AbstractCF {
 			double inner = 0; // inner product
 			double al = 0; // a's length
 			double bl = 0; // b's length
-			for (int i = 0, im = as.size(); i < im; i++) {
-				double rai = as.get(i);
-				double rbi = bs.get(i);
-				String item = items.get(i);
+			for (int i = 0; i < n; i++) {
+				double rai = as[i];
+				double rbi = bs[i];
+				String item = items[i];
 
 				// inverse user frequency
 				double iuf = Math.log(num_all_users / itemRatingsMap.get(item).size());
@@ -361,127 +407,69 @@ public abstract class DefaultCF extends AbstractCF {
 				/* This is the similarity method for IJCAI paper */
 				List<Double> priors = learnScalePriors(testRating);
 
-				if (ratingItemSd == null) {
-					ratingItemSd = new HashMap<>();
-					ratingItemMu = new HashMap<>();
-					ratingItemConf = new HashMap<>();
-					ratingItemHist = new HashMap<>();
-				}
-				Map<String, Double> itemSd = null;
-				Map<String, Double> itemMu = null;
-				Map<String, Double> itemConf = null;
-				Map<String, Map<Double, Double>> itemHist = null;
-				if (ratingItemSd.containsKey(testRating)) {
-					itemSd = ratingItemSd.get(testRating);
-					itemMu = ratingItemMu.get(testRating);
-					itemConf = ratingItemConf.get(testRating);
-					itemHist = ratingItemHist.get(testRating);
-				} else {
-					itemSd = new HashMap<>();
-					itemMu = new HashMap<>();
-					itemConf = new HashMap<>();
-					itemHist = new HashMap<>();
-					for (String item : itemRatingsMap.keySet()) {
-						Map<String, Rating> userRatings = itemRatingsMap.get(item);
-
-						List<Double> rs = new ArrayList<>();
-						int pos = 0;
-
-						for (Rating r : userRatings.values()) {
-							if (r == testRating)
-								continue;
-							double rate = r.getRating();
-							rs.add(rate);
-
-							if (rate > Dataset.median)
-								pos++;
+				double[] sd = new double[n];
+				double[] mu = new double[n];
+				double[] cf = new double[n];
+				Map<Integer, Map<Double, Double>> histos = new HashMap<>();
+				for (int k = 0; k < n; k++) {
+					String item = items[k];
+					int num = itemSummary.count(item, testRating);
+					double mean = itemSummary.mean(item, testRating);
+					double deviation = itemSummary.sd(item, testRating);
+					double conf = 0;
+					Map<Double, Double> hist = new HashMap<>();
+
+					if (Debug.OFF) {
+						//conf = 1.0 / (1.0 + Math.exp(-num / 2.0));
+						double thrd = 10.0;
+						if (num > thrd)
+							conf = 1.0;
+						else
+							conf = num / thrd;
+					} else if (Debug.ON) {
+						conf = itemSummary.positives(item, testRating) / (num + 0.0);
+					} else if (Debug.OFF) {
+						// new approach: pair-wise rating distance distribution, counted over the histogram of scales
+						int[] h = itemSummary.histogram(item, testRating);
+						Map<Double, Integer> dists = new HashMap<>();
+						double total = 0, sum = 0, sumsq = 0;
+						for (int i = 0; i < h.length; i++) {
+							for (int j = i; j < h.length; j++) {
+								int cnt = i == j ? h[i] * (h[i] - 1) / 2 : h[i] * h[j];
+								if (cnt == 0)
+									continue;
+								double dist = Math.abs(Dataset.scales[i] - Dataset.scales[j]);
+								Integer c = dists.get(dist);
+								dists.put(dist, c == null ? cnt : c + cnt);
+
+								total += cnt;
+								sum += cnt * dist;
+								sumsq += cnt * dist * dist;
+							}
 						}
 
-						double mean = Stats.mean(rs);
-						double deviation = Stats.sd(rs, mean);
-						double conf = 0;
-						Map<Double, Double> hist = new HashMap<>();
-
-						if (Debug.OFF) {
-							//conf = 1.0 / (1.0 + Math.exp(-rs.size() / 2.0));
-							double thrd = 10.0;
-							if (rs.size() > thrd)
-								conf = 1.0;
-							else
-								conf = rs.size() / thrd;
-						} else if (Debug.ON) {
-							conf = pos / (rs.size() + 0.0);
-						} else if (Debug.OFF) {
-							// new approach: pair-wise rating distance distribution
-							Map<Double, Integer> dists = new HashMap<>();
-							List<Double> ds = new ArrayList<>();
-							int total = 0;
-							for (int i = 0; i < rs.size(); i++) {
-								double r1 = rs.get(i);
-								for (int j = i + 1; j < rs.size(); j++) {
-									double r2 = rs.get(j);
-									double dist = Math.abs(r1 - r2);
-									int cnt = 0;
-									if (dists.containsKey(dist))
-										cnt = dists.get(dist);
-									dists.put(dist, cnt + 1);
-
-									ds.add(dist);
-
-									total++;
-								}
-							}
+						mean = sum / total;
+						deviation = Math.sqrt(Math.max(0.0, sumsq / total - mean * mean));
 
-							mean = Stats.mean(ds);
-							deviation = Stats.sd(ds, mean);
-
-							conf = 1.0 / (1.0 + Math.exp(-total / 2.0));
-							//conf = Maths.log(1 + total, 100);
-							if (conf > 1.0)
-								conf = 1.0;
-							//if (total > 30) conf = 1.0;
-							//else conf = total / 30.0;
-							//Logs.debug("total = {}", total);
-
-							for (Entry<Double, Integer> en : dists.entrySet()) {
-								double ratio = 0;
-								ratio = en.getValue() / (rs.size() + 0.0);
-								hist.put(en.getKey(), ratio);
-							}
+						conf = 1.0 / (1.0 + Math.exp(-total / 2.0));
+						//conf = Maths.log(1 + total, 100);
+						if (conf > 1.0)
+							conf = 1.0;
 
+						for (Entry<Double, Integer> en : dists.entrySet()) {
+							double ratio = 0;
+							ratio = en.getValue() / (num + 0.0);
+							hist.put(en.getKey(), ratio);
 						}
-
-						itemSd.put(item, deviation);
-						itemMu.put(item, mean);
-						itemConf.put(item, conf);
-						itemHist.put(item, hist);
 					}
 
-					ratingItemSd.clear();
-					ratingItemSd.put(testRating, itemSd);
-
-					ratingItemMu.clear();
-					ratingItemMu.put(testRating, itemMu);
-
-					ratingItemConf.clear();
-					ratingItemConf.put(testRating, itemConf);
-
-					ratingItemHist.clear();
-					ratingItemHist.put(testRating, itemHist);
-				}
-				List<Double> sd = new ArrayList<>();
-				List<Double> mu = new ArrayList<>();
-				List<Double> cf = new ArrayList<>();
-				Map<Integer, Map<Double, Double>> histos = new HashMap<>();
-				for (String item : items) {
-					int index = sd.size();
-					sd.add(itemSd.get(item));
-					mu.add(itemMu.get(item));
-					cf.add(itemConf.get(item));
-					histos.put(index, itemHist.get(item));
+					histos.put(k, hist);
+					sd[k] = deviation;
+					mu[k] = mean;
+					cf[k] = conf;
 				}
 
-				similarity = SimUtils.bsSim(as, bs, priors, sd, mu, histos, cf);
+				similarity = SimUtils.bsSim(as, bs, n, Lists.toArray(priors), sd, mu, histos, cf);
 
 			} catch (Exception e) {
 				e.printStackTrace();
@@ -490,108 +478,39 @@ public abstract class DefaultCF extends AbstractCF {
 			break;
 		case PCC:
 		case caPCC:
-			if (as.size() < 2 || bs.size() < 2)
-				similarity = Double.NaN;
-			else
-				similarity = Sims.pcc(as, bs);
+			similarity = SimUtils.pearsonSim(as, bs, n);
 			break;
 		case MSD:
-			similarity = Sims.msd(as, bs);
+			similarity = Sims.msd(toList(as, n), toList(bs, n));
 			break;
 		case CPC:
-			similarity = Sims.cpc(as, bs, Dataset.median);
+			similarity = Sims.cpc(toList(as, n), toList(bs, n), Dataset.median);
 			break;
 		case PIP:
-			if (ratingItemMu == null)
-				ratingItemMu = new HashMap<>();
-			Map<String, Double> itemMeans = null;
-			if (ratingItemMu.containsKey(testRating))
-				itemMeans = ratingItemMu.get(testRating);
-			else {
-				itemMeans = new HashMap<>();
-				for (String item : itemRatingsMap.keySet()) {
-					double sum = 0.0;
-					Map<String, Rating> userRatings = itemRatingsMap.get(item);
-
-					int count = 0;
-					for (Rating r : userRatings.values()) {
-						if (r == testRating)
-							continue;
-						else {
-							count++;
-							sum += r.getRating();
-						}
-					}
-					if (count > 0)
-						itemMeans.put(item, sum / count);
-				}
-
-				ratingItemMu.clear(); // to save memory
-				ratingItemMu.put(testRating, itemMeans);
-			}
-
 			/* prep item-mean for the co-rated items */
-			List<Double> means = new ArrayList<>();
-			for (String item : items)
-				means.add(itemMeans.get(item));
+			double[] means = new double[n];
+			for (int k = 0; k < n; k++)
+				means[k] = itemSummary.count(items[k], testRating) > 0 ? itemSummary.mean(items[k], testRating)
+						: Double.NaN;
 
-			similarity = SimUtils.PIPSim(as, bs, means);
+			similarity = SimUtils.PIPSim(as, bs, n, means);
 			// System.out.println("PIP sim = " + similarity);
 
 			break;
 		case SM:
-			if (ratingItemPos == null) {
-				ratingItemPos = new HashMap<>();
-				ratingItemNeg = new HashMap<>();
-			}
-			Map<String, Integer> itemPos = null;
-			Map<String, Integer> itemNeg = null;
-			if (ratingItemPos.containsKey(testRating)) {
-				itemPos = ratingItemPos.get(testRating);
-				itemNeg = ratingItemNeg.get(testRating);
-			} else {
-				itemPos = new HashMap<>();
-				itemNeg = new HashMap<>();
-
-				for (String item : itemRatingsMap.keySet()) {
-					Map<String, Rating> userRatings = itemRatingsMap.get(item);
-
-					int pos = 0, neg = 0;
-					for (Rating r : userRatings.values()) {
-						if (r == testRating)
-							continue;
-						if (r.getRating() > Dataset.median)
-							pos++;
-						else
-							neg++;
-					}
-
-					itemPos.put(item, pos);
-					itemNeg.put(item, neg);
-				}
-
-				ratingItemPos.clear(); // to save memory
-				ratingItemNeg.clear(); // to save memory
-				ratingItemPos.put(testRating, itemPos);
-				ratingItemNeg.put(testRating, itemNeg);
-			}
-
-			List<Double> posSing = new ArrayList<>();
-			List<Double> negSing = new ArrayList<>();
+			double[] posSing = new double[n];
+			double[] negSing = new double[n];
 
 			int numUsers = userRatingsMap.keySet().size();
-			for (String item : items) {
-				double pos = itemPos.get(item);
-				double neg = itemNeg.get(item);
+			for (int k = 0; k < n; k++) {
+				double pos = itemSummary.positives(items[k], testRating);
+				double neg = itemSummary.count(items[k], testRating) - pos;
 
-				double ps = 1 - pos / numUsers;
-				double ns = 1 - neg / numUsers;
-
-				posSing.add(ps);
-				negSing.add(ns);
+				posSing[k] = 1 - pos / numUsers;
+				negSing[k] = 1 - neg / numUsers;
 			}
 
-			similarity = SimUtils.SMSim(as, bs, posSing, negSing);
+			similarity = SimUtils.SMSim(as, bs, n, posSing, negSing);
 			// System.out.println("SM sim = " + similarity);
 			break;
 		default:
@@ -601,11 +520,21 @@ public abstract class DefaultCF extends AbstractCF {
 		return similarity;
 	}
 
+	/**
+	 * @return the first n values of the array, for the similarities only given on lists
+	 */
+	private static List<Double> toList(double[] a, int n) {
+		List<Double> list = new ArrayList<>(n);
+		for (int i = 0; i < n; i++)
+			list.add(a[i]);
+
+		return list;
+	}
+
 	private List<Double> learnScalePriors(Rating testRating) {
 		List<Double> scales = new ArrayList<>();
-		double sum = 0.0;
-		for (Integer num : Dataset.scaleNum.values())
-			sum += num;
+		// scaleNum counts every training rating
+		double sum = Dataset.size;
 		if (testRating.getRating() > 0)
 			sum--;
 		for (int i = 0; i < Dataset.scaleSize; i++) {
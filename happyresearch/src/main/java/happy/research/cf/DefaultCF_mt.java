@@ -12,7 +12,6 @@ import java.util.Map.Entry;
 
 public abstract class DefaultCF_mt extends DefaultCF {
 	protected static List<Rating>[] ratingArrays = null;
-	protected static Thread[] threads = null;
 	protected static Performance pf = null;
 
 	protected List<Rating> threadRatings = null;
@@ -26,21 +25,32 @@ public abstract class DefaultCF_mt extends DefaultCF {
 	protected Performance runRecAlgorithm() throws Exception {
 		makeDirPaths();
 
-		int numThreads = params.RUNTIME_THREADS;
-		ratingArrays = DatasetUtils.splitCollection(testRatings, numThreads);
-		threads = new Thread[numThreads];
+		/* many small batches of test users, balanced over the workers of the shared pool */
+		int numTasks = params.RUNTIME_THREADS * params.RUNTIME_TASKS_PER_THREAD;
+		ratingArrays = DatasetUtils.splitByUsers(testRatings, numTasks);
 
 		pf = new Performance(methodId);
 
-		return runMultiThreads();
+		Performance perf = runMultiThreads();
+		TrustCache.report();
+
+		return perf;
 	}
 
 	protected abstract Performance runMultiThreads() throws Exception;
 
+	/**
+	 * Run the tasks of this method in the shared pool and wait for them to finish.
+	 */
+	protected void runTasks(List<? extends Runnable> tasks) throws Exception {
+		TaskPool.runAll("[" + methodId + "]", tasks);
+	}
+
 	protected void makeDirPaths() throws Exception {
 		int horizon = params.TRUST_PROPERGATION_LENGTH;
 		String trustDir = (params.TIDALTRUST ? "TT" : "MT") + horizon;
-		String trustDir2 = params.TIDALTRUST ? "TidalTrust" : "MoleTrust";
+		String trustDir2 = params.TIDALTRUST ? (params.TIDALTRUST_BREADTH_FIRST ? "TidalTrustBFS" : "TidalTrust")
+				: "MoleTrust";
 		String trustDir0 = null;
 		if (params.auto_trust_sets)
 			trustDir0 = current_trust_name;
@@ -52,6 +62,9 @@ public abstract class DefaultCF_mt extends DefaultCF {
 			trustDirs = new String[] { Dataset.TEMP_DIRECTORY, trustDir, trustDir2 };
 		}
 		trustDirPath = FileIO.makeDirPath(trustDirs);
+		trustCache = new TrustCache(params.auto_trust_sets ? trustDir2 + "-" + trustDir0 : trustDir2, horizon,
+				params.TRAIN_SET, trustDirPath, null);
+		MergeProfiles.clear();
 
 		FileIO.makeDirectory(trustDirPath);
 	}
@@ -1,6 +1,15 @@
 package happy.research.cf;
 
+import happy.coding.io.Logs;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Implement the <em>trust-based</em> method proposed in the literature
@@ -15,17 +24,84 @@ public abstract class DefaultTrust_mt extends DefaultCF_mt
 	{
 		Map<String, Map<String, Double>> trustMap = train();
 
+		List<Runnable> tasks = new ArrayList<>();
 		for (int i = 0; i < ratingArrays.length; i++)
+			tasks.add(new DefaultTrust_t(trustMap, i));
+		runTasks(tasks);
+
+		return pf;
+	}
+
+	protected abstract Map<String, Map<String, Double>> train() throws Exception;
+
+	/**
+	 * Train the trust of each trustor in the users who co-rated an item with it (see {@code PairTrustEngine}), by the
+	 * kernel, in batches of trustors over the task pool. Items with more than {@code trust.max.item.raters} raters are
+	 * not used to find the candidates.
+	 *
+	 * @return {trustor - {trustee - trust}}, only with the trustors trusting someone
+	 */
+	protected Map<String, Map<String, Double>> train(Collection<String> trustors, final PairTrustEngine.Kernel kernel)
+			throws Exception
+	{
+		final RatingMatrix m = ratingRows();
+		final Map<String, Map<String, Double>> trustMap = new ConcurrentHashMap<>();
+
+		final PairTrustEngine root = new PairTrustEngine(m, params.TRUST_MAX_ITEM_RATERS);
+		final int total = trustors.size();
+		final int step = Math.max(100, total / 20);
+		final AtomicLong done = new AtomicLong();
+		final AtomicLong pairs = new AtomicLong();
+		final long start = System.currentTimeMillis();
+
+		List<Callable<Void>> tasks = new ArrayList<>();
+		for (final List<String> batch : DatasetUtils.splitCollection(new ArrayList<>(trustors),
+				TaskPool.parallelism() * 16))
 		{
-			threads[i] = new Thread(new DefaultTrust_t(trustMap, i));
-			threads[i].start();
+			tasks.add(new Callable<Void>() {
+
+				@Override
+				public Void call() throws Exception
+				{
+					PairTrustEngine engine = root.copy();
+					for (String trustor : batch)
+					{
+						int a = m.userIndex(trustor);
+						if (a >= 0)
+						{
+							int num = engine.run(a, kernel);
+							pairs.addAndGet(engine.numCandidates());
+
+							if (num > 0)
+							{
+								Map<String, Double> trusteeMap = new HashMap<>();
+								for (int k = 0; k < num; k++)
+									trusteeMap.put(m.getUsers().key(engine.getResultNodes()[k]),
+											engine.getResultScores()[k]);
+								trustMap.put(trustor, trusteeMap);
+							}
+						}
+
+						long count = done.incrementAndGet();
+						if (count % step == 0 && count < total) progress("Training progress", count, total,
+								pairs.get(), start);
+					}
+					return null;
+				}
+			});
 		}
-		for (Thread tr : threads)
-			tr.join();
 
-		return pf;
+		TaskPool.invokeAll(tasks);
+		progress("Training done", done.get(), total, pairs.get(), start);
+
+		return trustMap;
 	}
 
-	protected abstract Map<String, Map<String, Double>> train();
+	private static void progress(String label, long count, int total, long pairs, long start)
+	{
+		long ms = Math.max(1, System.currentTimeMillis() - start);
+		Logs.debug("{}: {}/{} trustors, {} candidate pairs in {} ms, {} pairs/s", new Object[] { label, count, total,
+				pairs, ms, pairs * 1000 / ms });
+	}
 
 }
@@ -0,0 +1,240 @@
+package happy.research.cf;
+
+import happy.coding.math.Maths;
+import happy.coding.math.Stats;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * One-pass accumulators of the prediction, ranking and diversity measures. Users are added one by one and only
+ * running sums are kept, i.e., no list of per-rating or per-user values is materialised.
+ *
+ * <p>
+ * Averages skip NaN values (e.g., the average precision of a user without hits), the same as {@code Stats.mean} on
+ * the lists used before, so the measures are unchanged.
+ * </p>
+ *
+ * @author guoguibing
+ */
+public class Evaluator
+{
+	private int[]	cutoffs;
+
+	/* prediction */
+	private Mean	AE	= new Mean();
+	private Mean	SE	= new Mean();
+	private Mean	AUE	= new Mean();
+	private double	confs, confAEs;
+	private int		covered_ratings, covered_users, total_ratings, total_users;
+
+	/* ranking: one accumulator per cutoff */
+	private Mean[]	precisions, recalls, RRs, APs, nDCGs;
+
+	/* diversity */
+	private Mean	UD	= new Mean();
+	private Mean	IN	= new Mean();
+	private Mean	SD	= new Mean();
+
+	public Evaluator(int[] cutoffs)
+	{
+		this.cutoffs = cutoffs;
+
+		precisions = newMeans(cutoffs.length);
+		recalls = newMeans(cutoffs.length);
+		RRs = newMeans(cutoffs.length);
+		APs = newMeans(cutoffs.length);
+		nDCGs = newMeans(cutoffs.length);
+	}
+
+	private static Mean[] newMeans(int n)
+	{
+		Mean[] means = new Mean[n];
+		for (int i = 0; i < n; i++)
+			means[i] = new Mean();
+
+		return means;
+	}
+
+	/**
+	 * NaN-skipping running mean.
+	 */
+	public static class Mean
+	{
+		private double	sum;
+		private int		count;
+
+		public void add(double value)
+		{
+			if (Double.isNaN(value)) return;
+
+			sum += value;
+			count++;
+		}
+
+		public void add(Mean mean)
+		{
+			sum += mean.sum;
+			count += mean.count;
+		}
+
+		public double mean()
+		{
+			return sum / count;
+		}
+
+		public double sum()
+		{
+			return sum;
+		}
+
+		public int count()
+		{
+			return count;
+		}
+
+		public void clear()
+		{
+			sum = 0;
+			count = 0;
+		}
+	}
+
+	/**
+	 * @param numTest
+	 *            number of the user's test ratings
+	 * @param preds
+	 *            the user's predictions, null if the user is not covered
+	 */
+	public void addUserPredictions(int numTest, Collection<Prediction> preds)
+	{
+		total_users++;
+		total_ratings += numTest;
+		if (preds == null) return;
+
+		covered_users++;
+
+		Mean UE = new Mean();
+		for (Prediction pred : preds)
+		{
+			double e = pred.error();
+			AE.add(e);
+			SE.add(e * e);
+			UE.add(e);
+
+			confs += pred.getConf();
+			confAEs += pred.getConf() * e;
+
+			covered_ratings++;
+		}
+		AUE.add(UE.mean());
+	}
+
+	/**
+	 * Replace the rating errors summed by {@code addUserPredictions} with the same sums collected elsewhere, e.g., while
+	 * the predictions were made.
+	 */
+	public void setErrorSums(Mean AE, Mean SE, double confs, double confAEs)
+	{
+		this.AE = AE;
+		this.SE = SE;
+		this.confs = confs;
+		this.confAEs = confAEs;
+	}
+
+	/**
+	 * @param numTest
+	 *            number of the user's test (relevant) ratings
+	 * @param ranked
+	 *            the user's recommendations in rank order
+	 * @param numRec
+	 *            size of the user's whole recommendation list, used as the denominator of precision
+	 */
+	public void addUserRanking(int numTest, List<Prediction> ranked, int numRec)
+	{
+		int tp = 0, pos = 0, rated = 0;
+		double DCG = 0, iDCG = 0, RR = 0, sumPk = 0;
+
+		for (int c = 0; c < cutoffs.length; c++)
+		{
+			int cutoff = cutoffs[c];
+
+			for (; rated < Math.min(numTest, cutoff); rated++)
+				iDCG += 1.0 / Maths.log(rated + 2, 2);
+
+			for (; pos < Math.min(ranked.size(), cutoff); pos++)
+			{
+				if (ranked.get(pos).getTruth() > 0)
+				{
+					int rank = pos + 1;
+					DCG += 1.0 / Maths.log(rank + 1, 2);
+
+					tp++;
+					sumPk += (tp + 0.0) / rank;
+					if (RR == 0) RR = 1.0 / rank;
+				}
+			}
+
+			precisions[c].add((tp + 0.0) / numRec);
+			recalls[c].add((tp + 0.0) / numTest);
+			RRs[c].add(RR);
+			APs[c].add(sumPk / tp);
+			nDCGs[c].add(DCG / iDCG);
+		}
+	}
+
+	public void addUD(double ud)
+	{
+		UD.add(ud);
+	}
+
+	public void addIN(double in)
+	{
+		IN.add(in);
+	}
+
+	public void addSD(double sd)
+	{
+		SD.add(sd);
+	}
+
+	public void prediction(Measures ms)
+	{
+		ms.setMAE(AE.mean());
+		ms.setMAUE(AUE.mean());
+		ms.setMACE(confAEs / confs);
+		ms.setUC(covered_users, total_users);
+		ms.setRMSE(Math.sqrt(SE.mean()));
+		ms.setRC(covered_ratings, total_ratings);
+	}
+
+	public void ranking(Measures ms)
+	{
+		for (int c = 0; c < cutoffs.length; c++)
+		{
+			int cutoff = cutoffs[c];
+			double precision = precisions[c].mean();
+			double recall = recalls[c].mean();
+
+			ms.addPrecision(cutoff, precision);
+			ms.addRecall(cutoff, recall);
+			ms.addF1(cutoff, Stats.hMean(precision, recall));
+			ms.addNDCG(cutoff, nDCGs[c].mean());
+			ms.addMAP(cutoff, APs[c].mean());
+			ms.addMRR(cutoff, RRs[c].mean());
+		}
+	}
+
+	public void diversity(Measures ms)
+	{
+		ms.setUD(UD.mean());
+		ms.setIN(IN.mean());
+		ms.setSD(SD.mean());
+	}
+
+	public int getCoveredRatings()
+	{
+		return covered_ratings;
+	}
+
+}
@@ -1,5 +1,8 @@
 package happy.research.cf;
 
+import java.util.ArrayList;
+import java.util.List;
+
 
 /**
  * Use the collection-wide average item rating across all users and all items
@@ -20,13 +23,10 @@ public class GlobleAvg_mt extends DefaultCF_mt
 	{
 		double averageRating = RatingUtils.mean(userRatingsMap);
 
+		List<Runnable> tasks = new ArrayList<>();
 		for (int i = 0; i < ratingArrays.length; i++)
-		{
-			threads[i] = new Thread(new GlobalAve_t(i, averageRating));
-			threads[i].start();
-		}
-		for (Thread tr : threads)
-			tr.join();
+			tasks.add(new GlobalAve_t(i, averageRating));
+		runTasks(tasks);
 
 		return pf;
 	}
@@ -1,5 +1,8 @@
 package happy.research.cf;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Hybrid methods of PCC-CF and MT1
  * 
@@ -17,14 +20,10 @@ public class HybridCT_mt extends DefaultCF_mt
 	@Override
 	protected Performance runMultiThreads() throws Exception
 	{
+		List<Runnable> tasks = new ArrayList<>();
 		for (int i = 0; i < ratingArrays.length; i++)
-		{
-			threads[i] = new Thread(new HybridCT_t(i));
-			threads[i].start();
-		}
-
-		for (Thread tr : threads)
-			tr.join();
+			tasks.add(new HybridCT_t(i));
+		runTasks(tasks);
 
 		return pf;
 	}
@@ -1,19 +1,19 @@
 package happy.research.cf;
 
 import happy.coding.io.FileIO;
-import happy.coding.io.FileIO.MapWriter;
 import happy.coding.io.Logs;
 import happy.coding.math.Maths;
-import happy.coding.math.Sims;
 import happy.coding.math.Stats;
 import happy.coding.system.Systems;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
 
 /**
  * This approach is an implementation of our working paper: 
@@ -40,19 +40,18 @@ public class ITrust_mt extends DefaultCF_mt
 		// probe trust from ratings
 		probeITrust();
 
+		List<Runnable> tasks = new ArrayList<>();
 		for (int i = 0; i < ratingArrays.length; i++)
-		{
-			threads[i] = new Thread(new ITrust_t(i));
-			threads[i].start();
-		}
-		for (Thread tr : threads)
-			tr.join();
+			tasks.add(new ITrust_t(i));
+		runTasks(tasks);
 
 		return pf;
 	}
 
 	/**
-	 * Probe implicit trust from user ratings
+	 * Probe implicit trust from user ratings: the metric is a kernel of the all-pairs engine, run on all the users in
+	 * parallel, and the trusted neighbors go to the trust store of the trust directory.
+	 * 
 	 * @throws Exception 
 	 */
 	private void probeITrust() throws Exception
@@ -63,99 +62,158 @@ public class ITrust_mt extends DefaultCF_mt
 		if (FileIO.exist(trustDir)) return;
 		else FileIO.makeDirectory(trustDir);
 
+		RatingMatrix m = ratingRows();
+		PairTrustEngine.Kernel kernel = null;
 		switch (trustMetric)
 		{
 			case "TM1":
-				TM1();
+				kernel = TM1();
 				break;
 			case "TM2":
-				TM2();
+				kernel = TM2();
 				break;
 			case "TM3a":
-				TM3a();
+				kernel = TM3a(m);
 				break;
 			case "TM3b":
-				TM3b();
+				kernel = TM3b(m);
 				break;
 			case "TM4":
-				TM4();
+				kernel = TM4(m);
 				break;
 			case "TM5":
-				TM5();
+				kernel = TM5(m);
 				break;
 		}
+		if (kernel == null) return;
+
+		probe(m, kernel);
+		TrustStore.open(trustDir).flush();
 
 	}
 
 	/**
-	 * Implementation of the <em>TM1</em> method.
-	 * 
-	 * @throws Exception
+	 * Run the kernel from every user, in batches of users over the task pool, and record the quality of the trust
+	 * lists in the order of the users.
 	 */
-	private void TM1() throws Exception
+	private void probe(final RatingMatrix m, final PairTrustEngine.Kernel kernel) throws Exception
 	{
-		List<Double> recalls = new ArrayList<>();
-		List<Double> NDCGs = new ArrayList<>();
-
-		for (final String u : userRatingsMap.keySet())
+		final List<String> users = new ArrayList<>(userRatingsMap.keySet());
+		final double[] recalls = new double[users.size()];
+		final double[] NDCGs = new double[users.size()];
+		Arrays.fill(recalls, Double.NaN);
+		Arrays.fill(NDCGs, Double.NaN);
+
+		final PairTrustEngine root = new PairTrustEngine(m);
+		List<Integer> positions = new ArrayList<>();
+		for (int k = 0; k < users.size(); k++)
+			positions.add(k);
+
+		List<Callable<Long>> tasks = new ArrayList<>();
+		for (final List<Integer> batch : DatasetUtils.splitCollection(positions, TaskPool.parallelism() * 16))
 		{
-			Map<String, Rating> usRatings = userRatingsMap.get(u);
-			if (usRatings == null)
-			{
-				if (userTNsMap.containsKey(u)) recalls.add(0.0);
-				continue;
-			}
-
-			/* variable for storing u's trusted neighbors */
-			Map<String, Double> tls = new HashMap<>();
-
-			for (String v : userRatingsMap.keySet())
-			{
-				if (u.equals(v)) continue;
-				Map<String, Rating> vsRatings = userRatingsMap.get(v);
-				if (vsRatings == null) continue;
+			tasks.add(new Callable<Long>() {
 
-				double sum = 0;
-				int count = 0;
-				for (String item : usRatings.keySet())
+				@Override
+				public Long call() throws Exception
 				{
-					if (vsRatings.containsKey(item))
+					PairTrustEngine engine = root.copy();
+					long pairs = 0;
+					for (int k : batch)
 					{
-						Rating ur = usRatings.get(item);
-						Rating vr = vsRatings.get(item);
-
-						double dis = Math.abs(ur.getRating() - vr.getRating());
-						double val = 1 - dis / Dataset.maxScale;
-
-						sum += val;
-						count++;
+						String u = users.get(k);
+						Map<String, Rating> usRatings = userRatingsMap.get(u);
+						int a = usRatings == null ? -1 : m.userIndex(u);
+						if (a < 0)
+						{
+							if (userTNsMap.containsKey(u)) recalls[k] = 0.0;
+							continue;
+						}
+
+						int num = engine.run(a, kernel);
+						pairs += engine.numCandidates();
+
+						/* variable for storing u's trusted neighbors */
+						Map<String, Double> tls = new HashMap<>();
+						for (int j = 0; j < num; j++)
+							tls.put(m.getUsers().key(engine.getResultNodes()[j]), engine.getResultScores()[j]);
+
+						saveTrust(u, tls);
+						trustList(recalls, NDCGs, k, u, tls);
 					}
+					return pairs;
 				}
+			});
+		}
+
+		long start = System.currentTimeMillis();
+		long pairs = 0;
+		for (long n : TaskPool.invokeAll(tasks))
+			pairs += n;
+
+		Logs.debug("Probed {} from {} users over {} candidate pairs in {} ms", new Object[] { trustMetric,
+				users.size(), pairs, System.currentTimeMillis() - start });
+
+		recordResults(recalls, NDCGs);
+	}
+
+	/**
+	 * Implementation of the <em>TM1</em> method.
+	 */
+	private PairTrustEngine.Kernel TM1()
+	{
+		return new PairTrustEngine.Kernel() {
 
-				if (count > 0)
+			@Override
+			public double trust(int a, int b, CoRatings co)
+			{
+				int count = co.size();
+				double sum = 0;
+				for (int k = 0; k < count; k++)
 				{
-					double trust = sum / count;
-					if (trust > 0) tls.put(v, trust);
+					double dis = Math.abs(co.as()[k] - co.bs()[k]);
+					double val = 1 - dis / Dataset.maxScale;
+
+					sum += val;
 				}
-			}
 
-			saveTrust(u, tls);
-			trustList(recalls, NDCGs, u, tls);
-		}
-		recordResults(recalls, NDCGs);
+				double trust = sum / count;
+				return trust > 0 ? trust : Double.NaN;
+			}
+		};
 
 	} /* end of TM1() */
 
 	/**
-	 * record the results by NDCGS and Recalls
+	 * @return means of the users' ratings, indexed by the rows of the matrix
+	 */
+	private double[] userMeans(RatingMatrix m)
+	{
+		double[] means = new double[m.numUsers()];
+		for (int u = 0; u < means.length; u++)
+			means[u] = RatingUtils.mean(userRatingsMap.get(m.getUsers().key(u)), null);
+
+		return means;
+	}
+
+	/**
+	 * record the results by NDCGS and Recalls, skipping the users without them (NaN)
 	 * 
 	 * @param recalls
 	 * @param NDCGs
 	 */
-	private void recordResults(List<Double> recalls, List<Double> NDCGs)
+	private void recordResults(double[] recalls, double[] NDCGs)
 	{
-		double NDCG = Stats.mean(NDCGs);
-		double recall = Stats.mean(recalls);
+		List<Double> rs = new ArrayList<>();
+		List<Double> ns = new ArrayList<>();
+		for (int k = 0; k < recalls.length; k++)
+		{
+			if (!Double.isNaN(recalls[k])) rs.add(recalls[k]);
+			if (!Double.isNaN(NDCGs[k])) ns.add(NDCGs[k]);
+		}
+
+		double NDCG = Stats.mean(ns);
+		double recall = Stats.mean(rs);
 		Logs.debug("NDCG = {}, recall = {}", NDCG, recall);
 
 		methodSettings.add(NDCG + "");
@@ -167,10 +225,11 @@ public class ITrust_mt extends DefaultCF_mt
 	 * 
 	 * @param recalls
 	 * @param NDCGs
+	 * @param k position of user u, where its recall and NDCG are recorded
 	 * @param u
 	 * @param tls
 	 */
-	private void trustList(List<Double> recalls, List<Double> NDCGs, final String u, Map<String, Double> tls)
+	private void trustList(double[] recalls, double[] NDCGs, int k, final String u, Map<String, Double> tls)
 	{
 		Map<String, Double> tns = userTNsMap.get(u);
 		if (tns != null && tns.size() > 0)
@@ -180,7 +239,7 @@ public class ITrust_mt extends DefaultCF_mt
 			{
 				if (tls.containsKey(v)) cnt++;
 			}
-			recalls.add((cnt + 0.0) / tns.size());
+			recalls[k] = (cnt + 0.0) / tns.size();
 
 			/* ranking trust list */
 			if (tls.size() > 0)
@@ -209,13 +268,13 @@ public class ITrust_mt extends DefaultCF_mt
 					DCG += 1 / Maths.log(rank + 1, 2);
 				}
 
-				NDCGs.add(DCG / iDCG);
+				NDCGs[k] = DCG / iDCG;
 			}
 		}
 	}
 
 	/**
-	 * save the computed implicit trust to disk
+	 * save the computed implicit trust to the trust store of the trust directory
 	 * 
 	 * @param u active user u
 	 * @param tns u's trusted neighbors
@@ -223,302 +282,158 @@ public class ITrust_mt extends DefaultCF_mt
 	 */
 	private void saveTrust(final String u, Map<String, Double> tns) throws Exception
 	{
-		if (tns.size() > 0)
-		{
-			String trustFile = trustDir + u + ".txt";
-
-			FileIO.writeMap(trustFile, tns, new MapWriter<String, Double>() {
-
-				@Override
-				public String processEntry(String key, Double val)
-				{
-					return key + " " + val;
-				}
-			}, false);
-
-		}
+		if (tns.size() > 0) TrustStore.open(trustDir).put(u, tns);
 	}
 
 	/**
 	 * Implementation of the <em>TM2</em> method.
-	 * 
-	 * @throws Exception
 	 */
-	private void TM2() throws Exception
+	private PairTrustEngine.Kernel TM2()
 	{
-		List<Double> recalls = new ArrayList<>();
-		List<Double> NDCGs = new ArrayList<>();
-
-		int thetaI = 2;
-		double thetaS = 0.707;
-
-		for (final String u : userRatingsMap.keySet())
-		{
-			Map<String, Rating> usRatings = userRatingsMap.get(u);
-			if (usRatings == null)
-			{
-				if (userTNsMap.containsKey(u)) recalls.add(0.0);
-				continue;
-			}
+		final int thetaI = 2;
+		final double thetaS = 0.707;
 
-			/* variable for storing u's trusted neighbors */
-			Map<String, Double> tls = new HashMap<>();
+		return new PairTrustEngine.Kernel() {
 
-			for (String v : userRatingsMap.keySet())
+			@Override
+			public double trust(int a, int b, CoRatings co)
 			{
-				if (u.equals(v)) continue;
-				Map<String, Rating> vsRatings = userRatingsMap.get(v);
-				if (vsRatings == null) continue;
-
-				List<Double> us = new ArrayList<>();
-				List<Double> vs = new ArrayList<>();
-				for (String item : usRatings.keySet())
-				{
-					if (vsRatings.containsKey(item))
-					{
-						Rating ur = usRatings.get(item);
-						Rating vr = vsRatings.get(item);
-
-						us.add(ur.getRating());
-						vs.add(vr.getRating());
-					}
-				}
-				int size = us.size();
-				if (size < 2) continue;
-				if (size <= thetaI) continue;
+				int size = co.size();
+				if (size < 2) return Double.NaN;
+				if (size <= thetaI) return Double.NaN;
 
-				double pcc = Sims.pcc(us, vs);
-				if (Double.isNaN(pcc)) continue;
+				double pcc = co.pcc();
+				if (Double.isNaN(pcc)) return Double.NaN;
 				if (pcc > thetaS)
 				{
 					double trust = pcc;
-					if (trust > 0) tls.put(v, trust);
+					if (trust > 0) return trust;
 				}
 
+				return Double.NaN;
 			}
-
-			saveTrust(u, tls);
-			trustList(recalls, NDCGs, u, tls);
-		}
-		recordResults(recalls, NDCGs);
+		};
 
 	} /* end of TM2() */
 
 	/**
 	 * Implementation of the <em>TM3a</em> method.
-	 * 
-	 * @throws Exception
 	 */
-	private void TM3a() throws Exception
+	private PairTrustEngine.Kernel TM3a(RatingMatrix m)
 	{
-		List<Double> recalls = new ArrayList<>();
-		List<Double> NDCGs = new ArrayList<>();
-
-		for (final String u : userRatingsMap.keySet())
-		{
-			Map<String, Rating> usRatings = userRatingsMap.get(u);
-			if (usRatings == null)
-			{
-				if (userTNsMap.containsKey(u)) recalls.add(0.0);
-				continue;
-			}
-			double meanU = RatingUtils.mean(usRatings, null);
+		final double[] means = userMeans(m);
 
-			/* variable for storing u's trusted neighbors */
-			Map<String, Double> tls = new HashMap<>();
+		return new PairTrustEngine.Kernel() {
 
-			for (String v : userRatingsMap.keySet())
+			@Override
+			public double trust(int a, int b, CoRatings co)
 			{
-				if (u.equals(v)) continue;
-				Map<String, Rating> vsRatings = userRatingsMap.get(v);
-				if (vsRatings == null) continue;
-
-				double meanV = RatingUtils.mean(vsRatings, null);
+				double meanU = means[a];
+				double meanV = means[b];
 
+				int count = co.size();
 				double sum = 0;
-				int count = 0;
-				for (String item : usRatings.keySet())
+				for (int k = 0; k < count; k++)
 				{
-					if (vsRatings.containsKey(item))
-					{
-						Rating ur = usRatings.get(item);
-						Rating vr = vsRatings.get(item);
-
-						double pred = meanU + vr.getRating() - meanV;
-						double dist = pred - ur.getRating();
-						double val = 1 - dist / Dataset.maxScale;
-
-						sum += val;
-						count++;
-					}
-				}
+					double pred = meanU + co.bs()[k] - meanV;
+					double dist = pred - co.as()[k];
+					double val = 1 - dist / Dataset.maxScale;
 
-				if (count > 0)
-				{
-					double trust = sum / count;
-					if (trust > 0) tls.put(v, trust);
+					sum += val;
 				}
 
+				double trust = sum / count;
+				return trust > 0 ? trust : Double.NaN;
 			}
-			saveTrust(u, tls);
-			trustList(recalls, NDCGs, u, tls);
-		}
-		recordResults(recalls, NDCGs);
+		};
 
 	} /* end of TM3a() */
 
 	/**
 	 * Implementation of the <em>TM3b</em> method.
-	 * 
-	 * @throws Exception
 	 */
-	private void TM3b() throws Exception
+	private PairTrustEngine.Kernel TM3b(final RatingMatrix m)
 	{
-		List<Double> recalls = new ArrayList<>();
-		List<Double> NDCGs = new ArrayList<>();
-
-		double lambda = 0.05;
-		for (final String u : userRatingsMap.keySet())
-		{
-			Map<String, Rating> usRatings = userRatingsMap.get(u);
-			if (usRatings == null)
-			{
-				if (userTNsMap.containsKey(u)) recalls.add(0.0);
-				continue;
-			}
-			double meanU = RatingUtils.mean(usRatings, null);
-			int sizeU = usRatings.size();
+		final double[] means = userMeans(m);
+		final double lambda = 0.05;
 
-			/* variable for storing u's trusted neighbors */
-			Map<String, Double> tls = new HashMap<>();
+		return new PairTrustEngine.Kernel() {
 
-			for (String v : userRatingsMap.keySet())
+			@Override
+			public double trust(int a, int b, CoRatings co)
 			{
-				if (u.equals(v)) continue;
-				Map<String, Rating> vsRatings = userRatingsMap.get(v);
-				if (vsRatings == null) continue;
-				int sizeV = vsRatings.size();
-
-				double meanV = RatingUtils.mean(vsRatings, null);
+				double meanU = means[a];
+				double meanV = means[b];
+				int sizeU = m.numRatings(a);
+				int sizeV = m.numRatings(b);
 
+				int count = co.size();
 				double sum = 0;
-				int count = 0;
-				for (String item : usRatings.keySet())
+				for (int k = 0; k < count; k++)
 				{
-					if (vsRatings.containsKey(item))
-					{
-						Rating ur = usRatings.get(item);
-						Rating vr = vsRatings.get(item);
-
-						double pred = meanU + vr.getRating() - meanV;
-						double dist = pred - ur.getRating();
-						double val = Math.pow(dist / Dataset.maxScale, 2);
+					double pred = meanU + co.bs()[k] - meanV;
+					double dist = pred - co.as()[k];
+					double val = Math.pow(dist / Dataset.maxScale, 2);
 
-						sum += val;
-						count++;
-					}
+					sum += val;
 				}
 
-				if (count > 0)
-				{
-					double trust = 1 - sum / count;
-					double factor = (count + 0.0) / (sizeU + sizeV - count);
-
-					trust *= factor;
+				double trust = 1 - sum / count;
+				double factor = (count + 0.0) / (sizeU + sizeV - count);
 
-					if (trust > lambda) tls.put(v, trust);
-				}
+				trust *= factor;
 
+				return trust > lambda ? trust : Double.NaN;
 			}
-			saveTrust(u, tls);
-			trustList(recalls, NDCGs, u, tls);
-		}
-		recordResults(recalls, NDCGs);
+		};
 
 	} /* end of TM3b() */
 
 	/**
 	 * Implementation of the <em>TM5</em> method.
-	 * 
-	 * @throws Exception
 	 */
-	private void TM5() throws Exception
+	private PairTrustEngine.Kernel TM5(RatingMatrix m)
 	{
-		List<Double> recalls = new ArrayList<>();
-		List<Double> NDCGs = new ArrayList<>();
-
-		for (final String u : userRatingsMap.keySet())
-		{
-			Map<String, Rating> usRatings = userRatingsMap.get(u);
-			if (usRatings == null)
-			{
-				if (userTNsMap.containsKey(u)) recalls.add(0.0);
-				continue;
-			}
-			double meanU = RatingUtils.mean(usRatings, null);
+		final double[] means = userMeans(m);
 
-			/* variable for storing u's trusted neighbors */
-			Map<String, Double> tls = new HashMap<>();
+		return new PairTrustEngine.Kernel() {
 
-			for (String v : userRatingsMap.keySet())
+			@Override
+			public double trust(int a, int b, CoRatings co)
 			{
-				if (u.equals(v)) continue;
-				Map<String, Rating> vsRatings = userRatingsMap.get(v);
-				if (vsRatings == null) continue;
-
-				double meanV = RatingUtils.mean(vsRatings, null);
+				double meanU = means[a];
+				double meanV = means[b];
 
+				int count = co.size();
 				double sum = 0;
-				int count = 0;
-				List<Double> us = new ArrayList<>();
-				List<Double> vs = new ArrayList<>();
-				for (String item : usRatings.keySet())
+				for (int k = 0; k < count; k++)
 				{
-					if (vsRatings.containsKey(item))
-					{
-						Rating ur = usRatings.get(item);
-						Rating vr = vsRatings.get(item);
+					double pred = meanU + co.bs()[k] - meanV;
+					double dist = Math.abs(pred - co.as()[k]);
+					double val = dist / Dataset.maxScale;
 
-						double pred = meanU + vr.getRating() - meanV;
-						double dist = Math.abs(pred - ur.getRating());
-						double val = dist / Dataset.maxScale;
-
-						sum += val;
-						count++;
-
-						us.add(ur.getRating());
-						vs.add(vr.getRating());
-					}
+					sum += val;
 				}
 
-				if (count > 0)
-				{
-					double uncertainty = sum / count;
-
-					if (count < 2) continue;
-					double pcc = Sims.pcc(us, vs);
-					if (Double.isNaN(pcc)) continue;
+				double uncertainty = sum / count;
 
-					double belief = 0.5 * (1 - uncertainty) * (1 + pcc);
-					double trust = belief;
+				if (count < 2) return Double.NaN;
+				double pcc = co.pcc();
+				if (Double.isNaN(pcc)) return Double.NaN;
 
-					if (trust > 0) tls.put(v, trust);
-				}
+				double belief = 0.5 * (1 - uncertainty) * (1 + pcc);
+				double trust = belief;
 
+				return trust > 0 ? trust : Double.NaN;
 			}
-			saveTrust(u, tls);
-			trustList(recalls, NDCGs, u, tls);
-		}
-		recordResults(recalls, NDCGs);
+		};
 
 	} /* end of TM5() */
 
 	/**
 	 * Implementation of the <em>TM4</em> method.
-	 * 
-	 * @throws Exception
 	 */
-	private void TM4() throws Exception
+	private PairTrustEngine.Kernel TM4(RatingMatrix m)
 	{
 		double epsilon = 0.0;
 		switch (Dataset.dataset)
@@ -534,59 +449,31 @@ public class ITrust_mt extends DefaultCF_mt
 				break;
 		}
 
-		List<Double> recalls = new ArrayList<>();
-		List<Double> NDCGs = new ArrayList<>();
-
-		for (final String u : userRatingsMap.keySet())
-		{
-			Map<String, Rating> usRatings = userRatingsMap.get(u);
-			if (usRatings == null)
-			{
-				if (userTNsMap.containsKey(u)) recalls.add(0.0);
-				continue;
-			}
-			double meanU = RatingUtils.mean(usRatings, null);
+		final double[] means = userMeans(m);
+		final double eps = epsilon;
 
-			/* variable for storing u's trusted neighbors */
-			Map<String, Double> tls = new HashMap<>();
+		return new PairTrustEngine.Kernel() {
 
-			for (String v : userRatingsMap.keySet())
+			@Override
+			public double trust(int a, int b, CoRatings co)
 			{
-				if (u.equals(v)) continue;
-				Map<String, Rating> vsRatings = userRatingsMap.get(v);
-				if (vsRatings == null) continue;
-
-				double meanV = RatingUtils.mean(vsRatings, null);
+				double meanU = means[a];
+				double meanV = means[b];
 
+				int involve = co.size();
 				int correct = 0;
-				int involve = 0;
-				for (String item : usRatings.keySet())
+				for (int k = 0; k < involve; k++)
 				{
-					if (vsRatings.containsKey(item))
-					{
-						Rating ur = usRatings.get(item);
-						Rating vr = vsRatings.get(item);
+					double pred = meanU + co.bs()[k] - meanV;
+					double dist = Math.abs(pred - co.as()[k]);
 
-						double pred = meanU + vr.getRating() - meanV;
-						double dist = Math.abs(pred - ur.getRating());
-
-						if (dist <= epsilon) correct++;
-
-						involve++;
-					}
-				}
-
-				if (involve > 0)
-				{
-					double trust = (correct + 0.0) / involve;
-					if (trust > 0) tls.put(v, trust);
+					if (dist <= eps) correct++;
 				}
 
+				double trust = (correct + 0.0) / involve;
+				return trust > 0 ? trust : Double.NaN;
 			}
-			saveTrust(u, tls);
-			trustList(recalls, NDCGs, u, tls);
-		}
-		recordResults(recalls, NDCGs);
+		};
 
 	} /* end of TM4() */
 }
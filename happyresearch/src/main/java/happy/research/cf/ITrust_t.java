@@ -7,15 +7,16 @@ import java.util.Map;
 public class ITrust_t extends Thread_t
 {
 
-	private String	trustMetric;
-	private String	trustDir;
+	private String		trustMetric;
+	private TrustCache	trustCache;
 
 	public ITrust_t(int id)
 	{
 		super(id);
 		trustMetric = params.readParam("itrust.probe.method");
-		trustDir = FileIO.makeDirectory(Dataset.DIRECTORY,
+		String trustDir = FileIO.makeDirectory(Dataset.DIRECTORY,
 				trustMetric + "-" + params.TRAIN_SET.substring(0, params.TRAIN_SET.lastIndexOf(".base")));
+		trustCache = new TrustCache(trustMetric, 0, params.TRAIN_SET, trustDir, " ");
 	}
 
 	@SuppressWarnings("unchecked")
@@ -25,12 +26,10 @@ public class ITrust_t extends Thread_t
 		try
 		{
 			String u = testRating.getUserId();
-			String file = trustDir + u + ".txt";
-			if (!FileIO.exist(file)) return null;
 
-			/* read trust information from trust file */
-			Map<String, Double> tns = FileIO.readAsIDMap(file, " ");
-			if (tns == null) return null;
+			/* read trust information from the trust store */
+			Map<String, Double> tns = trustCache.get(u);
+			if (tns.isEmpty()) return null;
 			else return new Map[] { tns };
 
 		} catch (Exception e)
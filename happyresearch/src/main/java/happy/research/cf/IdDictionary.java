@@ -0,0 +1,72 @@
+package happy.research.cf;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Interns raw user/item ids into dense integer ids {0, 1, ..., size-1} in the order they are first seen.
+ *
+ * @author guoguibing
+ */
+public class IdDictionary
+{
+	private Map<String, Integer>	ids;
+	private List<String>			keys;
+
+	public IdDictionary()
+	{
+		this(16);
+	}
+
+	public IdDictionary(int capacity)
+	{
+		ids = new HashMap<>(capacity);
+		keys = new ArrayList<>(capacity);
+	}
+
+	/**
+	 * @return the dense id of the key, a new id will be assigned if the key is not seen before
+	 */
+	public int intern(String key)
+	{
+		Integer id = ids.get(key);
+		if (id == null)
+		{
+			id = keys.size();
+			ids.put(key, id);
+			keys.add(key);
+		}
+
+		return id;
+	}
+
+	/**
+	 * @return the dense id of the key, or -1 if the key is not seen before
+	 */
+	public int id(String key)
+	{
+		Integer id = ids.get(key);
+		return id == null ? -1 : id;
+	}
+
+	/**
+	 * @return the interned (shared) key instance of a dense id
+	 */
+	public String key(int id)
+	{
+		return keys.get(id);
+	}
+
+	public boolean contains(String key)
+	{
+		return ids.containsKey(key);
+	}
+
+	public int size()
+	{
+		return keys.size();
+	}
+
+}
@@ -0,0 +1,296 @@
+package happy.research.cf;
+
+import happy.coding.io.Logs;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Bounded cache of item-item similarities, shared by all the threads. An item pair is packed into a long key {min id,
+ * max id} over the dense ids of an {@code IdDictionary}, and its similarity is kept as a float.
+ *
+ * <p>
+ * The cache is split into segments, each guarded by its own lock, of 4-way sets: a key can only be stored in the 4
+ * slots of its set, and when they are all taken, one of them is evicted by the clock (second chance) policy. Memory
+ * is fixed when the cache is created: 13 bytes per slot.
+ * </p>
+ *
+ * <p>
+ * The cache can be pre-warmed from a sparse item-item matrix on disk, one {item item similarity} triple per line, and
+ * saved in the same format.
+ * </p>
+ *
+ * @author guoguibing
+ */
+public class ItemSimilarityCache
+{
+	private final static int	WAYS		= 4;
+	private final static long	EMPTY		= -1L;
+	private final static int	SEGMENTS	= 64;
+
+	private IdDictionary		items;
+	private Segment[]			segments;
+	private int					setMask;
+
+	private static class Segment
+	{
+		long[]	keys;
+		float[]	values;
+		byte[]	used;
+		/* clock hand of each set */
+		byte[]	hands;
+
+		long	hits, misses, evictions;
+		int		size;
+
+		Segment(int numSets)
+		{
+			keys = new long[numSets * WAYS];
+			values = new float[numSets * WAYS];
+			used = new byte[numSets * WAYS];
+			hands = new byte[numSets];
+			Arrays.fill(keys, EMPTY);
+		}
+	}
+
+	/**
+	 * @param items
+	 *            dictionary of the items, not to be changed while the cache is used
+	 * @param capacity
+	 *            maximum number of the cached pairs, rounded up to a power of 2
+	 */
+	public ItemSimilarityCache(IdDictionary items, int capacity)
+	{
+		this.items = items;
+
+		int numSets = 1;
+		while (numSets * WAYS * SEGMENTS < capacity)
+			numSets <<= 1;
+		setMask = numSets - 1;
+
+		segments = new Segment[SEGMENTS];
+		for (int s = 0; s < SEGMENTS; s++)
+			segments[s] = new Segment(numSets);
+	}
+
+	public static long key(int i, int j)
+	{
+		return i < j ? ((long) i << 32) | j : ((long) j << 32) | i;
+	}
+
+	private static long hash(long z)
+	{
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * @return the cached similarity of items i and j, or NaN if it is not cached
+	 */
+	public float get(int i, int j)
+	{
+		long key = key(i, j);
+		long h = hash(key);
+		Segment seg = segments[(int) h & (SEGMENTS - 1)];
+		int base = ((int) (h >>> 32) & setMask) * WAYS;
+
+		synchronized (seg)
+		{
+			for (int w = base; w < base + WAYS; w++)
+			{
+				if (seg.keys[w] == key)
+				{
+					seg.used[w] = 1;
+					seg.hits++;
+					return seg.values[w];
+				}
+			}
+			seg.misses++;
+		}
+
+		return Float.NaN;
+	}
+
+	/**
+	 * Cache the similarity of items i and j, evicting another pair of the same set if the set is full.
+	 *
+	 * @param sim
+	 *            similarity, not NaN
+	 */
+	public void put(int i, int j, float sim)
+	{
+		long key = key(i, j);
+		long h = hash(key);
+		Segment seg = segments[(int) h & (SEGMENTS - 1)];
+		int set = (int) (h >>> 32) & setMask;
+		int base = set * WAYS;
+
+		synchronized (seg)
+		{
+			int free = -1;
+			for (int w = base; w < base + WAYS; w++)
+			{
+				if (seg.keys[w] == key)
+				{
+					seg.values[w] = sim;
+					return;
+				}
+				if (free < 0 && seg.keys[w] == EMPTY) free = w;
+			}
+
+			if (free < 0)
+			{
+				/* second chance: skip and clear the recently used slots */
+				int hand = seg.hands[set];
+				while (seg.used[base + hand] != 0)
+				{
+					seg.used[base + hand] = 0;
+					hand = (hand + 1) % WAYS;
+				}
+				free = base + hand;
+				seg.hands[set] = (byte) ((hand + 1) % WAYS);
+				seg.evictions++;
+			} else
+				seg.size++;
+
+			seg.keys[free] = key;
+			seg.values[free] = sim;
+			seg.used[free] = 0;
+		}
+	}
+
+	public float get(String itemA, String itemB)
+	{
+		int i = items.id(itemA), j = items.id(itemB);
+		return i < 0 || j < 0 ? Float.NaN : get(i, j);
+	}
+
+	public IdDictionary getItems()
+	{
+		return items;
+	}
+
+	/**
+	 * Pre-warm the cache from a sparse item-item matrix, one {item item similarity} triple per line. Pairs of unknown
+	 * items are skipped.
+	 *
+	 * @return number of the cached pairs
+	 */
+	public int load(String path) throws IOException
+	{
+		int count = 0;
+		try (BufferedReader br = new BufferedReader(new FileReader(path)))
+		{
+			String line;
+			while ((line = br.readLine()) != null)
+			{
+				String[] data = line.trim().split("[ \t,]+");
+				if (data.length < 3) continue;
+
+				int i = items.id(data[0]), j = items.id(data[1]);
+				if (i < 0 || j < 0) continue;
+
+				float sim = Float.parseFloat(data[2]);
+				if (Float.isNaN(sim)) continue;
+
+				put(i, j, sim);
+				count++;
+			}
+		}
+
+		Logs.debug("Pre-warmed {} item similarities from {}", count, path);
+		return count;
+	}
+
+	/**
+	 * Save the cached pairs in the format read by {@code load}.
+	 *
+	 * @return number of the saved pairs
+	 */
+	public int save(String path) throws IOException
+	{
+		int count = 0;
+		try (BufferedWriter bw = new BufferedWriter(new FileWriter(path)))
+		{
+			for (Segment seg : segments)
+			{
+				synchronized (seg)
+				{
+					for (int w = 0; w < seg.keys.length; w++)
+					{
+						long key = seg.keys[w];
+						if (key == EMPTY) continue;
+
+						bw.write(items.key((int) (key >>> 32)) + " " + items.key((int) key) + " " + seg.values[w]);
+						bw.newLine();
+						count++;
+					}
+				}
+			}
+		}
+
+		return count;
+	}
+
+	public long hits()
+	{
+		long n = 0;
+		for (Segment seg : segments)
+			synchronized (seg)
+			{
+				n += seg.hits;
+			}
+		return n;
+	}
+
+	public long misses()
+	{
+		long n = 0;
+		for (Segment seg : segments)
+			synchronized (seg)
+			{
+				n += seg.misses;
+			}
+		return n;
+	}
+
+	public long evictions()
+	{
+		long n = 0;
+		for (Segment seg : segments)
+			synchronized (seg)
+			{
+				n += seg.evictions;
+			}
+		return n;
+	}
+
+	public int size()
+	{
+		int n = 0;
+		for (Segment seg : segments)
+			synchronized (seg)
+			{
+				n += seg.size;
+			}
+		return n;
+	}
+
+	public int capacity()
+	{
+		return SEGMENTS * (setMask + 1) * WAYS;
+	}
+
+	public void report()
+	{
+		long h = hits(), m = misses();
+		Logs.debug("Item similarity cache: {} hits, {} misses, hit rate = {}, {}/{} pairs, {} evictions", new Object[] {
+				h, m, String.format("%.4f", h + m == 0 ? 0 : (h + 0.0) / (h + m)), size(), capacity(), evictions() });
+	}
+
+}
@@ -3,10 +3,10 @@ package happy.research.cf;
 import happy.coding.io.FileIO;
 import happy.coding.io.Logs;
 import happy.coding.io.Strings;
-import happy.coding.math.Randoms;
-import happy.coding.math.Sims;
 import happy.coding.math.Stats;
 import happy.coding.system.Debug;
+import happy.research.cf.ConfigParams.ValidateMethod;
+import happy.research.utils.SimUtils;
 
 import java.io.File;
 import java.util.ArrayList;
@@ -14,6 +14,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
 
 import de.bwaldvogel.liblinear.Feature;
 import de.bwaldvogel.liblinear.FeatureNode;
@@ -33,17 +34,24 @@ import de.bwaldvogel.liblinear.SolverType;
  */
 public class MATrust_mt extends DefaultCF_mt {
 	private Model model;
-	private Map<String, Double> user_ins;
+	private PairFeatures features;
+	/* competence of each user (by the rows of the rating matrix) before it is scaled by the trustor's ratings */
+	private double[] user_cos;
 	private static final double epsilon = 1.2;
 	private static final double theta = 1.2;
 
 	public MATrust_mt() {
 		methodId = "MultiAspect Trust";
 		model = null;
-		user_ins = null;
+		features = null;
+		user_cos = null;
 	}
 
 	protected double benevolence(String a, String b) {
+		return benevolence(ratingRows(), a, b);
+	}
+
+	protected double benevolence(RatingMatrix m, String a, String b) {
 		Map<String, Rating> asRatings = userRatingsMap.get(a);
 		Map<String, Rating> bsRatings = userRatingsMap.get(b);
 
@@ -52,21 +60,17 @@ public class MATrust_mt extends DefaultCF_mt {
 		if (bsRatings == null || bsRatings.size() < 1)
 			return Double.NaN;
 
-		List<Double> as = new ArrayList<>();
-		List<Double> bs = new ArrayList<>();
-
-		for (Entry<String, Rating> en : asRatings.entrySet()) {
-			String itemId = en.getKey();
-			if (bsRatings.containsKey(itemId)) {
-				as.add(en.getValue().getRating());
-				bs.add(bsRatings.get(itemId).getRating());
-			}
-		}
+		CoRatings co = CoRatings.local();
+		co.rows(m, m.userIndex(a), m.userIndex(b), -1);
 
-		return Sims.pcc(as, bs);
+		return co.pcc();
 	}
 
 	protected double competence(String a, String b, double epsilon) {
+		return competence(ratingRows(), a, b, epsilon);
+	}
+
+	protected double competence(RatingMatrix m, String a, String b, double epsilon) {
 		Map<String, Rating> asRatings = userRatingsMap.get(a);
 		Map<String, Rating> bsRatings = userRatingsMap.get(b);
 
@@ -84,20 +88,34 @@ public class MATrust_mt extends DefaultCF_mt {
 		else
 			r = 1.0;
 
+		int u = m.userIndex(b);
+		double val = user_cos != null && epsilon == MATrust_mt.epsilon ? user_cos[u]
+				: competence(m, u, epsilon);
+
+		return r * val;
+	}
+
+	/**
+	 * @return share of the ratings of other users on the items of user b that are within epsilon of b's ratings
+	 */
+	private static double competence(RatingMatrix m, int b, double epsilon) {
+		int[] rowPtr = m.getRowPtr(), colIdx = m.getColIdx();
+		double[] rowVals = m.getRowVals();
+		int[] colPtr = m.getColPtr(), rowIdx = m.getRowIdx();
+		double[] colVals = m.getColVals();
+
 		int count = 0;
 		int count_ex = 0;
 
-		for (Entry<String, Rating> en : bsRatings.entrySet()) {
-			String itemId = en.getKey();
-			double bsRating = en.getValue().getRating();
+		for (int k = rowPtr[b]; k < rowPtr[b + 1]; k++) {
+			int item = colIdx[k];
+			double bsRating = rowVals[k];
 
-			Map<String, Rating> userRatings = itemRatingsMap.get(itemId);
-			for (Rating rate : userRatings.values()) {
-				String j = rate.getUserId();
-				if (j.equals(b))
+			for (int p = colPtr[item]; p < colPtr[item + 1]; p++) {
+				if (rowIdx[p] == b)
 					continue;
 
-				double jsRating = rate.getRating();
+				double jsRating = colVals[p];
 				double e = Math.abs(bsRating - jsRating);
 				if (e < epsilon)
 					count++;
@@ -106,74 +124,52 @@ public class MATrust_mt extends DefaultCF_mt {
 			}
 		}
 
-		double val = (count + 0.0) / count_ex;
-
-		return r * val;
+		return (count + 0.0) / count_ex;
 	}
 
+	/**
+	 * @return {user - PCC between the user's ratings and the average ratings of the items}, for the trustors and
+	 *         distrustors
+	 */
 	protected Map<String, Double> integrity() {
 		Map<String, Double> user_integrity = new HashMap<>();
 
-		Map<String, Rating> avgRatings = new HashMap<>();
-		for (Entry<String, Map<String, Rating>> en : itemRatingsMap.entrySet()) {
-			String item = en.getKey();
-
-			int num = 0;
+		RatingMatrix m = ratingRows();
+		double[] avgRatings = new double[m.numItems()];
+		int[] colPtr = m.getColPtr();
+		double[] colVals = m.getColVals();
+		for (int i = 0; i < avgRatings.length; i++) {
 			double sum = 0;
-			Map<String, Rating> vals = en.getValue();
-			for (Rating r : vals.values()) {
-				num++;
-				sum += r.getRating();
-			}
-			double avg = sum / num;
-
-			Rating r = new Rating();
-			r.setUserId("average_user");
-			r.setItemId(item);
-			r.setRating(avg);
-
-			avgRatings.put(item, r);
+			for (int p = colPtr[i]; p < colPtr[i + 1]; p++)
+				sum += colVals[p];
+			avgRatings[i] = sum / (colPtr[i + 1] - colPtr[i]);
 		}
 
-		for (String u : userTNsMap.keySet()) {
-			Map<String, Rating> itemRatings = userRatingsMap.get(u);
-			if (itemRatings == null || itemRatings.size() < 1)
-				continue;
-
-			List<Double> as = new ArrayList<>();
-			List<Double> bs = new ArrayList<>();
+		int[] rowPtr = m.getRowPtr(), colIdx = m.getColIdx();
+		double[] rowVals = m.getRowVals();
+		double[] as = new double[64], bs = new double[64];
 
-			for (Entry<String, Rating> en : itemRatings.entrySet()) {
-				String itemId = en.getKey();
-				if (avgRatings.containsKey(itemId)) {
-					as.add(avgRatings.get(itemId).getRating());
-					bs.add(en.getValue().getRating());
-				}
-			}
-			double pcc = Sims.pcc(as, bs);
-			if (!Double.isNaN(pcc))
-				user_integrity.put(u, pcc);
-		}
-
-		for (String u : userDNsMap.keySet()) {
+		List<String> users = new ArrayList<>(userTNsMap.keySet());
+		users.addAll(userDNsMap.keySet());
+		for (String u : users) {
 			if (user_integrity.containsKey(u))
 				continue;
 
-			Map<String, Rating> itemRatings = userRatingsMap.get(u);
-			if (itemRatings == null || itemRatings.size() < 1)
+			int a = m.userIndex(u);
+			if (a < 0 || m.numRatings(a) < 1)
 				continue;
 
-			List<Double> as = new ArrayList<>();
-			List<Double> bs = new ArrayList<>();
-
-			for (Entry<String, Rating> en : itemRatings.entrySet()) {
-				String itemId = en.getKey();
-				if (avgRatings.containsKey(itemId)) {
-					as.add(avgRatings.get(itemId).getRating());
-					bs.add(en.getValue().getRating());
-				}
+			int n = m.numRatings(a);
+			if (as.length < n) {
+				as = new double[n];
+				bs = new double[n];
 			}
-			double pcc = Sims.pcc(as, bs);
+			for (int k = 0; k < n; k++) {
+				as[k] = avgRatings[colIdx[rowPtr[a] + k]];
+				bs[k] = rowVals[rowPtr[a] + k];
+			}
+
+			double pcc = SimUtils.pearsonSim(as, bs, n);
 			if (!Double.isNaN(pcc))
 				user_integrity.put(u, pcc);
 		}
@@ -182,6 +178,10 @@ public class MATrust_mt extends DefaultCF_mt {
 	}
 
 	protected double predictability(String a, String b, double theta) {
+		return predictability(ratingRows(), a, b, theta);
+	}
+
+	protected double predictability(RatingMatrix m, String a, String b, double theta) {
 		Map<String, Rating> asRatings = userRatingsMap.get(a);
 		Map<String, Rating> bsRatings = userRatingsMap.get(b);
 		if (asRatings == null || asRatings.size() < 1)
@@ -189,24 +189,18 @@ public class MATrust_mt extends DefaultCF_mt {
 		if (bsRatings == null || bsRatings.size() < 1)
 			return Double.NaN;
 
+		CoRatings co = CoRatings.local();
+		int common = co.rows(m, m.userIndex(a), m.userIndex(b), -1);
+
 		int nu = 0, nn = 0, np = 0;
-		int common = 0;
-		for (Entry<String, Rating> en : asRatings.entrySet()) {
-			String item = en.getKey();
-			double ra = en.getValue().getRating();
-			if (bsRatings.containsKey(item)) {
-				double rb = bsRatings.get(item).getRating();
-
-				double e = ra - rb;
-				if (e > theta)
-					nn++;
-				else if (e < -theta)
-					np++;
-				else
-					nu++;
-
-				common++;
-			}
+		for (int k = 0; k < common; k++) {
+			double e = co.as()[k] - co.bs()[k];
+			if (e > theta)
+				nn++;
+			else if (e < -theta)
+				np++;
+			else
+				nu++;
 		}
 
 		int max = Stats.max(new int[] { nu, nn, np })[0];
@@ -221,79 +215,169 @@ public class MATrust_mt extends DefaultCF_mt {
 
 		if (asRatings == null || bsRatings == null)
 			return 0;
-		int num = 0;
 
-		for (String item : asRatings.keySet()) {
-			if (bsRatings.containsKey(item)) {
-				num++;
-			}
-		}
-
-		return num;
+		RatingMatrix m = ratingRows();
+		return CoRatings.local().rows(m, m.userIndex(a), m.userIndex(b), -1);
 	}
 
-	protected void train_model() throws Exception {
-		int i = 0, s = 20000;
-		int num_pos = 0;
-		int num_neg = 0;
-		double[][] X = new double[s][4];
-		double[] Y = new double[s];
-
-		this.user_ins = integrity();
+	/**
+	 * Features {benevolence, competence, integrity, predictability} of the trust and distrust pairs, in the order of
+	 * the trustors and then of their trustees (trust before distrust). The competence and integrity of the users are
+	 * computed once, and the features of the pairs in parallel.
+	 */
+	protected PairFeatures features() throws Exception {
+		String path = featuresPath();
+		String tag = params.MATRUST_PERSIST ? "epsilon=" + epsilon + ", theta=" + theta + inputsTag() : null;
+		long start = System.currentTimeMillis();
+
+		if (params.MATRUST_PERSIST && FileIO.exist(path)) {
+			PairFeatures pf = PairFeatures.load(path, tag);
+			if (pf != null) {
+				Logs.debug("Features of {} pairs loaded from {} in {} ms",
+						new Object[] { pf.rows(), path,
+								System.currentTimeMillis() - start });
+				return pf;
+			}
+		}
 
-		Logs.debug("Training logistic model ...");
+		final PairFeatures pf = new PairFeatures(4);
 		for (String a : userTNsMap.keySet()) {
+			for (String b : userTNsMap.get(a).keySet())
+				if (!a.equals(b))
+					pf.add(a, b, 1.0);
+
 			if (!userDNsMap.containsKey(a))
 				continue;
+			for (String b : userDNsMap.get(a).keySet())
+				if (!a.equals(b))
+					pf.add(a, b, 0.0);
+		}
 
-			// positive instances
-			Map<String, Double> tns = userTNsMap.get(a);
-			for (Entry<String, Double> en : tns.entrySet()) {
-				String b = en.getKey();
-				if (a.equals(b))
-					continue;
+		final RatingMatrix m = ratingRows();
+		final Map<String, Double> user_ins = integrity();
+		final double[] cos = new double[m.numUsers()];
 
-				double be = benevolence(a, b);
-				double co = competence(a, b, epsilon);
-				double in = Double.NaN;
-				if (user_ins.containsKey(b))
-					in = user_ins.get(b);
-				double pr = predictability(a, b, theta);
+		List<Callable<Void>> tasks = new ArrayList<>();
+		for (final int[] range : ranges(cos.length)) {
+			tasks.add(new Callable<Void>() {
 
-				X[i][0] = be;
-				X[i][1] = co;
-				X[i][2] = in;
-				X[i][3] = pr;
-				Y[i] = 1.0;
+				@Override
+				public Void call() throws Exception {
+					for (int u = range[0]; u < range[1]; u++)
+						cos[u] = competence(m, u, epsilon);
+					return null;
+				}
+			});
+		}
+		TaskPool.invokeAll(tasks);
+		user_cos = cos;
+
+		tasks.clear();
+		for (final int[] range : ranges(pf.rows())) {
+			tasks.add(new Callable<Void>() {
+
+				@Override
+				public Void call() throws Exception {
+					for (int r = range[0]; r < range[1]; r++) {
+						String a = pf.trustor(r), b = pf.trustee(r);
+						Double in = user_ins.get(b);
+
+						pf.set(r, 0, benevolence(m, a, b));
+						pf.set(r, 1, competence(m, a, b, epsilon));
+						pf.set(r, 2, in == null ? Double.NaN : in);
+						pf.set(r, 3, predictability(m, a, b, theta));
+					}
+					return null;
+				}
+			});
+		}
+		TaskPool.invokeAll(tasks);
 
-				i++;
-				num_pos++;
-			}
+		Logs.debug("Features of {} pairs computed in {} ms", pf.rows(),
+				System.currentTimeMillis() - start);
 
-			// negative instances
-			Map<String, Double> dns = userDNsMap.get(a);
-			for (Entry<String, Double> en : dns.entrySet()) {
-				String b = en.getKey();
-				if (a.equals(b))
-					continue;
+		if (params.MATRUST_PERSIST)
+			pf.save(path, tag);
+
+		return pf;
+	}
 
-				double be = benevolence(a, b);
-				double co = competence(a, b, epsilon);
-				double in = Double.NaN;
-				if (user_ins.containsKey(b))
-					in = user_ins.get(b);
-				double pr = predictability(a, b, theta);
+	/**
+	 * @return {from, to} ranges splitting [0, n) into about 16 tasks per worker
+	 */
+	private static List<int[]> ranges(int n) {
+		int parts = Math.max(1, Math.min(n, TaskPool.parallelism() * 16));
+		List<int[]> ranges = new ArrayList<>();
+		for (int t = 0; t < parts; t++)
+			ranges.add(new int[] { (int) ((long) n * t / parts),
+					(int) ((long) n * (t + 1) / parts) });
+
+		return ranges;
+	}
 
-				X[i][0] = be;
-				X[i][1] = co;
-				X[i][2] = in;
-				X[i][3] = pr;
-				Y[i] = 0.0;
+	/**
+	 * @return content hashes of the rating, trust and distrust sets the features are computed from, as
+	 *         ", <file name>=<hash or none>" for each of them
+	 */
+	private static String inputsTag() throws Exception {
+		String ratingSet = params.VALIDATE_METHOD == ValidateMethod.leave_one_out ? Dataset.RATING_SET
+				: params.TRAIN_SET;
+		String trustSet = (params.auto_trust_sets ? current_trust_dir : Dataset.DIRECTORY) + Dataset.TRUST_SET;
+		String[] inputs = { Dataset.DIRECTORY + ratingSet, trustSet, Dataset.DIRECTORY + Dataset.DISTRUST_SET };
+
+		String tag = "";
+		for (String input : inputs) {
+			File file = new File(input);
+			tag += ", " + file.getName() + "=" + (file.exists() ? RatingSnapshot.hash(file) : "none");
+		}
 
-				i++;
-				num_neg++;
-			}
+		return tag;
+	}
 
+	/**
+	 * @return path of the features in the temp directory (of the dataset) for the training set (of the fold)
+	 */
+	private static String featuresPath() {
+		String train = params.TRAIN_SET;
+		if (train.lastIndexOf('.') > 0)
+			train = train.substring(0, train.lastIndexOf('.'));
+
+		return Dataset.TEMP_DIRECTORY + "matrust-features-" + train + ".bin";
+	}
+
+	protected void train_model() throws Exception {
+		this.model = train_model(SolverType.valueOf(params.MATRUST_SOLVER),
+				params.MATRUST_C, params.MATRUST_EPS);
+	}
+
+	/**
+	 * Train the logistic model on the pairs of the trustors with distrust; the features are only computed (or
+	 * loaded) by the first call.
+	 * 
+	 * @param C
+	 *            cost of constraints violation
+	 * @param eps
+	 *            stopping criteria
+	 */
+	protected Model train_model(SolverType solver, double C, double eps)
+			throws Exception {
+		if (features == null)
+			features = features();
+		PairFeatures pf = features;
+
+		Logs.debug("Training logistic model ...");
+		int i = 0;
+		int num_pos = 0;
+		int num_neg = 0;
+		for (int r = 0; r < pf.rows(); r++) {
+			if (!userDNsMap.containsKey(pf.trustor(r)))
+				continue;
+
+			i++;
+			if (pf.label(r) > 0)
+				num_pos++;
+			else
+				num_neg++;
 		}
 
 		Logs.info("positive intances: " + num_pos + ", negative instances: "
@@ -305,28 +389,25 @@ public class MATrust_mt extends DefaultCF_mt {
 		prob.bias = 1;// the value of bias
 
 		prob.y = new double[i];
-		for (int k = 0; k < i; k++)
-			prob.y[k] = Y[k];
-
 		prob.x = new FeatureNode[i][];
 
-		for (int k = 0; k < i; k++) {
+		int k = 0;
+		for (int r = 0; r < pf.rows(); r++) {
+			if (!userDNsMap.containsKey(pf.trustor(r)))
+				continue;
+
+			prob.y[k] = pf.label(r);
+
 			List<FeatureNode> fns = new ArrayList<>();
 			for (int p = 0; p < 4; p++) {
-				if (!Double.isNaN(X[k][p])) {
-					fns.add(new FeatureNode(p + 1, X[k][p]));
+				if (!Double.isNaN(pf.get(r, p))) {
+					fns.add(new FeatureNode(p + 1, pf.get(r, p)));
 				}
 			}
-			prob.x[k] = new FeatureNode[fns.size()];
-			for (int m = 0; m < fns.size(); m++) {
-				prob.x[k][m] = fns.get(m);
-			}
+			prob.x[k] = fns.toArray(new FeatureNode[fns.size()]);
+			k++;
 		}
 
-		SolverType solver = SolverType.L2R_LR; // -s 0
-		double C = 1.0; // cost of constraints violation
-		double eps = 0.001; // stopping criteria
-
 		Parameter param = new Parameter(solver, C, eps);
 
 		Model model = Linear.train(prob, param);
@@ -338,113 +419,154 @@ public class MATrust_mt extends DefaultCF_mt {
 			model.save(modelFile);
 		}
 
-		this.model = model;
-
 		Logs.info("Learned features weights:"
 				+ Strings.toString(model.getFeatureWeights()));
 		Logs.debug("Done!");
-	}
-
-	private double combine_features(double[] ws, double[] fs, int... indexes) {
-		double val = 0;
-
-		for (int i : indexes) {
-			if (!Double.isNaN(fs[i])) {
-				val += ws[i] * fs[i];
-			}
-		}
-		// bias
-		val += ws[4] * 1.0;
 
-		// trust
-		val = 1.0 / (1.0 + Math.exp(-val));
-
-		return val;
+		return model;
 	}
 
+	/**
+	 * Feature combinations whose trust values are generated: single, double, three and four components
+	 */
+	private static final int[][] COMBINATIONS = { { 0 }, { 1 }, { 2 }, { 3 },
+			{ 0, 1 }, { 0, 2 }, { 0, 3 }, { 1, 2 }, { 1, 3 }, { 2, 3 },
+			{ 1, 2, 3 }, { 0, 2, 3 }, { 0, 1, 3 }, { 0, 1, 2 },
+			{ 0, 1, 2, 3 } };
+	/* number of feature rows scored at a time */
+	private static final int BLOCK = 512;
+
 	/**
 	 * Trust values are re-generated based on different features<br/>
 	 * Distrust values are not re-generated as we will not use them in our work.
 	 * 
+	 * <p>
+	 * The logistic model is evaluated over blocks of feature rows, for all the
+	 * combinations at once, in parallel partitions of the trustors. The trust
+	 * values of a combination go to the trust store of its directory, e.g.,
+	 * Trust/0_1/ for benevolence and competence, from which they are loaded
+	 * with auto.trust.sets on.
+	 * </p>
 	 */
 	protected void gen_trust() throws Exception {
 
-		double[] ws = model.getFeatureWeights();
+		final double[] ws = model.getFeatureWeights();
+		final PairFeatures pf = features;
+
+		final TrustStore[] stores = new TrustStore[COMBINATIONS.length];
+		for (int c = 0; c < stores.length; c++)
+			stores[c] = TrustStore.open(trustDir(COMBINATIONS[c]));
 
 		/**
 		 * generate trust information
 		 */
 		Logs.debug("Predict trust values ...");
-		for (String a : userTNsMap.keySet()) {
-			// positive instances
-			Map<String, Double> tns = userTNsMap.get(a);
-			for (Entry<String, Double> en : tns.entrySet()) {
-				String b = en.getKey();
-				if (a.equals(b))
-					continue;
+		long start = System.currentTimeMillis();
 
-				double be = benevolence(a, b);
-				double co = competence(a, b, epsilon);
-				double in = Double.NaN;
-				if (user_ins.containsKey(b))
-					in = user_ins.get(b);
-				double pr = predictability(a, b, theta);
-
-				double[] fs = new double[4];
-				fs[0] = be;
-				fs[1] = co;
-				fs[2] = in;
-				fs[3] = pr;
-
-				// single component
-				String line = a + " " + b;
-				String content = null;
-				int[] indexes = null;
-				double val = 0;
-				for (int i = 0; i < 4; i++) {
-					indexes = new int[] { i };
-					val = combine_features(ws, fs, indexes);
-
-					content = line + " " + val;
-					output_trust(content, indexes);
-				}
+		/* partitions of the rows, not splitting the rows of a trustor */
+		List<Callable<Void>> tasks = new ArrayList<>();
+		for (int[] range : ranges(pf.rows())) {
+			final int from = align(pf, range[0]), to = align(pf, range[1]);
+			if (from >= to)
+				continue;
+
+			tasks.add(new Callable<Void>() {
 
-				// double components
-				for (int i = 0; i < 4; i++) {
-					for (int j = i + 1; j < 4; j++) {
-						indexes = new int[] { i, j };
-						val = combine_features(ws, fs, indexes);
+				@Override
+				public Void call() throws Exception {
+					double[] scores = score(ws, pf, from, to);
 
-						content = line + " " + val;
-						output_trust(content, indexes);
+					int first = from;
+					while (first < to) {
+						int end = align(pf, first + 1);
+						output_trust(stores, pf, scores, from, first, end);
+						first = end;
 					}
+					return null;
 				}
+			});
+		}
+		TaskPool.invokeAll(tasks);
 
-				// three components
-				for (int i = 0; i < 4; i++) {
-					indexes = Randoms.nextIntArray(3, 0, 4,
-							new int[] { i });
-					val = combine_features(ws, fs, indexes);
+		for (TrustStore store : stores)
+			store.flush();
 
-					content = line + " " + val;
-					output_trust(content, indexes);
-				}
+		Logs.debug("Done! {} pairs scored in {} ms", pf.rows(),
+				System.currentTimeMillis() - start);
+	}
 
-				// four components
-				indexes = new int[] { 0, 1, 2, 3 };
-				val = combine_features(ws, fs, indexes);
+	/**
+	 * @return the first row of a trustor at or after the row
+	 */
+	private static int align(PairFeatures pf, int row) {
+		while (row > 0 && row < pf.rows()
+				&& pf.trustor(row).equals(pf.trustor(row - 1)))
+			row++;
 
-				content = line + " " + val;
-				output_trust(content, indexes);
+		return row;
+	}
 
+	/**
+	 * Evaluate the logistic model for all the combinations over rows [from,
+	 * to), a block of rows at a time: the weighted features of a block are
+	 * computed once (0 if missing), and then summed per combination.
+	 * 
+	 * @return {scores[(row - from) * combinations + c]}
+	 */
+	private static double[] score(double[] ws, PairFeatures pf, int from, int to) {
+		int nc = COMBINATIONS.length, cols = pf.cols();
+		double[] values = pf.getValues();
+		double[] terms = new double[BLOCK * cols];
+		double[] scores = new double[(to - from) * nc];
+
+		for (int b = from; b < to; b += BLOCK) {
+			int n = Math.min(BLOCK, to - b);
+
+			for (int k = 0; k < n * cols; k++) {
+				double x = values[b * cols + k];
+				terms[k] = Double.isNaN(x) ? 0 : ws[k % cols] * x;
 			}
 
+			for (int k = 0; k < n; k++) {
+				int out = (b - from + k) * nc;
+				for (int c = 0; c < nc; c++) {
+					// bias
+					double val = ws[4] * 1.0;
+					for (int i : COMBINATIONS[c])
+						val += terms[k * cols + i];
+
+					// trust
+					scores[out + c] = 1.0 / (1.0 + Math.exp(-val));
+				}
+			}
 		}
 
-		Logs.debug("Done!");
+		return scores;
 	}
 
-	private void output_trust(String line, int... indexes) throws Exception {
+	/**
+	 * Output the trust values of the trustor of rows [first, end) (the trust
+	 * rows only) to the stores of the combinations.
+	 */
+	private static void output_trust(TrustStore[] stores, PairFeatures pf,
+			double[] scores, int from, int first, int end) throws Exception {
+		int nc = COMBINATIONS.length;
+		for (int c = 0; c < nc; c++) {
+			Map<String, Double> tns = new HashMap<>();
+			for (int r = first; r < end; r++) {
+				if (pf.label(r) > 0)
+					tns.put(pf.trustee(r), scores[(r - from) * nc + c]);
+			}
+
+			if (tns.size() > 0)
+				stores[c].put(pf.trustor(first), tns);
+		}
+	}
+
+	/**
+	 * @return trust directory of a feature combination, e.g., Trust/0_1/
+	 */
+	private static String trustDir(int... indexes) {
 		String dir = Dataset.DIRECTORY + "Trust/";
 		for (int i = 0; i < indexes.length; i++) {
 			int index = indexes[i];
@@ -453,10 +575,8 @@ public class MATrust_mt extends DefaultCF_mt {
 			dir += index;
 		}
 		dir += "/";
-		FileIO.makeDirectory(dir);
-		String file = dir + "trust.txt";
 
-		FileIO.writeString(file, line, true);
+		return dir;
 	}
 
 	/**
@@ -1,11 +1,14 @@
 package happy.research.cf;
 
-import happy.coding.io.FileIO;
 import happy.coding.io.Logs;
-import happy.research.utils.MoleTrust;
+import happy.research.utils.MoleTrustEngine;
+import happy.research.utils.TrustGraph;
 
 import java.io.File;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
 
 public class MTx_mt extends DefaultCF_mt
 {
@@ -20,31 +23,60 @@ public class MTx_mt extends DefaultCF_mt
 	{
 		probeMTTnScores();
 
+		List<Runnable> tasks = new ArrayList<>();
 		for (int i = 0; i < ratingArrays.length; i++)
-		{
-			threads[i] = new Thread(new MTx_t(i));
-			threads[i].start();
-		}
-		for (Thread tr : threads)
-			tr.join();
+			tasks.add(new MTx_t(i));
+		runTasks(tasks);
 
 		return pf;
 	}
 
+	/**
+	 * Propagate trust from all the source users in parallel, into the trust store of the trust directory. Users
+	 * already in the store (or with a text file of an earlier run) are skipped.
+	 */
 	protected void probeMTTnScores() throws Exception
 	{
-		int horizon = params.TRUST_PROPERGATION_LENGTH;
+		final int horizon = params.TRUST_PROPERGATION_LENGTH;
 		Logs.debug("Building MT{} Data to: {} ...", horizon, trustDirPath);
 
-		for (String user : testUserRatingsMap.keySet())
+		final TrustStore store = TrustStore.open(trustDirPath);
+		final TrustGraph<String> graph = TrustGraph.of(userTNsMap);
+
+		Collection<String> users = params.TRUST_ALL_SOURCES ? userTNsMap.keySet() : testUserRatingsMap.keySet();
+		List<String> sources = new ArrayList<>();
+		for (String user : users)
+		{
+			if (!store.contains(user) && !new File(trustDirPath + user + ".txt").exists()) sources.add(user);
+		}
+
+		List<Callable<Void>> tasks = new ArrayList<>();
+		for (final List<String> batch : DatasetUtils.splitCollection(sources, TaskPool.parallelism() * 16))
 		{
-			File userFile = new File(trustDirPath + user + ".txt");
-			if (userFile.exists()) continue;
+			tasks.add(new Callable<Void>() {
 
-			Map<String, Double> trustScores = MoleTrust.runAlgorithm(userTNsMap, user, horizon);
-			if (trustScores.size() > 0) FileIO.writeMap(userFile.getPath(), trustScores);
+				@Override
+				public Void call() throws Exception
+				{
+					/* one engine per batch, as its scratch buffers are sized to the whole graph */
+					MoleTrustEngine<String> engine = new MoleTrustEngine<>(graph);
+					for (String user : batch)
+					{
+						int source = graph.node(user);
+						int num = source < 0 ? 0 : engine.run(source, horizon, MoleTrustEngine.FILMTRUST_THRESHOLD);
+						store.put(user, graph, engine.getResultNodes(), engine.getResultScores(), num);
+					}
+					return null;
+				}
+			});
 		}
-		Logs.debug("Done!");
+
+		long start = System.currentTimeMillis();
+		TaskPool.invokeAll(tasks);
+		store.flush();
+
+		Logs.debug("Done! {} sources in {} ms, {} users in the trust store", new Object[] { sources.size(),
+				System.currentTimeMillis() - start, store.size() });
 	}
 
 }
@@ -0,0 +1,83 @@
+package happy.research.cf;
+
+import java.util.Map;
+
+/**
+ * {@code RatingStore} adapter over the nested {user, {item, rating}} and {item, {user, rating}} maps.
+ *
+ * @author guoguibing
+ */
+public class MapRatingStore implements RatingStore
+{
+	private Map<String, Map<String, Rating>>	userRatingsMap;
+	private Map<String, Map<String, Rating>>	itemRatingsMap;
+	private int									size;
+
+	public MapRatingStore(Map<String, Map<String, Rating>> userRatingsMap,
+			Map<String, Map<String, Rating>> itemRatingsMap)
+	{
+		this.userRatingsMap = userRatingsMap;
+		this.itemRatingsMap = itemRatingsMap;
+
+		for (Map<String, Rating> rs : userRatingsMap.values())
+			size += rs.size();
+	}
+
+	@Override
+	public int numUsers()
+	{
+		return userRatingsMap.size();
+	}
+
+	@Override
+	public int numItems()
+	{
+		return itemRatingsMap.size();
+	}
+
+	@Override
+	public int size()
+	{
+		return size;
+	}
+
+	@Override
+	public boolean containsUser(String user)
+	{
+		return userRatingsMap.containsKey(user);
+	}
+
+	@Override
+	public double getRating(String user, String item)
+	{
+		Map<String, Rating> rs = userRatingsMap.get(user);
+		if (rs == null) return 0.0;
+
+		Rating r = rs.get(item);
+		return r == null ? 0.0 : r.getRating();
+	}
+
+	@Override
+	public int numUserRatings(String user)
+	{
+		Map<String, Rating> rs = userRatingsMap.get(user);
+		return rs == null ? 0 : rs.size();
+	}
+
+	@Override
+	public int numItemRatings(String item)
+	{
+		Map<String, Rating> rs = itemRatingsMap.get(item);
+		return rs == null ? 0 : rs.size();
+	}
+
+	@Override
+	public double userMean(String user)
+	{
+		Map<String, Rating> rs = userRatingsMap.get(user);
+		if (rs == null || rs.size() < 1) return Double.NaN;
+
+		return RatingUtils.mean(rs.values());
+	}
+
+}
@@ -0,0 +1,212 @@
+package happy.research.cf;
+
+import happy.coding.io.Logs;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Merged rating profiles of the users for the Merge methods, computed once per user (with no rating held out) and
+ * kept in an LRU cache shared by all the threads. A profile is then adjusted for each test rating, see
+ * {@code Merge_t.mergeRatings}.
+ *
+ * <p>
+ * Cache entries are keyed by (epoch, variant, user), where the variant gives the settings of the merge, e.g.,
+ * A2B1C3E0, and the epoch is advanced by {@code clear} whenever the rating or trust data are reloaded, so that no
+ * profile of previous data is kept or returned. The cache is split into segments, each an access-ordered map guarded
+ * by its own lock, and bounded by the total size of its profiles: the number of their trusted neighbours plus merged
+ * items. The segments of an epoch are published together with it by {@code clear}, and read without locking.
+ * </p>
+ *
+ * @author guoguibing
+ */
+public class MergeProfiles
+{
+	private final static int			SEGMENTS	= 16;
+
+	/* segments of the current epoch, replaced by clear() */
+	private static volatile Segments	current		= new Segments(0);
+
+	private final static AtomicLong		hits		= new AtomicLong();
+	private final static AtomicLong		misses		= new AtomicLong();
+	private final static AtomicLong		evictions	= new AtomicLong();
+
+	/**
+	 * Merged profile of a user: its trusted neighbours with ratings (in the order of the trust scores) and the merged
+	 * items, ranked by confidence in descending order.
+	 */
+	public static class Profile
+	{
+		/* {trusted neighbour - trust}, including the user itself */
+		Map<String, Double>	tnScores;
+		/* user's own ratings kept unmerged (B1), empty otherwise */
+		Map<String, Double>	activeRatings;
+
+		String[]			tns;
+		double[]			trusts;
+		double[]			sims;
+
+		String[]			items;
+		double[]			means;
+		double[]			confidences;
+
+		int weight()
+		{
+			return tns.length + items.length;
+		}
+
+		public Map<String, Double> getTnScores()
+		{
+			return tnScores;
+		}
+	}
+
+	private static class Key
+	{
+		private int		epoch;
+		private String	variant, user;
+		private int		hash;
+
+		Key(int epoch, String variant, String user)
+		{
+			this.epoch = epoch;
+			this.variant = variant;
+			this.user = user;
+
+			hash = (epoch * 31 + variant.hashCode()) * 31 + user.hashCode();
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj)
+		{
+			if (!(obj instanceof Key)) return false;
+
+			Key k = (Key) obj;
+			return hash == k.hash && epoch == k.epoch && user.equals(k.user) && variant.equals(k.variant);
+		}
+	}
+
+	/**
+	 * Segments of an epoch, published as a whole so that a key is always put into the segments of its own epoch.
+	 */
+	private static class Segments
+	{
+		final int		epoch;
+		final Segment[]	segments	= new Segment[SEGMENTS];
+
+		Segments(int epoch)
+		{
+			this.epoch = epoch;
+
+			long capacity = AbstractCF.params != null ? AbstractCF.params.MERGE_CACHE_SIZE : 1 << 22;
+			for (int i = 0; i < SEGMENTS; i++)
+				segments[i] = new Segment(Math.max(1, capacity / SEGMENTS));
+		}
+
+		Segment segment(Key key)
+		{
+			return segments[(key.hash ^ (key.hash >>> 16)) & (SEGMENTS - 1)];
+		}
+	}
+
+	@SuppressWarnings("serial")
+	private static class Segment extends LinkedHashMap<Key, Profile>
+	{
+		private long	capacity;
+		private long	weight	= 0;
+
+		Segment(long capacity)
+		{
+			super(16, 0.75f, true);
+			this.capacity = capacity;
+		}
+
+		void add(Key key, Profile profile)
+		{
+			Profile old = put(key, profile);
+			if (old != null) weight -= old.weight();
+			weight += profile.weight();
+
+			/* evict the least recently used profiles, but keep the new one */
+			Iterator<Profile> it = values().iterator();
+			while (weight > capacity && size() > 1)
+			{
+				weight -= it.next().weight();
+				it.remove();
+				evictions.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Drop all the profiles, as the rating or trust data they are merged from are reloaded.
+	 */
+	public static synchronized void clear()
+	{
+		current = new Segments(current.epoch + 1);
+	}
+
+	/**
+	 * @return the cached profile of the current data, or null if it is not cached
+	 */
+	public static Profile get(String variant, String user)
+	{
+		Segments segs = current;
+		Key key = new Key(segs.epoch, variant, user);
+		Segment seg = segs.segment(key);
+
+		Profile profile;
+		synchronized (seg)
+		{
+			profile = seg.get(key);
+		}
+
+		if (profile != null) hits.incrementAndGet();
+		else misses.incrementAndGet();
+
+		return profile;
+	}
+
+	public static void put(String variant, String user, Profile profile)
+	{
+		Segments segs = current;
+		Key key = new Key(segs.epoch, variant, user);
+		Segment seg = segs.segment(key);
+
+		synchronized (seg)
+		{
+			seg.add(key, profile);
+		}
+	}
+
+	/**
+	 * Log the cache counters, if the cache has been used.
+	 */
+	public static void report()
+	{
+		long h = hits.get(), m = misses.get();
+		if (h + m == 0) return;
+
+		long size = 0, weight = 0;
+		for (Segment seg : current.segments)
+		{
+			synchronized (seg)
+			{
+				size += seg.size();
+				weight += seg.weight;
+			}
+		}
+
+		Logs.debug("Merge profiles: {} hits, {} misses, hit rate = {}, {} profiles of size {}, {} evictions",
+				new Object[] { h, m, String.format("%.4f", (h + 0.0) / (h + m)), size, weight, evictions.get() });
+	}
+
+}
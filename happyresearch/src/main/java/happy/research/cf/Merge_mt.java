@@ -55,17 +55,15 @@ public class Merge_mt extends DefaultCF_mt
 			{
 				printSettings.add("Pattern = " + cs);
 				if (batchTest) pf = new Performance(methodId);
+				List<Runnable> tasks = new ArrayList<>();
 				for (int i = 0; i < ratingArrays.length; i++)
-				{
-					threads[i] = new Thread(Merge_t.newMergeCase(i, cs));
-					threads[i].start();
-				}
-				for (Thread tr : threads)
-					tr.join();
+					tasks.add(Merge_t.newMergeCase(i, cs));
+				runTasks(tasks);
 
 				if (batchTest) printPerformance(pf);
 			}
 
+			MergeProfiles.report();
 			if (batchTest) pf = null;
 			return pf;
 		} else if (Debug.OFF)
@@ -74,13 +72,11 @@ public class Merge_mt extends DefaultCF_mt
 			 * considering the similarity of trusted neighbors here is very important to filter out some trusted
 			 * neighbors with low similarity
 			 */
+			List<Runnable> tasks = new ArrayList<>();
 			for (int i = 0; i < ratingArrays.length; i++)
-			{
-				threads[i] = new Thread(new Merge_t(i, "A2B1C3D3"));
-				threads[i].start();
-			}
-			for (Thread tr : threads)
-				tr.join();
+				tasks.add(new Merge_t(i, "A2B1C3D3"));
+			runTasks(tasks);
+			MergeProfiles.report();
 
 			return pf;
 		} else
@@ -113,13 +109,10 @@ public class Merge_mt extends DefaultCF_mt
 					methodSettings.add("" + (float) beta);
 					methodSettings.add("" + (float) lambda);
 
+					List<Runnable> tasks = new ArrayList<>();
 					for (int i = 0; i < ratingArrays.length; i++)
-					{
-						threads[i] = new Thread(new Merge_tj(i, null));
-						threads[i].start();
-					}
-					for (Thread tr : threads)
-						tr.join();
+						tasks.add(new Merge_tj(i, null));
+					runTasks(tasks);
 
 					if (size > 1) printPerformance(pf);
 				}
@@ -146,13 +139,10 @@ public class Merge_mt extends DefaultCF_mt
 
 						pf = new Performance(methodId);
 
+						List<Runnable> tasks = new ArrayList<>();
 						for (int i = 0; i < ratingArrays.length; i++)
-						{
-							threads[i] = new Thread(new Merge_tj(i, null));
-							threads[i].start();
-						}
-						for (Thread tr : threads)
-							tr.join();
+							tasks.add(new Merge_tj(i, null));
+						runTasks(tasks);
 
 						printPerformance(pf);
 					}
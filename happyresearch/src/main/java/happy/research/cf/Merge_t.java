@@ -1,6 +1,5 @@
 package happy.research.cf;
 
-import happy.coding.io.FileIO;
 import happy.coding.math.Sims;
 import happy.coding.math.Stats;
 import happy.coding.system.Debug;
@@ -10,10 +9,13 @@ import happy.research.utils.TrustUtils;
 import java.io.FileNotFoundException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 
 /**
  * All different Merge cases:
@@ -189,20 +191,11 @@ public class Merge_t extends Thread_t {
 	protected Map<String, Double>[] buildModel(Rating testRating) {
 		String user = testRating.getUserId();
 
-		Map<String, Double> tnScores = null;
-		try {
-			tnScores = FileIO.readAsIDMap(trustDirPath + user + ".txt");
-		} catch (FileNotFoundException e) {
-			// logger.debug("No trusted neighbours for user {}", user);
-		} catch (Exception e) {
-			e.printStackTrace();
-		}
-		if (tnScores == null)
-			tnScores = new HashMap<>();
-		tnScores.put(user, 1.0);
+		MergeProfiles.Profile profile = profile(user);
+		Map<String, Double> tnScores = profile.getTnScores();
 
 		Map<String, Double> proxyRatings = new HashMap<>();
-		Map<String, Double> itemCons = mergeRatings(testRating, tnScores, proxyRatings);
+		Map<String, Double> itemCons = mergeRatings(testRating, profile, proxyRatings);
 
 		Map<String, Double>[] nnData = findoutNNs(testRating, proxyRatings, itemCons, tnScores);
 		Map<String, Double>[] ttData = null;
@@ -213,197 +206,362 @@ public class Merge_t extends Thread_t {
 		return combineData(nnData, ttData);
 	}
 
-	protected Map<String, Double> mergeRatings(Rating testRating, Map<String, Double> tnScores,
-			Map<String, Double> proxyRatings) {
-		Map<String, List<Rating>> itemRatingsMap = new HashMap<>();
-		Map<String, Double> itemRatings = new HashMap<>();
-		Map<String, Double> itemMeans = new HashMap<>();
-		Map<String, Double> itemConfidences = new HashMap<>();
-		Map<String, Double> tnSims = new HashMap<>();
+	/**
+	 * @return settings of the merged profiles, e.g., A2B1C3E0 with the
+	 *         thresholds
+	 */
+	protected String variant() {
+		int c = c1Trust ? 1 : c2Sim ? 2 : c3Harmonic ? 3 : c4Average ? 4 : 0;
+		int e = e1Std ? 1 : e2Num ? 2 : e3Certainty ? 3 : 0;
 
-		/* only use for storing active user's own ratings */
-		Map<String, Double> activeRatings = new HashMap<>();
-		Map<String, Double> itemCons = new HashMap<>();
+		return "A" + (aAllTNs ? 1 : 2) + "B" + (bKeepOwnRatings ? 1 : 2) + "C" + c + "E" + e + ", sim > "
+				+ params.SIMILARITY_THRESHOLD + ", confidence > " + params.CONFIDENCE_THRESHOLD;
+	}
 
-		int knn = params.kNN;
-		String user = testRating.getUserId();
-		if (bKeepOwnRatings) {
-			Map<String, Rating> rs = userRatingsMap.get(user);
-			if (rs != null) {
-				for (Rating r : rs.values()) {
-					if (r == testRating)
-						continue;
-					activeRatings.put(r.getItemId(), r.getRating());
-					itemCons.put(r.getItemId(), 1.0);
-				}
-			}
+	/**
+	 * @return merged profile of the user, from the cache shared by the
+	 *         threads if it is there
+	 */
+	protected MergeProfiles.Profile profile(String user) {
+		String variant = variant();
+		MergeProfiles.Profile profile = MergeProfiles.get(variant, user);
+		if (profile != null)
+			return profile;
 
-			knn = knn - activeRatings.size();
-			if (knn <= 0) {
-				proxyRatings.putAll(activeRatings);
-				return itemCons;
-			}
+		Map<String, Double> tnScores = null;
+		try {
+			tnScores = readTrustScores(user);
+		} catch (FileNotFoundException e) {
+			// logger.debug("No trusted neighbours for user {}", user);
+		} catch (Exception e) {
+			e.printStackTrace();
 		}
+		tnScores = tnScores == null ? new HashMap<String, Double>() : new HashMap<>(tnScores);
+		tnScores.put(user, 1.0);
+
+		profile = buildProfile(user, tnScores);
+		MergeProfiles.put(variant, user, profile);
 
+		return profile;
+	}
+
+	/**
+	 * Merge the ratings of the trusted neighbours of the user, with no rating
+	 * held out.
+	 */
+	protected MergeProfiles.Profile buildProfile(String user, Map<String, Double> tnScores) {
+		MergeProfiles.Profile profile = new MergeProfiles.Profile();
+		profile.tnScores = tnScores;
+
+		/* only use for storing active user's own ratings */
+		Map<String, Double> activeRatings = new HashMap<>();
 		Map<String, Rating> asRatings = userRatingsMap.get(user);
+		if (bKeepOwnRatings && asRatings != null) {
+			for (Rating r : asRatings.values())
+				activeRatings.put(r.getItemId(), r.getRating());
+		}
+		profile.activeRatings = activeRatings;
 
+		List<String> tns = new ArrayList<>();
 		for (String tn : tnScores.keySet()) {
 			if (bKeepOwnRatings && tn.equals(user))
 				continue;
-			Map<String, Rating> tnsRatings = userRatingsMap.get(tn);
-			if (tnsRatings == null)
+			if (userRatingsMap.get(tn) == null)
 				continue;
+			tns.add(tn);
+		}
 
-			/* A: determine which trusted neighbours to be used */
-			double similarity = 1.0;
-			if (aAllTNs) { // A1: use all trusted neighbours, no need to compute
-							// similarity
-				similarity = 1.0;
-
-				if (tn != user) {
-					List<Double> as = new ArrayList<>();
-					List<Double> bs = new ArrayList<>();
-					for (String item : asRatings.keySet()) {
-						if (item.equals(testRating.getItemId()))
-							continue;
-						if (tnsRatings.containsKey(item)) {
-							as.add(asRatings.get(item).getRating());
-							bs.add(tnsRatings.get(item).getRating());
-						}
-					}
-					double result = Sims.pcc(as, bs);
-					if (!Double.isNaN(result))
-						similarity = result;
-				}
-			} else { // A2: use only trusted neighbours with similarity
-						// constraints
-				if (tn.equals(user)) { // always similar to himself
-					similarity = 1.0;
-				} else { // similarity with active user
-					if (asRatings.size() < 3)
-						similarity = 1.0;
-					else {
-						similarity = 0.0;
-
-						List<Double> as = new ArrayList<>();
-						List<Double> bs = new ArrayList<>();
-						for (String item : asRatings.keySet()) {
-							if (item.equals(testRating.getItemId()))
-								continue;
-							if (tnsRatings.containsKey(item)) {
-								as.add(asRatings.get(item).getRating());
-								bs.add(tnsRatings.get(item).getRating());
-							}
-						}
-						double result = Sims.pcc(as, bs);
-						if (!Double.isNaN(result))
-							similarity = result;
-
-					}
-				}
-			}
-
-			/* find out rated items of trusted neighbours */
-			if (aAllTNs || similarity > params.SIMILARITY_THRESHOLD) {
-				tnSims.put(tn, similarity);
+		int n = tns.size();
+		profile.tns = tns.toArray(new String[n]);
+		profile.trusts = new double[n];
+		profile.sims = new double[n];
 
-				for (Rating r : tnsRatings.values()) {
-					if (r == testRating)
-						continue;
+		/* find out rated items of trusted neighbours */
+		Map<String, List<Rating>> itemRatingsMap = new HashMap<>();
+		Map<String, List<Double>> itemWeights = new HashMap<>();
+		for (int k = 0; k < n; k++) {
+			String tn = profile.tns[k];
+			Map<String, Rating> tnsRatings = userRatingsMap.get(tn);
 
-					String itemId = r.getItemId();
-					if (bKeepOwnRatings && activeRatings.containsKey(itemId))
-						continue;
+			profile.trusts[k] = tnScores.get(tn);
+			profile.sims[k] = similarity(user, asRatings, tn, tnsRatings, null);
+			if (!selected(profile.sims[k]))
+				continue;
 
-					List<Rating> trs = null;
-					if (itemRatingsMap.containsKey(itemId))
-						trs = itemRatingsMap.get(itemId);
-					else
-						trs = new ArrayList<>();
-					trs.add(r);
+			double weight = weight(profile.trusts[k], profile.sims[k]);
+			for (Rating r : tnsRatings.values()) {
+				String itemId = r.getItemId();
+				if (bKeepOwnRatings && activeRatings.containsKey(itemId))
+					continue;
 
+				List<Rating> trs = itemRatingsMap.get(itemId);
+				List<Double> tws = itemWeights.get(itemId);
+				if (trs == null) {
+					trs = new ArrayList<>();
+					tws = new ArrayList<>();
 					itemRatingsMap.put(itemId, trs);
+					itemWeights.put(itemId, tws);
 				}
+				trs.add(r);
+				tws.add(weight);
 			}
 		}
 
 		/* merge ratings of items together */
-		if (bKeepOwnRatings)
-			itemRatings.putAll(activeRatings);
+		Map<String, double[]> merged = new HashMap<>();
 		for (Entry<String, List<Rating>> en : itemRatingsMap.entrySet()) {
-			String item = en.getKey();
-			List<Rating> ratings = en.getValue();
-
-			double sum = 0.0;
-			double weights = 0.0;
-			int positive = 0, negative = 0;
-			for (Rating r : ratings) {
-				String tn = r.getUserId();
-				double similarity = 0.0;
-				if (tnSims.containsKey(tn))
-					similarity = tnSims.get(tn);
-				double trust = tnScores.get(tn);
-				double weight = 0;
-				if (c3Harmonic)
-					weight = Stats.hMean(trust, similarity);
-				else if (c1Trust)
-					weight = trust;
-				else if (c2Sim)
-					weight = similarity;
-				else if (c4Average)
-					weight = (trust + similarity) / 2.0;
-
-				sum += weight * r.getRating();
-				weights += Math.abs(weight);
-
-				if (r.getRating() > Dataset.median)
-					positive++;
-				else
-					negative++;
+			double[] mc = merge(en.getValue(), itemWeights.get(en.getKey()));
+			if (mc != null)
+				merged.put(en.getKey(), mc);
+		}
+
+		/* ranking confidences */
+		List<Entry<String, double[]>> ranked = rank(merged);
+		int size = ranked.size();
+		profile.items = new String[size];
+		profile.means = new double[size];
+		profile.confidences = new double[size];
+		for (int k = 0; k < size; k++) {
+			Entry<String, double[]> en = ranked.get(k);
+			profile.items[k] = en.getKey();
+			profile.means[k] = en.getValue()[0];
+			profile.confidences[k] = en.getValue()[1];
+		}
+
+		return profile;
+	}
+
+	/**
+	 * @return similarity between the user and a trusted neighbour over their
+	 *         co-rated items, leaving out the excluded item (null if none)
+	 */
+	private double similarity(String user, Map<String, Rating> asRatings, String tn, Map<String, Rating> tnsRatings,
+			String excluded) {
+		/* A: determine which trusted neighbours to be used */
+		double similarity = 1.0;
+		if (aAllTNs) { // A1: use all trusted neighbours, no need to compute
+						// similarity
+			if (!tn.equals(user)) {
+				double result = pcc(asRatings, tnsRatings, excluded);
+				if (!Double.isNaN(result))
+					similarity = result;
 			}
-			double mean = sum / weights;
-			if (Double.isNaN(mean) || mean <= 0.0)
+		} else { // A2: use only trusted neighbours with similarity
+					// constraints; always similar to himself
+			if (!tn.equals(user) && asRatings != null && asRatings.size() >= 3) {
+				similarity = 0.0;
+
+				double result = pcc(asRatings, tnsRatings, excluded);
+				if (!Double.isNaN(result))
+					similarity = result;
+			}
+		}
+
+		return similarity;
+	}
+
+	private static double pcc(Map<String, Rating> asRatings, Map<String, Rating> tnsRatings, String excluded) {
+		if (asRatings == null)
+			return Double.NaN;
+
+		List<Double> as = new ArrayList<>();
+		List<Double> bs = new ArrayList<>();
+		for (String item : asRatings.keySet()) {
+			if (item.equals(excluded))
 				continue;
+			if (tnsRatings.containsKey(item)) {
+				as.add(asRatings.get(item).getRating());
+				bs.add(tnsRatings.get(item).getRating());
+			}
+		}
+
+		return Sims.pcc(as, bs);
+	}
+
+	private boolean selected(double similarity) {
+		return aAllTNs || similarity > params.SIMILARITY_THRESHOLD;
+	}
+
+	/**
+	 * @return weight of a trusted neighbour for merging ratings
+	 */
+	private double weight(double trust, double similarity) {
+		double weight = 0;
+		if (c3Harmonic)
+			weight = Stats.hMean(trust, similarity);
+		else if (c1Trust)
+			weight = trust;
+		else if (c2Sim)
+			weight = similarity;
+		else if (c4Average)
+			weight = (trust + similarity) / 2.0;
+
+		return weight;
+	}
+
+	/**
+	 * @return {mean, certainty} of the weighted ratings on an item, or null if
+	 *         they are not confident enough
+	 */
+	private double[] merge(List<Rating> ratings, List<Double> weightList) {
+		double sum = 0.0;
+		double weights = 0.0;
+		int positive = 0, negative = 0;
+		for (int k = 0; k < ratings.size(); k++) {
+			Rating r = ratings.get(k);
+			double weight = weightList.get(k);
+
+			sum += weight * r.getRating();
+			weights += Math.abs(weight);
+
+			if (r.getRating() > Dataset.median)
+				positive++;
+			else
+				negative++;
+		}
+		double mean = sum / weights;
+		if (Double.isNaN(mean) || mean <= 0.0)
+			return null;
 
-			double certainty = 0.0;
-			try {
-				certainty = TrustUtils.confidence(positive, negative);
-			} catch (Exception e) {
-				e.printStackTrace();
+		double certainty = 0.0;
+		try {
+			certainty = TrustUtils.confidence(positive, negative);
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+
+		if (certainty > params.CONFIDENCE_THRESHOLD)
+			return new double[] { mean, certainty };
+
+		return null;
+	}
+
+	/**
+	 * @return items in descending order of confidence, the ties in the order
+	 *         of the map
+	 */
+	private static List<Entry<String, double[]>> rank(Map<String, double[]> merged) {
+		List<Entry<String, double[]>> ranked = new ArrayList<>(merged.entrySet());
+		Collections.sort(ranked, new Comparator<Entry<String, double[]>>() {
+
+			@Override
+			public int compare(Entry<String, double[]> a, Entry<String, double[]> b) {
+				return Double.compare(b.getValue()[1], a.getValue()[1]);
 			}
+		});
+
+		return ranked;
+	}
 
-			if (certainty > params.CONFIDENCE_THRESHOLD) {
-				itemMeans.put(item, mean);
-				itemConfidences.put(item, certainty);
+	/**
+	 * Adjust the merged profile of the user for a test rating: the test rating
+	 * is left out of the merge, and the test item out of the similarities.
+	 * Only the items whose merged rating may change, i.e., the test item and
+	 * the items of the neighbours whose similarity (or selection) changes, are
+	 * merged again; the others are taken as they are from the profile.
+	 * 
+	 * @return {item - confidence} of the proxy ratings
+	 */
+	protected Map<String, Double> mergeRatings(Rating testRating, MergeProfiles.Profile profile,
+			Map<String, Double> proxyRatings) {
+		String user = testRating.getUserId();
+		String testItem = testRating.getItemId();
+		Map<String, Rating> asRatings = userRatingsMap.get(user);
+		boolean heldOut = asRatings != null && asRatings.get(testItem) == testRating;
+
+		Map<String, Double> activeRatings = profile.activeRatings;
+		if (heldOut && activeRatings.containsKey(testItem)) {
+			activeRatings = new HashMap<>(activeRatings);
+			activeRatings.remove(testItem);
+		}
+
+		Map<String, Double> itemCons = new HashMap<>();
+		for (String item : activeRatings.keySet())
+			itemCons.put(item, 1.0);
+
+		int knn = params.kNN;
+		if (bKeepOwnRatings) {
+			knn = knn - activeRatings.size();
+			if (knn <= 0) {
+				proxyRatings.putAll(activeRatings);
+				return itemCons;
 			}
 		}
 
-		/* ranking confidences */
-		if (itemConfidences.size() > 0) {
-			List<Double> confidences = new ArrayList<>(itemConfidences.values());
-			Collections.sort(confidences);
-			int count = 0;
-			for (int i = confidences.size() - 1; i >= 0; i--) {
-				double confidence = confidences.get(i);
-				for (Entry<String, Double> en : itemConfidences.entrySet()) {
-					String itemId = en.getKey();
-					double c = en.getValue();
-
-					if (c == confidence && !itemRatings.containsKey(itemId)) {
-						count++;
-						itemRatings.put(itemId, itemMeans.get(itemId));
-						itemCons.put(itemId, confidence);
-						break;
-					}
-				}
+		/* similarities without the test item */
+		double[] sims = profile.sims;
+		Set<String> affected = new HashSet<>();
+		if (heldOut)
+			affected.add(testItem);
+		if (asRatings != null && asRatings.containsKey(testItem)) {
+			for (int k = 0; k < profile.tns.length; k++) {
+				Map<String, Rating> tnsRatings = userRatingsMap.get(profile.tns[k]);
+				if (!tnsRatings.containsKey(testItem))
+					continue;
 
-				if (count >= knn)
-					break;
+				double sim = similarity(user, asRatings, profile.tns[k], tnsRatings, testItem);
+				if (Double.compare(sim, sims[k]) == 0)
+					continue;
+
+				if (sims == profile.sims)
+					sims = sims.clone();
+				if (selected(sims[k]) || selected(sim))
+					affected.addAll(tnsRatings.keySet());
+				sims[k] = sim;
+			}
+		}
+
+		/* merge ratings of the affected items again */
+		Map<String, double[]> merged = new HashMap<>();
+		for (String item : affected) {
+			if (bKeepOwnRatings && activeRatings.containsKey(item))
+				continue;
+
+			List<Rating> ratings = new ArrayList<>();
+			List<Double> weights = new ArrayList<>();
+			for (int k = 0; k < profile.tns.length; k++) {
+				if (!selected(sims[k]))
+					continue;
+
+				Rating r = userRatingsMap.get(profile.tns[k]).get(item);
+				if (r == null || r == testRating)
+					continue;
+
+				ratings.add(r);
+				weights.add(weight(profile.trusts[k], sims[k]));
+			}
+			if (ratings.isEmpty())
+				continue;
+
+			double[] mc = merge(ratings, weights);
+			if (mc != null)
+				merged.put(item, mc);
+		}
+		List<Entry<String, double[]>> adjusted = rank(merged);
+
+		/* top-k confident items of the profile and the adjusted ones */
+		proxyRatings.putAll(activeRatings);
+		int limit = Math.max(knn, 1);
+		int count = 0, i = 0, j = 0;
+		while (count < limit && (i < profile.items.length || j < adjusted.size())) {
+			if (i < profile.items.length && affected.contains(profile.items[i])) {
+				i++;
+				continue;
+			}
 
+			if (j >= adjusted.size()
+					|| (i < profile.items.length && profile.confidences[i] >= adjusted.get(j).getValue()[1])) {
+				proxyRatings.put(profile.items[i], profile.means[i]);
+				itemCons.put(profile.items[i], profile.confidences[i]);
+				i++;
+			} else {
+				Entry<String, double[]> en = adjusted.get(j++);
+				proxyRatings.put(en.getKey(), en.getValue()[0]);
+				itemCons.put(en.getKey(), en.getValue()[1]);
 			}
+			count++;
 		}
 
-		proxyRatings.putAll(itemRatings);
 		return itemCons;
 	}
 
@@ -483,7 +641,7 @@ public class Merge_t extends Thread_t {
 		Map<String, Double> trustRatings = new HashMap<>();
 
 		try {
-			scores = FileIO.readAsIDMap(trustDirPath + user + ".txt");
+			scores = readTrustScores(user);
 		} catch (FileNotFoundException e) {
 		} catch (Exception e) {
 			e.printStackTrace();
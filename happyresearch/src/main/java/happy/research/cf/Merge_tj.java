@@ -89,7 +89,8 @@ public class Merge_tj extends Thread_t
 		{
 			if (Debug.OFF)
 			{
-				tnScores = FileIO.readAsIDMap(trustDirPath + user + ".txt");
+				Map<String, Double> scores = readTrustScores(user);
+				if (!scores.isEmpty()) tnScores = new HashMap<>(scores);
 			} else
 			{
 				tnScores = trust_len(user);
@@ -0,0 +1,171 @@
+package happy.research.cf;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Features of user pairs {trustor, trustee}, one row per pair with a label, in a growable row-major double array;
+ * missing features are NaN. The users are interned into an {@code IdDictionary}.
+ *
+ * <p>
+ * Rows are appended by one thread; once the matrix is built, the features of distinct rows may be set by different
+ * threads.
+ * </p>
+ *
+ * @author guoguibing
+ */
+public class PairFeatures
+{
+	private final static int	VERSION		= 1;
+
+	private IdDictionary		users		= new IdDictionary();
+	private int					cols;
+	private int					rows		= 0;
+
+	private int[]				trustors	= new int[16];
+	private int[]				trustees	= new int[16];
+	private double[]			labels		= new double[16];
+	private double[]			values;
+
+	public PairFeatures(int cols)
+	{
+		this.cols = cols;
+		values = new double[16 * cols];
+	}
+
+	/**
+	 * Append a pair, with all its features missing.
+	 *
+	 * @return row of the pair
+	 */
+	public int add(String trustor, String trustee, double label)
+	{
+		if (rows == labels.length)
+		{
+			int n = rows * 2;
+			trustors = Arrays.copyOf(trustors, n);
+			trustees = Arrays.copyOf(trustees, n);
+			labels = Arrays.copyOf(labels, n);
+			values = Arrays.copyOf(values, n * cols);
+		}
+
+		trustors[rows] = users.intern(trustor);
+		trustees[rows] = users.intern(trustee);
+		labels[rows] = label;
+		Arrays.fill(values, rows * cols, (rows + 1) * cols, Double.NaN);
+
+		return rows++;
+	}
+
+	public void set(int row, int col, double value)
+	{
+		values[row * cols + col] = value;
+	}
+
+	public double get(int row, int col)
+	{
+		return values[row * cols + col];
+	}
+
+	public String trustor(int row)
+	{
+		return users.key(trustors[row]);
+	}
+
+	public String trustee(int row)
+	{
+		return users.key(trustees[row]);
+	}
+
+	public double label(int row)
+	{
+		return labels[row];
+	}
+
+	public int rows()
+	{
+		return rows;
+	}
+
+	public int cols()
+	{
+		return cols;
+	}
+
+	/**
+	 * @return features of all the rows, {values[row * cols + col]}, in the first rows * cols positions
+	 */
+	public double[] getValues()
+	{
+		return values;
+	}
+
+	/**
+	 * Save the matrix with a tag of the settings it is computed by, checked by {@code load}.
+	 */
+	public void save(String path, String tag) throws IOException
+	{
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path))))
+		{
+			out.writeInt(VERSION);
+			out.writeUTF(tag);
+			out.writeInt(cols);
+
+			out.writeInt(users.size());
+			for (int u = 0; u < users.size(); u++)
+				out.writeUTF(users.key(u));
+
+			out.writeInt(rows);
+			for (int r = 0; r < rows; r++)
+			{
+				out.writeInt(trustors[r]);
+				out.writeInt(trustees[r]);
+				out.writeDouble(labels[r]);
+				for (int c = 0; c < cols; c++)
+					out.writeDouble(values[r * cols + c]);
+			}
+		}
+	}
+
+	/**
+	 * @return the saved matrix, or null if it is of another version or tag
+	 */
+	public static PairFeatures load(String path, String tag) throws IOException
+	{
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path))))
+		{
+			if (in.readInt() != VERSION || !in.readUTF().equals(tag)) return null;
+
+			PairFeatures pf = new PairFeatures(in.readInt());
+			int numUsers = in.readInt();
+			pf.users = new IdDictionary(numUsers);
+			for (int u = 0; u < numUsers; u++)
+				pf.users.intern(in.readUTF());
+
+			int rows = in.readInt();
+			int cols = pf.cols;
+			pf.trustors = new int[Math.max(16, rows)];
+			pf.trustees = new int[pf.trustors.length];
+			pf.labels = new double[pf.trustors.length];
+			pf.values = new double[pf.trustors.length * cols];
+			for (int r = 0; r < rows; r++)
+			{
+				pf.trustors[r] = in.readInt();
+				pf.trustees[r] = in.readInt();
+				pf.labels[r] = in.readDouble();
+				for (int c = 0; c < cols; c++)
+					pf.values[r * cols + c] = in.readDouble();
+			}
+			pf.rows = rows;
+
+			return pf;
+		}
+	}
+
+}
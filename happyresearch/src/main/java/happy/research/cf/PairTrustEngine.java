@@ -0,0 +1,189 @@
+package happy.research.cf;
+
+import java.util.Arrays;
+
+/**
+ * All-pairs trust from co-ratings over a {@code RatingMatrix}. The candidate trustees of a user are only those who
+ * rated at least one of its items, as listed by the columns of the matrix (the inverted index of the item ratings);
+ * the other users have no co-ratings with it, and hence no trust. The trust in every candidate is given by a
+ * {@code Kernel} over the co-ratings of the pair.
+ *
+ * <p>
+ * Optionally, the items with more than {@code maxRaters} raters are left out of the candidate generation, as nearly
+ * every user would be a candidate through them; the pairs only sharing such items are then not scored, while the
+ * co-ratings of the candidates still cover all their items.
+ * </p>
+ *
+ * <p>
+ * An engine keeps its own scratch buffers sized to the matrix; use one engine per thread, built by {@code copy} over
+ * the same matrix.
+ * </p>
+ *
+ * @author guoguibing
+ */
+public class PairTrustEngine
+{
+	/**
+	 * Trust metric over the co-ratings of a pair of users.
+	 */
+	public interface Kernel
+	{
+		/**
+		 * @param co
+		 *            co-ratings of users a and b, with at least one of them
+		 * @return trust of user a in user b, NaN if a does not trust b
+		 */
+		double trust(int a, int b, CoRatings co);
+	}
+
+	private RatingMatrix	m;
+	private int				maxRaters;
+	private CoRatings		co				= new CoRatings();
+
+	/* marks[b] == epoch iff user b is a candidate of the current run */
+	private int[]			marks;
+	private int				epoch			= 0;
+	private int[]			candidates;
+
+	private int[]			resultNodes;
+	private double[]		resultScores;
+
+	private int				numCandidates	= 0;
+
+	public PairTrustEngine(RatingMatrix m)
+	{
+		this(m, 0);
+	}
+
+	/**
+	 * @param maxRaters
+	 *            items with more raters are not used to find candidates; 0 for no limit
+	 */
+	public PairTrustEngine(RatingMatrix m, int maxRaters)
+	{
+		this.m = m;
+		this.maxRaters = maxRaters;
+
+		int n = m.numUsers();
+		marks = new int[n];
+		candidates = new int[n];
+		resultNodes = new int[n];
+		resultScores = new double[n];
+	}
+
+	/**
+	 * @return a new engine over the matrix of this one, with its own scratch buffers
+	 */
+	public PairTrustEngine copy()
+	{
+		return new PairTrustEngine(m, maxRaters);
+	}
+
+	/**
+	 * List the users who co-rated at least one item with user a (except a) into {@code getCandidates}.
+	 *
+	 * @return number of the candidates
+	 */
+	public int candidates(int a)
+	{
+		int[] rowPtr = m.getRowPtr(), colIdx = m.getColIdx();
+		int[] colPtr = m.getColPtr(), rowIdx = m.getRowIdx();
+
+		if (epoch == Integer.MAX_VALUE)
+		{
+			Arrays.fill(marks, 0);
+			epoch = 0;
+		}
+		epoch++;
+		marks[a] = epoch;
+
+		int num = 0;
+		for (int k = rowPtr[a]; k < rowPtr[a + 1]; k++)
+		{
+			int i = colIdx[k];
+			if (maxRaters > 0 && colPtr[i + 1] - colPtr[i] > maxRaters) continue;
+
+			for (int p = colPtr[i]; p < colPtr[i + 1]; p++)
+			{
+				int b = rowIdx[p];
+				if (marks[b] != epoch)
+				{
+					marks[b] = epoch;
+					candidates[num++] = b;
+				}
+			}
+		}
+		numCandidates = num;
+
+		return num;
+	}
+
+	/**
+	 * Compute the trust of user a in each of its candidates; the trusted ones are then given by
+	 * {@code getResultNodes} and {@code getResultScores}.
+	 *
+	 * @return number of the trusted users
+	 */
+	public int run(int a, Kernel kernel)
+	{
+		int num = candidates(a);
+
+		int numResults = 0;
+		for (int k = 0; k < num; k++)
+		{
+			int b = candidates[k];
+			co.rows(m, a, b, -1);
+
+			double trust = kernel.trust(a, b, co);
+			if (Double.isNaN(trust)) continue;
+
+			resultNodes[numResults] = b;
+			resultScores[numResults++] = trust;
+		}
+
+		return numResults;
+	}
+
+	/**
+	 * @return candidates found by the last run, in the first {@code numCandidates} positions
+	 */
+	public int[] getCandidates()
+	{
+		return candidates;
+	}
+
+	public int numCandidates()
+	{
+		return numCandidates;
+	}
+
+	/**
+	 * @return true if user b is a candidate of the last run
+	 */
+	public boolean isCandidate(int b)
+	{
+		return marks[b] == epoch;
+	}
+
+	/**
+	 * @return users trusted by the last run, in the first numResults positions
+	 */
+	public int[] getResultNodes()
+	{
+		return resultNodes;
+	}
+
+	/**
+	 * @return trust scores of the users trusted by the last run, in the first numResults positions
+	 */
+	public double[] getResultScores()
+	{
+		return resultScores;
+	}
+
+	public RatingMatrix getMatrix()
+	{
+		return m;
+	}
+
+}
@@ -2,15 +2,16 @@ package happy.research.cf;
 
 import happy.coding.math.Maths;
 import happy.coding.math.Sims;
-import happy.coding.math.Stats;
+import happy.research.cf.Evaluator.Mean;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 public class Performance
 {
@@ -19,109 +20,156 @@ public class Performance
 	private Measures								ms			= new Measures();
 	public final static int[]						cutoffs		= { 5, 10, 15, 20 };
 
-	/* predictable relevant ratings: {user, {item, rating}} */
+	private final static int						BY_PRED		= 0;
+	private final static int						BY_CONF		= 1;
+	private final static int						BY_TRUTH	= 2;
+
+	/* predictable relevant ratings: {user, {item, rating}}, merged from the buffers on demand */
 	private Map<String, Map<String, Prediction>>	userPreds	= new HashMap<>();
 
+	/* predictions of each thread since the last merge, appended without contention */
+	private List<PredictionBuffer>					buffers		= new ArrayList<>();
+	private ThreadLocal<PredictionBuffer>			localBuffer	= null;
+
+	/* users with predictions, to serve size() without merging */
+	private ConcurrentMap<String, Boolean>			users		= new ConcurrentHashMap<>();
+
+	/* running error accumulators of all the merged predictions */
+	private int										numPreds	= 0;
+	private int										numMerged	= 0;
+	private Mean									sumAE		= new Mean();
+	private Mean									sumSE		= new Mean();
+	private double									sumConf, sumConfAE;
+
 	public Performance(String method)
 	{
 		this.method = method;
+
+		localBuffer = new ThreadLocal<PredictionBuffer>() {
+
+			@Override
+			protected PredictionBuffer initialValue()
+			{
+				PredictionBuffer buffer = new PredictionBuffer();
+				synchronized (buffers)
+				{
+					buffers.add(buffer);
+				}
+				return buffer;
+			}
+		};
 	}
 
+	/**
+	 * @return the number of users with predictions
+	 */
 	public int size()
 	{
-		return userPreds.size();
+		return users.size();
 	}
 
 	/**
-	 * performance of ranked recommendation list
-	 * 
-	 * @param topN the size of recommendation list
-	 * @return the measurements for the ranking performance
+	 * Per-thread buffer of predictions and their error sums. Only the owner thread appends to it, hence its lock is
+	 * uncontended except when the buffers are merged.
 	 */
-	public Measures ranking(Map<String, Map<String, Rating>> test, boolean sort_by_prediction)
+	private static class PredictionBuffer
 	{
-		// cut-off at position N
-		Map<String, List<Prediction>> ranked_preds = null;
-
-		if (sort_by_prediction) ranked_preds = this.sortByPred();
-		else ranked_preds = this.sortByConf(cutoffs[0]);
+		List<Prediction>	preds	= new ArrayList<>();
+		Mean				sumAE	= new Mean();
+		Mean				sumSE	= new Mean();
+		double				sumConf, sumConfAE;
+		/* its thread is done with it: dropped after its next merge */
+		boolean				released;
+
+		void add(Prediction pred)
+		{
+			double e = pred.error();
+			double conf = pred.getConf();
+
+			preds.add(pred);
+			sumAE.add(e);
+			sumSE.add(e * e);
+			sumConf += conf;
+			sumConfAE += conf * e;
+		}
+	}
 
-		// rated => relevant 
-		for (int cutoff : cutoffs)
+	/**
+	 * Move the predictions of all the thread buffers to {@code userPreds}.
+	 */
+	private synchronized void merge()
+	{
+		List<PredictionBuffer> bs = null;
+		synchronized (buffers)
 		{
-			List<Double> precisions = new ArrayList<>();
-			List<Double> recalls = new ArrayList<>();
-			List<Double> RRs = new ArrayList<>();
-			List<Double> APs = new ArrayList<>();
-			List<Double> nDCGs = new ArrayList<>();
+			bs = new ArrayList<>(buffers);
+		}
 
-			for (Entry<String, List<Prediction>> en : ranked_preds.entrySet())
+		for (PredictionBuffer buffer : bs)
+		{
+			synchronized (buffer)
 			{
-				String user = en.getKey();
-
-				List<Prediction> rec_preds = en.getValue();
-				Map<String, Rating> test_ratings = test.get(user);
-
-				double iDCG = 0;
-				int n_rated = 0;
-				if (test_ratings.size() > cutoff) n_rated = cutoff;
-				else n_rated = test_ratings.size();
-
-				for (int i = 0; i < n_rated; i++)
+				if (buffer.released)
 				{
-					iDCG += 1.0 / Maths.log(i + 2, 2);
+					synchronized (buffers)
+					{
+						buffers.remove(buffer);
+					}
 				}
 
-				int n_rec = rec_preds.size();
-				if (n_rec > cutoff) rec_preds = rec_preds.subList(0, cutoff);
-
-				double DCG = 0;
-				int tp = 0;
-				double RR = 0;
-				boolean first_relevant = false;
-				List<Double> pks = new ArrayList<>();
-
-				for (int i = 0; i < rec_preds.size(); i++)
+				for (Prediction pred : buffer.preds)
 				{
-					Prediction pred = rec_preds.get(i);
-					double truth = pred.getTruth();
-					if (truth > 0)
+					String user = pred.getUserId();
+					Map<String, Prediction> rs = userPreds.get(user);
+					if (rs == null)
 					{
-						int rank = i + 1;
-						DCG += 1.0 / Maths.log(rank + 1, 2);
-
-						tp++;
-
-						// precision at k
-						pks.add((tp + 0.0) / rank);
-
-						if (!first_relevant)
-						{
-							RR = 1.0 / rank;
-							first_relevant = true;
-						}
+						rs = new HashMap<>();
+						userPreds.put(user, rs);
 					}
+					if (rs.put(pred.getItemId(), pred) == null) numMerged++;
 				}
 
-				precisions.add((tp + 0.0) / n_rec);
-				recalls.add((tp + 0.0) / test_ratings.size());
-				RRs.add(RR);
-				APs.add(Stats.mean(pks));
-				nDCGs.add(DCG / iDCG);
+				numPreds += buffer.preds.size();
+				sumAE.add(buffer.sumAE);
+				sumSE.add(buffer.sumSE);
+				sumConf += buffer.sumConf;
+				sumConfAE += buffer.sumConfAE;
+
+				buffer.preds.clear();
+				buffer.sumAE.clear();
+				buffer.sumSE.clear();
+				buffer.sumConf = buffer.sumConfAE = 0;
 			}
+		}
+	}
 
-			double precision = Stats.mean(precisions);
-			double recall = Stats.mean(recalls);
-			double F1 = Stats.hMean(precision, recall);
+	/**
+	 * performance of ranked recommendation list
+	 * 
+	 * @param topN the size of recommendation list
+	 * @return the measurements for the ranking performance
+	 */
+	public Measures ranking(Map<String, Map<String, Rating>> test, boolean sort_by_prediction)
+	{
+		// cut-off at position N: only the heads up to the largest cut-off are ranked
+		Map<String, List<Prediction>> ranked_preds = null;
 
-			ms.addPrecision(cutoff, precision);
-			ms.addRecall(cutoff, recall);
-			ms.addF1(cutoff, F1);
-			ms.addNDCG(cutoff, Stats.mean(nDCGs));
-			ms.addMAP(cutoff, Stats.mean(APs));
-			ms.addMRR(cutoff, Stats.mean(RRs));
+		if (sort_by_prediction) ranked_preds = rank(BY_PRED, cutoffs[cutoffs.length - 1]);
+		else ranked_preds = this.sortByConf(cutoffs[0]);
 
+		// rated => relevant 
+		Evaluator eval = new Evaluator(cutoffs);
+		for (Entry<String, List<Prediction>> en : ranked_preds.entrySet())
+		{
+			String user = en.getKey();
+			List<Prediction> rec_preds = en.getValue();
+			Map<String, Rating> test_ratings = test.get(user);
+
+			// precision is relative to the whole recommendation list
+			int n_rec = sort_by_prediction ? userPreds.get(user).size() : rec_preds.size();
+			eval.addUserRanking(test_ratings.size(), rec_preds, n_rec);
 		}
+		eval.ranking(ms);
 
 		return ms;
 	}
@@ -133,52 +181,22 @@ public class Performance
 	 */
 	public Measures prediction(Map<String, Map<String, Rating>> test)
 	{
-		List<Double> AEs = new ArrayList<>();
-		List<Double> SEs = new ArrayList<>();
-		List<Double> AUEs = new ArrayList<>(); // absolute user errors
-
-		List<Double> confs = new ArrayList<>(); // all the prediction confidence
+		merge();
 
-		int covered_ratings = 0, covered_users = 0;
-		int total_ratings = 0, total_users = 0;
+		Evaluator eval = new Evaluator(cutoffs);
 		for (Entry<String, Map<String, Rating>> en : test.entrySet())
 		{
-			// test user
-			String user = en.getKey();
-			total_users++;
-
-			// test ratings
-			Map<String, Rating> trs = en.getValue();
-			total_ratings += trs.size();
-
-			// predicted ratings
-			Map<String, Prediction> preds = userPreds.get(user);
-			if (preds == null) continue;
-			covered_users++;
-
-			List<Double> UEs = new ArrayList<>();
-			for (Prediction pred : preds.values())
-			{
-				double e = pred.error();
-				AEs.add(e);
-				confs.add(pred.getConf());
-
-				SEs.add(e * e);
-				UEs.add(e);
-
-				covered_ratings++;
-			}
-
-			double aue = Stats.mean(UEs);
-			AUEs.add(aue);
+			// test user and its predicted ratings
+			Map<String, Prediction> preds = userPreds.get(en.getKey());
+			eval.addUserPredictions(en.getValue().size(), preds == null ? null : preds.values());
 		}
 
-		ms.setMAE(Stats.mean(AEs));
-		ms.setMAUE(Stats.mean(AUEs));
-		ms.setMACE(Stats.average(AEs, confs));
-		ms.setUC(covered_users, total_users);
-		ms.setRMSE(Math.sqrt(Stats.mean(SEs)));
-		ms.setRC(covered_ratings, total_ratings);
+		if (numPreds == numMerged && eval.getCoveredRatings() == numMerged)
+		{
+			// every prediction is covered exactly once, hence the running sums are the same
+			eval.setErrorSums(sumAE, sumSE, sumConf, sumConfAE);
+		}
+		eval.prediction(ms);
 
 		return ms;
 	}
@@ -242,17 +260,14 @@ public class Performance
 			itemDisSims.put(itemA, itemDiss);
 		}
 
-		/* inter-user diversity */
-		List<Double> UDs = new ArrayList<>();
-
-		/* intra-user diversity (item novelty) */
-		List<Double> INs = new ArrayList<>();
-
-		/* set diversity */
-		List<Double> SDs = new ArrayList<>();
+		/* inter-user diversity, intra-user diversity (item novelty) and set diversity */
+		Evaluator eval = new Evaluator(cutoffs);
 		int n_train_users = trainUsers.size();
 
 		List<String> users = new ArrayList<>(ranked_preds.keySet());
+		List<Map<String, Prediction>> user_item_preds = new ArrayList<>(users.size());
+		for (String user : users)
+			user_item_preds.add(toItemPredMap(ranked_preds.get(user)));
 
 		for (int i = 0; i < users.size(); i++)
 		{
@@ -262,10 +277,7 @@ public class Performance
 			// inter-user diversity 
 			for (int j = i + 1; j < users.size(); j++)
 			{
-				String userB = users.get(j);
-				List<Prediction> bsPreds = ranked_preds.get(userB);
-
-				Map<String, Prediction> item_preds = toItemPredMap(bsPreds);
+				Map<String, Prediction> item_preds = user_item_preds.get(j);
 
 				int count = 0;
 				for (Prediction ap : asPreds)
@@ -274,7 +286,7 @@ public class Performance
 					if (item_preds.containsKey(item)) count++;
 				}
 				double UD = 1 - (count + 0.0) / topN;
-				UDs.add(UD);
+				eval.addUD(UD);
 			}
 
 			// intra-user diversity 
@@ -289,7 +301,7 @@ public class Performance
 				double in = 1 - Maths.log(userRatings.size(), n_train_users);
 				ins += in;
 			}
-			INs.add(ins / n_items);
+			eval.addIN(ins / n_items);
 
 			// set diversity
 			for (int j = 0; j < asPreds.size(); j++)
@@ -300,32 +312,20 @@ public class Performance
 				{
 					String item2 = asPreds.get(k).getItemId();
 
-					double dist = 0;
-
 					if (itemDisSims.containsKey(item1))
 					{
 						Map<String, Double> distSims = itemDisSims.get(item1);
-						if (distSims.containsKey(item2))
-						{
-							dist = distSims.get(item2);
-							SDs.add(dist);
-						}
+						if (distSims.containsKey(item2)) eval.addSD(distSims.get(item2));
 					} else if (itemDisSims.containsKey(item2))
 					{
 						Map<String, Double> distSims = itemDisSims.get(item2);
-						if (distSims.containsKey(item1))
-						{
-							dist = distSims.get(item1);
-							SDs.add(dist);
-						}
+						if (distSims.containsKey(item1)) eval.addSD(distSims.get(item1));
 					}
 
 				}
 			}
 		}
-		ms.setUD(Stats.mean(UDs));
-		ms.setIN(Stats.mean(INs));
-		ms.setSD(Stats.mean(SDs));
+		eval.diversity(ms);
 
 		return ms;
 	}
@@ -348,32 +348,7 @@ public class Performance
 	 */
 	protected Map<String, List<Prediction>> sortByPred()
 	{
-		Map<String, List<Prediction>> recLists = new HashMap<>();
-
-		for (Entry<String, Map<String, Prediction>> en : userPreds.entrySet())
-		{
-			String user = en.getKey();
-			List<Prediction> preds = new ArrayList<>(en.getValue().values());
-
-			Collections.sort(preds, new Comparator<Prediction>() {
-
-				@Override
-				public int compare(Prediction p1, Prediction p2)
-				{
-					double pred1 = p1.getPred();
-					double pred2 = p2.getPred();
-
-					if (pred1 > pred2) return 1;
-					else if (pred1 == pred2) return 0;
-					else return -1;
-				}
-			});
-
-			Collections.reverse(preds);
-			recLists.put(user, preds);
-		}
-
-		return recLists;
+		return rank(BY_PRED, 0);
 	}
 
 	/**
@@ -381,33 +356,7 @@ public class Performance
 	 */
 	protected Map<String, List<Prediction>> sortByConf(int topN)
 	{
-		Map<String, List<Prediction>> recLists = new HashMap<>();
-
-		for (Entry<String, Map<String, Prediction>> en : userPreds.entrySet())
-		{
-			String user = en.getKey();
-			List<Prediction> preds = new ArrayList<>(en.getValue().values());
-
-			Collections.sort(preds, new Comparator<Prediction>() {
-
-				@Override
-				public int compare(Prediction p1, Prediction p2)
-				{
-					double pred1 = p1.getConf();
-					double pred2 = p2.getConf();
-
-					if (pred1 > pred2) return 1;
-					else if (pred1 == pred2) return 0;
-					else return -1;
-				}
-			});
-
-			Collections.reverse(preds);
-			if (preds.size() > topN) preds = preds.subList(0, topN);
-			recLists.put(user, preds);
-		}
-
-		return recLists;
+		return rank(BY_CONF, topN);
 	}
 
 	/**
@@ -415,46 +364,84 @@ public class Performance
 	 */
 	protected Map<String, List<Prediction>> sortByTruth(int topN)
 	{
+		return rank(BY_TRUTH, topN);
+	}
+
+	/**
+	 * @param by
+	 *            one of BY_PRED, BY_CONF and BY_TRUTH
+	 * @param topN
+	 *            the size of recommendation lists, 0 for the whole lists
+	 * @return top-N recommendation lists in descending order of the scores, the same as the heads of fully sorted lists
+	 */
+	private Map<String, List<Prediction>> rank(int by, int topN)
+	{
+		merge();
+
 		Map<String, List<Prediction>> recLists = new HashMap<>();
 
 		for (Entry<String, Map<String, Prediction>> en : userPreds.entrySet())
 		{
-			String user = en.getKey();
-			List<Prediction> preds = new ArrayList<>(en.getValue().values());
-
-			Collections.sort(preds, new Comparator<Prediction>() {
+			Collection<Prediction> values = en.getValue().values();
+			Prediction[] preds = values.toArray(new Prediction[values.size()]);
 
-				@Override
-				public int compare(Prediction p1, Prediction p2)
+			double[] scores = new double[preds.length];
+			for (int i = 0; i < preds.length; i++)
+			{
+				Prediction pred = preds[i];
+				switch (by)
 				{
-					double truth1 = p1.getTruth();
-					double truth2 = p2.getTruth();
-
-					if (truth1 > truth2) return 1;
-					else if (truth1 == truth2) return 0;
-					else return -1;
+					case BY_CONF:
+						scores[i] = pred.getConf();
+						break;
+					case BY_TRUTH:
+						scores[i] = pred.getTruth();
+						break;
+					default:
+						scores[i] = pred.getPred();
+						break;
 				}
-			});
+			}
+
+			int[] top = TopN.select(scores, topN > 0 ? topN : preds.length);
+			List<Prediction> recList = new ArrayList<>(top.length);
+			for (int i : top)
+				recList.add(preds[i]);
 
-			Collections.reverse(preds);
-			if (preds.size() > topN) preds = preds.subList(0, topN);
-			recLists.put(user, preds);
+			recLists.put(en.getKey(), recList);
 		}
 
 		return recLists;
 	}
 
-	public synchronized void addPredicts(Prediction pred)
+	/**
+	 * Release the buffer of the current thread, as its task is done; its predictions are kept until the next merge.
+	 * Pooled threads outlive the tasks, so their buffers would otherwise stay referenced by the threads.
+	 */
+	public void release()
 	{
-		String user = pred.getUserId();
-		String item = pred.getItemId();
+		PredictionBuffer buffer = localBuffer.get();
+		localBuffer.remove();
 
-		Map<String, Prediction> rs = null;
-		if (userPreds.containsKey(user)) rs = userPreds.get(user);
-		else rs = new HashMap<>();
+		synchronized (buffer)
+		{
+			buffer.released = true;
+		}
+	}
 
-		rs.put(item, pred);
-		userPreds.put(user, rs);
+	/**
+	 * Add a prediction to the buffer of the current thread; it is thread-safe without serialising the threads.
+	 */
+	public void addPredicts(Prediction pred)
+	{
+		PredictionBuffer buffer = localBuffer.get();
+		synchronized (buffer)
+		{
+			buffer.add(pred);
+		}
+
+		String user = pred.getUserId();
+		if (!users.containsKey(user)) users.putIfAbsent(user, Boolean.TRUE);
 	}
 
 	public String getMethod()
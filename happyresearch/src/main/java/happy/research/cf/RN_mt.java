@@ -2,7 +2,6 @@ package happy.research.cf;
 
 
 import happy.coding.io.Logs;
-import happy.coding.math.Sims;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
@@ -80,13 +79,10 @@ public class RN_mt extends DefaultCF_mt
 	@Override
 	protected Performance runMultiThreads() throws Exception
 	{
+		List<Runnable> tasks = new ArrayList<>();
 		for (int i = 0; i < ratingArrays.length; i++)
-		{
-			threads[i] = new Thread(new RN_t(i, userTNsCorrMap));
-			threads[i].start();
-		}
-		for (Thread tr : threads)
-			tr.join();
+			tasks.add(new RN_t(i, userTNsCorrMap));
+		runTasks(tasks);
 
 		return pf;
 	}
@@ -135,20 +131,12 @@ public class RN_mt extends DefaultCF_mt
 		Map<String, Rating> bsRatings = userRatingsMap.get(userB);
 		if (asRatings == null || bsRatings == null || asRatings.size() < 1 || bsRatings.size() < 1) return Double.NaN;
 
-		List<Double> a = new ArrayList<>();
-		List<Double> b = new ArrayList<>();
-
-		for (Rating ar : asRatings.values())
-		{
-			if (exception != null && ar.getItemId().equals(exception.getItemId())) continue;
-			if (bsRatings.containsKey(ar.getItemId()))
-			{
-				a.add(ar.getRating());
-				b.add(bsRatings.get(ar.getItemId()).getRating());
-			}
-		}
+		RatingMatrix m = ratingRows();
+		CoRatings co = CoRatings.local();
+		int excluded = exception == null ? -1 : m.itemIndex(exception.getItemId());
+		co.rows(m, m.userIndex(userA), m.userIndex(userB), excluded);
 
-		return Sims.pcc(a, b);
+		return co.pcc();
 	}
 
 }
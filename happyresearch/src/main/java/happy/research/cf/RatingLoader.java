@@ -0,0 +1,424 @@
+package happy.research.cf;
+
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Loads rating files in the format of "user item rating [timestamp]" from a memory-mapped buffer. Tokens are parsed
+ * in place and user/item ids are interned on their bytes, hence no {@code String} is created except for the first
+ * occurrence of an id. The statistics of rating values are collected in the same pass.
+ *
+ * <p>
+ * A file is split into chunks at line boundaries, which can be parsed in parallel and are merged in the order of the
+ * file, so the result does not depend on the number of threads.
+ * </p>
+ *
+ * @author guoguibing
+ */
+public class RatingLoader
+{
+	/* maximum size of a mapped region */
+	private final static long	MAX_CHUNK	= 1L << 30;
+	private final static double	POW10[]		= { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12,
+			1e13, 1e14, 1e15						};
+
+	private String				path;
+	private int					threads;
+	private byte				separator;
+
+	public RatingLoader(String path)
+	{
+		this(path, 1);
+	}
+
+	public RatingLoader(String path, int threads)
+	{
+		this.path = path;
+		this.threads = Math.max(1, threads);
+
+		// besides white spaces and commas, also accept single-char separators of Dataset.REGMX
+		String regmx = Dataset.REGMX;
+		this.separator = (byte) (regmx != null && regmx.length() == 1 ? regmx.charAt(0) : ' ');
+	}
+
+	public RatingTable load() throws Exception
+	{
+		try (RandomAccessFile raf = new RandomAccessFile(path, "r"); FileChannel fc = raf.getChannel())
+		{
+			long[] bounds = split(fc);
+
+			List<Chunk> chunks = new ArrayList<>();
+			for (int i = 0; i < bounds.length - 1; i++)
+				chunks.add(new Chunk(fc, bounds[i], bounds[i + 1]));
+
+			if (threads > 1 && chunks.size() > 1)
+			{
+				// in the shared pool, parsing errors are propagated
+				TaskPool.invokeAll(chunks);
+			} else
+			{
+				for (Chunk chunk : chunks)
+					chunk.call();
+			}
+
+			return merge(chunks);
+		}
+	}
+
+	/**
+	 * @return chunk boundaries, each (except the first) is right after a line break
+	 */
+	private long[] split(FileChannel fc) throws Exception
+	{
+		long length = fc.size();
+		int num = (int) Math.max(threads, (length + MAX_CHUNK - 1) / MAX_CHUNK);
+		if (length < num * 4096L) num = 1;
+
+		long[] bounds = new long[num + 1];
+		bounds[num] = length;
+
+		ByteBuffer buf = ByteBuffer.allocate(4096);
+		for (int i = 1; i < num; i++)
+		{
+			long pos = Math.max(length / num * i, bounds[i - 1]);
+
+			found: while (pos < length)
+			{
+				buf.clear();
+				int read = fc.read(buf, pos);
+				if (read <= 0) break;
+
+				for (int k = 0; k < read; k++)
+				{
+					if (buf.get(k) == '\n')
+					{
+						pos += k + 1;
+						break found;
+					}
+				}
+				pos += read;
+			}
+			bounds[i] = Math.min(pos, length);
+		}
+
+		return bounds;
+	}
+
+	private RatingTable merge(List<Chunk> chunks)
+	{
+		int size = 0;
+		boolean timed = false;
+		for (Chunk chunk : chunks)
+		{
+			size += chunk.size;
+			timed |= chunk.ts != null;
+		}
+
+		IdDictionary users = new IdDictionary(chunks.get(0).users.size());
+		IdDictionary items = new IdDictionary(chunks.get(0).items.size());
+		int[] us = new int[size];
+		int[] is = new int[size];
+		double[] rs = new double[size];
+		long[] ts = timed ? new long[size] : null;
+		RatingStats stats = new RatingStats();
+
+		int offset = 0;
+		for (Chunk chunk : chunks)
+		{
+			int[] userIds = chunk.users.remap(users);
+			int[] itemIds = chunk.items.remap(items);
+
+			for (int k = 0; k < chunk.size; k++)
+			{
+				us[offset + k] = userIds[chunk.us[k]];
+				is[offset + k] = itemIds[chunk.is[k]];
+			}
+			System.arraycopy(chunk.rs, 0, rs, offset, chunk.size);
+			if (chunk.ts != null) System.arraycopy(chunk.ts, 0, ts, offset, chunk.size);
+
+			stats.merge(chunk.stats);
+			offset += chunk.size;
+		}
+
+		return new RatingTable(users, items, us, is, rs, ts, size, stats);
+	}
+
+	private boolean isSeparator(byte b)
+	{
+		return b == ' ' || b == '\t' || b == ',' || b == separator;
+	}
+
+	/**
+	 * Parses a plain decimal number in place. The result is exact (same as {@code Double.parseDouble}) since both the
+	 * mantissa (at most 15 digits) and the power of ten are exactly representable; other forms fall back to the JDK.
+	 */
+	private static double parseDouble(ByteBuffer buf, int start, int end)
+	{
+		int p = start;
+		boolean negative = false;
+		if (p < end && (buf.get(p) == '-' || buf.get(p) == '+'))
+		{
+			negative = buf.get(p) == '-';
+			p++;
+		}
+
+		long mantissa = 0;
+		int digits = 0, fraction = 0;
+		boolean dot = false;
+		for (; p < end; p++)
+		{
+			byte b = buf.get(p);
+			if (b >= '0' && b <= '9')
+			{
+				if (++digits > 15) return Double.parseDouble(decode(buf, start, end));
+
+				mantissa = mantissa * 10 + (b - '0');
+				if (dot) fraction++;
+			} else if (b == '.' && !dot) dot = true;
+			else return Double.parseDouble(decode(buf, start, end));
+		}
+		if (digits == 0) return Double.parseDouble(decode(buf, start, end));
+
+		double value = fraction == 0 ? mantissa : mantissa / POW10[fraction];
+		return negative ? -value : value;
+	}
+
+	private static long parseLong(ByteBuffer buf, int start, int end)
+	{
+		long value = 0;
+		for (int p = start; p < end; p++)
+		{
+			byte b = buf.get(p);
+			if (b < '0' || b > '9' || end - start > 18) return Long.parseLong(decode(buf, start, end));
+
+			value = value * 10 + (b - '0');
+		}
+
+		return value;
+	}
+
+	private static String decode(ByteBuffer buf, int start, int end)
+	{
+		byte[] bytes = new byte[end - start];
+		for (int p = start; p < end; p++)
+			bytes[p - start] = buf.get(p);
+
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * A line-aligned region of the rating file, parsed into chunk-local ids.
+	 */
+	private class Chunk implements Callable<Chunk>
+	{
+		private FileChannel		fc;
+		private long			start, end;
+
+		private ByteInterner	users	= new ByteInterner();
+		private ByteInterner	items	= new ByteInterner();
+		private RatingStats		stats	= new RatingStats();
+
+		private int[]			us;
+		private int[]			is;
+		private double[]		rs;
+		private long[]			ts;
+		private int				size;
+
+		Chunk(FileChannel fc, long start, long end)
+		{
+			this.fc = fc;
+			this.start = start;
+			this.end = end;
+
+			// a rating line takes at least 6 bytes, e.g. "1 2 3\n"
+			int capacity = (int) Math.min(Math.max(16, (end - start) / 12), Integer.MAX_VALUE - 8);
+			us = new int[capacity];
+			is = new int[capacity];
+			rs = new double[capacity];
+		}
+
+		@Override
+		public Chunk call() throws Exception
+		{
+			MappedByteBuffer buf = fc.map(MapMode.READ_ONLY, start, end - start);
+			int limit = buf.limit();
+
+			int p = 0;
+			while (p < limit)
+			{
+				int line = p;
+				int field = 0, user = -1, item = -1;
+				double rating = 0;
+				long timestamp = 0;
+
+				byte b;
+				while (p < limit && (b = buf.get(p)) != '\n')
+				{
+					if (b == '\r' || isSeparator(b))
+					{
+						p++;
+						continue;
+					}
+
+					int s = p;
+					while (p < limit && (b = buf.get(p)) != '\n' && b != '\r' && !isSeparator(b))
+						p++;
+
+					switch (field)
+					{
+						case 0:
+							user = users.intern(buf, s, p);
+							break;
+						case 1:
+							item = items.intern(buf, s, p);
+							break;
+						case 2:
+							rating = parseDouble(buf, s, p);
+							break;
+						case 3:
+							timestamp = parseLong(buf, s, p);
+							break;
+						default:
+							break;
+					}
+					field++;
+				}
+				p++; // line break
+
+				if (field == 0) continue; // empty line
+				if (field < 3)
+					throw new IllegalArgumentException("Malformed rating at byte " + (start + line) + " of " + path);
+
+				add(user, item, rating, timestamp);
+			}
+
+			return this;
+		}
+
+		private void add(int user, int item, double rating, long timestamp)
+		{
+			if (size == us.length)
+			{
+				int capacity = size + (size >> 1) + 1;
+				us = Arrays.copyOf(us, capacity);
+				is = Arrays.copyOf(is, capacity);
+				rs = Arrays.copyOf(rs, capacity);
+				if (ts != null) ts = Arrays.copyOf(ts, capacity);
+			}
+			if (timestamp != 0 && ts == null) ts = new long[us.length];
+
+			us[size] = user;
+			is[size] = item;
+			rs[size] = rating;
+			if (ts != null) ts[size] = timestamp;
+			size++;
+
+			stats.add(rating);
+		}
+	}
+
+	/**
+	 * Open-addressing dictionary keyed on the raw bytes of a token.
+	 */
+	private static class ByteInterner
+	{
+		private int[]			slots	= newSlots(1024);
+		private int[]			hashes	= new int[256];
+		private int[]			offsets	= new int[257];
+		private byte[]			pool	= new byte[4096];
+		private List<String>	keys	= new ArrayList<>();
+		private int				used;
+
+		private static int[] newSlots(int capacity)
+		{
+			int[] slots = new int[capacity];
+			Arrays.fill(slots, -1);
+			return slots;
+		}
+
+		int intern(ByteBuffer buf, int start, int end)
+		{
+			int len = end - start;
+			int h = 0;
+			for (int p = start; p < end; p++)
+				h = 31 * h + buf.get(p);
+			h ^= h >>> 16;
+
+			int mask = slots.length - 1;
+			int slot = h & mask;
+			for (int id; (id = slots[slot]) >= 0; slot = (slot + 1) & mask)
+			{
+				if (hashes[id] == h && equals(id, buf, start, len)) return id;
+			}
+
+			/* a new key */
+			int id = keys.size();
+			if (id == hashes.length)
+			{
+				hashes = Arrays.copyOf(hashes, id * 2);
+				offsets = Arrays.copyOf(offsets, id * 2 + 1);
+			}
+			if (used + len > pool.length) pool = Arrays.copyOf(pool, Math.max(pool.length * 2, used + len));
+
+			for (int p = start; p < end; p++)
+				pool[used++] = buf.get(p);
+			offsets[id + 1] = used;
+			hashes[id] = h;
+			keys.add(new String(pool, offsets[id], len, StandardCharsets.UTF_8));
+			slots[slot] = id;
+
+			if (keys.size() * 2 > slots.length) rehash();
+
+			return id;
+		}
+
+		private boolean equals(int id, ByteBuffer buf, int start, int len)
+		{
+			int off = offsets[id];
+			if (offsets[id + 1] - off != len) return false;
+
+			for (int k = 0; k < len; k++)
+				if (pool[off + k] != buf.get(start + k)) return false;
+
+			return true;
+		}
+
+		private void rehash()
+		{
+			slots = newSlots(slots.length * 2);
+			int mask = slots.length - 1;
+			for (int id = 0; id < keys.size(); id++)
+			{
+				int slot = hashes[id] & mask;
+				while (slots[slot] >= 0)
+					slot = (slot + 1) & mask;
+				slots[slot] = id;
+			}
+		}
+
+		int size()
+		{
+			return keys.size();
+		}
+
+		/**
+		 * @return mapping from local ids to the ids of a global dictionary
+		 */
+		int[] remap(IdDictionary dict)
+		{
+			int[] ids = new int[keys.size()];
+			for (int id = 0; id < ids.length; id++)
+				ids[id] = dict.intern(keys.get(id));
+
+			return ids;
+		}
+	}
+}
@@ -0,0 +1,355 @@
+package happy.research.cf;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Compact rating store with interned user/item ids. Ratings are kept in both CSR (rows: users) and CSC (columns:
+ * items) layouts of primitive arrays, indices of each row/column are sorted in ascending order.
+ *
+ * @author guoguibing
+ */
+public class RatingMatrix implements RatingStore
+{
+	private IdDictionary	users;
+	private IdDictionary	items;
+
+	/* CSR: ratings of user u are stored in [rowPtr[u], rowPtr[u+1]) */
+	private int[]			rowPtr;
+	private int[]			colIdx;
+	private double[]			rowVals;
+
+	/* CSC: ratings on item i are stored in [colPtr[i], colPtr[i+1]) */
+	private int[]			colPtr;
+	private int[]			rowIdx;
+	private double[]			colVals;
+
+	public RatingMatrix(IdDictionary users, IdDictionary items, int[] rowPtr, int[] colIdx, double[] rowVals)
+	{
+		this.users = users;
+		this.items = items;
+		this.rowPtr = rowPtr;
+		this.colIdx = colIdx;
+		this.rowVals = rowVals;
+
+		buildColumns();
+	}
+
+	/**
+	 * transpose CSR to CSC: scanning rows in order keeps the row indices of each column sorted
+	 */
+	private void buildColumns()
+	{
+		int numItems = items.size();
+		int size = colIdx.length;
+
+		colPtr = new int[numItems + 1];
+		rowIdx = new int[size];
+		colVals = new double[size];
+
+		for (int k = 0; k < size; k++)
+			colPtr[colIdx[k] + 1]++;
+		for (int i = 0; i < numItems; i++)
+			colPtr[i + 1] += colPtr[i];
+
+		int[] next = Arrays.copyOf(colPtr, numItems);
+		for (int u = 0, um = users.size(); u < um; u++)
+		{
+			for (int k = rowPtr[u]; k < rowPtr[u + 1]; k++)
+			{
+				int pos = next[colIdx[k]]++;
+				rowIdx[pos] = u;
+				colVals[pos] = rowVals[k];
+			}
+		}
+	}
+
+	/**
+	 * @return the matrix of {user - {item - rating}}
+	 */
+	public static RatingMatrix of(Map<String, Map<String, Rating>> userRatingsMap)
+	{
+		Builder builder = new Builder();
+		for (Map.Entry<String, Map<String, Rating>> en : userRatingsMap.entrySet())
+		{
+			/* users without ratings still get (empty) rows */
+			int u = builder.getUsers().intern(en.getKey());
+			for (Rating r : en.getValue().values())
+				builder.add(u, builder.getItems().intern(r.getItemId()), r.getRating());
+		}
+
+		return builder.build();
+	}
+
+	/**
+	 * @return rating of user u on item i, or 0.0 if not rated
+	 */
+	public double get(int u, int i)
+	{
+		if (u < 0 || i < 0) return 0.0;
+
+		int k = Arrays.binarySearch(colIdx, rowPtr[u], rowPtr[u + 1], i);
+		return k < 0 ? 0.0 : rowVals[k];
+	}
+
+	public int numRatings(int u)
+	{
+		return rowPtr[u + 1] - rowPtr[u];
+	}
+
+	public int numItemRatings(int i)
+	{
+		return colPtr[i + 1] - colPtr[i];
+	}
+
+	public double userMean(int u)
+	{
+		int start = rowPtr[u], end = rowPtr[u + 1];
+		if (end <= start) return Double.NaN;
+
+		double sum = 0.0;
+		for (int k = start; k < end; k++)
+			sum += rowVals[k];
+
+		return sum / (end - start);
+	}
+
+	/**
+	 * @return the number of bytes taken by the primitive arrays (dictionaries excluded)
+	 */
+	public long memory()
+	{
+		long size = colIdx.length;
+		long rows = rowPtr.length;
+		long cols = colPtr.length;
+
+		return 4 * (rows + cols) + 2 * size * (4 + 8);
+	}
+
+	public int userIndex(String user)
+	{
+		return users.id(user);
+	}
+
+	public int itemIndex(String item)
+	{
+		return items.id(item);
+	}
+
+	public IdDictionary getUsers()
+	{
+		return users;
+	}
+
+	public IdDictionary getItems()
+	{
+		return items;
+	}
+
+	public int[] getRowPtr()
+	{
+		return rowPtr;
+	}
+
+	public int[] getColIdx()
+	{
+		return colIdx;
+	}
+
+	public double[] getRowVals()
+	{
+		return rowVals;
+	}
+
+	public int[] getColPtr()
+	{
+		return colPtr;
+	}
+
+	public int[] getRowIdx()
+	{
+		return rowIdx;
+	}
+
+	public double[] getColVals()
+	{
+		return colVals;
+	}
+
+	@Override
+	public int numUsers()
+	{
+		return users.size();
+	}
+
+	@Override
+	public int numItems()
+	{
+		return items.size();
+	}
+
+	@Override
+	public int size()
+	{
+		return colIdx.length;
+	}
+
+	@Override
+	public boolean containsUser(String user)
+	{
+		return users.contains(user);
+	}
+
+	@Override
+	public double getRating(String user, String item)
+	{
+		return get(users.id(user), items.id(item));
+	}
+
+	@Override
+	public int numUserRatings(String user)
+	{
+		int u = users.id(user);
+		return u < 0 ? 0 : numRatings(u);
+	}
+
+	@Override
+	public int numItemRatings(String item)
+	{
+		int i = items.id(item);
+		return i < 0 ? 0 : numItemRatings(i);
+	}
+
+	@Override
+	public double userMean(String user)
+	{
+		int u = users.id(user);
+		return u < 0 ? Double.NaN : userMean(u);
+	}
+
+	/**
+	 * Collects (user, item, rating) triples in the order of reading, and then builds the matrix by two stable
+	 * counting sorts (by item, then by user). Same as {@code Map.put}, a later rating of the same user-item pair
+	 * overwrites the earlier one.
+	 */
+	public static class Builder
+	{
+		private IdDictionary	users;
+		private IdDictionary	items;
+
+		private int[]			us		= new int[1024];
+		private int[]			is		= new int[1024];
+		private double[]			vs		= new double[1024];
+		private int				size	= 0;
+
+		public Builder()
+		{
+			this(new IdDictionary(), new IdDictionary());
+		}
+
+		public Builder(IdDictionary users, IdDictionary items)
+		{
+			this.users = users;
+			this.items = items;
+		}
+
+		public void add(String user, String item, double rating)
+		{
+			add(users.intern(user), items.intern(item), rating);
+		}
+
+		public void add(int u, int i, double rating)
+		{
+			if (size == us.length)
+			{
+				int capacity = size + (size >> 1);
+				us = Arrays.copyOf(us, capacity);
+				is = Arrays.copyOf(is, capacity);
+				vs = Arrays.copyOf(vs, capacity);
+			}
+
+			us[size] = u;
+			is[size] = i;
+			vs[size] = rating;
+			size++;
+		}
+
+		public int size()
+		{
+			return size;
+		}
+
+		public IdDictionary getUsers()
+		{
+			return users;
+		}
+
+		public IdDictionary getItems()
+		{
+			return items;
+		}
+
+		public RatingMatrix build()
+		{
+			int numUsers = users.size();
+			int numItems = items.size();
+
+			int[] byItem = countingSort(is, numItems, null);
+			int[] byUser = countingSort(us, numUsers, byItem);
+
+			/* collapse duplicated user-item pairs, the last one wins */
+			int[] rowPtr = new int[numUsers + 1];
+			int[] colIdx = new int[size];
+			double[] rowVals = new double[size];
+			int n = 0;
+			for (int k = 0; k < size; k++)
+			{
+				int e = byUser[k];
+				int u = us[e], i = is[e];
+				if (n > 0 && k > 0 && us[byUser[k - 1]] == u && colIdx[n - 1] == i)
+				{
+					rowVals[n - 1] = vs[e];
+					continue;
+				}
+
+				colIdx[n] = i;
+				rowVals[n] = vs[e];
+				rowPtr[u + 1]++;
+				n++;
+			}
+			for (int u = 0; u < numUsers; u++)
+				rowPtr[u + 1] += rowPtr[u];
+
+			if (n < size)
+			{
+				colIdx = Arrays.copyOf(colIdx, n);
+				rowVals = Arrays.copyOf(rowVals, n);
+			}
+
+			return new RatingMatrix(users, items, rowPtr, colIdx, rowVals);
+		}
+
+		/**
+		 * @return entry positions stably sorted by keys[position], visiting positions in the given order (or
+		 *         natural order if null)
+		 */
+		private int[] countingSort(int[] keys, int numKeys, int[] order)
+		{
+			int[] start = new int[numKeys + 1];
+			for (int k = 0; k < size; k++)
+				start[keys[k] + 1]++;
+			for (int j = 0; j < numKeys; j++)
+				start[j + 1] += start[j];
+
+			int[] sorted = new int[size];
+			for (int k = 0; k < size; k++)
+			{
+				int e = order == null ? k : order[k];
+				sorted[start[keys[e]]++] = e;
+			}
+
+			return sorted;
+		}
+	}
+
+}
@@ -0,0 +1,225 @@
+package happy.research.cf;
+
+import happy.coding.io.Logs;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Binary snapshots of parsed rating files, i.e. the id dictionaries, rating columns and statistics of a
+ * {@code RatingTable}. A snapshot is keyed by the content hash of its source file and the separator setting
+ * {@code Dataset.REGMX} it is parsed with, and stored under {@code Dataset.TEMP_DIRECTORY/snapshots}, so a rating
+ * file is parsed as text only once unless it (or the separator) is changed.
+ *
+ * <p>
+ * Layout (big-endian): magic, version, size, #users, #items, has timestamps; user keys, item keys (length-prefixed
+ * UTF-8); user ids, item ids, ratings, [timestamps]; rating statistics.
+ * </p>
+ *
+ * @author guoguibing
+ */
+public class RatingSnapshot
+{
+	private final static int				MAGIC		= 0x52534e50;						// "RSNP"
+	private final static int				VERSION		= 1;
+	private final static String				SUFFIX		= ".snap";
+
+	/* content hashes of the files already hashed by this process: {path|length|modified - hash} */
+	private final static Map<String, String>	hashes		= new HashMap<>();
+
+	private final static AtomicLong			hits		= new AtomicLong();
+	private final static AtomicLong			misses		= new AtomicLong();
+
+	/**
+	 * @return the parsed rating file, from its snapshot if there is an up-to-date one
+	 */
+	public static RatingTable load(String ratingSet, int threads) throws Exception
+	{
+		File source = new File(ratingSet);
+		String regmx = Integer.toHexString(Dataset.REGMX.hashCode());
+		File snapshot = new File(directory(), source.getName() + "." + hash(source) + "." + regmx + SUFFIX);
+
+		if (snapshot.exists())
+		{
+			try
+			{
+				RatingTable table = read(snapshot);
+				long h = hits.incrementAndGet();
+				Logs.debug("Rating snapshot {} is loaded (hits = {}, misses = {})", new Object[] { snapshot.getName(),
+						h, misses.get() });
+				return table;
+			} catch (IOException | RuntimeException e)
+			{
+				Logs.debug("Rating snapshot {} is corrupted and will be rebuilt: {}", snapshot.getName(), e.getMessage());
+			}
+		}
+
+		misses.incrementAndGet();
+		RatingTable table = new RatingLoader(ratingSet, threads).load();
+		write(table, snapshot);
+
+		return table;
+	}
+
+	private static File directory()
+	{
+		File dir = new File(Dataset.TEMP_DIRECTORY, "snapshots");
+		if (!dir.exists()) dir.mkdirs();
+
+		return dir;
+	}
+
+	/**
+	 * @return MD5 digest of the file content in hex, computed once per process for an unchanged file
+	 */
+	static synchronized String hash(File file) throws Exception
+	{
+		String key = file.getAbsolutePath() + "|" + file.length() + "|" + file.lastModified();
+		String hash = hashes.get(key);
+		if (hash != null) return hash;
+
+		MessageDigest md = MessageDigest.getInstance("MD5");
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel fc = raf.getChannel())
+		{
+			long length = fc.size();
+			for (long pos = 0; pos < length; pos += Integer.MAX_VALUE)
+				md.update(fc.map(MapMode.READ_ONLY, pos, Math.min(Integer.MAX_VALUE, length - pos)));
+		}
+
+		StringBuilder sb = new StringBuilder();
+		for (byte b : md.digest())
+			sb.append(String.format("%02x", b));
+		hash = sb.toString();
+
+		hashes.put(key, hash);
+		return hash;
+	}
+
+	/**
+	 * Writes to a temporary file first, so that concurrent runs never read a partial snapshot.
+	 */
+	public static void write(RatingTable table, File snapshot) throws IOException
+	{
+		File tmp = new File(snapshot.getPath() + "." + Thread.currentThread().getId() + ".tmp");
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16)))
+		{
+			int size = table.size();
+			IdDictionary users = table.getUsers();
+			IdDictionary items = table.getItems();
+			long[] timestamps = table.getTimestamps();
+
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(size);
+			out.writeInt(users.size());
+			out.writeInt(items.size());
+			out.writeBoolean(timestamps != null);
+
+			writeKeys(out, users);
+			writeKeys(out, items);
+
+			int[] userIdx = table.getUserIdx();
+			int[] itemIdx = table.getItemIdx();
+			double[] ratings = table.getRatings();
+			for (int k = 0; k < size; k++)
+				out.writeInt(userIdx[k]);
+			for (int k = 0; k < size; k++)
+				out.writeInt(itemIdx[k]);
+			for (int k = 0; k < size; k++)
+				out.writeDouble(ratings[k]);
+			if (timestamps != null)
+			{
+				for (int k = 0; k < size; k++)
+					out.writeLong(timestamps[k]);
+			}
+
+			table.getStats().write(out);
+		}
+
+		if (!tmp.renameTo(snapshot))
+		{
+			// another run has just created the same snapshot
+			tmp.delete();
+		}
+	}
+
+	private static void writeKeys(DataOutputStream out, IdDictionary dict) throws IOException
+	{
+		for (int id = 0; id < dict.size(); id++)
+		{
+			byte[] bytes = dict.key(id).getBytes(StandardCharsets.UTF_8);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+	}
+
+	public static RatingTable read(File snapshot) throws IOException
+	{
+		try (RandomAccessFile raf = new RandomAccessFile(snapshot, "r"); FileChannel fc = raf.getChannel())
+		{
+			MappedByteBuffer buf = fc.map(MapMode.READ_ONLY, 0, fc.size());
+
+			if (buf.getInt() != MAGIC || buf.getInt() != VERSION)
+				throw new IOException("Unknown snapshot format: " + snapshot);
+
+			int size = buf.getInt();
+			int numUsers = buf.getInt();
+			int numItems = buf.getInt();
+			boolean timed = buf.get() != 0;
+
+			IdDictionary users = readKeys(buf, numUsers);
+			IdDictionary items = readKeys(buf, numItems);
+
+			int[] userIdx = new int[size];
+			int[] itemIdx = new int[size];
+			double[] ratings = new double[size];
+			long[] timestamps = timed ? new long[size] : null;
+
+			buf.asIntBuffer().get(userIdx);
+			buf.position(buf.position() + size * 4);
+			buf.asIntBuffer().get(itemIdx);
+			buf.position(buf.position() + size * 4);
+			buf.asDoubleBuffer().get(ratings);
+			buf.position(buf.position() + size * 8);
+			if (timed)
+			{
+				buf.asLongBuffer().get(timestamps);
+				buf.position(buf.position() + size * 8);
+			}
+
+			RatingStats stats = RatingStats.read(buf);
+
+			return new RatingTable(users, items, userIdx, itemIdx, ratings, timestamps, size, stats);
+		}
+	}
+
+	private static IdDictionary readKeys(MappedByteBuffer buf, int num)
+	{
+		IdDictionary dict = new IdDictionary(num);
+		byte[] bytes = new byte[64];
+		for (int id = 0; id < num; id++)
+		{
+			int len = buf.getInt();
+			if (bytes.length < len) bytes = new byte[len];
+			buf.get(bytes, 0, len);
+
+			dict.intern(new String(bytes, 0, len, StandardCharsets.UTF_8));
+		}
+
+		return dict;
+	}
+
+}
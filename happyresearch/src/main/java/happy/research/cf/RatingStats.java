@@ -0,0 +1,129 @@
+package happy.research.cf;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * One-pass statistics of rating values: size, mean, (population) standard deviation and the number of ratings per
+ * rating value. Partial statistics of different chunks can be merged.
+ *
+ * @author guoguibing
+ */
+public class RatingStats
+{
+	private int			size;
+	private double		mean;
+	private double		m2;
+
+	/* histogram of distinct rating values, usually only a handful of scales */
+	private double[]	values	= new double[16];
+	private int[]		counts	= new int[16];
+	private int			distinct;
+
+	public void add(double rating)
+	{
+		size++;
+		double delta = rating - mean;
+		mean += delta / size;
+		m2 += delta * (rating - mean);
+
+		count(rating, 1);
+	}
+
+	public void merge(RatingStats stats)
+	{
+		if (stats.size == 0) return;
+
+		int n = size + stats.size;
+		double delta = stats.mean - mean;
+		mean += delta * stats.size / n;
+		m2 += stats.m2 + delta * delta * ((double) size * stats.size / n);
+		size = n;
+
+		for (int k = 0; k < stats.distinct; k++)
+			count(stats.values[k], stats.counts[k]);
+	}
+
+	private void count(double rating, int num)
+	{
+		for (int k = 0; k < distinct; k++)
+		{
+			if (values[k] == rating)
+			{
+				counts[k] += num;
+				return;
+			}
+		}
+
+		if (distinct == values.length)
+		{
+			values = Arrays.copyOf(values, distinct * 2);
+			counts = Arrays.copyOf(counts, distinct * 2);
+		}
+		values[distinct] = rating;
+		counts[distinct] = num;
+		distinct++;
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	public double mean()
+	{
+		return size > 0 ? mean : Double.NaN;
+	}
+
+	public double sd()
+	{
+		return size > 0 ? Math.sqrt(m2 / size) : Double.NaN;
+	}
+
+	/**
+	 * @return {rating value, number of ratings}
+	 */
+	public Map<Double, Integer> scaleNum()
+	{
+		Map<Double, Integer> scaleNum = new HashMap<>();
+		for (int k = 0; k < distinct; k++)
+			scaleNum.put(values[k], counts[k]);
+
+		return scaleNum;
+	}
+
+	public void write(DataOutput out) throws IOException
+	{
+		out.writeInt(size);
+		out.writeDouble(mean);
+		out.writeDouble(m2);
+		out.writeInt(distinct);
+		for (int k = 0; k < distinct; k++)
+		{
+			out.writeDouble(values[k]);
+			out.writeInt(counts[k]);
+		}
+	}
+
+	public static RatingStats read(ByteBuffer buf)
+	{
+		RatingStats stats = new RatingStats();
+		stats.size = buf.getInt();
+		stats.mean = buf.getDouble();
+		stats.m2 = buf.getDouble();
+
+		int distinct = buf.getInt();
+		for (int k = 0; k < distinct; k++)
+		{
+			double value = buf.getDouble();
+			stats.count(value, buf.getInt());
+		}
+
+		return stats;
+	}
+
+}
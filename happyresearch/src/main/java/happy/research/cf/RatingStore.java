@@ -0,0 +1,39 @@
+package happy.research.cf;
+
+/**
+ * Read-only view of the training ratings, so that the rating-based methods can be migrated from the nested
+ * {@code Map<String, Map<String, Rating>>} structure to the compact {@code RatingMatrix} one at a time.
+ *
+ * @author guoguibing
+ */
+public interface RatingStore
+{
+	int numUsers();
+
+	int numItems();
+
+	int size();
+
+	boolean containsUser(String user);
+
+	/**
+	 * @return the rating of user on item, or 0.0 if the item is not rated by the user
+	 */
+	double getRating(String user, String item);
+
+	/**
+	 * @return the number of ratings issued by user
+	 */
+	int numUserRatings(String user);
+
+	/**
+	 * @return the number of ratings received by item
+	 */
+	int numItemRatings(String item);
+
+	/**
+	 * @return the mean of the user's ratings, or NaN if the user has no ratings
+	 */
+	double userMean(String user);
+
+}
@@ -0,0 +1,187 @@
+package happy.research.cf;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Sufficient statistics of the training ratings of each user (or item): count, sum, sum of squares, number of
+ * ratings above the median and the histogram over rating scales. They are computed once per fold; the statistics
+ * without a held-out rating (leave-one-out) are then derived in O(1) by subtracting it.
+ *
+ * <p>
+ * A rating is held out from a key's statistics if the key's ratings contain a rating with the same user and item.
+ * </p>
+ *
+ * @author guoguibing
+ */
+public class RatingSummary
+{
+	private Map<String, Map<String, Rating>>	ratingsMap;
+	private boolean								byUser;
+
+	private Map<String, Integer>				index;
+	private int[]								counts;
+	private int[]								positives;
+	private double[]							sums;
+	private double[]							sumsqs;
+	/* flat histograms: hists[k * scaleSize + s] is the number of ratings of key k on Dataset.scales[s] */
+	private int[]								hists;
+	private int									scaleSize;
+	private double								median;
+
+	private RatingSummary(Map<String, Map<String, Rating>> ratingsMap, boolean byUser)
+	{
+		this.ratingsMap = ratingsMap;
+		this.byUser = byUser;
+		this.scaleSize = Dataset.scaleSize;
+		this.median = Dataset.median;
+
+		int size = ratingsMap.size();
+		index = new HashMap<>(size * 2);
+		counts = new int[size];
+		positives = new int[size];
+		sums = new double[size];
+		sumsqs = new double[size];
+		hists = new int[size * scaleSize];
+
+		int k = 0;
+		for (Entry<String, Map<String, Rating>> en : ratingsMap.entrySet())
+		{
+			index.put(en.getKey(), k);
+			for (Rating r : en.getValue().values())
+				add(k, r.getRating(), 1);
+			k++;
+		}
+	}
+
+	/**
+	 * @param userRatingsMap
+	 *            {user - {item - rating}}
+	 */
+	public static RatingSummary ofUsers(Map<String, Map<String, Rating>> userRatingsMap)
+	{
+		return new RatingSummary(userRatingsMap, true);
+	}
+
+	/**
+	 * @param itemRatingsMap
+	 *            {item - {user - rating}}
+	 */
+	public static RatingSummary ofItems(Map<String, Map<String, Rating>> itemRatingsMap)
+	{
+		return new RatingSummary(itemRatingsMap, false);
+	}
+
+	private void add(int k, double rating, int sign)
+	{
+		counts[k] += sign;
+		sums[k] += sign * rating;
+		sumsqs[k] += sign * rating * rating;
+		if (rating > median) positives[k] += sign;
+
+		int s = Arrays.binarySearch(Dataset.scales, rating);
+		if (s >= 0 && s < scaleSize) hists[k * scaleSize + s] += sign;
+	}
+
+	/**
+	 * @return the training rating of key that is equal to the held-out rating, or null if none
+	 */
+	private Rating heldOut(String key, Rating excluded)
+	{
+		if (excluded == null) return null;
+
+		Map<String, Rating> ratings = ratingsMap.get(key);
+		if (ratings == null) return null;
+
+		return ratings.get(byUser ? excluded.getItemId() : excluded.getUserId());
+	}
+
+	public boolean contains(String key)
+	{
+		return index.containsKey(key);
+	}
+
+	public int count(String key, Rating excluded)
+	{
+		Integer k = index.get(key);
+		if (k == null) return 0;
+
+		return counts[k] - (heldOut(key, excluded) == null ? 0 : 1);
+	}
+
+	public double sum(String key, Rating excluded)
+	{
+		Integer k = index.get(key);
+		if (k == null) return 0.0;
+
+		Rating r = heldOut(key, excluded);
+		return r == null ? sums[k] : sums[k] - r.getRating();
+	}
+
+	/**
+	 * @return mean of the key's ratings without the excluded one, NaN if no ratings left
+	 */
+	public double mean(String key, Rating excluded)
+	{
+		return sum(key, excluded) / count(key, excluded);
+	}
+
+	/**
+	 * @return population standard deviation of the key's ratings without the excluded one, NaN if no ratings left
+	 */
+	public double sd(String key, Rating excluded)
+	{
+		Integer k = index.get(key);
+		if (k == null) return Double.NaN;
+
+		int n = counts[k];
+		double sum = sums[k], sumsq = sumsqs[k];
+		Rating r = heldOut(key, excluded);
+		if (r != null)
+		{
+			n--;
+			sum -= r.getRating();
+			sumsq -= r.getRating() * r.getRating();
+		}
+		if (n < 1) return Double.NaN;
+
+		double mean = sum / n;
+		return Math.sqrt(Math.max(0.0, sumsq / n - mean * mean));
+	}
+
+	/**
+	 * @return number of the key's ratings greater than the median of rating scales, without the excluded one
+	 */
+	public int positives(String key, Rating excluded)
+	{
+		Integer k = index.get(key);
+		if (k == null) return 0;
+
+		Rating r = heldOut(key, excluded);
+		return positives[k] - (r != null && r.getRating() > median ? 1 : 0);
+	}
+
+	/**
+	 * @return number of the key's ratings on each of Dataset.scales, without the excluded one
+	 */
+	public int[] histogram(String key, Rating excluded)
+	{
+		int[] hist = new int[scaleSize];
+		Integer k = index.get(key);
+		if (k == null) return hist;
+
+		System.arraycopy(hists, k * scaleSize, hist, 0, scaleSize);
+
+		Rating r = heldOut(key, excluded);
+		if (r != null)
+		{
+			int s = Arrays.binarySearch(Dataset.scales, r.getRating());
+			if (s >= 0 && s < scaleSize) hist[s]--;
+		}
+
+		return hist;
+	}
+
+}
@@ -0,0 +1,114 @@
+package happy.research.cf;
+
+/**
+ * Parsed rating file in columns of interned ids: the k-th line is {users[userIdx[k]], items[itemIdx[k]],
+ * ratings[k], timestamps[k]}.
+ *
+ * @author guoguibing
+ */
+public class RatingTable
+{
+	private IdDictionary	users;
+	private IdDictionary	items;
+
+	private int[]			userIdx;
+	private int[]			itemIdx;
+	private double[]		ratings;
+	/* null if no timestamps are given */
+	private long[]			timestamps;
+	private int				size;
+
+	private RatingStats		stats;
+
+	public RatingTable(IdDictionary users, IdDictionary items, int[] userIdx, int[] itemIdx, double[] ratings,
+			long[] timestamps, int size, RatingStats stats)
+	{
+		this.users = users;
+		this.items = items;
+		this.userIdx = userIdx;
+		this.itemIdx = itemIdx;
+		this.ratings = ratings;
+		this.timestamps = timestamps;
+		this.size = size;
+		this.stats = stats;
+	}
+
+	/**
+	 * @return the interned user id of the k-th rating
+	 */
+	public String user(int k)
+	{
+		return users.key(userIdx[k]);
+	}
+
+	/**
+	 * @return the interned item id of the k-th rating
+	 */
+	public String item(int k)
+	{
+		return items.key(itemIdx[k]);
+	}
+
+	public double rating(int k)
+	{
+		return ratings[k];
+	}
+
+	public long timestamp(int k)
+	{
+		return timestamps == null ? 0L : timestamps[k];
+	}
+
+	/**
+	 * @return a rating matrix sharing the id dictionaries of this table
+	 */
+	public RatingMatrix toMatrix()
+	{
+		RatingMatrix.Builder builder = new RatingMatrix.Builder(users, items);
+		for (int k = 0; k < size; k++)
+			builder.add(userIdx[k], itemIdx[k], ratings[k]);
+
+		return builder.build();
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	public IdDictionary getUsers()
+	{
+		return users;
+	}
+
+	public IdDictionary getItems()
+	{
+		return items;
+	}
+
+	public int[] getUserIdx()
+	{
+		return userIdx;
+	}
+
+	public int[] getItemIdx()
+	{
+		return itemIdx;
+	}
+
+	public double[] getRatings()
+	{
+		return ratings;
+	}
+
+	public long[] getTimestamps()
+	{
+		return timestamps;
+	}
+
+	public RatingStats getStats()
+	{
+		return stats;
+	}
+
+}
@@ -12,7 +12,11 @@ public class RunCF {
 		AbstractCF.params = params;
 		params.printSpecs();
 
-		runMethod(params);
+		try {
+			runMethod(params);
+		} finally {
+			TaskPool.shutdown();
+		}
 
 		if (!params.BATCH_RUN)
 			AbstractCF.collectResults();
@@ -0,0 +1,343 @@
+package happy.research.cf;
+
+import happy.research.utils.SimUtils.SimMethod;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Sparse user-user similarities of a training fold. For each user, the co-rating sufficient statistics {n, sum(a),
+ * sum(b), sum(w*a^2), sum(w*b^2), sum(w*a*b)} with its neighbours are kept in primitive arrays, sorted by similarity.
+ * A neighbour's similarity can then be served with any single item excluded from the co-ratings (i.e., the held-out
+ * rating in leave-one-out) by subtracting the item's terms, rather than being recomputed from all the co-ratings.
+ *
+ * <p>
+ * Only the methods that are functions of these statistics are supported: PCC, caPCC, COS and iufCOS. If all the
+ * neighbours are kept (size = 0, threshold = -1), the results are identical to computing the similarities on the fly.
+ * </p>
+ *
+ * @author guoguibing
+ */
+public class SimilarityIndex
+{
+	/* number of statistics per pair: sum(a), sum(b), sum(w*a*a), sum(w*b*b), sum(w*a*b) */
+	private final static int	STATS	= 5;
+
+	private RatingMatrix		matrix;
+	private SimMethod			method;
+	/* item weights, null if all the weights are 1 */
+	private double[]			weights;
+
+	private int[][]				neighbours;
+	private int[][]				counts;
+	private double[][]			stats;
+	private float[][]			sims;
+
+	private SimilarityIndex(RatingMatrix matrix, SimMethod method)
+	{
+		this.matrix = matrix;
+		this.method = method;
+
+		int numUsers = matrix.numUsers();
+		neighbours = new int[numUsers][];
+		counts = new int[numUsers][];
+		stats = new double[numUsers][];
+		sims = new float[numUsers][];
+
+		if (method == SimMethod.iufCOS)
+		{
+			// inverse user frequency
+			weights = new double[matrix.numItems()];
+			for (int i = 0; i < weights.length; i++)
+				weights[i] = Math.log((numUsers + 0.0) / matrix.numItemRatings(i));
+		}
+	}
+
+	public static boolean supports(SimMethod method)
+	{
+		switch (method)
+		{
+			case PCC:
+			case caPCC:
+			case COS:
+			case iufCOS:
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	/**
+	 * Build the index in parallel over users, in the shared pool.
+	 *
+	 * @param size
+	 *            maximum number of neighbours per user, 0 to keep all
+	 * @param threshold
+	 *            minimum similarity of the kept neighbours (on all the co-ratings)
+	 */
+	public static SimilarityIndex build(RatingMatrix matrix, SimMethod method, int size, double threshold, int threads)
+			throws Exception
+	{
+		if (!supports(method)) throw new IllegalArgumentException("Unsupported similarity method: " + method);
+
+		final SimilarityIndex index = new SimilarityIndex(matrix, method);
+
+		int numUsers = matrix.numUsers();
+		int numTasks = Math.max(1, Math.min(numUsers, threads * 4));
+		List<Callable<Void>> tasks = new ArrayList<>();
+		for (int t = 0; t < numTasks; t++)
+			tasks.add(index.new Builder(t, numTasks, size, threshold));
+
+		TaskPool.invokeAll(tasks);
+		for (Callable<Void> task : tasks)
+			((Builder) task).check();
+
+		return index;
+	}
+
+	/**
+	 * Computes the neighbours of users {first, first + step, ...}, interleaved to balance heavy and light users.
+	 */
+	private class Builder implements Callable<Void>
+	{
+		private int			first, step, size;
+		private double		threshold;
+		private Exception	error;
+
+		Builder(int first, int step, int size, double threshold)
+		{
+			this.first = first;
+			this.step = step;
+			this.size = size;
+			this.threshold = threshold;
+		}
+
+		@Override
+		public Void call()
+		{
+			try
+			{
+				run();
+			} catch (Exception e)
+			{
+				error = e;
+			}
+			return null;
+		}
+
+		void check() throws Exception
+		{
+			if (error != null) throw error;
+		}
+
+		private void run()
+		{
+			int numUsers = matrix.numUsers();
+			int[] rowPtr = matrix.getRowPtr();
+			int[] colIdx = matrix.getColIdx();
+			double[] rowVals = matrix.getRowVals();
+			int[] colPtr = matrix.getColPtr();
+			int[] rowIdx = matrix.getRowIdx();
+			double[] colVals = matrix.getColVals();
+
+			/* dense accumulators over all the users, reset through the touched list */
+			int[] cnt = new int[numUsers];
+			double[] acc = new double[numUsers * STATS];
+			int[] touched = new int[numUsers];
+
+			for (int a = first; a < numUsers; a += step)
+			{
+				int numTouched = 0;
+				for (int k = rowPtr[a]; k < rowPtr[a + 1]; k++)
+				{
+					int i = colIdx[k];
+					double ra = rowVals[k];
+					double w = weights == null ? 1.0 : weights[i];
+
+					for (int c = colPtr[i]; c < colPtr[i + 1]; c++)
+					{
+						int b = rowIdx[c];
+						if (b == a) continue;
+
+						double rb = colVals[c];
+						if (cnt[b]++ == 0) touched[numTouched++] = b;
+
+						int s = b * STATS;
+						acc[s] += ra;
+						acc[s + 1] += rb;
+						acc[s + 2] += w * ra * ra;
+						acc[s + 3] += w * rb * rb;
+						acc[s + 4] += w * ra * rb;
+					}
+				}
+
+				/* rank neighbours by similarity: (sortable similarity bits << 32) | neighbour */
+				long[] keys = new long[numTouched];
+				int num = 0;
+				for (int t = 0; t < numTouched; t++)
+				{
+					int b = touched[t];
+					int s = b * STATS;
+					double sim = similarity(cnt[b], acc[s], acc[s + 1], acc[s + 2], acc[s + 3], acc[s + 4]);
+					if (!Double.isNaN(sim) && sim >= threshold) keys[num++] = ((long) sortable(-(float) sim) << 32) | b;
+				}
+				Arrays.sort(keys, 0, num);
+				if (size > 0 && num > size) num = size;
+
+				int[] nns = new int[num];
+				int[] ns = new int[num];
+				double[] ss = new double[num * STATS];
+				float[] vs = new float[num];
+				for (int n = 0; n < num; n++)
+				{
+					int b = (int) keys[n];
+					nns[n] = b;
+					ns[n] = cnt[b];
+					System.arraycopy(acc, b * STATS, ss, n * STATS, STATS);
+					vs[n] = -Float.intBitsToFloat(unsortable((int) (keys[n] >> 32)));
+				}
+				neighbours[a] = nns;
+				counts[a] = ns;
+				stats[a] = ss;
+				sims[a] = vs;
+
+				for (int t = 0; t < numTouched; t++)
+				{
+					int b = touched[t];
+					cnt[b] = 0;
+					Arrays.fill(acc, b * STATS, b * STATS + STATS, 0.0);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return an int whose signed order is the same as the order of the float
+	 */
+	private static int sortable(float f)
+	{
+		int bits = Float.floatToIntBits(f);
+		return bits ^ ((bits >> 31) & 0x7fffffff);
+	}
+
+	private static int unsortable(int bits)
+	{
+		return bits ^ ((bits >> 31) & 0x7fffffff);
+	}
+
+	private double similarity(int n, double sa, double sb, double saa, double sbb, double sab)
+	{
+		switch (method)
+		{
+			case PCC:
+			case caPCC:
+				if (n < 2) return Double.NaN;
+
+				double num = sab - sa * sb / n;
+				double den = Math.sqrt((saa - sa * sa / n) * (sbb - sb * sb / n));
+				return num / den;
+			case COS:
+				if (n < 1) return Double.NaN;
+
+				return sab / (Math.sqrt(saa) * Math.sqrt(sbb));
+			case iufCOS:
+				if (n < 1) return Double.NaN;
+
+				return saa > 0 && sbb > 0 ? sab / (Math.sqrt(saa) * Math.sqrt(sbb)) : 0.0;
+			default:
+				return Double.NaN;
+		}
+	}
+
+	/**
+	 * @param a
+	 *            user index
+	 * @param k
+	 *            position of the neighbour in the user's list
+	 * @param excluded
+	 *            item index excluded from the co-ratings, -1 if none
+	 * @return similarity between user a and its k-th neighbour
+	 */
+	public double similarity(int a, int k, int excluded)
+	{
+		int n = counts[a][k];
+		double[] ss = stats[a];
+		int s = k * STATS;
+		double sa = ss[s], sb = ss[s + 1], saa = ss[s + 2], sbb = ss[s + 3], sab = ss[s + 4];
+
+		if (excluded >= 0)
+		{
+			double ra = matrix.get(a, excluded);
+			double rb = ra > 0 ? matrix.get(neighbours[a][k], excluded) : 0;
+			if (ra > 0 && rb > 0)
+			{
+				/* leave the excluded item out of the co-ratings */
+				if (n == 1) return Double.NaN;
+
+				double w = weights == null ? 1.0 : weights[excluded];
+				n--;
+				sa -= ra;
+				sb -= rb;
+				saa -= w * ra * ra;
+				sbb -= w * rb * rb;
+				sab -= w * ra * rb;
+			}
+		}
+
+		return similarity(n, sa, sb, saa, sbb, sab);
+	}
+
+	/**
+	 * @return number of the indexed neighbours of user a
+	 */
+	public int numNeighbours(int a)
+	{
+		return neighbours[a].length;
+	}
+
+	/**
+	 * @return user index of the k-th neighbour of user a
+	 */
+	public int neighbour(int a, int k)
+	{
+		return neighbours[a][k];
+	}
+
+	/**
+	 * @return similarity between user a and its k-th neighbour on all the co-ratings, in float precision
+	 */
+	public float indexedSimilarity(int a, int k)
+	{
+		return sims[a][k];
+	}
+
+	public long size()
+	{
+		long size = 0;
+		for (int[] nns : neighbours)
+			size += nns.length;
+
+		return size;
+	}
+
+	/**
+	 * @return approximate bytes of the arrays
+	 */
+	public long memory()
+	{
+		return size() * (4 + 4 + 8 * STATS + 4) + (weights == null ? 0 : weights.length * 8L);
+	}
+
+	public RatingMatrix getMatrix()
+	{
+		return matrix;
+	}
+
+	public SimMethod getMethod()
+	{
+		return method;
+	}
+
+}
@@ -0,0 +1,561 @@
+package happy.research.cf;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+
+/**
+ * Item-item deviations of (weighted) Slope One in compact sparse rows: the items co-rated with item i are
+ * {@code cols[i]} in ascending order of ids, with the sums of rating differences r_i - r_j in {@code sums[i]} and the
+ * numbers of co-ratings in {@code counts[i]}.
+ *
+ * <p>
+ * Training is row by row: the rows are split into blocks of similar work, and each block is accumulated by one task
+ * of the shared pool into a dense scratch row of its own, i.e., no map and no boxing, and no lock as every row is
+ * written by one task only. The differences are summed as doubles, as they are by the nested maps, so that the
+ * deviations do not depend on the rating scale.
+ * </p>
+ *
+ * <p>
+ * The model keeps the users' ratings it is trained on, so that it can be updated by new or changed ratings (only the
+ * item pairs of the updated users' ratings are touched), and saved to and loaded from a binary file.
+ * </p>
+ *
+ * @author guoguibing
+ */
+public class SlopeOneModel
+{
+	private final static int	VERSION	= 3;
+
+	private IdDictionary		items;
+	private IdDictionary		users;
+
+	/* users' ratings in the order they are added */
+	private int[][]				userItems;
+	private double[][]			userRatings;
+
+	private int[][]				cols;
+	private double[][]			sums;
+	private int[][]				counts;
+
+	private SlopeOneModel(IdDictionary items, IdDictionary users, int[][] userItems, double[][] userRatings,
+			int[][] cols, double[][] sums, int[][] counts)
+	{
+		this.items = items;
+		this.users = users;
+		this.userItems = userItems;
+		this.userRatings = userRatings;
+		this.cols = cols;
+		this.sums = sums;
+		this.counts = counts;
+	}
+
+	/**
+	 * Train the model in parallel in the shared pool.
+	 *
+	 * @param userRatingsMap
+	 *            {user - {item - rating}} of the training set
+	 */
+	public static SlopeOneModel train(Map<String, Map<String, Rating>> userRatingsMap) throws Exception
+	{
+		/* users' ratings as primitive arrays */
+		final IdDictionary items = new IdDictionary();
+		IdDictionary users = new IdDictionary(userRatingsMap.size());
+		int numUsers = userRatingsMap.size();
+		final int[][] userItems = new int[numUsers][];
+		final double[][] userRatings = new double[numUsers][];
+
+		int u = 0;
+		for (Entry<String, Map<String, Rating>> en : userRatingsMap.entrySet())
+		{
+			users.intern(en.getKey());
+			Map<String, Rating> itemRatings = en.getValue();
+			int[] is = new int[itemRatings.size()];
+			double[] rs = new double[itemRatings.size()];
+			int k = 0;
+			for (Rating r : itemRatings.values())
+			{
+				is[k] = items.intern(r.getItemId());
+				rs[k++] = r.getRating();
+			}
+			userItems[u] = is;
+			userRatings[u++] = rs;
+		}
+
+		/* raters of each item, with the item's position in their ratings */
+		final int numItems = items.size();
+		int[] degrees = new int[numItems];
+		for (int[] is : userItems)
+			for (int i : is)
+				degrees[i]++;
+
+		final int[][] itemUsers = new int[numItems][];
+		final int[][] itemPos = new int[numItems][];
+		for (int i = 0; i < numItems; i++)
+		{
+			itemUsers[i] = new int[degrees[i]];
+			itemPos[i] = new int[degrees[i]];
+		}
+		Arrays.fill(degrees, 0);
+		for (u = 0; u < numUsers; u++)
+		{
+			for (int k = 0; k < userItems[u].length; k++)
+			{
+				int i = userItems[u][k];
+				itemUsers[i][degrees[i]] = u;
+				itemPos[i][degrees[i]++] = k;
+			}
+		}
+
+		/* blocks of rows with similar numbers of co-rating pairs */
+		long[] work = new long[numItems];
+		long total = 0;
+		for (int i = 0; i < numItems; i++)
+		{
+			for (int v : itemUsers[i])
+				work[i] += userItems[v].length;
+			total += work[i];
+		}
+
+		int numBlocks = TaskPool.parallelism() * 4;
+		long target = total / numBlocks + 1;
+
+		final int[][] cols = new int[numItems][];
+		final double[][] sums = new double[numItems][];
+		final int[][] counts = new int[numItems][];
+
+		List<Callable<Void>> tasks = new ArrayList<>();
+		for (int start = 0; start < numItems;)
+		{
+			int end = start;
+			long w = 0;
+			while (end < numItems && (w < target || end == start))
+				w += work[end++];
+
+			final int from = start, to = end;
+			tasks.add(new Callable<Void>() {
+
+				@Override
+				public Void call() throws Exception
+				{
+					double[] sum = new double[numItems];
+					int[] count = new int[numItems];
+					int[] touched = new int[numItems];
+
+					for (int i = from; i < to; i++)
+					{
+						int num = 0;
+						for (int p = 0; p < itemUsers[i].length; p++)
+						{
+							int v = itemUsers[i][p];
+							int[] is = userItems[v];
+							double[] rs = userRatings[v];
+							double ri = rs[itemPos[i][p]];
+
+							for (int k = 0; k < is.length; k++)
+							{
+								int j = is[k];
+								if (count[j] == 0) touched[num++] = j;
+								count[j]++;
+								sum[j] += ri - rs[k];
+							}
+						}
+
+						Arrays.sort(touched, 0, num);
+						int[] cs = new int[num];
+						double[] ss = new double[num];
+						int[] ns = new int[num];
+						for (int k = 0; k < num; k++)
+						{
+							int j = touched[k];
+							cs[k] = j;
+							ss[k] = sum[j];
+							ns[k] = count[j];
+
+							sum[j] = 0;
+							count[j] = 0;
+						}
+						cols[i] = cs;
+						sums[i] = ss;
+						counts[i] = ns;
+					}
+
+					return null;
+				}
+			});
+
+			start = end;
+		}
+		TaskPool.invokeAll(tasks);
+
+		return new SlopeOneModel(items, users, userItems, userRatings, cols, sums, counts);
+	}
+
+	/**
+	 * Update the model by new or changed ratings; ratings equal to the current ones are ignored, and the latest of
+	 * repeated ratings is used.
+	 *
+	 * @return number of the new or changed ratings
+	 */
+	public int update(RatingTable delta)
+	{
+		/* {user - {item - rating}} of the delta, in the order of the table */
+		Map<String, Map<String, Double>> userDeltas = new LinkedHashMap<>();
+		for (int k = 0; k < delta.size(); k++)
+		{
+			Map<String, Double> ds = userDeltas.get(delta.user(k));
+			if (ds == null)
+			{
+				ds = new LinkedHashMap<>();
+				userDeltas.put(delta.user(k), ds);
+			}
+			ds.put(delta.item(k), delta.rating(k));
+		}
+
+		int numChanged = 0;
+		for (Entry<String, Map<String, Double>> en : userDeltas.entrySet())
+			numChanged += update(en.getKey(), en.getValue());
+
+		return numChanged;
+	}
+
+	private int update(String user, Map<String, Double> ds)
+	{
+		int u = users.intern(user);
+		if (u == userItems.length)
+		{
+			int capacity = Math.max(16, u * 3 / 2);
+			userItems = Arrays.copyOf(userItems, capacity);
+			userRatings = Arrays.copyOf(userRatings, capacity);
+		}
+		if (userItems[u] == null)
+		{
+			userItems[u] = new int[0];
+			userRatings[u] = new double[0];
+		}
+
+		int[] oldItems = userItems[u];
+		double[] oldRatings = userRatings[u];
+
+		/* new ratings: the old ones, changed in place, and then the new items */
+		int[] is = Arrays.copyOf(oldItems, oldItems.length + ds.size());
+		double[] rs = Arrays.copyOf(oldRatings, oldRatings.length + ds.size());
+		boolean[] changed = new boolean[is.length];
+		int n = oldItems.length, numChanged = 0;
+		for (Entry<String, Double> en : ds.entrySet())
+		{
+			int i = items.intern(en.getKey());
+			if (i == cols.length)
+			{
+				int capacity = Math.max(16, i * 3 / 2);
+				cols = Arrays.copyOf(cols, capacity);
+				sums = Arrays.copyOf(sums, capacity);
+				counts = Arrays.copyOf(counts, capacity);
+			}
+			if (cols[i] == null)
+			{
+				cols[i] = new int[0];
+				sums[i] = new double[0];
+				counts[i] = new int[0];
+			}
+
+			int k = 0;
+			while (k < n && is[k] != i)
+				k++;
+			if (k < n && rs[k] == en.getValue()) continue;
+			if (k == n)
+			{
+				is[n++] = i;
+				rs[k] = en.getValue();
+			} else
+				rs[k] = en.getValue();
+
+			changed[k] = true;
+			numChanged++;
+		}
+		if (numChanged == 0) return 0;
+
+		is = Arrays.copyOf(is, n);
+		rs = Arrays.copyOf(rs, n);
+
+		/* pairs with a changed rating: remove the old differences and add the new ones */
+		for (int a = 0; a < n; a++)
+		{
+			for (int b = 0; b < n; b++)
+			{
+				if (!changed[a] && !changed[b]) continue;
+
+				if (a < oldItems.length && b < oldItems.length)
+					add(is[a], is[b], -(oldRatings[a] - oldRatings[b]), -1);
+				add(is[a], is[b], rs[a] - rs[b], 1);
+			}
+		}
+
+		userItems[u] = is;
+		userRatings[u] = rs;
+
+		return numChanged;
+	}
+
+	/**
+	 * Add a difference to the sum and count of item pair (i, j), removing the pair if its count drops to 0.
+	 */
+	private void add(int i, int j, double diff, int count)
+	{
+		int pos = find(i, j);
+		if (pos < 0)
+		{
+			pos = -pos - 1;
+			cols[i] = insert(cols[i], pos, j);
+			sums[i] = insert(sums[i], pos, 0.0);
+			counts[i] = insert(counts[i], pos, 0);
+		}
+
+		sums[i][pos] += diff;
+		counts[i][pos] += count;
+
+		if (counts[i][pos] == 0)
+		{
+			cols[i] = remove(cols[i], pos);
+			sums[i] = remove(sums[i], pos);
+			counts[i] = remove(counts[i], pos);
+		}
+	}
+
+	private static int[] insert(int[] a, int pos, int v)
+	{
+		int[] b = new int[a.length + 1];
+		System.arraycopy(a, 0, b, 0, pos);
+		b[pos] = v;
+		System.arraycopy(a, pos, b, pos + 1, a.length - pos);
+		return b;
+	}
+
+	private static double[] insert(double[] a, int pos, double v)
+	{
+		double[] b = new double[a.length + 1];
+		System.arraycopy(a, 0, b, 0, pos);
+		b[pos] = v;
+		System.arraycopy(a, pos, b, pos + 1, a.length - pos);
+		return b;
+	}
+
+	private static int[] remove(int[] a, int pos)
+	{
+		int[] b = new int[a.length - 1];
+		System.arraycopy(a, 0, b, 0, pos);
+		System.arraycopy(a, pos + 1, b, pos, b.length - pos);
+		return b;
+	}
+
+	private static double[] remove(double[] a, int pos)
+	{
+		double[] b = new double[a.length - 1];
+		System.arraycopy(a, 0, b, 0, pos);
+		System.arraycopy(a, pos + 1, b, pos, b.length - pos);
+		return b;
+	}
+
+	/**
+	 * Save the model with a tag of the data it is trained on, checked by {@code load}.
+	 */
+	public void save(String path, String tag) throws IOException
+	{
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path), 1 << 16)))
+		{
+			out.writeInt(VERSION);
+			out.writeUTF(tag);
+
+			out.writeInt(users.size());
+			for (int u = 0; u < users.size(); u++)
+			{
+				out.writeUTF(users.key(u));
+				out.writeInt(userItems[u].length);
+				for (int k = 0; k < userItems[u].length; k++)
+				{
+					out.writeInt(userItems[u][k]);
+					out.writeDouble(userRatings[u][k]);
+				}
+			}
+
+			out.writeInt(items.size());
+			for (int i = 0; i < items.size(); i++)
+			{
+				out.writeUTF(items.key(i));
+				out.writeInt(cols[i].length);
+				for (int k = 0; k < cols[i].length; k++)
+				{
+					out.writeInt(cols[i][k]);
+					out.writeDouble(sums[i][k]);
+					out.writeInt(counts[i][k]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the saved model, or null if it is of another version or tag
+	 */
+	public static SlopeOneModel load(String path, String tag) throws IOException
+	{
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path), 1 << 16)))
+		{
+			if (in.readInt() != VERSION || !in.readUTF().equals(tag)) return null;
+
+			int numUsers = in.readInt();
+			IdDictionary users = new IdDictionary(numUsers);
+			int[][] userItems = new int[numUsers][];
+			double[][] userRatings = new double[numUsers][];
+			for (int u = 0; u < numUsers; u++)
+			{
+				users.intern(in.readUTF());
+				int n = in.readInt();
+				userItems[u] = new int[n];
+				userRatings[u] = new double[n];
+				for (int k = 0; k < n; k++)
+				{
+					userItems[u][k] = in.readInt();
+					userRatings[u][k] = in.readDouble();
+				}
+			}
+
+			int numItems = in.readInt();
+			IdDictionary items = new IdDictionary(numItems);
+			int[][] cols = new int[numItems][];
+			double[][] sums = new double[numItems][];
+			int[][] counts = new int[numItems][];
+			for (int i = 0; i < numItems; i++)
+			{
+				items.intern(in.readUTF());
+				int n = in.readInt();
+				cols[i] = new int[n];
+				sums[i] = new double[n];
+				counts[i] = new int[n];
+				for (int k = 0; k < n; k++)
+				{
+					cols[i][k] = in.readInt();
+					sums[i][k] = in.readDouble();
+					counts[i][k] = in.readInt();
+				}
+			}
+
+			return new SlopeOneModel(items, users, userItems, userRatings, cols, sums, counts);
+		}
+	}
+
+	/**
+	 * @return position of item j in the row of item i, or a negative value if they are not co-rated
+	 */
+	public int find(int i, int j)
+	{
+		return Arrays.binarySearch(cols[i], j);
+	}
+
+	/**
+	 * predict a rating for {@code testItem}
+	 *
+	 * @param itemRatings
+	 *            test user's ratings
+	 * @param testItem
+	 *            test item
+	 * @param weighted
+	 *            whether use weighted or simple slope one
+	 *
+	 * @return prediction value, NaN if not predictable
+	 */
+	public double predict(Map<String, Rating> itemRatings, String testItem, boolean weighted)
+	{
+		int t = items.id(testItem);
+		if (t < 0) return Double.NaN; // not predictable
+
+		double sum = 0.0;
+		int cnt = 0;
+
+		for (Rating r : itemRatings.values())
+		{
+			int j = items.id(r.getItemId());
+			if (j < 0) continue;
+
+			int pos = find(t, j);
+			if (pos < 0) continue;
+
+			int freq = counts[t][pos];
+			double pred = sums[t][pos] / (double) freq + r.getRating();
+
+			if (weighted)
+			{
+				sum += freq * pred;
+				cnt += freq;
+			} else
+			{
+				sum += pred;
+				cnt++;
+			}
+		}
+
+		return sum / cnt;
+	}
+
+	/**
+	 * @return the user's ratings {item - rating} the model is trained or updated on, null if the user is unknown
+	 */
+	public Map<String, Rating> getRatings(String user)
+	{
+		int u = users.id(user);
+		if (u < 0) return null;
+
+		Map<String, Rating> itemRatings = new LinkedHashMap<>();
+		for (int k = 0; k < userItems[u].length; k++)
+		{
+			Rating r = new Rating();
+			r.setUserId(user);
+			r.setItemId(items.key(userItems[u][k]));
+			r.setRating(userRatings[u][k]);
+			itemRatings.put(r.getItemId(), r);
+		}
+
+		return itemRatings;
+	}
+
+	public int numItems()
+	{
+		return items.size();
+	}
+
+	/**
+	 * @return number of the stored (ordered) item pairs, including the diagonal
+	 */
+	public long numPairs()
+	{
+		long n = 0;
+		for (int i = 0; i < items.size(); i++)
+			n += cols[i].length;
+
+		return n;
+	}
+
+	/**
+	 * @return approximate heap size of the rows in bytes
+	 */
+	public long memory()
+	{
+		return numPairs() * (4 + 8 + 4) + items.size() * 3L * 16;
+	}
+
+	public IdDictionary getItems()
+	{
+		return items;
+	}
+
+}
@@ -1,8 +1,11 @@
 package happy.research.cf;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Map.Entry;
+import happy.coding.io.FileIO;
+import happy.coding.io.Logs;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
 * The implementation of (weighted) slope one by Guibing Guo on June 7th, 2013.
@@ -19,67 +22,78 @@ public class SlopeOne_mt extends DefaultCF_mt
 		methodId = "SlopeOne";
 	}
 
-	protected void train(Map<String, Map<String, Double>> diffMatrix, Map<String, Map<String, Integer>> freqMatrix)
+	@Override
+	protected Performance runMultiThreads() throws Exception
+	{
+		SlopeOneModel model = buildModel();
+
+		List<Runnable> tasks = new ArrayList<>();
+		for (int i = 0; i < ratingArrays.length; i++)
+			tasks.add(new SlopeOne_t(i, model));
+		runTasks(tasks);
+
+		return pf;
+	}
+
+	/**
+	 * Load the persisted model if it is trained on the current content of the training set, or train it; then update
+	 * it by the delta ratings, and persist it if changed.
+	 */
+	protected SlopeOneModel buildModel() throws Exception
 	{
-		// first iterate through users
-		for (Map<String, Rating> itemRatings : userRatingsMap.values())
+		String path = modelPath();
+		String tag = params.SLOPEONE_PERSIST ? RatingSnapshot.hash(new File(Dataset.DIRECTORY + params.TRAIN_SET))
+				: null;
+		boolean changed = false;
+
+		long start = System.currentTimeMillis();
+		SlopeOneModel model = null;
+		if (params.SLOPEONE_PERSIST && FileIO.exist(path))
 		{
-			// then iterate through user data
-			for (Entry<String, Rating> e1 : itemRatings.entrySet())
-			{
-				String i1 = e1.getKey();
-				double r1 = e1.getValue().getRating();
-				if (!diffMatrix.containsKey(i1))
-				{
-					diffMatrix.put(i1, new HashMap<String, Double>());
-					freqMatrix.put(i1, new HashMap<String, Integer>());
-				}
-				for (Entry<String, Rating> e2 : itemRatings.entrySet())
-				{
-					String i2 = e2.getKey();
-					double r2 = e2.getValue().getRating();
-
-					int cnt = 0;
-					if (freqMatrix.get(i1).containsKey(i2)) cnt = freqMatrix.get(i1).get(i2);
-
-					double diff = 0.0;
-					if (diffMatrix.get(i1).containsKey(i2)) diff = diffMatrix.get(i1).get(i2);
-
-					double new_diff = r1 - r2;
-					freqMatrix.get(i1).put(i2, cnt + 1);
-					diffMatrix.get(i1).put(i2, diff + new_diff);
-				}
-			}
+			model = SlopeOneModel.load(path, tag);
+			if (model != null) Logs.debug("Slope One loaded from {} in {} ms", path, System.currentTimeMillis() - start);
+			else Logs.debug("Slope One model {} is out of date and will be retrained", path);
 		}
-		for (String i : diffMatrix.keySet())
+
+		if (model == null)
 		{
-			for (String j : diffMatrix.get(i).keySet())
-			{
-				double diff = diffMatrix.get(i).get(j);
-				int count = freqMatrix.get(i).get(j);
-				diffMatrix.get(i).put(j, diff / count);
-			}
+			model = SlopeOneModel.train(userRatingsMap);
+			changed = true;
+			Logs.debug("Slope One trained in {} ms", System.currentTimeMillis() - start);
 		}
-	}
 
-	@Override
-	protected Performance runMultiThreads() throws Exception
-	{
-		/* {item - item deviation matrix} */
-		Map<String, Map<String, Double>> devMatrix = new HashMap<>();
-		/* {item - item frequency matrix} */
-		Map<String, Map<String, Integer>> freqMatrix = new HashMap<>();
+		if (!params.SLOPEONE_DELTA.isEmpty())
+		{
+			String deltaPath = Dataset.DIRECTORY + params.SLOPEONE_DELTA;
+			if (FileIO.exist(deltaPath))
+			{
+				start = System.currentTimeMillis();
+				RatingTable delta = new RatingLoader(deltaPath, Dataset.LOADER_THREADS).load();
+				int num = model.update(delta);
+				changed |= num > 0;
+				Logs.debug("Slope One updated by {} new or changed ratings of {} in {} ms", new Object[] { num,
+						deltaPath, System.currentTimeMillis() - start });
+			} else
+				Logs.debug("Delta ratings {} do not exist", deltaPath);
+		}
 
-		train(devMatrix, freqMatrix);
+		Logs.debug("Slope One model: {} items, {} item pairs, {} MB", new Object[] { model.numItems(),
+				model.numPairs(), model.memory() >> 20 });
 
-		for (int i = 0; i < ratingArrays.length; i++)
+		if (params.SLOPEONE_PERSIST && changed)
 		{
-			threads[i] = new Thread(new SlopeOne_t(i, devMatrix, freqMatrix));
-			threads[i].start();
+			model.save(path, tag);
+			Logs.debug("Slope One saved to {}", path);
 		}
-		for (Thread tr : threads)
-			tr.join();
 
-		return pf;
+		return model;
+	}
+
+	private static String modelPath()
+	{
+		String train = params.TRAIN_SET;
+		if (train.lastIndexOf('.') > 0) train = train.substring(0, train.lastIndexOf('.'));
+
+		return Dataset.TEMP_DIRECTORY + "slope-one-" + train + ".bin";
 	}
 }
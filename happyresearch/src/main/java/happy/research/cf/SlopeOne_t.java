@@ -5,17 +5,13 @@ import java.util.Map.Entry;
 
 public class SlopeOne_t extends Thread_t
 {
-	/* item-item deviation matrix*/
-	protected Map<String, Map<String, Double>>	devMatrix;
-	/* item-item frequency matrix*/
-	protected Map<String, Map<String, Integer>>	freqMatrix;
+	/* item-item deviations */
+	protected SlopeOneModel	model;
 
-	public SlopeOne_t(int id, Map<String, Map<String, Double>> _diffMatrix,
-			Map<String, Map<String, Integer>> _freqMatrix)
+	public SlopeOne_t(int id, SlopeOneModel model)
 	{
 		super(id);
-		devMatrix = _diffMatrix;
-		freqMatrix = _freqMatrix;
+		this.model = model;
 	}
 
 	/**
@@ -29,32 +25,7 @@ public class SlopeOne_t extends Thread_t
 	 */
 	public double predict(Map<String, Rating> itemRatings, String testItem, boolean weighted)
 	{
-		if (!devMatrix.containsKey(testItem)) return Double.NaN; // not predictable
-
-		double sum = 0.0;
-		int cnt = 0;
-
-		for (String item : itemRatings.keySet())
-		{
-			double rate = itemRatings.get(item).getRating();
-
-			if (!devMatrix.get(testItem).containsKey(item)) continue;
-
-			int freq = freqMatrix.get(testItem).get(item);
-			double pred = devMatrix.get(testItem).get(item) + rate;
-
-			if (weighted)
-			{
-				sum += freq * pred;
-				cnt += freq;
-			} else
-			{
-				sum += pred;
-				cnt++;
-			}
-		}
-
-		return sum / cnt;
+		return model.predict(itemRatings, testItem, weighted);
 	}
 
 	@Override
@@ -63,7 +34,8 @@ public class SlopeOne_t extends Thread_t
 		for (Entry<String, Map<String, Rating>> en : threadMap.entrySet())
 		{
 			String testUser = en.getKey();
-			Map<String, Rating> itemRatings = userRatingsMap.get(testUser);
+			// ratings of the model, i.e., with the delta ratings
+			Map<String, Rating> itemRatings = model.getRatings(testUser);
 			// have not rated any items
 			if (itemRatings == null) continue;
 
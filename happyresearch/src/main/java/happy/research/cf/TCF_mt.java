@@ -1,5 +1,8 @@
 package happy.research.cf;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Implement Maria Chowdhury's TCF method
  * 
@@ -16,14 +19,10 @@ public class TCF_mt extends DefaultCF_mt
 	@Override
 	protected Performance runMultiThreads() throws Exception
 	{
+		List<Runnable> tasks = new ArrayList<>();
 		for (int i = 0; i < ratingArrays.length; i++)
-		{
-			threads[i] = new Thread(new TCF_t(i));
-			threads[i].start();
-		}
-
-		for (Thread tr : threads)
-			tr.join();
+			tasks.add(new TCF_t(i));
+		runTasks(tasks);
 
 		return pf;
 	}
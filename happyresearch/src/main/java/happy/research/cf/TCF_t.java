@@ -2,7 +2,7 @@ package happy.research.cf;
 
 import happy.coding.io.Logs;
 import happy.coding.io.Strings;
-import happy.coding.math.Sims;
+import happy.research.utils.SimUtils.SimMethod;
 
 import java.util.ArrayList;
 import java.util.Collections;
@@ -59,37 +59,49 @@ public class TCF_t extends Thread_t
 		Map<String, Double> nnScores = new HashMap<>();
 		Map<String, Double> nnRatings = new HashMap<>();
 
-		Map<String, Rating> asRatings = userRatingsMap.get(testUser);
-
-		for (Entry<String, Map<String, Rating>> entry : userRatingsMap.entrySet())
+		SimilarityIndex index = similarityIndex;
+		RatingMatrix m = index == null ? null : index.getMatrix();
+		int a = m == null ? -1 : m.userIndex(testUser);
+		if (a >= 0 && (index.getMethod() == SimMethod.PCC || index.getMethod() == SimMethod.caPCC))
 		{
-			String user = entry.getKey();
-			if (user.equals(testUser)) continue;
-
-			Map<String, Rating> bsRatings = entry.getValue();
-			double bsRating = 0.0;
-			if (bsRatings.containsKey(testItem)) bsRating = bsRatings.get(testItem).getRating();
-
-			List<Double> as = new ArrayList<>();
-			List<Double> bs = new ArrayList<>();
-			for (Entry<String, Rating> ar : asRatings.entrySet())
+			/* pcc served by the similarity index, with the test item left out */
+			int t = m.itemIndex(testItem);
+			for (int k = 0, num = index.numNeighbours(a); k < num; k++)
 			{
-				String item = ar.getKey();
-				if (item.equals(testItem)) continue;
-				if (bsRatings.containsKey(item))
+				double similarity = index.similarity(a, k, t);
+				if (Double.isNaN(similarity)) continue;
+
+				if (similarity > params.SIMILARITY_THRESHOLD)
 				{
-					as.add(ar.getValue().getRating());
-					bs.add(bsRatings.get(item).getRating());
+					int b = index.neighbour(a, k);
+					String user = m.getUsers().key(b);
+					nnScores.put(user, similarity);
+					nnRatings.put(user, t < 0 ? 0.0 : m.get(b, t));
 				}
 			}
-			double similarity = Sims.pcc(as, bs);
-			if (Double.isNaN(similarity)) continue;
+		} else
+		{
+			/* pcc of the co-ratings intersected by the sorted rows, with the test item left out */
+			m = ratingRows();
+			a = m.userIndex(testUser);
+			int t = m.itemIndex(testItem);
+			CoRatings co = CoRatings.local();
 
-			/* use trust network to predict a rating for this user */
-			if (similarity > params.SIMILARITY_THRESHOLD)
+			for (int b = 0, num = a < 0 ? 0 : m.numUsers(); b < num; b++)
 			{
-				nnScores.put(user, similarity);
-				nnRatings.put(user, bsRating);
+				if (b == a) continue;
+
+				co.rows(m, a, b, t);
+				double similarity = co.pcc();
+				if (Double.isNaN(similarity)) continue;
+
+				/* use trust network to predict a rating for this user */
+				if (similarity > params.SIMILARITY_THRESHOLD)
+				{
+					String user = m.getUsers().key(b);
+					nnScores.put(user, similarity);
+					nnRatings.put(user, t < 0 ? 0.0 : m.get(b, t));
+				}
 			}
 		}
 
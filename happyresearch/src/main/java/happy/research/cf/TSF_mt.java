@@ -1,5 +1,8 @@
 package happy.research.cf;
 
+import java.util.ArrayList;
+import java.util.List;
+
 
 /**
  * This approach is an implementation of paper: 
@@ -28,13 +31,10 @@ public class TSF_mt extends DefaultCF_mt
 	@Override
 	protected Performance runMultiThreads() throws Exception
 	{
+		List<Runnable> tasks = new ArrayList<>();
 		for (int i = 0; i < ratingArrays.length; i++)
-		{
-			threads[i] = new Thread(new TSF_t(i));
-			threads[i].start();
-		}
-		for (Thread tr : threads)
-			tr.join();
+			tasks.add(new TSF_t(i));
+		runTasks(tasks);
 
 		return pf;
 	}
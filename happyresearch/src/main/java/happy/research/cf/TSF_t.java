@@ -38,7 +38,7 @@ public class TSF_t extends Thread_t
 			Map<String, Rating> asRatings = userRatingsMap.get(user);
 			if (params.PREDICT_METHOD == PredictMethod.resnick_formula)
 			{
-				meanA = RatingUtils.mean(asRatings, testRating);
+				meanA = userMean(user, testRating);
 				if (Double.isNaN(meanA)) continue;
 			}
 
@@ -65,8 +65,7 @@ public class TSF_t extends Thread_t
 						double meanB = 0.0;
 						if (params.PREDICT_METHOD == PredictMethod.resnick_formula)
 						{
-							Map<String, Rating> bsRatings = userRatingsMap.get(nn);
-							meanB = RatingUtils.mean(bsRatings, null);
+							meanB = userMean(nn, null);
 							if (Double.isNaN(meanB)) continue;
 						}
 
@@ -90,8 +89,7 @@ public class TSF_t extends Thread_t
 						double meanB = 0.0;
 						if (params.PREDICT_METHOD == PredictMethod.resnick_formula)
 						{
-							Map<String, Rating> bsRatings = userRatingsMap.get(nn);
-							meanB = RatingUtils.mean(bsRatings, null);
+							meanB = userMean(nn, null);
 							if (Double.isNaN(meanB)) continue;
 						}
 
@@ -116,10 +114,9 @@ public class TSF_t extends Thread_t
 				double ws_item = 0;
 
 				double ma = 0.0;
-				Map<String, Rating> ar = itemRatingsMap.get(item);
 				if (params.PREDICT_METHOD == PredictMethod.resnick_formula)
 				{
-					ma = RatingUtils.mean(ar, testRating);
+					ma = itemMean(item, testRating);
 					if (Double.isNaN(ma)) continue;
 				}
 
@@ -140,8 +137,7 @@ public class TSF_t extends Thread_t
 							double meanB = 0.0;
 							if (params.PREDICT_METHOD == PredictMethod.resnick_formula)
 							{
-								Map<String, Rating> bsRatings = itemRatingsMap.get(nn);
-								meanB = RatingUtils.mean(bsRatings, null);
+								meanB = itemMean(nn, null);
 								if (Double.isNaN(meanB)) continue;
 							}
 
@@ -177,16 +173,19 @@ public class TSF_t extends Thread_t
 		Map<String, Double> nnSims = new HashMap<>();
 		Map<String, Double> nnScores = new HashMap<>();
 
-		for (Entry<String, Map<String, Rating>> entry : itemRatingsMap.entrySet())
+		/* only the items rated by the test user are candidates */
+		Map<String, Rating> usRatings = userRatingsMap.get(testUser);
+		if (usRatings == null) return new Map[] { nnSims, nnScores };
+
+		for (String item : usRatings.keySet())
 		{
-			String item = entry.getKey();
 			if (item.equalsIgnoreCase(testItem)) continue;
 
-			Map<String, Rating> bsRatings = entry.getValue();
+			Map<String, Rating> bsRatings = itemRatingsMap.get(item);
 			if (bsRatings == null) continue;
 
 			if (!bsRatings.containsKey(testUser)) continue;
-			double mu_b = RatingUtils.mean(bsRatings, null);
+			double mu_b = itemMean(item, null);
 
 			List<Double> as = new ArrayList<>();
 			List<Double> bs = new ArrayList<>();
@@ -228,7 +227,7 @@ public class TSF_t extends Thread_t
 
 		Map<String, Rating> asRatings = userRatingsMap.get(testUser);
 		if (asRatings == null) return null;
-		double mu_a = RatingUtils.mean(asRatings, testRating);
+		double mu_a = userMean(testUser, testRating);
 		if (Double.isNaN(mu_a)) mu_a = (Dataset.maxScale + Dataset.minScale) / 2.0;
 
 		Map<String, Double> nnSims = new HashMap<>();
@@ -243,7 +242,7 @@ public class TSF_t extends Thread_t
 			Map<String, Rating> bsRatings = entry.getValue();
 			if (bsRatings == null) continue;
 			if (!bsRatings.containsKey(testItem)) continue;
-			double mu_b = RatingUtils.mean(bsRatings, null);
+			double mu_b = userMean(user, null);
 
 			List<Double> as = new ArrayList<>();
 			List<Double> bs = new ArrayList<>();
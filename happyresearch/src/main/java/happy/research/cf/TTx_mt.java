@@ -2,11 +2,15 @@ package happy.research.cf;
 
 import happy.coding.io.FileIO;
 import happy.coding.io.Logs;
-import happy.research.utils.TidalTrust;
+import happy.research.utils.TidalTrustEngine;
+import happy.research.utils.TrustGraph;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 
 /**
  * TidalTrust algorithm
@@ -55,33 +59,62 @@ public class TTx_mt extends DefaultCF_mt
 	{
 		probeTTTnScores();
 
+		List<Runnable> tasks = new ArrayList<>();
 		for (int i = 0; i < ratingArrays.length; i++)
-		{
-			threads[i] = new Thread(new TTx_t(i));
-			threads[i].start();
-		}
-		for (Thread tr : threads)
-			tr.join();
+			tasks.add(new TTx_t(i));
+		runTasks(tasks);
 
 		return pf;
 	}
 
+	/**
+	 * Infer trust from all the source users in parallel, into the trust store of the trust directory. Users already in
+	 * the store (or with a text file of an earlier run) are skipped.
+	 */
 	protected void probeTTTnScores() throws Exception
 	{
-		int horizon = params.TRUST_PROPERGATION_LENGTH;
+		final int horizon = params.TRUST_PROPERGATION_LENGTH;
 		FileIO.makeDirectory(trustDirPath);
 		Logs.debug("Building TT{} Data to: {}", horizon, trustDirPath);
 
-		for (String user : testUserRatingsMap.keySet())
+		final TrustStore store = TrustStore.open(trustDirPath);
+		final TidalTrustEngine engine = new TidalTrustEngine(userTrusteesMap, userTrustorsMap, userTrustRatingsMap);
+		engine.setBreadthFirst(params.TIDALTRUST_BREADTH_FIRST);
+		final TrustGraph<String> graph = engine.getGraph();
+
+		Collection<String> users = params.TRUST_ALL_SOURCES ? userTrusteesMap.keySet() : testUserRatingsMap.keySet();
+		List<String> sources = new ArrayList<>();
+		for (String user : users)
+		{
+			if (!store.contains(user) && !new File(trustDirPath + user + ".txt").exists()) sources.add(user);
+		}
+
+		List<Callable<Void>> tasks = new ArrayList<>();
+		for (final List<String> batch : DatasetUtils.splitCollection(sources, TaskPool.parallelism() * 16))
 		{
-			File file = new File(trustDirPath + user + ".txt");
-			if (file.exists()) continue;
+			tasks.add(new Callable<Void>() {
 
-			Map<String, Double> trustScores = TidalTrust.runAlgorithm(userTrusteesMap, userTrustorsMap,
-					userTrustRatingsMap, user, horizon);
-			if (trustScores != null && trustScores.size() > 0) FileIO.writeMap(file.getPath(), trustScores);
+				@Override
+				public Void call() throws Exception
+				{
+					TidalTrustEngine tt = engine.copy();
+					for (String user : batch)
+					{
+						int source = graph.node(user);
+						int num = source < 0 || !tt.hasTrustees(source) ? 0 : tt.run(source, horizon);
+						store.put(user, graph, tt.getResultNodes(), tt.getResultScores(), num);
+					}
+					return null;
+				}
+			});
 		}
-		Logs.debug("Done!");
+
+		long start = System.currentTimeMillis();
+		TaskPool.invokeAll(tasks);
+		store.flush();
+
+		Logs.debug("Done! {} sources in {} ms, {} users in the trust store", new Object[] { sources.size(),
+				System.currentTimeMillis() - start, store.size() });
 	}
 
 }
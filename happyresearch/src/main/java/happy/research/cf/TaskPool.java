@@ -0,0 +1,175 @@
+package happy.research.cf;
+
+import happy.coding.io.Logs;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Process-wide work-stealing pool shared by all the multi-threaded methods, so that the methods of a run (and the
+ * parallel parts of loading and indexing) never use more than {@code runtime.threads} workers in total.
+ *
+ * <p>
+ * Work is submitted as many small tasks (e.g., batches of test users) rather than one task per thread: idle workers
+ * take the remaining tasks, hence a few users with long profiles do not keep the others waiting.
+ * </p>
+ *
+ * @author guoguibing
+ */
+public class TaskPool
+{
+	private static ForkJoinPool	pool	= null;
+
+	/**
+	 * @return the shared pool, created on first use with {@code runtime.threads} workers
+	 */
+	public static synchronized ForkJoinPool getPool()
+	{
+		if (pool == null)
+		{
+			int threads = AbstractCF.params != null ? AbstractCF.params.RUNTIME_THREADS : Runtime.getRuntime()
+					.availableProcessors();
+			pool = new ForkJoinPool(Math.max(1, threads));
+		}
+
+		return pool;
+	}
+
+	public static int parallelism()
+	{
+		return getPool().getParallelism();
+	}
+
+	/**
+	 * Run all the tasks in the shared pool and wait for them to finish; the timing of tasks is reported when done.
+	 *
+	 * @param name
+	 *            name of the tasks used in logs
+	 * @throws Exception
+	 *             the first exception thrown by a task, after all the tasks are finished
+	 */
+	public static void runAll(String name, List<? extends Runnable> tasks) throws Exception
+	{
+		if (tasks.isEmpty()) return;
+
+		ForkJoinPool pool = getPool();
+		AtomicInteger finished = new AtomicInteger(0);
+		List<TimedTask> timed = new ArrayList<>(tasks.size());
+		for (Runnable task : tasks)
+			timed.add(new TimedTask(name, task, finished, tasks.size()));
+
+		long steals = pool.getStealCount();
+		long start = System.nanoTime();
+		List<Future<Long>> results = pool.invokeAll(timed);
+		long wall = System.nanoTime() - start;
+
+		long sum = 0, max = 0, min = Long.MAX_VALUE;
+		for (Future<Long> result : results)
+		{
+			long time = get(result);
+			sum += time;
+			max = Math.max(max, time);
+			min = Math.min(min, time);
+		}
+
+		Logs.debug("{}: {} tasks in {} ms on {} workers, task time (ms) min = {}, avg = {}, max = {}, utilization = {}%, steals = {}",
+				new Object[] { name, tasks.size(), millis(wall), pool.getParallelism(), millis(min),
+						millis(sum / tasks.size()), millis(max),
+						(int) (100.0 * sum / Math.max(1, wall) / pool.getParallelism()),
+						pool.getStealCount() - steals });
+	}
+
+	/**
+	 * Run all the tasks in the shared pool and wait for them to finish.
+	 *
+	 * @return the results of the tasks, in the same order
+	 * @throws Exception
+	 *             the first exception thrown by a task, after all the tasks are finished
+	 */
+	public static <T> List<T> invokeAll(List<? extends Callable<T>> tasks) throws Exception
+	{
+		List<Future<T>> futures = getPool().invokeAll(tasks);
+
+		List<T> results = new ArrayList<>(futures.size());
+		for (Future<T> future : futures)
+			results.add(get(future));
+
+		return results;
+	}
+
+	private static <T> T get(Future<T> future) throws Exception
+	{
+		try
+		{
+			return future.get();
+		} catch (ExecutionException e)
+		{
+			Throwable cause = e.getCause();
+			if (cause instanceof Exception) throw (Exception) cause;
+			if (cause instanceof Error) throw (Error) cause;
+			throw e;
+		}
+	}
+
+	private static long millis(long nanos)
+	{
+		return nanos / 1000000L;
+	}
+
+	public static synchronized void shutdown()
+	{
+		if (pool != null)
+		{
+			pool.shutdown();
+			pool = null;
+		}
+	}
+
+	/**
+	 * Runs a task and returns its time in nanoseconds; the name of the worker is restored after the task since some
+	 * tasks (e.g., {@code Thread_t}) rename the current thread.
+	 */
+	private static class TimedTask implements Callable<Long>
+	{
+		private String			name;
+		private Runnable		task;
+		private AtomicInteger	finished;
+		private int				total;
+
+		TimedTask(String name, Runnable task, AtomicInteger finished, int total)
+		{
+			this.name = name;
+			this.task = task;
+			this.finished = finished;
+			this.total = total;
+		}
+
+		@Override
+		public Long call()
+		{
+			Thread worker = Thread.currentThread();
+			String workerName = worker.getName();
+			long start = System.nanoTime();
+			try
+			{
+				task.run();
+			} finally
+			{
+				worker.setName(workerName);
+			}
+			long time = System.nanoTime() - start;
+
+			int done = finished.incrementAndGet();
+			int step = Math.max(1, total / 10);
+			if (done % step == 0 && done < total) Logs.debug("{} progress: {}/{} tasks", new Object[] { name, done, total });
+
+			return time;
+		}
+	}
+
+}
@@ -1,6 +1,5 @@
 package happy.research.cf;
 
-import happy.coding.io.FileIO;
 import happy.coding.io.Logs;
 import happy.coding.system.Dates;
 import happy.coding.system.Debug;
@@ -85,13 +84,17 @@ public abstract class Thread_t extends DefaultCF_mt implements Runnable {
 	public void run() {
 		startThread();
 
-		switch (params.VALIDATE_METHOD) {
-		case leave_one_out:
-			runLeaveOneOut();
-			break;
-		case cross_validation:
-			runCrossValidation();
-			break;
+		try {
+			switch (params.VALIDATE_METHOD) {
+			case leave_one_out:
+				runLeaveOneOut();
+				break;
+			case cross_validation:
+				runCrossValidation();
+				break;
+			}
+		} finally {
+			pf.release();
 		}
 
 		endThread();
@@ -107,7 +110,7 @@ public abstract class Thread_t extends DefaultCF_mt implements Runnable {
 				continue;
 			double meanA = 0.0;
 			if (params.PREDICT_METHOD == PredictMethod.resnick_formula) {
-				meanA = RatingUtils.mean(asRatings, null);
+				meanA = userMean(testUser, null);
 				if (Double.isNaN(meanA))
 					continue;
 			}
@@ -154,7 +157,7 @@ public abstract class Thread_t extends DefaultCF_mt implements Runnable {
 							continue;
 						double meanB = 0.0;
 						if (params.PREDICT_METHOD == PredictMethod.resnick_formula) {
-							meanB = RatingUtils.mean(bsRatings, null);
+							meanB = userMean(nn, null);
 							if (Double.isNaN(meanB))
 								continue;
 						}
@@ -210,7 +213,7 @@ public abstract class Thread_t extends DefaultCF_mt implements Runnable {
 
 						double meanB = 0.0;
 						if (params.PREDICT_METHOD == PredictMethod.resnick_formula) {
-							meanB = RatingUtils.mean(bsRatings, null);
+							meanB = userMean(nn, null);
 							if (Double.isNaN(meanB))
 								continue;
 						}
@@ -320,7 +323,7 @@ public abstract class Thread_t extends DefaultCF_mt implements Runnable {
 			double meanA = 0.0;
 			Map<String, Rating> asRatings = userRatingsMap.get(user);
 			if (params.PREDICT_METHOD == PredictMethod.resnick_formula) {
-				meanA = RatingUtils.mean(asRatings, testRating);
+				meanA = userMean(user, testRating);
 				if (Double.isNaN(meanA))
 					continue;
 			}
@@ -356,8 +359,7 @@ public abstract class Thread_t extends DefaultCF_mt implements Runnable {
 							continue;
 						double meanB = 0.0;
 						if (params.PREDICT_METHOD == PredictMethod.resnick_formula) {
-							Map<String, Rating> bsRatings = userRatingsMap.get(nn);
-							meanB = RatingUtils.mean(bsRatings, null);
+							meanB = userMean(nn, null);
 							if (Double.isNaN(meanB))
 								continue;
 						}
@@ -427,7 +429,7 @@ public abstract class Thread_t extends DefaultCF_mt implements Runnable {
 
 						double meanB = 0.0;
 						if (params.PREDICT_METHOD == PredictMethod.resnick_formula) {
-							meanB = RatingUtils.mean(bsRatings, null);
+							meanB = userMean(nn, null);
 							if (Double.isNaN(meanB))
 								continue;
 						}
@@ -475,7 +477,7 @@ public abstract class Thread_t extends DefaultCF_mt implements Runnable {
 		Map<String, Double> trustRatings = new HashMap<>();
 
 		try {
-			trustScores = FileIO.readAsIDMap(trustDirPath + user + ".txt");
+			trustScores = readTrustScores(user);
 		} catch (FileNotFoundException e) {
 		} catch (Exception e) {
 			e.printStackTrace();
@@ -505,6 +507,11 @@ public abstract class Thread_t extends DefaultCF_mt implements Runnable {
 
 	@SuppressWarnings("unchecked")
 	protected Map<String, Double>[] useSimilarRatings(Rating test) {
+		if (similarityIndex != null && similarityIndex.getMethod() == params.SIMILARITY_METHOD)
+			return useSimilarRatings(test, similarityIndex);
+		if (params.SIMILARITY_METHOD != SimMethod.SRC)
+			return useSimilarRatings(test, ratingRows());
+
 		Map<String, Double> nnSims = new HashMap<>();
 		Map<String, Double> nnRatings = new HashMap<>();
 
@@ -603,19 +610,119 @@ public abstract class Thread_t extends DefaultCF_mt implements Runnable {
 			if (Double.isNaN(similarity))
 				continue;
 
-			if (params.kNN > 0 && similarity > 0.0) {// kNN
+			addNeighbour(nnSims, nnRatings, user, similarity, bsRating);
+		}
+
+		return new Map[] { nearestNeighbours(nnSims, rating), nnRatings };
+	}
 
-				if (params.SIMILARITY_METHOD == SimMethod.caPCC)
-					similarity = Math.pow(similarity, 2.5);
+	/**
+	 * Same as {@code useSimilarRatings(Rating)}, but the co-rated items are found by intersecting the sorted rows of
+	 * the rating matrix with {@code CoRatings}, and only the users who rated the test item are scanned if the test
+	 * rating is known.
+	 */
+	@SuppressWarnings("unchecked")
+	protected Map<String, Double>[] useSimilarRatings(Rating test, RatingMatrix m) {
+		Map<String, Double> nnSims = new HashMap<>();
+		Map<String, Double> nnRatings = new HashMap<>();
 
-				nnSims.put(user, similarity);
-				nnRatings.put(user, bsRating);
-			} else if (similarity > params.SIMILARITY_THRESHOLD) {// thresholding
-				nnSims.put(user, similarity);
-				nnRatings.put(user, bsRating);
+		double rating = test.getRating();
+		int a = m.userIndex(test.getUserId());
+		if (a < 0)
+			return null;
+		int t = m.itemIndex(test.getItemId());
+		if (rating > 0 && t < 0)
+			return new Map[] { nnSims, nnRatings };
+
+		IdDictionary users = m.getUsers();
+		CoRatings co = CoRatings.local();
+		int[] colPtr = m.getColPtr();
+		int[] rowIdx = m.getRowIdx();
+		double[] colVals = m.getColVals();
+
+		// rating>0: raters of the test item only; rating<=0: all the users
+		int num = rating > 0 ? colPtr[t + 1] - colPtr[t] : m.numUsers();
+		for (int c = 0; c < num; c++) {
+			int b = c;
+			double bsRating = 0.0;
+			if (rating > 0) {
+				int k = colPtr[t] + c;
+				b = rowIdx[k];
+				bsRating = colVals[k];
+				if (bsRating <= 0)
+					continue;
 			}
+			if (b == a)
+				continue;
+
+			if (co.rows(m, a, b, t) < 1)
+				continue; // no commonly rated items
+
+			double similarity = similarity(co, test);
+			if (Double.isNaN(similarity))
+				continue;
+
+			addNeighbour(nnSims, nnRatings, users.key(b), similarity, bsRating);
 		}
 
+		return new Map[] { nearestNeighbours(nnSims, rating), nnRatings };
+	}
+
+	/**
+	 * Same as {@code useSimilarRatings(Rating)}, but the similarities are served by the similarity index of the fold,
+	 * with the test item left out of the co-ratings.
+	 */
+	@SuppressWarnings("unchecked")
+	protected Map<String, Double>[] useSimilarRatings(Rating test, SimilarityIndex index) {
+		Map<String, Double> nnSims = new HashMap<>();
+		Map<String, Double> nnRatings = new HashMap<>();
+
+		RatingMatrix m = index.getMatrix();
+		double rating = test.getRating();
+		int a = m.userIndex(test.getUserId());
+		if (a < 0)
+			return null;
+		int t = m.itemIndex(test.getItemId());
+		if (rating > 0 && t < 0)
+			return new Map[] { nnSims, nnRatings };
+
+		IdDictionary users = m.getUsers();
+		for (int k = 0, num = index.numNeighbours(a); k < num; k++) {
+			int b = index.neighbour(a, k);
+			double bsRating = 0.0;
+			if (rating > 0) {
+				// rating>0: nearest neighbors with similarities
+				bsRating = m.get(b, t);
+				if (bsRating <= 0)
+					continue;
+			}
+
+			double similarity = index.similarity(a, k, t);
+			if (Double.isNaN(similarity))
+				continue;
+
+			addNeighbour(nnSims, nnRatings, users.key(b), similarity, bsRating);
+		}
+
+		return new Map[] { nearestNeighbours(nnSims, rating), nnRatings };
+	}
+
+	private void addNeighbour(Map<String, Double> nnSims, Map<String, Double> nnRatings, String user,
+			double similarity, double bsRating) {
+		if (params.kNN > 0 && similarity > 0.0) {// kNN
+
+			if (params.SIMILARITY_METHOD == SimMethod.caPCC)
+				similarity = Math.pow(similarity, 2.5);
+
+			nnSims.put(user, similarity);
+			nnRatings.put(user, bsRating);
+		} else if (similarity > params.SIMILARITY_THRESHOLD) {// thresholding
+			nnSims.put(user, similarity);
+			nnRatings.put(user, bsRating);
+		}
+	}
+
+	private Map<String, Double> nearestNeighbours(Map<String, Double> nnSims, double rating) {
 		/* KNN method */
 		if (params.kNN > 0 && nnSims.size() > params.kNN && rating > 0) {
 			Map<String, Double> temp = new HashMap<>();
@@ -642,7 +749,7 @@ public abstract class Thread_t extends DefaultCF_mt implements Runnable {
 				}
 			}
 		}
-		return new Map[] { nnSims, nnRatings };
+		return nnSims;
 	}
 
 	@SuppressWarnings("unchecked")
@@ -676,8 +783,9 @@ public abstract class Thread_t extends DefaultCF_mt implements Runnable {
 
 	protected void reportProgress(int size) {
 		int step = params.RUNTIME_PROGRESS_STEP;
+		// the progress of small batches is reported by the shared pool
 		if (size < step)
-			step = size / 5;
+			return;
 		++progress;
 		if (step > 0 && progress % step == 0) {
 			sw.stop();
@@ -703,7 +811,8 @@ public abstract class Thread_t extends DefaultCF_mt implements Runnable {
 	}
 
 	protected void endThread() {
-		Logs.debug("Finish running {}", Thread.currentThread().getName());
+		Logs.debug("Finish running {} in {}", Thread.currentThread().getName(),
+				Dates.parse(sw.elapsed(TimeUnit.MILLISECONDS)));
 	}
 
 	@Override
@@ -0,0 +1,100 @@
+package happy.research.cf;
+
+/**
+ * Partial selection of the top-k scores with a bounded min-heap, in O(n log k) rather than sorting all the n scores.
+ *
+ * <p>
+ * Equal scores are ranked by descending index, i.e., the same order as a stable ascending sort followed by a reverse,
+ * hence the selected lists are identical to the head of a fully sorted list. NaN scores are ranked after all the others,
+ * so that they are only selected when there are fewer than k other candidates.
+ * </p>
+ *
+ * @author guoguibing
+ */
+public class TopN
+{
+
+	/**
+	 * @param scores
+	 *            scores of the candidates
+	 * @param k
+	 *            number of the candidates to select, at most scores.length
+	 * @return indices of the top-k candidates in descending order of scores
+	 */
+	public static int[] select(double[] scores, int k)
+	{
+		int n = scores.length;
+		if (k > n) k = n;
+		if (k <= 0) return new int[0];
+
+		/* min-heap of candidate indices, the worst of the selected at the root */
+		int[] heap = new int[k];
+		int size = 0;
+		for (int i = 0; i < n; i++)
+		{
+			if (size < k)
+			{
+				heap[size] = i;
+				siftUp(scores, heap, size++);
+			} else if (better(scores, i, heap[0]))
+			{
+				heap[0] = i;
+				siftDown(scores, heap, 0, size);
+			}
+		}
+
+		/* pop the worst to the end */
+		for (int last = size - 1; last > 0; last--)
+		{
+			int root = heap[0];
+			heap[0] = heap[last];
+			heap[last] = root;
+			siftDown(scores, heap, 0, last);
+		}
+
+		return heap;
+	}
+
+	/**
+	 * @return true if candidate i is ranked before candidate j
+	 */
+	private static boolean better(double[] scores, int i, int j)
+	{
+		double a = scores[i], b = scores[j];
+		if (Double.isNaN(a)) return Double.isNaN(b) && i > j;
+		if (Double.isNaN(b)) return true;
+
+		return a > b || (a == b && i > j);
+	}
+
+	private static void siftUp(double[] scores, int[] heap, int pos)
+	{
+		int node = heap[pos];
+		while (pos > 0)
+		{
+			int parent = (pos - 1) >>> 1;
+			if (!better(scores, heap[parent], node)) break;
+
+			heap[pos] = heap[parent];
+			pos = parent;
+		}
+		heap[pos] = node;
+	}
+
+	private static void siftDown(double[] scores, int[] heap, int pos, int size)
+	{
+		int node = heap[pos];
+		int half = size >>> 1;
+		while (pos < half)
+		{
+			int child = 2 * pos + 1;
+			if (child + 1 < size && better(scores, heap[child], heap[child + 1])) child++;
+			if (!better(scores, node, heap[child])) break;
+
+			heap[pos] = heap[child];
+			pos = child;
+		}
+		heap[pos] = node;
+	}
+
+}
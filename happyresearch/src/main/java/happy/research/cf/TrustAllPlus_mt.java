@@ -1,5 +1,8 @@
 package happy.research.cf;
 
+import java.util.ArrayList;
+import java.util.List;
+
 
 /**
  * Predict using TrustAll method. For the items without any ratings, use GlobalAveRating method
@@ -19,13 +22,10 @@ public class TrustAllPlus_mt extends DefaultCF_mt
 	{
 		double averageRating = RatingUtils.mean(userRatingsMap);
 
+		List<Runnable> tasks = new ArrayList<>();
 		for (int i = 0; i < ratingArrays.length; i++)
-		{
-			threads[i] = new Thread(new TrustAllPlus_t(i, averageRating));
-			threads[i].start();
-		}
-		for (Thread tr : threads)
-			tr.join();
+			tasks.add(new TrustAllPlus_t(i, averageRating));
+		runTasks(tasks);
 
 		return pf;
 	}
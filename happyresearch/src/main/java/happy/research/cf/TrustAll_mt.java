@@ -1,5 +1,8 @@
 package happy.research.cf;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public class TrustAll_mt extends DefaultCF_mt
 {
 	public TrustAll_mt()
@@ -10,13 +13,10 @@ public class TrustAll_mt extends DefaultCF_mt
 	@Override
 	protected Performance runMultiThreads() throws Exception
 	{
+		List<Runnable> tasks = new ArrayList<>();
 		for (int i = 0; i < ratingArrays.length; i++)
-		{
-			threads[i] = new Thread(new TrustAll_t(i));
-			threads[i].start();
-		}
-		for (Thread tr : threads)
-			tr.join();
+			tasks.add(new TrustAll_t(i));
+		runTasks(tasks);
 
 		return pf;
 	}
@@ -0,0 +1,210 @@
+package happy.research.cf;
+
+import happy.coding.io.FileIO;
+import happy.coding.io.Logs;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Trust scores {trusted neighbour - score} of the users of a trust directory, read from its {@code TrustStore} (or
+ * from the per-user text files of earlier runs) and kept in an LRU cache shared by all the threads.
+ *
+ * <p>
+ * Cache entries are keyed by (metric, horizon, fold, user), so the caches of different trust directories do not
+ * collide. The cache is split into segments, each an access-ordered map guarded by its own lock. Cached maps are
+ * unmodifiable: callers that add neighbours must copy them first.
+ * </p>
+ *
+ * @author guoguibing
+ */
+public class TrustCache
+{
+	private final static int						SEGMENTS	= 16;
+
+	private static Segment[]						segments;
+
+	private final static AtomicLong					hits		= new AtomicLong();
+	private final static AtomicLong					misses		= new AtomicLong();
+	private final static AtomicLong					textBytes	= new AtomicLong();
+
+	private String									metric;
+	private int										horizon;
+	private String									fold;
+	private String									dirPath;
+	private String									separator;
+
+	/**
+	 * @param metric
+	 *            trust metric of the directory, e.g., MT, TT, TM1
+	 * @param horizon
+	 *            propagation horizon, 0 if not applicable
+	 * @param fold
+	 *            training set of the directory
+	 * @param dirPath
+	 *            trust directory
+	 * @param separator
+	 *            separator of the text files, null for the default one
+	 */
+	public TrustCache(String metric, int horizon, String fold, String dirPath, String separator)
+	{
+		this.metric = metric;
+		this.horizon = horizon;
+		this.fold = fold;
+		this.dirPath = dirPath;
+		this.separator = separator;
+	}
+
+	@SuppressWarnings("serial")
+	private static class Segment extends LinkedHashMap<Key, Map<String, Double>>
+	{
+		private int	capacity;
+
+		Segment(int capacity)
+		{
+			super(16, 0.75f, true);
+			this.capacity = capacity;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Key, Map<String, Double>> eldest)
+		{
+			return size() > capacity;
+		}
+	}
+
+	private static class Key
+	{
+		private String	metric, fold, user;
+		private int		horizon;
+		private int		hash;
+
+		Key(String metric, int horizon, String fold, String user)
+		{
+			this.metric = metric;
+			this.horizon = horizon;
+			this.fold = fold;
+			this.user = user;
+
+			hash = ((metric.hashCode() * 31 + horizon) * 31 + fold.hashCode()) * 31 + user.hashCode();
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj)
+		{
+			if (!(obj instanceof Key)) return false;
+
+			Key k = (Key) obj;
+			return hash == k.hash && horizon == k.horizon && user.equals(k.user) && metric.equals(k.metric)
+					&& fold.equals(k.fold);
+		}
+	}
+
+	private static synchronized Segment[] segments()
+	{
+		if (segments == null)
+		{
+			int capacity = AbstractCF.params != null ? AbstractCF.params.TRUST_CACHE_SIZE : 10000;
+			segments = new Segment[SEGMENTS];
+			for (int i = 0; i < SEGMENTS; i++)
+				segments[i] = new Segment(Math.max(1, capacity / SEGMENTS));
+		}
+
+		return segments;
+	}
+
+	/**
+	 * @return unmodifiable trust scores of the user, empty if the user has no trusted neighbours
+	 */
+	public Map<String, Double> get(String user) throws Exception
+	{
+		Key key = new Key(metric, horizon, fold, user);
+		Segment seg = segments()[(key.hash ^ (key.hash >>> 16)) & (SEGMENTS - 1)];
+
+		Map<String, Double> scores;
+		synchronized (seg)
+		{
+			scores = seg.get(key);
+		}
+		if (scores != null)
+		{
+			hits.incrementAndGet();
+			return scores;
+		}
+
+		misses.incrementAndGet();
+		scores = load(user);
+		synchronized (seg)
+		{
+			seg.put(key, scores);
+		}
+
+		return scores;
+	}
+
+	private Map<String, Double> load(String user) throws Exception
+	{
+		Map<String, Double> scores = null;
+		if (TrustStore.exists(dirPath)) scores = TrustStore.open(dirPath).get(user);
+
+		if (scores == null)
+		{
+			File file = new File(dirPath + user + ".txt");
+			if (file.exists())
+			{
+				scores = separator == null ? FileIO.readAsIDMap(file.getPath()) : FileIO.readAsIDMap(file.getPath(),
+						separator);
+				textBytes.addAndGet(file.length());
+			}
+		}
+
+		if (scores == null || scores.isEmpty()) return Collections.emptyMap();
+		return Collections.unmodifiableMap(scores);
+	}
+
+	public static long hits()
+	{
+		return hits.get();
+	}
+
+	public static long misses()
+	{
+		return misses.get();
+	}
+
+	public static double hitRate()
+	{
+		long h = hits.get(), n = h + misses.get();
+		return n == 0 ? 0 : (h + 0.0) / n;
+	}
+
+	/**
+	 * @return bytes read from the trust stores and text files on cache misses
+	 */
+	public static long bytesRead()
+	{
+		return TrustStore.bytesRead() + textBytes.get();
+	}
+
+	/**
+	 * Log the cache counters, if the cache has been used.
+	 */
+	public static void report()
+	{
+		long h = hits.get(), m = misses.get();
+		if (h + m == 0) return;
+
+		Logs.debug("Trust cache: {} hits, {} misses, hit rate = {}, {} bytes read", new Object[] { h,
+				m, String.format("%.4f", hitRate()), bytesRead() });
+	}
+
+}
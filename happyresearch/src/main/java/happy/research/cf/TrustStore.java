@@ -0,0 +1,341 @@
+package happy.research.cf;
+
+import happy.research.utils.TrustGraph;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Trust scores {user - {trusted neighbour - score}} of a trust directory in one binary store, instead of one text file
+ * per user. Records are appended to {@code scores.dat}, and their offsets to {@code scores.idx}; an index entry is
+ * only written after its record, and entries beyond the end of the data file are ignored when the store is opened.
+ *
+ * <p>
+ * Record (big-endian): number of neighbours n, then n times {key length, UTF-8 key, score}. Users without trusted
+ * neighbours are stored as empty records, so that they are not recomputed.
+ * </p>
+ *
+ * <p>
+ * Records can be appended and read by any number of threads. Reads go through a read-only memory map of the data
+ * file, which is extended when a record beyond the mapped region is requested.
+ * </p>
+ *
+ * @author guoguibing
+ */
+public class TrustStore
+{
+	private final static String						DATA	= "scores.dat";
+	private final static String						INDEX	= "scores.idx";
+
+	/* stores opened by this process: {directory - store} */
+	private final static Map<String, TrustStore>	stores	= new HashMap<>();
+
+	private String									dirPath;
+	private FileChannel								data;
+	private FileChannel								index;
+	private long									dataLength;
+	private long									indexLength;
+
+	/* read-only map of the data file, from 0 to its limit */
+	private volatile MappedByteBuffer				mapped;
+
+	/* bytes of the records read by get, of all the stores */
+	private final static AtomicLong					bytesRead	= new AtomicLong();
+
+	/* {user - {offset, length}} */
+	private ConcurrentMap<String, long[]>			offsets	= new ConcurrentHashMap<>();
+
+	private TrustStore(String dirPath) throws IOException
+	{
+		this.dirPath = dirPath;
+
+		File dir = new File(dirPath);
+		if (!dir.exists()) dir.mkdirs();
+
+		data = new RandomAccessFile(new File(dir, DATA), "rw").getChannel();
+		index = new RandomAccessFile(new File(dir, INDEX), "rw").getChannel();
+		dataLength = data.size();
+
+		loadIndex(new File(dir, INDEX));
+	}
+
+	/**
+	 * @return the store of a trust directory, shared by all the callers of this process
+	 */
+	public static synchronized TrustStore open(String dirPath) throws IOException
+	{
+		String key = new File(dirPath).getAbsolutePath();
+		TrustStore store = stores.get(key);
+		if (store == null)
+		{
+			store = new TrustStore(dirPath);
+			stores.put(key, store);
+		}
+
+		return store;
+	}
+
+	/**
+	 * @return true if a trust directory has a store, without creating it
+	 */
+	public static boolean exists(String dirPath)
+	{
+		return new File(dirPath, INDEX).exists();
+	}
+
+	private void loadIndex(File file) throws IOException
+	{
+		long valid = 0;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16)))
+		{
+			while (true)
+			{
+				byte[] bytes = new byte[in.readShort() & 0xffff];
+				in.readFully(bytes);
+				long offset = in.readLong();
+				int length = in.readInt();
+
+				if (offset + length > dataLength) break; // record was not completely written
+				offsets.put(new String(bytes, StandardCharsets.UTF_8), new long[] { offset, length });
+				valid += 2 + bytes.length + 8 + 4;
+			}
+		} catch (EOFException e)
+		{
+			// end of index or a partial entry
+		}
+
+		// discard partial entries, to append after the last valid one
+		index.truncate(valid);
+		indexLength = valid;
+	}
+
+	public boolean contains(String user)
+	{
+		return offsets.containsKey(user);
+	}
+
+	public int size()
+	{
+		return offsets.size();
+	}
+
+	/**
+	 * @return {trusted neighbour - trust score}, empty if the user has no trusted neighbours, or null if the user is
+	 *         not stored
+	 */
+	public Map<String, Double> get(String user) throws IOException
+	{
+		long[] entry = offsets.get(user);
+		if (entry == null) return null;
+
+		long offset = entry[0];
+		int length = (int) entry[1];
+		bytesRead.addAndGet(length);
+
+		MappedByteBuffer map = mapped;
+		if (map == null || offset + length > map.limit()) map = remap(offset + length);
+		if (map != null)
+		{
+			ByteBuffer buf = map.duplicate();
+			buf.position((int) offset);
+			buf.limit((int) offset + length);
+
+			return decode(buf);
+		}
+
+		/* beyond the mappable size: positional read */
+		ByteBuffer buf = ByteBuffer.allocate(length);
+		long pos = offset;
+		while (buf.hasRemaining())
+		{
+			int read = data.read(buf, pos);
+			if (read < 0) throw new EOFException("Trust record of " + user + " is truncated in " + dirPath);
+			pos += read;
+		}
+		buf.flip();
+
+		return decode(buf);
+	}
+
+	/**
+	 * @return a map of the whole data file covering the given end, or null if the file is too large to be mapped
+	 */
+	private synchronized MappedByteBuffer remap(long end) throws IOException
+	{
+		if (mapped != null && end <= mapped.limit()) return mapped;
+		if (dataLength > Integer.MAX_VALUE) return null;
+
+		mapped = data.map(MapMode.READ_ONLY, 0, dataLength);
+		return mapped;
+	}
+
+	/**
+	 * @return bytes of the trust records read from all the stores since the start of this process
+	 */
+	public static long bytesRead()
+	{
+		return bytesRead.get();
+	}
+
+	/**
+	 * @return {trustor - {trustee - score}} of all the stored users, without self-trust; the same as
+	 *         {@code DatasetUtils.loadTrustSet} over a trust file
+	 */
+	public Map<String, Map<String, Double>> loadTrustSet() throws IOException
+	{
+		Map<String, Map<String, Double>> userTNsMap = new HashMap<>();
+		for (String trustor : offsets.keySet())
+		{
+			Map<String, Double> tns = get(trustor);
+			tns.remove(trustor);
+			if (tns.size() > 0) userTNsMap.put(trustor, tns);
+		}
+
+		return userTNsMap;
+	}
+
+	/**
+	 * @return {trustee - {trustor - score}} of all the stored users, without self-trust; the same as
+	 *         {@code DatasetUtils.loadTrusteeSet} over a trust file
+	 */
+	public Map<String, Map<String, Double>> loadTrusteeSet() throws IOException
+	{
+		Map<String, Map<String, Double>> userTrustorsMap = new HashMap<>();
+		for (String trustor : offsets.keySet())
+		{
+			for (Entry<String, Double> en : get(trustor).entrySet())
+			{
+				String trustee = en.getKey();
+				if (trustee.equals(trustor)) continue;
+
+				Map<String, Double> trustors = userTrustorsMap.get(trustee);
+				if (trustors == null)
+				{
+					trustors = new HashMap<>();
+					userTrustorsMap.put(trustee, trustors);
+				}
+				trustors.put(trustor, en.getValue());
+			}
+		}
+
+		return userTrustorsMap;
+	}
+
+	static Map<String, Double> decode(ByteBuffer buf)
+	{
+		int n = buf.getInt();
+		Map<String, Double> scores = new HashMap<>(Math.max(4, n * 2));
+		byte[] bytes = new byte[64];
+		for (int k = 0; k < n; k++)
+		{
+			int len = buf.getShort() & 0xffff;
+			if (bytes.length < len) bytes = new byte[len];
+			buf.get(bytes, 0, len);
+
+			scores.put(new String(bytes, 0, len, StandardCharsets.UTF_8), buf.getDouble());
+		}
+
+		return scores;
+	}
+
+	public void put(String user, Map<String, Double> scores) throws IOException
+	{
+		int n = scores.size();
+		byte[][] keys = new byte[n][];
+		double[] values = new double[n];
+		int k = 0;
+		for (Entry<String, Double> en : scores.entrySet())
+		{
+			keys[k] = en.getKey().getBytes(StandardCharsets.UTF_8);
+			values[k++] = en.getValue();
+		}
+
+		append(user, keys, values, n);
+	}
+
+	/**
+	 * Store the first num results of a trust propagation over a graph.
+	 */
+	public void put(String user, TrustGraph<String> graph, int[] nodes, double[] scores, int num) throws IOException
+	{
+		byte[][] keys = new byte[num][];
+		for (int k = 0; k < num; k++)
+			keys[k] = graph.key(nodes[k]).getBytes(StandardCharsets.UTF_8);
+
+		append(user, keys, scores, num);
+	}
+
+	private void append(String user, byte[][] keys, double[] values, int n) throws IOException
+	{
+		int length = 4;
+		for (int k = 0; k < n; k++)
+			length += 2 + keys[k].length + 8;
+
+		ByteBuffer record = ByteBuffer.allocate(length);
+		record.putInt(n);
+		for (int k = 0; k < n; k++)
+		{
+			record.putShort((short) keys[k].length);
+			record.put(keys[k]);
+			record.putDouble(values[k]);
+		}
+		record.flip();
+
+		byte[] userBytes = user.getBytes(StandardCharsets.UTF_8);
+		ByteBuffer entry = ByteBuffer.allocate(2 + userBytes.length + 8 + 4);
+
+		synchronized (this)
+		{
+			long offset = dataLength;
+			write(data, record, offset);
+			dataLength += length;
+
+			entry.putShort((short) userBytes.length);
+			entry.put(userBytes);
+			entry.putLong(offset);
+			entry.putInt(length);
+			entry.flip();
+			write(index, entry, indexLength);
+			indexLength += entry.limit();
+
+			offsets.put(user, new long[] { offset, length });
+		}
+	}
+
+	private static void write(FileChannel fc, ByteBuffer buf, long pos) throws IOException
+	{
+		while (buf.hasRemaining())
+			pos += fc.write(buf, pos);
+	}
+
+	/**
+	 * Force the appended records to the storage device.
+	 */
+	public synchronized void flush() throws IOException
+	{
+		data.force(false);
+		index.force(false);
+	}
+
+	public String getDirPath()
+	{
+		return dirPath;
+	}
+
+}
@@ -0,0 +1,293 @@
+package happy.research.cf;
+
+import happy.coding.io.Logs;
+import happy.coding.math.Sims;
+import happy.coding.math.Stats;
+import happy.research.utils.TrustGraph;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Random walks of TrustWalker over a {@code TrustGraph}: the next user of a walk is drawn from the trustee array of
+ * the current user, and the item-item similarities are kept in an {@code ItemSimilarityCache} shared by all the walks
+ * and threads.
+ *
+ * <p>
+ * The walks of a test rating run in batches, and the variance of the collected ratings is tested for convergence
+ * after each batch. Every batch draws from its own random generator, seeded by the seed, the test rating and the
+ * index of the batch, and the batches are merged in index order; hence the results do not depend on the number of
+ * threads, or on which batches run concurrently.
+ * </p>
+ *
+ * @author guoguibing
+ */
+public class TrustWalker
+{
+	private final static double							epsilon		= 0.0001;
+	private final static int							epochs		= 10000;
+	private final static int							maxLength	= 6;
+
+	private TrustGraph<String>							graph;
+	private Map<String, Map<String, Rating>>			userRatingsMap;
+	private Map<String, Map<String, Rating>>			itemRatingsMap;
+	private IdDictionary								items;
+
+	private int											batchSize;
+	private long										seed;
+
+	private ItemSimilarityCache							sims;
+
+	private AtomicLong									walks		= new AtomicLong();
+	private AtomicLong									batches		= new AtomicLong();
+	private AtomicLong									converged	= new AtomicLong();
+
+	public TrustWalker(Map<String, Map<String, Double>> userTNsMap, Map<String, Map<String, Rating>> userRatingsMap,
+			Map<String, Map<String, Rating>> itemRatingsMap, ItemSimilarityCache sims, int batchSize, long seed)
+	{
+		this.graph = TrustGraph.of(userTNsMap);
+		this.userRatingsMap = userRatingsMap;
+		this.itemRatingsMap = itemRatingsMap;
+		this.sims = sims;
+		this.items = sims.getItems();
+		this.batchSize = Math.max(1, batchSize);
+		this.seed = seed;
+	}
+
+	/**
+	 * Ratings collected by the walks of one batch, in walk order.
+	 */
+	private class Batch extends RecursiveAction
+	{
+		private static final long	serialVersionUID	= 1L;
+
+		private int					source;
+		private String				item;
+		private long				batchSeed;
+
+		private List<String>		users		= new ArrayList<>();
+		private List<Double>		weights		= new ArrayList<>();
+		private List<Rating>		ratings		= new ArrayList<>();
+
+		Batch(int source, String item, long batchSeed)
+		{
+			this.source = source;
+			this.item = item;
+			this.batchSeed = batchSeed;
+		}
+
+		@Override
+		protected void compute()
+		{
+			Random rd = new Random(batchSeed);
+			for (int w = 0; w < batchSize; w++)
+				walk(rd);
+
+			walks.addAndGet(batchSize);
+			batches.incrementAndGet();
+		}
+
+		private void add(String user, double weight, Rating rating)
+		{
+			users.add(user);
+			weights.add(weight);
+			ratings.add(rating);
+		}
+
+		private void walk(Random rd)
+		{
+			int[] outPtr = graph.getOutPtr();
+			int[] outIdx = graph.getOutIdx();
+			int testItem = items.id(item);
+
+			int current = source;
+			double probability = 1.0;
+			List<Double> ss = new ArrayList<>();
+			List<Rating> rs = new ArrayList<>();
+
+			for (int currentLength = 1; currentLength <= maxLength; currentLength++)
+			{
+				/* choose next user */
+				int size = outPtr[current + 1] - outPtr[current];
+				if (size < 1) break;
+
+				current = outIdx[outPtr[current] + rd.nextInt(size)];
+				if (current == source) break;
+				probability *= 1.0 / size;
+
+				/* if the current user rated the item */
+				String currentUser = graph.key(current);
+				Map<String, Rating> userRatings = userRatingsMap.get(currentUser);
+				if (userRatings == null || userRatings.size() < 1) break;
+				if (userRatings.containsKey(item))
+				{
+					add(currentUser, probability, userRatings.get(item));
+					break;
+				}
+
+				/* compute phi */
+				ss.clear();
+				rs.clear();
+				double phi = 0.0;
+				double sum = 0.0;
+				for (Rating r : userRatings.values())
+				{
+					double similarity = similarity(testItem, items.id(r.getItemId()));
+					if (similarity > 0)
+					{
+						ss.add(similarity);
+						rs.add(r);
+						sum += similarity;
+						if (phi < similarity) phi = similarity;
+					}
+				}
+				/* if no similar items => phi=0 => random>phi => go on */
+				phi *= 1.0 / (1 + Math.exp(-currentLength));
+
+				/* stay or go on */
+				if (rd.nextDouble() < phi)
+				{
+					probability *= phi;
+					int index = rd.nextInt(ss.size());
+
+					probability *= ss.get(index) / sum;
+					add(currentUser, probability, rs.get(index));
+				} else
+				{
+					probability *= (1 - phi);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return PCC similarity of two items over their common raters, 0 if there are less than two of them
+	 */
+	private float similarity(int i, int j)
+	{
+		float sim = sims.get(i, j);
+		if (!Float.isNaN(sim)) return sim;
+
+		/* computed in a fixed order of the items, so that the value does not depend on the caller */
+		Map<String, Rating> as = itemRatingsMap.get(items.key(Math.min(i, j)));
+		Map<String, Rating> bs = itemRatingsMap.get(items.key(Math.max(i, j)));
+		List<Double> is = new ArrayList<>();
+		List<Double> js = new ArrayList<>();
+		for (Map.Entry<String, Rating> en : as.entrySet())
+		{
+			Rating rb = bs.get(en.getKey());
+			if (rb != null)
+			{
+				is.add(en.getValue().getRating());
+				js.add(rb.getRating());
+			}
+		}
+
+		/* only positive similarities are used, so the pairs without a similarity are cached as 0 */
+		double pcc = is.size() < 2 ? Double.NaN : Sims.pcc(is, js);
+		sim = Double.isNaN(pcc) ? 0 : (float) pcc;
+		sims.put(i, j, sim);
+
+		return sim;
+	}
+
+	/**
+	 * Run the walks from the user of a test rating, adding {user - probability} to weights and {user - rating} to
+	 * ratings, the later walks overriding the earlier ones.
+	 */
+	public void walk(Rating testRating, Map<String, Double> weights, Map<String, Rating> ratings)
+	{
+		String user = testRating.getUserId();
+		String item = testRating.getItemId();
+
+		Map<String, Rating> testRatings = itemRatingsMap.get(item);
+		if (testRatings == null || testRatings.size() < 2) return;
+
+		int source = graph.node(user);
+		if (source < 0) return;
+
+		long ratingSeed = seed * 31 + user.hashCode();
+		ratingSeed = ratingSeed * 31 + item.hashCode();
+
+		int numBatches = (epochs + batchSize - 1) / batchSize;
+		int parallel = TaskPool.parallelism();
+
+		double previousVariance = 0.0;
+		for (int b = 0; b < numBatches;)
+		{
+			List<Batch> round = new ArrayList<>();
+			for (int k = 0; k < parallel && b + k < numBatches; k++)
+				round.add(new Batch(source, item, mix(ratingSeed + b + k)));
+			invoke(round);
+
+			for (Batch batch : round)
+			{
+				b++;
+				for (int k = 0; k < batch.users.size(); k++)
+				{
+					weights.put(batch.users.get(k), batch.weights.get(k));
+					ratings.put(batch.users.get(k), batch.ratings.get(k));
+				}
+
+				/* test if converged */
+				if (ratings.isEmpty()) continue;
+
+				double[] data = new double[ratings.size()];
+				int m = 0;
+				for (Rating r : ratings.values())
+					data[m++] = r.getRating();
+
+				double currentVariance = Stats.var(data);
+				if (Math.abs(currentVariance - previousVariance) < epsilon)
+				{
+					converged.incrementAndGet();
+					return;
+				}
+				previousVariance = currentVariance;
+			}
+		}
+	}
+
+	private static void invoke(List<Batch> round)
+	{
+		if (round.size() == 1) round.get(0).invoke();
+		else if (ForkJoinTask.inForkJoinPool()) ForkJoinTask.invokeAll(round);
+		else
+		{
+			final List<Batch> tasks = round;
+			TaskPool.getPool().invoke(new RecursiveAction() {
+
+				private static final long	serialVersionUID	= 1L;
+
+				@Override
+				protected void compute()
+				{
+					invokeAll(tasks);
+				}
+			});
+		}
+	}
+
+	/**
+	 * @return a well-mixed seed (the finalizer of SplitMix64), so that close seeds give unrelated sequences
+	 */
+	private static long mix(long z)
+	{
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+	public void report()
+	{
+		Logs.debug("TrustWalker: {} walks in {} batches, {} ratings converged", new Object[] { walks.get(),
+				batches.get(), converged.get() });
+		sims.report();
+	}
+
+}
@@ -1,5 +1,8 @@
 package happy.research.cf;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public class TrustWalker_mt extends DefaultCF_mt
 {
 
@@ -11,13 +14,16 @@ public class TrustWalker_mt extends DefaultCF_mt
 	@Override
 	protected Performance runMultiThreads() throws Exception
 	{
+		trustWalker = new TrustWalker(userTNsMap, userRatingsMap, itemRatingsMap, itemSims(),
+				params.TRUSTWALKER_BATCH_SIZE, params.TRUSTWALKER_SEED);
+
+		List<Runnable> tasks = new ArrayList<>();
 		for (int i = 0; i < ratingArrays.length; i++)
-		{
-			threads[i] = new Thread(new TrustWalker_t(i));
-			threads[i].start();
-		}
-		for (Thread tr : threads)
-			tr.join();
+			tasks.add(new TrustWalker_t(i));
+		runTasks(tasks);
+
+		trustWalker.report();
+		saveItemSims();
 
 		return pf;
 	}
@@ -146,7 +146,7 @@ public class VirRatingsCF extends DefaultCF_mt
 			double meanA = 0;
 			if (params.PREDICT_METHOD == PredictMethod.resnick_formula)
 			{
-				meanA = RatingUtils.mean(asRatings, testRating);
+				meanA = userMean(testUser, testRating);
 				if (Double.isNaN(meanA)) continue;
 			}
 
@@ -218,8 +218,7 @@ public class VirRatingsCF extends DefaultCF_mt
 					double meanB = 0.0;
 					if (params.PREDICT_METHOD == PredictMethod.resnick_formula)
 					{
-						Map<String, Rating> bsRatings = userRatingsMap.get(nn);
-						meanB = RatingUtils.mean(bsRatings, null);
+						meanB = userMean(nn, null);
 						if (Double.isNaN(meanB)) continue;
 					}
 
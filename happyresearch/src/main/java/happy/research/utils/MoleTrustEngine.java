@@ -0,0 +1,208 @@
+package happy.research.utils;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * MoleTrust over a {@code TrustGraph}, with the same results as {@code MoleTrust.runAlgorithm} (bit for bit) but
+ * without any list scans: the membership of the current and previous levels is tested by epoch-stamped int arrays,
+ * and the trust scores are accumulated along out-edges in the order of the previous level.
+ *
+ * <p>
+ * As in {@code MoleTrust}, a node is only excluded from a level if it is the source or in the current or previous
+ * level, hence it may appear again at a later level, in which case its latest score is kept.
+ * </p>
+ *
+ * <p>
+ * An engine keeps its own scratch buffers sized to the graph; use one engine per thread over a shared graph.
+ * </p>
+ *
+ * @author guoguibing
+ */
+public class MoleTrustEngine<K>
+{
+	/* edge thresholds of MoleTrust.runAlgorithm on Epinions (Integer ids) and FilmTrust (String ids) */
+	public final static double	EPINIONS_THRESHOLD	= 0.5;
+	public final static double	FILMTRUST_THRESHOLD	= 0.0;
+
+	private TrustGraph<K>		graph;
+
+	/* mark[u] == base + d iff node u is in level d of the current run */
+	private int[]				mark;
+	private int					base				= 0;
+
+	/* nodes of all the levels: level d is {levels[levelPtr[d]], ..., levels[levelPtr[d + 1] - 1]} */
+	private int[]				levels;
+	private int[]				levelPtr;
+
+	private double[]			scores;
+	private double[]			sums;
+	private double[]			weights;
+
+	/* trusted neighbours of the current run; resultPos[u] is valid iff resultMark[u] == run */
+	private int[]				resultNodes;
+	private double[]			resultScores;
+	private int[]				resultPos;
+	private int[]				resultMark;
+	private int					numResults;
+	private int					run					= 0;
+
+	public MoleTrustEngine(TrustGraph<K> graph)
+	{
+		this.graph = graph;
+
+		int n = graph.size();
+		mark = new int[n];
+		levels = new int[Math.max(16, n)];
+		levelPtr = new int[2];
+		scores = new double[n];
+		sums = new double[n];
+		weights = new double[n];
+		resultNodes = new int[n];
+		resultScores = new double[n];
+		resultPos = new int[n];
+		resultMark = new int[n];
+	}
+
+	/**
+	 * @return map {trusted neighbour - trust score}, empty if no trusted neighbour
+	 */
+	public Map<K, Double> runAlgorithm(K sourceUser, int horizon, double threshold)
+	{
+		Map<K, Double> trustScores = new HashMap<>();
+
+		int source = graph.node(sourceUser);
+		if (source < 0) return trustScores;
+
+		int num = run(source, horizon, threshold);
+		for (int k = 0; k < num; k++)
+			trustScores.put(graph.key(resultNodes[k]), resultScores[k]);
+
+		return trustScores;
+	}
+
+	/**
+	 * Propagate trust from the source node; the results are then given by {@code getResultNodes} and
+	 * {@code getResultScores}.
+	 *
+	 * @return number of the trusted neighbours
+	 */
+	public int run(int source, int horizon, double threshold)
+	{
+		int[] outPtr = graph.getOutPtr();
+		int[] outIdx = graph.getOutIdx();
+		double[] outWeights = graph.getOutWeights();
+
+		newRun(horizon);
+
+		levelPtr[0] = 0;
+		levels[0] = source;
+		levelPtr[1] = 1;
+		mark[source] = base;
+		scores[source] = 1.0;
+
+		for (int dist = 1; dist <= horizon; dist++)
+		{
+			int prevStart = levelPtr[dist - 1], prevEnd = levelPtr[dist];
+			int cur = base + dist, prev = cur - 1;
+
+			/* Step 1: nodes of the level, in the order of discovery */
+			int end = prevEnd;
+			for (int p = prevStart; p < prevEnd; p++)
+			{
+				int su = levels[p];
+				for (int e = outPtr[su]; e < outPtr[su + 1]; e++)
+				{
+					int tn = outIdx[e];
+					if (tn == source || mark[tn] == cur || mark[tn] == prev) continue;
+
+					mark[tn] = cur;
+					sums[tn] = 0.0;
+					weights[tn] = 0.0;
+					if (end == levels.length) levels = Arrays.copyOf(levels, levels.length * 2);
+					levels[end++] = tn;
+				}
+			}
+			levelPtr[dist + 1] = end;
+
+			/* Step 2: trust scores, accumulated for each node in the order of the previous level */
+			for (int p = prevStart; p < prevEnd; p++)
+			{
+				int su = levels[p];
+				double score = scores[su];
+				for (int e = outPtr[su]; e < outPtr[su + 1]; e++)
+				{
+					int tu = outIdx[e];
+					double trust_edge = outWeights[e];
+					if (mark[tu] == cur && trust_edge > threshold)
+					{
+						sums[tu] += trust_edge * score;
+						weights[tu] += score;
+					}
+				}
+			}
+
+			for (int p = prevEnd; p < end; p++)
+			{
+				int tu = levels[p];
+				double score = sums[tu] / weights[tu];
+				scores[tu] = score;
+
+				if (resultMark[tu] == run) resultScores[resultPos[tu]] = score;
+				else
+				{
+					resultMark[tu] = run;
+					resultPos[tu] = numResults;
+					resultNodes[numResults] = tu;
+					resultScores[numResults] = score;
+					numResults++;
+				}
+			}
+		}
+
+		return numResults;
+	}
+
+	private void newRun(int horizon)
+	{
+		if (levelPtr.length < horizon + 2) levelPtr = new int[horizon + 2];
+
+		if (base > Integer.MAX_VALUE - 2 * (horizon + 2))
+		{
+			Arrays.fill(mark, -1);
+			base = 0;
+		}
+		base += horizon + 2;
+
+		if (run == Integer.MAX_VALUE)
+		{
+			Arrays.fill(resultMark, 0);
+			run = 0;
+		}
+		run++;
+		numResults = 0;
+	}
+
+	/**
+	 * @return nodes of the trusted neighbours found by the last run, in the first numResults positions
+	 */
+	public int[] getResultNodes()
+	{
+		return resultNodes;
+	}
+
+	/**
+	 * @return trust scores of the trusted neighbours found by the last run, in the first numResults positions
+	 */
+	public double[] getResultScores()
+	{
+		return resultScores;
+	}
+
+	public TrustGraph<K> getGraph()
+	{
+		return graph;
+	}
+
+}
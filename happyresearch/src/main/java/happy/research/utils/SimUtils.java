@@ -13,7 +13,7 @@ import happy.research.cf.ConfigParams;
 import happy.research.cf.Dataset;
 
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -31,6 +31,10 @@ public class SimUtils {
 
 	public static double alpha = 0.2, beta = 0.2;
 
+	private final static double[][] KAPPA_WEIGHTS = { { 1.00, 0.75, 0.50, 0.25, 0.00 },
+			{ 0.75, 1.00, 0.75, 0.50, 0.25 }, { 0.50, 0.75, 1.00, 0.75, 0.50 }, { 0.25, 0.50, 0.75, 1.00, 0.75 },
+			{ 0.00, 0.25, 0.50, 0.75, 1.00 } };
+
 	public enum SimMethod {
 		COS, PCC, MSD, CPC, SRC, BS, PIP, SM, iufCOS, caPCC
 	};
@@ -282,6 +286,160 @@ public class SimUtils {
 		}
 	}
 
+	/**
+	 * Same as {@code bsSim(List, ...)} over the first n ratings of a and b, and the item statistics in the same
+	 * positions of sd, mu and cf; the evidences of the distance levels are kept in an array indexed by the rounded
+	 * distance in steps of {@code Dataset.minScale}, rather than in a map keyed by the distance.
+	 */
+	public static double bsSim(double[] a, double[] b, int n, double[] priors, double[] sd, double[] mu,
+			Map<Integer, Map<Double, Double>> histos, double[] cf) throws Exception {
+		if (n < 1)
+			return Double.NaN;
+
+		int R = Dataset.scaleSize;
+		// evidences of each distance level
+		double[] evidences = new double[R];
+
+		double x = ConfigParams.defaultInstance().X_SIGMA;
+		double numEvidence = 0;
+		for (int i = 0; i < n; i++) {
+			double ar = a[i];
+			double br = b[i];
+			double di = Math.abs(ar - br);
+
+			double sigma = sd[i];
+			double mean = mu[i];
+			double conf = cf[i];
+
+			int level = (int) Math.round(di / Dataset.minScale);
+			double ei = 0; // evidence weight
+
+			// ours
+			if (sigma <= 0 || x <= 0)
+				ei = 1;
+			else
+				ei = 1 - di / (x * sigma);
+
+			// new factor
+			double singu = 0.0;
+			if (Debug.OFF) {
+				// Singularity 
+				double asin = 0, bsin = 0;
+				if (ar > Dataset.median)
+					asin = 1 - conf;
+				else
+					asin = conf;
+
+				if (br > Dataset.median)
+					bsin = 1 - conf;
+				else
+					bsin = conf;
+
+				singu = asin * bsin;
+			} else if (Debug.ON) {
+				// Gaussian
+				double pa = Gaussian.pdf(ar, mean, sigma);
+				double pb = Gaussian.pdf(br, mean, sigma);
+
+				singu = (1 - pa) * (1 - pb);
+			} else if (Debug.OFF) {
+				// Discrete
+				Map<Double, Double> hist = histos.get(i);
+				if (hist.containsKey(di))
+					singu = 1 - hist.get(di);
+				else
+					singu = 1;
+			}
+
+			double semantic = 0.0;
+			if (Debug.ON) {
+				// Semantics
+
+				// factor 1: proximity
+				double pr = 0;
+				double range = Dataset.range;
+				if (isConsistent(ar, br))
+					pr = 1 - di / range;
+				else
+					pr = -di / range;
+
+				// factor 2: impact
+				double im = 0.0;
+				double s = 0.5 * (ar + br);
+				if (isPositive(ar) && isPositive(br))
+					im = s / Dataset.maxScale;
+				else if (!isPositive(ar) && !isPositive(br))
+					im = 1 - s / Dataset.maxScale;
+				else
+					im = -s / Dataset.maxScale;
+
+				// factor 3: popularity
+				double po = 0;
+				double dist = Math.abs(s - mean);
+				boolean consistent = (ar - mean) * (br - mean) >= 0;
+				if (consistent)
+					po = dist / range;
+				else
+					po = -dist / range;
+
+				semantic = pr * im * po;
+			}
+
+			ei = alpha * ei + beta * singu + (1 - alpha - beta) * semantic;
+
+			if (ei < -1)
+				ei = -1;
+
+			numEvidence += ei;
+			evidences[level] += ei;
+		}
+
+		double sum = 0.0, weights = 0.0;
+
+		double chance = 1.0;
+		for (int i = 0; i < R; i++) {
+			double num = evidences[i];
+			double alpha = prior(priors, i);
+
+			int M2 = R * R;
+			double post = (num + alpha + 0.0) / (numEvidence + M2);
+			double prio = (alpha + 0.0) / M2;
+			double byChance = Math.pow(prio, num);
+			chance *= byChance;
+
+			double weight = post - prio;
+			try {
+				if (Debug.OFF) {
+					weights += post;
+					sum += post * i * Dataset.minScale;
+				} else {
+					if (weight > 0) {
+						weights += Math.abs(weight);
+						sum += weight * i * Dataset.minScale;
+					}
+				}
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+
+		}
+
+		double d = sum / weights;
+		double similarity = 1 - d / (Dataset.maxScale - Dataset.minScale);
+		if (Debug.OFF)
+			chance = 0.0;
+
+		double bias = 0.04;
+		if (Debug.ON)
+			bias = 0;
+
+		if (Debug.OFF) {
+			return Math.max(similarity * (1 - chance) - bias, 0.0);
+		} else {
+			return Math.max(similarity - chance - bias, 0.0);
+		}
+	}
+
 	private static double prior(double[] priors, int i) {
 		double evidence = 0;
 		if (i == 0) {
@@ -301,7 +459,7 @@ public class SimUtils {
 		double[] bs = Lists.toArray(b);
 		double[] cs = Lists.toArray(ca);
 
-		return pearsonSim(as, bs, cs);
+		return pearsonSim(as, bs, cs, as.length);
 	}
 
 	/**
@@ -409,6 +567,16 @@ public class SimUtils {
 	 * @return PIP similarity
 	 */
 	public static double PIPSim(List<Double> a, List<Double> b, List<Double> means) {
+		return PIPSim(Lists.toArray(a), Lists.toArray(b), a.size(), Lists.toArray(means));
+	}
+
+	/**
+	 * Same as {@code PIPSim(List, List, List)} over the first n ratings of a and b.
+	 * 
+	 * @param means
+	 *            the average ratings of the co-rated items, NaN if unknown
+	 */
+	public static double PIPSim(double[] a, double[] b, int n, double[] means) {
 		double score = 0;
 
 		/**
@@ -419,10 +587,10 @@ public class SimUtils {
 		 */
 		double r = (Dataset.maxScale + Dataset.minScale) / 2.0;
 
-		for (int i = 0; i < a.size(); i++) {
-			double r1 = a.get(i);
-			double r2 = b.get(i);
-			double ui = means.get(i);
+		for (int i = 0; i < n; i++) {
+			double r1 = a[i];
+			double r2 = b[i];
+			double ui = means[i];
 
 			double agreement = (r1 - r) * (r2 - r);
 			boolean agree = false;
@@ -475,10 +643,27 @@ public class SimUtils {
 		if (u == null || v == null || u.length < 2 || v.length < 2 || u.length != v.length)
 			return Double.NaN;
 
-		double meanA = Stats.weightedcMean(u, uc);
-		double meanB = Stats.mean(v);
+		return pearsonSim(u, v, uc, u.length);
+	}
+
+	/**
+	 * Same as {@code pearsonSim(double[], double[], double[])} over the first n ratings and confidences.
+	 */
+	public static double pearsonSim(double[] u, double[] v, double[] uc, int n) {
+		if (n < 2)
+			return Double.NaN;
+
+		double sumA = 0.0, sumC = 0.0, sumB = 0.0;
+		for (int i = 0; i < n; i++) {
+			sumA += u[i] * uc[i];
+			sumC += uc[i];
+			sumB += v[i];
+		}
+
+		double meanA = sumA / sumC;
+		double meanB = sumB / n;
 		double sumNum = 0.0, sumDen1 = 0.0, sumDen2 = 0.0;
-		for (int i = 0; i < u.length; i++) {
+		for (int i = 0; i < n; i++) {
 			double ai = uc[i] * (u[i] - meanA);
 			double bi = v[i] - meanB;
 			sumNum += ai * bi;
@@ -489,6 +674,32 @@ public class SimUtils {
 		return sumNum / (Math.sqrt(sumDen1) * Math.sqrt(sumDen2));
 	}
 
+	/**
+	 * Calculate Pearson correlation coefficient (PCC) of the first n ratings, NaN if n < 2
+	 */
+	public static double pearsonSim(double[] a, double[] b, int n) {
+		if (n < 2)
+			return Double.NaN;
+
+		double meanA = 0.0, meanB = 0.0;
+		for (int i = 0; i < n; i++) {
+			meanA += a[i];
+			meanB += b[i];
+		}
+		meanA /= n;
+		meanB /= n;
+
+		double sumNum = 0.0, sumDen1 = 0.0, sumDen2 = 0.0;
+		for (int i = 0; i < n; i++) {
+			double ai = a[i] - meanA;
+			double bi = b[i] - meanB;
+			sumNum += ai * bi;
+			sumDen1 += ai * ai;
+			sumDen2 += bi * bi;
+		}
+		return sumNum / (Math.sqrt(sumDen1) * Math.sqrt(sumDen2));
+	}
+
 	/**
 	 * Calculate Spearman's Rank Correlation (SRC)
 	 * 
@@ -504,13 +715,25 @@ public class SimUtils {
 		if (u == null || v == null)
 			return Double.NaN;
 
-		double meanU = Stats.mean(u);
-		double meanV = Stats.mean(v);
-		double sumNum = 0.0, sumDen1 = 0.0, sumDen2 = 0.0;
+		return SRCSim(Lists.toArray(u), Lists.toArray(v), u.size());
+	}
+
+	/**
+	 * Same as {@code SRCSim(List, List)} over the first n rating ranks.
+	 */
+	public static double SRCSim(double[] u, double[] v, int n) {
+		double meanU = 0.0, meanV = 0.0;
+		for (int i = 0; i < n; i++) {
+			meanU += u[i];
+			meanV += v[i];
+		}
+		meanU /= n;
+		meanV /= n;
 
-		for (int i = 0; i < u.size(); i++) {
-			double ui = u.get(i) - meanU;
-			double vi = v.get(i) - meanV;
+		double sumNum = 0.0, sumDen1 = 0.0, sumDen2 = 0.0;
+		for (int i = 0; i < n; i++) {
+			double ui = u[i] - meanU;
+			double vi = v[i] - meanV;
 
 			sumNum += ui * vi;
 			sumDen1 += Math.pow(ui, 2);
@@ -537,62 +760,81 @@ public class SimUtils {
 		if (a == null || b == null)
 			return Double.NaN;
 
-		List<Double> usRatings = new ArrayList<>(ua);
-		List<Double> vsRatings = new ArrayList<>(va);
-
-		Collections.sort(usRatings);
-		Collections.sort(vsRatings);
-
-		List<Double> u = new ArrayList<>();
-		List<Double> v = new ArrayList<>();
-		for (Double ar : a) {
-			double sum = 0;
-			int count = 0;
-			for (int i = 0; i < usRatings.size(); i++) {
-				double usRating = usRatings.get(i);
-				if (usRating == ar) {
-					sum += (i + 1);
-					count++;
-				}
-			}
-			u.add(sum / count);
+		double[] us = Lists.toArray(ua);
+		double[] vs = Lists.toArray(va);
+		Arrays.sort(us);
+		Arrays.sort(vs);
+
+		double[] u = new double[a.size()];
+		double[] v = new double[b.size()];
+
+		return SRCSim(Lists.toArray(a), Lists.toArray(b), a.size(), us, vs, u, v);
+	}
+
+	/**
+	 * Same as {@code SRCSim(List, List, List, List)} over the first n ratings of a and b.
+	 * 
+	 * @param ua
+	 *            user u's all ratings, sorted in ascending order
+	 * @param va
+	 *            user v's all ratings, sorted in ascending order
+	 * @param u
+	 *            buffer of at least n elements for the ranks of a
+	 * @param v
+	 *            buffer of at least n elements for the ranks of b
+	 */
+	public static double SRCSim(double[] a, double[] b, int n, double[] ua, double[] va, double[] u, double[] v) {
+		for (int i = 0; i < n; i++) {
+			u[i] = rank(ua, a[i]);
+			v[i] = rank(va, b[i]);
 		}
-		for (Double br : b) {
-			double sum = 0;
-			int count = 0;
-			for (int i = 0; i < vsRatings.size(); i++) {
-				double vsRating = vsRatings.get(i);
-				if (vsRating == br) {
-					sum += (i + 1);
-					count++;
-				}
-			}
-			v.add(sum / count);
+
+		return SRCSim(u, v, n);
+	}
+
+	/**
+	 * @return the average rank (from 1) of the spots of a rating in the sorted ratings, NaN if not found
+	 */
+	private static double rank(double[] sorted, double rating) {
+		int lo = 0, hi = sorted.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (sorted[mid] < rating)
+				lo = mid + 1;
+			else
+				hi = mid;
 		}
 
-		double meanU = Stats.mean(u);
-		double meanV = Stats.mean(v);
-		double sumNum = 0.0, sumDen1 = 0.0, sumDen2 = 0.0;
+		int end = lo;
+		while (end < sorted.length && sorted[end] == rating)
+			end++;
 
-		for (int i = 0; i < u.size(); i++) {
-			double ui = u.get(i) - meanU;
-			double vi = v.get(i) - meanV;
+		int count = end - lo;
+		if (count == 0)
+			return Double.NaN;
 
-			sumNum += ui * vi;
-			sumDen1 += Math.pow(ui, 2);
-			sumDen2 += Math.pow(vi, 2);
-		}
-		return sumNum / (Math.sqrt(sumDen1) * Math.sqrt(sumDen2));
+		// sum of the ranks lo + 1, ..., end divided by count
+		return (lo + 1 + end) / 2.0;
 	}
 
 	public static double distanceSim(List<Double> a, List<Double> b) {
 		if (a == null || b == null || a.size() < 1 || b.size() < 1 || a.size() != b.size())
 			return Double.NaN;
 
+		return distanceSim(Lists.toArray(a), Lists.toArray(b), a.size());
+	}
+
+	/**
+	 * Same as {@code distanceSim(List, List)} over the first n ratings.
+	 */
+	public static double distanceSim(double[] a, double[] b, int n) {
+		if (n < 1)
+			return Double.NaN;
+
 		double maxRating = Dataset.maxScale, minRating = Dataset.minScale;
 		double sumNum = 0.0, sumDen = 0.0;
-		for (int i = 0; i < a.size(); i++) {
-			sumNum += Math.abs(a.get(i) - b.get(i));
+		for (int i = 0; i < n; i++) {
+			sumNum += Math.abs(a[i] - b[i]);
 			sumDen += Math.abs(maxRating - minRating);
 		}
 
@@ -603,11 +845,21 @@ public class SimUtils {
 		if (a == null || b == null || a.size() < 1 || b.size() < 1 || a.size() != b.size())
 			return Double.NaN;
 
+		return distanceSim(Lists.toArray(a), Lists.toArray(b), a.size(), Lists.toArray(ac), Lists.toArray(bc));
+	}
+
+	/**
+	 * Same as {@code distanceSim(List, List, List, List)} over the first n ratings and confidences.
+	 */
+	public static double distanceSim(double[] a, double[] b, int n, double[] ac, double[] bc) {
+		if (n < 1)
+			return Double.NaN;
+
 		double sumNum = 0.0, sumDen = 0.0;
 
-		for (int i = 0; i < a.size(); i++) {
-			double ai = a.get(i), bi = b.get(i);
-			double ca = ac.get(i), cb = bc.get(i);
+		for (int i = 0; i < n; i++) {
+			double ai = a[i], bi = b[i];
+			double ca = ac[i], cb = bc[i];
 			double dr = Math.abs(ai - bi);
 			double dc = Math.abs(ca - cb);
 			double dm = Dataset.maxScale - Dataset.minScale;
@@ -671,8 +923,18 @@ public class SimUtils {
 		if (a == null || b == null || a.length < 1 || b.length < 1 || a.length != b.length)
 			return Double.NaN;
 
+		return cosineSim(a, b, a.length);
+	}
+
+	/**
+	 * Same as {@code cosineSim(double[], double[])} over the first n ratings.
+	 */
+	public static double cosineSim(double[] a, double[] b, int n) {
+		if (n < 1)
+			return Double.NaN;
+
 		double sum = 0.0, sum_a = 0, sum_b = 0;
-		for (int i = 0; i < a.length; i++) {
+		for (int i = 0; i < n; i++) {
 			sum += a[i] * b[i];
 			sum_a += a[i] * a[i];
 			sum_b += b[i] * b[i];
@@ -695,15 +957,22 @@ public class SimUtils {
 	 * @return SM similarity
 	 */
 	public static double SMSim(List<Double> a, List<Double> b, List<Double> sp, List<Double> sn) {
+		return SMSim(Lists.toArray(a), Lists.toArray(b), a.size(), Lists.toArray(sp), Lists.toArray(sn));
+	}
+
+	/**
+	 * Same as {@code SMSim(List, List, List, List)} over the first n ratings and singularities.
+	 */
+	public static double SMSim(double[] a, double[] b, int n, double[] sp, double[] sn) {
 		double r = Dataset.median;
 
 		double sumA = 0, sumB = 0, sumC = 0;
 		int countA = 0, countB = 0, countC = 0;
-		for (int i = 0; i < a.size(); i++) {
-			double ai = a.get(i);
-			double bi = b.get(i);
-			double pi = sp.get(i);
-			double ni = sn.get(i);
+		for (int i = 0; i < n; i++) {
+			double ai = a[i];
+			double bi = b[i];
+			double pi = sp[i];
+			double ni = sn[i];
 
 			double ri = ai / Dataset.maxScale;
 			double rj = bi / Dataset.maxScale;
@@ -989,46 +1258,32 @@ public class SimUtils {
 		if (a == null || b == null || a.size() < 1 || b.size() < 1 || a.size() != b.size())
 			return Double.NaN;
 
-		double weight[][] = { { 1.00, 0.75, 0.50, 0.25, 0.00 }, { 0.75, 1.00, 0.75, 0.50, 0.25 },
-				{ 0.50, 0.75, 1.00, 0.75, 0.50 }, { 0.25, 0.50, 0.75, 1.00, 0.75 }, { 0.00, 0.25, 0.50, 0.75, 1.00 } };
-		double data[][] = { { 0.0, 0.0, 0.0, 0.0, 0.0 }, { 0.0, 0.0, 0.0, 0.0, 0.0 }, { 0.0, 0.0, 0.0, 0.0, 0.0 },
-				{ 0.0, 0.0, 0.0, 0.0, 0.0 }, { 0.0, 0.0, 0.0, 0.0, 0.0 } };
+		return kappaSim(Lists.toArray(a), Lists.toArray(b), a.size());
+	}
 
-		RealMatrix weightMatrix = new Array2DRowRealMatrix(weight);
-		RealMatrix observationMatrix = new Array2DRowRealMatrix(data);
-		RealMatrix expectationMatrix = new Array2DRowRealMatrix(data);
+	/**
+	 * Same as {@code kappaSim(List, List)} over the first n ratings (on a 1-5 scale).
+	 */
+	public static double kappaSim(double[] a, double[] b, int n) {
+		if (n < 1)
+			return Double.NaN;
+
+		double[][] weight = KAPPA_WEIGHTS;
+		double[][] observations = new double[5][5];
 
 		int R[] = new int[5];
 		int C[] = new int[5];
-		int size = a.size();
-		for (int i = 0; i < size; i++) {
-			int aRating = a.get(i).intValue();
-			int bRating = b.get(i).intValue();
+		for (int i = 0; i < n; i++) {
+			int idx = (int) a[i] - 1;
+			int jdx = (int) b[i] - 1;
 
-			int idx = aRating - 1;
-			int jdx = bRating - 1;
-			double count = observationMatrix.getRow(idx)[jdx];
-
-			count += 1;
-			observationMatrix.setEntry(idx, jdx, count);
-		}
-
-		for (int i = 0; i < 5; i++) {
-			R[i] = 0;
-			for (int j = 0; j < 5; j++)
-				R[i] += (int) observationMatrix.getRow(i)[j];
-		}
-
-		for (int j = 0; j < 5; j++) {
-			C[j] = 0;
-			for (int i = 0; i < 5; i++)
-				C[j] += (int) observationMatrix.getColumn(j)[i];
+			observations[idx][jdx] += 1;
 		}
 
 		for (int i = 0; i < 5; i++) {
 			for (int j = 0; j < 5; j++) {
-				double value = R[i] * C[j] / (size + 0.0);
-				expectationMatrix.setEntry(i, j, value);
+				R[i] += (int) observations[i][j];
+				C[j] += (int) observations[i][j];
 			}
 		}
 
@@ -1036,12 +1291,13 @@ public class SimUtils {
 		double observation = 0.0, expectation = 0.0;
 		for (int i = 0; i < 5; i++) {
 			for (int j = 0; j < 5; j++) {
-				observation += weightMatrix.getRow(i)[j] * observationMatrix.getRow(i)[j];
-				expectation += weightMatrix.getRow(i)[j] * expectationMatrix.getRow(i)[j];
+				double value = R[i] * C[j] / (n + 0.0);
+				observation += weight[i][j] * observations[i][j];
+				expectation += weight[i][j] * value;
 			}
 		}
 
-		similarity = (observation - expectation) / (size - expectation);
+		similarity = (observation - expectation) / (n - expectation);
 
 		return similarity;
 	}
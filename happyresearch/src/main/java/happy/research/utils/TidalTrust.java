@@ -2,11 +2,13 @@ package happy.research.utils;
 
 import happy.research.cf.TrustRating;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 
 public class TidalTrust
 {
@@ -141,6 +143,108 @@ public class TidalTrust
 		return trustScores;
 	}
 
+	/**
+	 * TidalTrust algorithm to infer trust, by a breadth-first search from the source: a node is at the depth of its
+	 * shortest path from the source, and its path flow and trust score are only derived from its trustors at the
+	 * previous depth. Unlike {@code runAlgorithm}, whose levels depend on the order of the edges, the results only
+	 * depend on the graph; enabled by {@code TidalTrust.breadth.first}.
+	 * 
+	 * @param userTrusteesMap
+	 *            {user, {trustees}} map
+	 * @param userTrustorsMap
+	 *            {user, {trustors}} map
+	 * @param userRatingsMap
+	 *            {user, {trust ratings}} map
+	 * @param source
+	 *            source user
+	 * @param maxDepth
+	 *            maximum length of the searching path
+	 * @return {trusted neighbour, trust score} map, or null if the source has no trustees
+	 */
+	@SuppressWarnings({ "unchecked" })
+	public static Map<String, Double> runBreadthFirst(Map<String, Map<String, Double>> userTrusteesMap,
+			Map<String, Map<String, Double>> userTrustorsMap, Map<String, List<TrustRating>> userRatingsMap,
+			String source, int maxDepth)
+	{
+		Map<String, Double> trustees = userTrusteesMap.get(source);
+		if (trustees == null) return null; // no out-link from source node
+
+		/* {node - depth} of the visited nodes */
+		Map<String, Integer> depths = new HashMap<>();
+		depths.put(source, 0);
+
+		List<String>[] data = new ArrayList[maxDepth + 1];
+		for (int i = 0; i < data.length; i++)
+			data[i] = new ArrayList<>();
+		data[0].add(source);
+
+		Queue<String> toVisitNodes = new ArrayDeque<>();
+		toVisitNodes.add(source);
+		while (!toVisitNodes.isEmpty())
+		{
+			String node = toVisitNodes.poll();
+			int depth = depths.get(node);
+			if (depth == maxDepth) continue;
+
+			trustees = userTrusteesMap.get(node);
+			if (trustees == null) continue;
+
+			for (String tee : trustees.keySet())
+			{
+				if (depths.containsKey(tee)) continue;
+
+				depths.put(tee, depth + 1);
+				data[depth + 1].add(tee);
+				toVisitNodes.add(tee);
+			}
+		}
+
+		Map<String, Double> pathFlowMap = new HashMap<>();
+		pathFlowMap.put(source, Double.MAX_VALUE);
+		Map<String, Double> trustScores = new HashMap<>();
+		trustScores.put(source, 1.0);
+		for (int depth = 1; depth <= maxDepth; depth++)
+		{
+			for (String sink : data[depth])
+			{
+				Map<String, Double> trustors = userTrustorsMap.get(sink);
+				if (trustors == null) continue;
+				List<TrustRating> ratings = userRatingsMap.get(sink);
+
+				/* the strongest path flow from the trustors at the previous depth */
+				Double threshold = null;
+				for (String tor : trustors.keySet())
+				{
+					if (depths.get(tor) == null || depths.get(tor) != depth - 1) continue;
+					if (!pathFlowMap.containsKey(tor)) continue;
+
+					double flow = Math.min(pathFlowMap.get(tor), getTrustRating(ratings, tor, sink));
+					threshold = Math.max(flow, threshold == null ? 0 : threshold);
+				}
+				if (threshold == null) continue;
+				pathFlowMap.put(sink, threshold);
+
+				double numerator = 0;
+				double denominator = 0;
+				for (String tor : trustors.keySet())
+				{
+					if (!trustScores.containsKey(tor) || depths.get(tor) != depth - 1) continue;
+
+					double rating = getTrustRating(ratings, tor, sink);
+					if (pathFlowMap.get(tor) >= threshold && rating >= 0)
+					{
+						numerator += trustScores.get(tor) * rating;
+						denominator += trustScores.get(tor);
+					}
+				}
+				if (denominator > 0) trustScores.put(sink, numerator / denominator);
+			}
+		}
+
+		trustScores.remove(source);
+		return trustScores;
+	}
+
 	private static double getTrustRating(List<TrustRating> ratings, String source, String sink)
 	{
 		if (ratings != null)
@@ -0,0 +1,471 @@
+package happy.research.utils;
+
+import happy.research.cf.TrustRating;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * TidalTrust over a {@code TrustGraph}, with the same results as {@code TidalTrust.runAlgorithm} (bit for bit). The
+ * trust ratings of the in-edges are looked up once when the engine is built, and the visited and to-visit lists are
+ * replaced by epoch-stamped int arrays.
+ *
+ * <p>
+ * The search keeps the visiting order of {@code TidalTrust}: the trustees of the source are visited in reverse order
+ * (they are pushed on a stack), and the next levels in their order of discovery. Nodes may be recorded several times
+ * in a level, and a level is only entered if the last node of the previous one was not visited before.
+ * </p>
+ *
+ * <p>
+ * With {@code setBreadthFirst}, the search is breadth-first instead, as {@code TidalTrust.runBreadthFirst}: a node is
+ * at the depth of its shortest path from the source, and its path flow and trust score are only derived from its
+ * trustors at the previous depth.
+ * </p>
+ *
+ * <p>
+ * An engine keeps its own scratch buffers sized to the graph; use one engine per thread, built by {@code copy} over
+ * the same graph.
+ * </p>
+ *
+ * @author guoguibing
+ */
+public class TidalTrustEngine
+{
+	private TrustGraph<String>	graph;
+	private boolean[]			hasTrustees;
+	private boolean				breadthFirst;
+
+	/* trustors of node v: {inIdx[inPtr[v]], ..., inIdx[inPtr[v + 1] - 1]}, with trust ratings in inWeights */
+	private int[]				inPtr;
+	private int[]				inIdx;
+	private double[]			inWeights;
+
+	/* visited[u] == epoch iff u is visited by the search; temp[u] == tempEpoch iff u is in the next level */
+	private int[]				visited;
+	private int[]				temp;
+	private int[]				scored;
+	private int					epoch		= 0;
+	private int					tempEpoch	= 0;
+
+	private int[]				current;
+	private int[]				next;
+
+	/* nodes of all the levels as searched: level d is {data[dataPtr[d]], ..., data[dataPtr[d + 1] - 1]} */
+	private int[]				data;
+	private int[]				dataPtr;
+	/* breadth-first search only: depths[u] of the nodes with visited[u] == epoch */
+	private int[]				depths;
+
+	private double[]			pathFlows;
+	private int[]				flowMark;
+	private double[]			scores;
+
+	private int[]				resultNodes;
+	private double[]			resultScores;
+
+	private TidalTrustEngine(TidalTrustEngine engine)
+	{
+		graph = engine.graph;
+		hasTrustees = engine.hasTrustees;
+		inPtr = engine.inPtr;
+		inIdx = engine.inIdx;
+		inWeights = engine.inWeights;
+		breadthFirst = engine.breadthFirst;
+
+		allocate();
+	}
+
+	/**
+	 * @param userTrusteesMap
+	 *            {trustor - {trustees}}
+	 * @param userTrustorsMap
+	 *            {trustee - {trustors}}
+	 * @param userRatingsMap
+	 *            {trustee - trust ratings on the trustee}
+	 */
+	public TidalTrustEngine(Map<String, Map<String, Double>> userTrusteesMap,
+			Map<String, Map<String, Double>> userTrustorsMap, Map<String, List<TrustRating>> userRatingsMap)
+	{
+		graph = TrustGraph.of(userTrusteesMap);
+
+		int n = graph.size();
+		hasTrustees = new boolean[n];
+		for (Entry<String, Map<String, Double>> en : userTrusteesMap.entrySet())
+			if (en.getValue() != null) hasTrustees[graph.node(en.getKey())] = true;
+
+		/* in-edges from the trustors in the graph, i.e., those that can be visited */
+		inPtr = new int[n + 1];
+		int numEdges = 0;
+		for (int v = 0; v < n; v++)
+		{
+			Map<String, Double> tors = userTrustorsMap.get(graph.key(v));
+			if (tors == null) continue;
+			for (String tor : tors.keySet())
+				if (graph.node(tor) >= 0) numEdges++;
+		}
+
+		inIdx = new int[numEdges];
+		inWeights = new double[numEdges];
+		int k = 0;
+		for (int v = 0; v < n; v++)
+		{
+			inPtr[v] = k;
+			String sink = graph.key(v);
+			Map<String, Double> tors = userTrustorsMap.get(sink);
+			if (tors == null) continue;
+
+			Map<String, Double> ratings = firstRatings(userRatingsMap.get(sink), sink);
+			for (String tor : tors.keySet())
+			{
+				int u = graph.node(tor);
+				if (u < 0) continue;
+
+				Double rating = ratings.get(tor);
+				inIdx[k] = u;
+				inWeights[k] = rating == null ? Double.NaN : rating;
+				k++;
+			}
+		}
+		inPtr[n] = k;
+
+		allocate();
+	}
+
+	/**
+	 * @return {trustor - the first trust rating of the trustor on the sink}, as found by a scan of the ratings
+	 */
+	private static Map<String, Double> firstRatings(List<TrustRating> ratings, String sink)
+	{
+		Map<String, Double> first = new HashMap<>();
+		if (ratings == null) return first;
+
+		for (TrustRating r : ratings)
+		{
+			if (r.getTrustee().equals(sink) && !first.containsKey(r.getTrustor()))
+				first.put(r.getTrustor(), r.getRating());
+		}
+
+		return first;
+	}
+
+	private void allocate()
+	{
+		int n = graph.size();
+		visited = new int[n];
+		temp = new int[n];
+		scored = new int[n];
+		current = new int[Math.max(16, n)];
+		next = new int[Math.max(16, n)];
+		data = new int[Math.max(16, n)];
+		dataPtr = new int[2];
+		depths = new int[n];
+		pathFlows = new double[n];
+		flowMark = new int[n];
+		scores = new double[n];
+		resultNodes = new int[n];
+		resultScores = new double[n];
+	}
+
+	/**
+	 * @param breadthFirst
+	 *            true to search breadth-first as {@code TidalTrust.runBreadthFirst}, false (by default) to search as
+	 *            {@code TidalTrust.runAlgorithm}
+	 */
+	public void setBreadthFirst(boolean breadthFirst)
+	{
+		this.breadthFirst = breadthFirst;
+	}
+
+	/**
+	 * @return a new engine sharing the graph, trust ratings and search of this one, with its own scratch buffers
+	 */
+	public TidalTrustEngine copy()
+	{
+		return new TidalTrustEngine(this);
+	}
+
+	/**
+	 * @return {trusted neighbour - trust score}, or null if the source has no trustees, the same as
+	 *         {@code TidalTrust.runAlgorithm} (or {@code runBreadthFirst})
+	 */
+	public Map<String, Double> runAlgorithm(String source, int maxDepth)
+	{
+		int s = graph.node(source);
+		if (s < 0 || !hasTrustees[s]) return null;
+
+		int num = run(s, maxDepth);
+		Map<String, Double> trustScores = new HashMap<>();
+		for (int k = 0; k < num; k++)
+			trustScores.put(graph.key(resultNodes[k]), resultScores[k]);
+
+		return trustScores;
+	}
+
+	/**
+	 * Infer trust from the source node; the results are then given by {@code getResultNodes} and
+	 * {@code getResultScores}.
+	 *
+	 * @return number of the trusted neighbours
+	 */
+	public int run(int source, int maxDepth)
+	{
+		if (epoch == Integer.MAX_VALUE)
+		{
+			Arrays.fill(visited, 0);
+			Arrays.fill(scored, 0);
+			Arrays.fill(flowMark, 0);
+			epoch = 0;
+		}
+		epoch++;
+		if (dataPtr.length < maxDepth + 2) dataPtr = new int[maxDepth + 2];
+
+		return breadthFirst ? runBreadthFirst(source, maxDepth) : runStack(source, maxDepth);
+	}
+
+	/**
+	 * Search in the visiting order of {@code TidalTrust.runAlgorithm}.
+	 */
+	private int runStack(int source, int maxDepth)
+	{
+		int[] outPtr = graph.getOutPtr();
+		int[] outIdx = graph.getOutIdx();
+
+		/* the trustees of the source, as popped from a stack */
+		int numCurrent = 0;
+		for (int e = outPtr[source + 1] - 1; e >= outPtr[source]; e--)
+			current[numCurrent++] = outIdx[e];
+
+		visited[source] = epoch;
+		pathFlows[source] = Double.MAX_VALUE;
+		flowMark[source] = epoch;
+		newLevel();
+
+		int depth = 1, pos = 0, numNext = 0, end = 0;
+		dataPtr[0] = 0;
+		data[end++] = source;
+		dataPtr[1] = end;
+
+		/* Step 1: search the levels and their path flows */
+		while (pos < numCurrent && depth <= maxDepth)
+		{
+			int node = current[pos++];
+			if (end == data.length) data = Arrays.copyOf(data, data.length * 2);
+			data[end++] = node;
+
+			if (visited[node] != epoch)
+			{
+				visited[node] = epoch;
+
+				for (int e = outPtr[node]; e < outPtr[node + 1]; e++)
+				{
+					int tee = outIdx[e];
+					if (temp[tee] != tempEpoch && visited[tee] != epoch)
+					{
+						temp[tee] = tempEpoch;
+						next[numNext++] = tee;
+					}
+				}
+
+				for (int e = inPtr[node]; e < inPtr[node + 1]; e++)
+				{
+					int tor = inIdx[e];
+					if (visited[tor] != epoch) continue;
+
+					double flow = Math.min(pathFlows[tor], inWeights[e]);
+					double flow2 = flowMark[node] == epoch ? pathFlows[node] : 0;
+					pathFlows[node] = Math.max(flow, flow2);
+					flowMark[node] = epoch;
+				}
+
+				if (pos == numCurrent && numNext > 0)
+				{
+					int[] swap = current;
+					current = next;
+					next = swap;
+					numCurrent = numNext;
+					numNext = 0;
+					pos = 0;
+					newLevel();
+
+					dataPtr[++depth] = end;
+				}
+			}
+		}
+		for (int d = depth + 1; d <= maxDepth + 1; d++)
+			dataPtr[d] = end;
+
+		/* Step 2: trust scores from the trustors with enough path flows */
+		int numResults = 0;
+		scored[source] = epoch;
+		scores[source] = 1.0;
+		for (int d = 1; d <= maxDepth; d++)
+		{
+			for (int p = dataPtr[d]; p < dataPtr[d + 1]; p++)
+			{
+				int sink = data[p];
+				if (flowMark[sink] != epoch) continue;
+
+				double threshold = pathFlows[sink];
+				double numerator = 0;
+				double denominator = 0;
+				for (int e = inPtr[sink]; e < inPtr[sink + 1]; e++)
+				{
+					int tor = inIdx[e];
+					if (scored[tor] != epoch) continue;
+
+					double rating = inWeights[e];
+					if (pathFlows[tor] >= threshold && rating >= 0)
+					{
+						numerator += scores[tor] * rating;
+						denominator += scores[tor];
+					}
+				}
+
+				if (denominator > 0)
+				{
+					scores[sink] = numerator / denominator;
+					if (scored[sink] != epoch)
+					{
+						scored[sink] = epoch;
+						resultNodes[numResults++] = sink;
+					}
+				}
+			}
+		}
+
+		for (int k = 0; k < numResults; k++)
+			resultScores[k] = scores[resultNodes[k]];
+
+		return numResults;
+	}
+
+	/**
+	 * Breadth-first search, with the levels in a row in {@code data}.
+	 */
+	private int runBreadthFirst(int source, int maxDepth)
+	{
+		int[] outPtr = graph.getOutPtr();
+		int[] outIdx = graph.getOutIdx();
+
+		/* Step 1: breadth-first search, expanding level d - 1 into level d */
+		int head = 0, tail = 0;
+		visited[source] = epoch;
+		depths[source] = 0;
+		data[tail++] = source;
+		dataPtr[0] = 0;
+		dataPtr[1] = tail;
+		for (int d = 1; d <= maxDepth; d++)
+		{
+			for (; head < dataPtr[d]; head++)
+			{
+				int node = data[head];
+				for (int e = outPtr[node]; e < outPtr[node + 1]; e++)
+				{
+					int tee = outIdx[e];
+					if (visited[tee] == epoch) continue;
+
+					visited[tee] = epoch;
+					depths[tee] = d;
+					data[tail++] = tee;
+				}
+			}
+			dataPtr[d + 1] = tail;
+		}
+
+		/* Step 2: path flows and trust scores level by level, from the trustors at the previous level */
+		flowMark[source] = epoch;
+		pathFlows[source] = Double.MAX_VALUE;
+		scored[source] = epoch;
+		scores[source] = 1.0;
+
+		int numResults = 0;
+		for (int p = dataPtr[1]; p < tail; p++)
+		{
+			int sink = data[p];
+			int prev = depths[sink] - 1;
+
+			boolean hasFlow = false;
+			double threshold = 0;
+			for (int e = inPtr[sink]; e < inPtr[sink + 1]; e++)
+			{
+				int tor = inIdx[e];
+				if (flowMark[tor] != epoch || depths[tor] != prev) continue;
+
+				threshold = Math.max(Math.min(pathFlows[tor], inWeights[e]), hasFlow ? threshold : 0);
+				hasFlow = true;
+			}
+			if (!hasFlow) continue;
+
+			flowMark[sink] = epoch;
+			pathFlows[sink] = threshold;
+
+			double numerator = 0;
+			double denominator = 0;
+			for (int e = inPtr[sink]; e < inPtr[sink + 1]; e++)
+			{
+				int tor = inIdx[e];
+				if (scored[tor] != epoch || depths[tor] != prev) continue;
+
+				double rating = inWeights[e];
+				if (pathFlows[tor] >= threshold && rating >= 0)
+				{
+					numerator += scores[tor] * rating;
+					denominator += scores[tor];
+				}
+			}
+
+			if (denominator > 0)
+			{
+				scored[sink] = epoch;
+				scores[sink] = numerator / denominator;
+				resultNodes[numResults] = sink;
+				resultScores[numResults++] = scores[sink];
+			}
+		}
+
+		return numResults;
+	}
+
+	private void newLevel()
+	{
+		if (tempEpoch == Integer.MAX_VALUE)
+		{
+			Arrays.fill(temp, 0);
+			tempEpoch = 0;
+		}
+		tempEpoch++;
+	}
+
+	/**
+	 * @return true if the node has an entry of trustees, i.e., {@code runAlgorithm} does not return null
+	 */
+	public boolean hasTrustees(int node)
+	{
+		return hasTrustees[node];
+	}
+
+	/**
+	 * @return nodes of the trusted neighbours found by the last run, in the first numResults positions
+	 */
+	public int[] getResultNodes()
+	{
+		return resultNodes;
+	}
+
+	/**
+	 * @return trust scores of the trusted neighbours found by the last run, in the first numResults positions
+	 */
+	public double[] getResultScores()
+	{
+		return resultScores;
+	}
+
+	public TrustGraph<String> getGraph()
+	{
+		return graph;
+	}
+
+}
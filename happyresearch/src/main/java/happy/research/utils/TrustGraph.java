@@ -0,0 +1,137 @@
+package happy.research.utils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Immutable directed trust graph in compressed sparse rows: the trustees of node u are {@code outIdx[outPtr[u]],
+ * ..., outIdx[outPtr[u + 1] - 1]} with trust values in {@code outWeights}. Nodes are numbered from 0 in the order of
+ * first occurrence, and the trustees of a node keep the iteration order of its map, so that traversals visit nodes in
+ * the same order as over the maps.
+ *
+ * <p>
+ * The graph can be shared by any number of threads.
+ * </p>
+ *
+ * @author guoguibing
+ */
+public class TrustGraph<K>
+{
+	private List<K>				keys;
+	private Map<K, Integer>		index;
+
+	private int[]				outPtr;
+	private int[]				outIdx;
+	private double[]			outWeights;
+
+	private TrustGraph(List<K> keys, Map<K, Integer> index, int[] outPtr, int[] outIdx, double[] outWeights)
+	{
+		this.keys = keys;
+		this.index = index;
+		this.outPtr = outPtr;
+		this.outIdx = outIdx;
+		this.outWeights = outWeights;
+	}
+
+	/**
+	 * @param trustees
+	 *            {trustor - {trustee - trust value}}
+	 */
+	public static <K> TrustGraph<K> of(Map<K, Map<K, Double>> trustees)
+	{
+		List<K> keys = new ArrayList<>(trustees.size());
+		Map<K, Integer> index = new HashMap<>(trustees.size() * 2);
+
+		int numEdges = 0;
+		for (Entry<K, Map<K, Double>> en : trustees.entrySet())
+		{
+			id(en.getKey(), keys, index);
+			if (en.getValue() != null) numEdges += en.getValue().size();
+		}
+		for (Map<K, Double> tns : trustees.values())
+		{
+			if (tns == null) continue;
+			for (K tn : tns.keySet())
+				id(tn, keys, index);
+		}
+
+		int numNodes = keys.size();
+		int[] outPtr = new int[numNodes + 1];
+		int[] outIdx = new int[numEdges];
+		double[] outWeights = new double[numEdges];
+
+		int k = 0;
+		for (int u = 0; u < numNodes; u++)
+		{
+			outPtr[u] = k;
+			Map<K, Double> tns = trustees.get(keys.get(u));
+			if (tns == null) continue;
+
+			for (Entry<K, Double> en : tns.entrySet())
+			{
+				outIdx[k] = index.get(en.getKey());
+				outWeights[k] = en.getValue();
+				k++;
+			}
+		}
+		outPtr[numNodes] = k;
+
+		return new TrustGraph<>(keys, index, outPtr, outIdx, outWeights);
+	}
+
+	private static <K> int id(K key, List<K> keys, Map<K, Integer> index)
+	{
+		Integer id = index.get(key);
+		if (id == null)
+		{
+			id = keys.size();
+			index.put(key, id);
+			keys.add(key);
+		}
+
+		return id;
+	}
+
+	public int size()
+	{
+		return keys.size();
+	}
+
+	public int numEdges()
+	{
+		return outIdx.length;
+	}
+
+	/**
+	 * @return node of the key, -1 if the key is not in the graph
+	 */
+	public int node(K key)
+	{
+		Integer id = index.get(key);
+		return id == null ? -1 : id;
+	}
+
+	public K key(int node)
+	{
+		return keys.get(node);
+	}
+
+	public int[] getOutPtr()
+	{
+		return outPtr;
+	}
+
+	public int[] getOutIdx()
+	{
+		return outIdx;
+	}
+
+	public double[] getOutWeights()
+	{
+		return outWeights;
+	}
+
+}
@@ -150,6 +150,18 @@ public class TrustUtils
 		return sum / count;
 	}
 
+	/**
+	 * Same as {@code kNRTrust(List, List)} over the first n co-ratings of the arrays.
+	 */
+	public static double kNRTrust(double[] as, double[] bs, int n)
+	{
+		double sum = 0.0;
+		for (int i = 0; i < n; i++)
+			sum += 1 - Math.abs(as[i] - bs[i]) / Dataset.maxScale;
+
+		return sum / n;
+	}
+
 	private static double denominator(final double r, final double s) throws Exception
 	{
 		TrapezoidIntegrator integrator = new TrapezoidIntegrator();